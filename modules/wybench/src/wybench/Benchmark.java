@@ -0,0 +1,120 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybench;
+
+/**
+ * <p>
+ * A single benchmark, which measures the time taken to repeatedly perform
+ * some operation. The harness calls <code>setup()</code> once, and then
+ * repeatedly calls <code>prepare()</code> followed by <code>run()</code>.
+ * Only the time spent in <code>run()</code> is measured. This allows
+ * benchmarks of operations which modify their input (e.g. transforms, which
+ * update a WyIL file in place) to reconstruct that input without it being
+ * included in the measurement.
+ * </p>
+ *
+ * <p>
+ * Each call to <code>run()</code> may perform several operations (e.g. one for
+ * each file in the corpus), in which case <code>operations()</code> should
+ * return how many. The harness reports the average time per operation. The
+ * result of every operation must contribute to the value returned by
+ * <code>run()</code>, which the harness consumes. Otherwise, the JVM is free to
+ * eliminate operations whose results are discarded, and what remains is
+ * measured instead.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public abstract class Benchmark {
+	private final String name;
+
+	public Benchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Get the name of this benchmark, which is used to select benchmarks from
+	 * the command-line and to report results.
+	 *
+	 * @return
+	 */
+	public String name() {
+		return name;
+	}
+
+	/**
+	 * Perform any one-off initialisation required by this benchmark.
+	 *
+	 * @param corpus
+	 *            --- corpus of Whiley programs which benchmarks may use as
+	 *            input.
+	 * @throws Exception
+	 */
+	public void setup(Corpus corpus) throws Exception {
+	}
+
+	/**
+	 * Prepare the input for the next call to <code>run()</code>. The time taken
+	 * by this method is not measured.
+	 *
+	 * @throws Exception
+	 */
+	public void prepare() throws Exception {
+	}
+
+	/**
+	 * Perform the operation(s) being measured.
+	 *
+	 * @return the result of the operation(s), such as the last value computed
+	 *         or a collection of every value computed.
+	 * @throws Exception
+	 */
+	public abstract Object run() throws Exception;
+
+	/**
+	 * Determine whether <code>run()</code> can be called repeatedly after a
+	 * single call to <code>prepare()</code>. If so, the harness may time a
+	 * batch of calls for each sample, which is necessary when a single call
+	 * takes too little time to be measured accurately. Benchmarks which
+	 * consume their input (e.g. by updating it in place) must return false.
+	 *
+	 * @return
+	 */
+	public boolean repeatable() {
+		return true;
+	}
+
+	/**
+	 * Get the number of operations performed by each call to
+	 * <code>run()</code>.
+	 *
+	 * @return
+	 */
+	public int operations() {
+		return 1;
+	}
+}
@@ -0,0 +1,340 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.*;
+
+import wybs.lang.Transform;
+import wyc.builder.GlobalResolver;
+import wyc.lang.WhileyFile;
+import wyc.stages.FlowTyping;
+import wyc.stages.WhileyFilter;
+import wyc.stages.WhileyLexer;
+import wyc.stages.WhileyParser;
+import wyc.stages.WhileyLexer.Token;
+import wycs.core.WycsFile;
+import wycs.transforms.VerificationCheck;
+import wyil.io.WyilFileReader;
+import wyil.io.WyilFileWriter;
+import wyil.lang.WyilFile;
+
+/**
+ * Benchmarks for the individual stages of the compiler. Every stage is run
+ * over each program in the corpus, with the input to each stage being produced
+ * by the stages before it.
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class CompilerBenchmarks {
+
+	/**
+	 * Construct the benchmarks for all compiler stages, including one for each
+	 * transform in the standard pipeline.
+	 *
+	 * @return
+	 */
+	public static List<Benchmark> create() {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Lexer());
+		benchmarks.add(new Parser());
+		benchmarks.add(new Typing());
+		for (int i = 0; i != Corpus.PIPELINE.size(); ++i) {
+			benchmarks.add(new Stage(i));
+		}
+		benchmarks.add(new WyilRead());
+		benchmarks.add(new WyilWrite());
+		benchmarks.add(new Verification());
+		return benchmarks;
+	}
+
+	/**
+	 * Split the source of a given program into tokens, and filter out those
+	 * which the parser does not expect (e.g. whitespace).
+	 *
+	 * @param unit
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<Token> tokens(Corpus.Unit unit) throws Exception {
+		List<Token> tokens = new WhileyLexer(new StringReader(unit.source()))
+				.scan();
+		return new WhileyFilter().filter(tokens);
+	}
+
+	/**
+	 * Measures the time taken to split a source file into tokens.
+	 */
+	private static final class Lexer extends Benchmark {
+		private List<Corpus.Unit> units;
+
+		public Lexer() {
+			super("compiler.lexer");
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			units = corpus.units();
+		}
+
+		public Object run() throws Exception {
+			ArrayList<List<Token>> result = new ArrayList<List<Token>>();
+			for (Corpus.Unit unit : units) {
+				result.add(tokens(unit));
+			}
+			return result;
+		}
+
+		public int operations() {
+			return units.size();
+		}
+	}
+
+	/**
+	 * Measures the time taken to parse a list of tokens into a source file.
+	 */
+	private static final class Parser extends Benchmark {
+		private List<Corpus.Unit> units;
+		private ArrayList<List<Token>> tokens = new ArrayList<List<Token>>();
+
+		public Parser() {
+			super("compiler.parser");
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			units = corpus.units();
+			for (Corpus.Unit unit : units) {
+				tokens.add(tokens(unit));
+			}
+		}
+
+		public Object run() throws Exception {
+			ArrayList<WhileyFile> result = new ArrayList<WhileyFile>();
+			for (int i = 0; i != units.size(); ++i) {
+				result.add(new WhileyParser(units.get(i).filename(), tokens
+						.get(i)).read());
+			}
+			return result;
+		}
+
+		public int operations() {
+			return units.size();
+		}
+	}
+
+	/**
+	 * Measures the time taken to propagate types through a source file. Since
+	 * this updates the source file in place, it is parsed afresh before each
+	 * iteration.
+	 */
+	private static final class Typing extends Benchmark {
+		private List<Corpus.Unit> units;
+		private ArrayList<WhileyFile> files = new ArrayList<WhileyFile>();
+
+		public Typing() {
+			super("compiler.typing");
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			units = corpus.units();
+		}
+
+		public void prepare() throws Exception {
+			files.clear();
+			for (Corpus.Unit unit : units) {
+				files.add(unit.parse());
+			}
+		}
+
+		public Object run() throws Exception {
+			for (int i = 0; i != units.size(); ++i) {
+				GlobalResolver resolver = new GlobalResolver(units.get(i)
+						.builder());
+				new FlowTyping(resolver).propagate(files.get(i));
+			}
+			return files;
+		}
+
+		public boolean repeatable() {
+			return false;
+		}
+
+		public int operations() {
+			return units.size();
+		}
+	}
+
+	/**
+	 * Measures the time taken to apply a single transform from the standard
+	 * pipeline. Before each iteration, a fresh copy of each WyIL file is read,
+	 * and the transforms preceding this one are applied to it.
+	 */
+	private static final class Stage extends Benchmark {
+		private final int index;
+		private List<Corpus.Unit> units;
+		private ArrayList<WyilFile> files = new ArrayList<WyilFile>();
+		private ArrayList<Transform<WyilFile>> transforms = new ArrayList<Transform<WyilFile>>();
+
+		public Stage(int index) {
+			super("compiler."
+					+ Corpus.PIPELINE.get(index).clazz.getSimpleName()
+							.toLowerCase());
+			this.index = index;
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			units = corpus.units();
+		}
+
+		public void prepare() throws Exception {
+			files.clear();
+			transforms.clear();
+			for (Corpus.Unit unit : units) {
+				WyilFile wyil = unit.wyil();
+				List<Transform<WyilFile>> pipeline = unit.pipeline();
+				for (int i = 0; i != index; ++i) {
+					pipeline.get(i).apply(wyil);
+				}
+				files.add(wyil);
+				transforms.add(pipeline.get(index));
+			}
+		}
+
+		public Object run() throws Exception {
+			for (int i = 0; i != files.size(); ++i) {
+				transforms.get(i).apply(files.get(i));
+			}
+			return files;
+		}
+
+		public boolean repeatable() {
+			return false;
+		}
+
+		public int operations() {
+			return units.size();
+		}
+	}
+
+	/**
+	 * Measures the time taken to read a WyIL file from its binary form.
+	 */
+	private static final class WyilRead extends Benchmark {
+		private List<Corpus.Unit> units;
+
+		public WyilRead() {
+			super("compiler.wyil-read");
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			units = corpus.units();
+		}
+
+		public Object run() throws Exception {
+			ArrayList<WyilFile> result = new ArrayList<WyilFile>();
+			for (Corpus.Unit unit : units) {
+				result.add(new WyilFileReader(new ByteArrayInputStream(unit
+						.wyilBytes())).read());
+			}
+			return result;
+		}
+
+		public int operations() {
+			return units.size();
+		}
+	}
+
+	/**
+	 * Measures the time taken to write a WyIL file in its binary form.
+	 */
+	private static final class WyilWrite extends Benchmark {
+		private ArrayList<WyilFile> files = new ArrayList<WyilFile>();
+		private ByteArrayOutputStream bout = new ByteArrayOutputStream();
+
+		public WyilWrite() {
+			super("compiler.wyil-write");
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			for (Corpus.Unit unit : corpus.units()) {
+				files.add(unit.wyil());
+			}
+		}
+
+		public Object run() throws Exception {
+			long size = 0;
+			for (WyilFile file : files) {
+				bout.reset();
+				new WyilFileWriter(bout).write(file);
+				size += bout.size();
+			}
+			return size;
+		}
+
+		public int operations() {
+			return files.size();
+		}
+	}
+
+	/**
+	 * Measures the time taken to discharge the verification conditions
+	 * generated for a program using the automated theorem prover. Conditions
+	 * which cannot be discharged are still measured, since the prover will
+	 * have done the same amount of work for them.
+	 */
+	private static final class Verification extends Benchmark {
+		private List<WycsFile> conditions;
+		private VerificationCheck check;
+
+		public Verification() {
+			super("compiler.verification");
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			conditions = corpus.verificationConditions();
+			check = new VerificationCheck(corpus.wycsBuilder());
+		}
+
+		public Object run() {
+			int failures = 0;
+			for (WycsFile wf : conditions) {
+				try {
+					check.apply(wf);
+				} catch (VerificationCheck.AssertionFailure e) {
+					// this condition could not be discharged
+					failures++;
+				}
+			}
+			return failures;
+		}
+
+		public int operations() {
+			return conditions.size();
+		}
+	}
+}
@@ -0,0 +1,369 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybench;
+
+import java.io.*;
+import java.util.*;
+
+import wybs.lang.Content;
+import wybs.lang.Path;
+import wybs.lang.Pipeline;
+import wybs.lang.Transform;
+import wybs.util.DirectoryRoot;
+import wybs.util.JarFileRoot;
+import wybs.util.Pair;
+import wybs.util.StandardProject;
+import wybs.util.VirtualRoot;
+import wyc.builder.WhileyBuilder;
+import wyc.lang.WhileyFile;
+import wyc.util.WycBuildTask;
+import wycs.builders.Wyal2WycsBuilder;
+import wycs.core.WycsFile;
+import wycs.syntax.WyalFile;
+import wycs.transforms.ConstraintInline;
+import wyil.builders.Wyil2WyalBuilder;
+import wyil.io.WyilFileReader;
+import wyil.io.WyilFileWriter;
+import wyil.lang.WyilFile;
+
+/**
+ * <p>
+ * A corpus of Whiley programs used as input for benchmarks. Typically, this is
+ * the <code>tests/base/valid</code> directory. When loaded, every program in
+ * the corpus is compiled once, so that benchmarks of later compiler stages have
+ * suitable input. Programs which fail to compile are excluded from the corpus.
+ * Since this is expensive, the corpus is only loaded when first used (i.e.
+ * not at all if only benchmarks which do not use it are run).
+ * </p>
+ *
+ * <p>
+ * Each program is compiled by its own <code>WhileyBuilder</code>, which is
+ * retained so that stages needing one (e.g. flow typing, which resolves names
+ * through it) can be benchmarked in isolation.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class Corpus {
+
+	/**
+	 * The pipeline of transforms applied to every WyIL file.
+	 */
+	public static final List<Pipeline.Template> PIPELINE = WycBuildTask.defaultPipeline;
+
+	private final Content.Registry registry = new WycBuildTask.Registry();
+	private final File dir;
+	private final List<File> bootpath;
+	private final int limit;
+	private StandardProject project;
+	private final VirtualRoot wyilRoot = new VirtualRoot(registry);
+	private final VirtualRoot wyalRoot = new VirtualRoot(registry);
+	private final VirtualRoot wycsRoot = new VirtualRoot(registry);
+	private final ArrayList<Unit> units = new ArrayList<Unit>();
+	private ArrayList<WycsFile> verificationConditions;
+	private Wyal2WycsBuilder wycsBuilder;
+
+	/**
+	 * Construct a corpus of Whiley programs, which is loaded when first used.
+	 *
+	 * @param dir
+	 *            --- directory containing the programs.
+	 * @param bootpath
+	 *            --- jar files and directories containing the Whiley runtime
+	 *            library.
+	 * @param limit
+	 *            --- maximum number of programs to include.
+	 */
+	public Corpus(File dir, List<File> bootpath, int limit) {
+		this.dir = dir;
+		this.bootpath = bootpath;
+		this.limit = limit;
+	}
+
+	/**
+	 * Determine whether this corpus has been loaded.
+	 *
+	 * @return
+	 */
+	public boolean isLoaded() {
+		return project != null;
+	}
+
+	/**
+	 * Load and compile the programs in this corpus.
+	 *
+	 * @throws IOException
+	 */
+	private void load() throws IOException {
+		DirectoryRoot srcRoot = new DirectoryRoot(dir,
+				WycBuildTask.whileyFileFilter, registry);
+		ArrayList<Path.Root> roots = new ArrayList<Path.Root>();
+		roots.add(srcRoot);
+		roots.add(wyilRoot);
+		roots.add(wyalRoot);
+		roots.add(wycsRoot);
+		for (File f : bootpath) {
+			if (f.getName().endsWith(".jar")) {
+				roots.add(new JarFileRoot(f, registry));
+			} else {
+				roots.add(new DirectoryRoot(f, registry));
+			}
+		}
+		project = new StandardProject(roots);
+
+		List<Path.Entry<WhileyFile>> sources = srcRoot.get(Content.filter(
+				"**", WhileyFile.ContentType));
+		Collections.sort(sources, new Comparator<Path.Entry<WhileyFile>>() {
+			public int compare(Path.Entry<WhileyFile> e1,
+					Path.Entry<WhileyFile> e2) {
+				return e1.id().toString().compareTo(e2.id().toString());
+			}
+		});
+
+		for (Path.Entry<WhileyFile> source : sources) {
+			if (units.size() == limit) {
+				break;
+			}
+			try {
+				units.add(compile(source));
+			} catch (Throwable e) {
+				// program does not compile, so just skip it
+			}
+		}
+	}
+
+	/**
+	 * Get the programs in this corpus which compiled successfully, loading
+	 * the corpus if necessary.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Unit> units() throws IOException {
+		if (project == null) {
+			load();
+		}
+		return Collections.unmodifiableList(units);
+	}
+
+	/**
+	 * Get the verification conditions generated for the programs in this
+	 * corpus. These are generated when first requested, since doing so is
+	 * relatively expensive. Programs for which they cannot be generated are
+	 * skipped.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public List<WycsFile> verificationConditions() throws IOException {
+		if (verificationConditions == null) {
+			List<Unit> units = units();
+			verificationConditions = new ArrayList<WycsFile>();
+			ArrayList<Pipeline.Template> templates = new ArrayList<Pipeline.Template>();
+			templates.add(new Pipeline.Template(ConstraintInline.class,
+					Collections.EMPTY_MAP));
+			wycsBuilder = new Wyal2WycsBuilder(project, new Pipeline(templates));
+			Wyil2WyalBuilder wyalBuilder = new Wyil2WyalBuilder(project);
+			for (Unit unit : units) {
+				try {
+					verificationConditions.add(generate(unit, wyalBuilder));
+				} catch (Throwable e) {
+					// cannot generate verification conditions, so skip it
+				}
+			}
+		}
+		return Collections.unmodifiableList(verificationConditions);
+	}
+
+	/**
+	 * Get the builder used to generate verification conditions. This is
+	 * needed to instantiate the verification check.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public Wyal2WycsBuilder wycsBuilder() throws IOException {
+		verificationConditions();
+		return wycsBuilder;
+	}
+
+	private Unit compile(Path.Entry<WhileyFile> source) throws Exception {
+		// First, compile the source file to unoptimised WyIL
+		WhileyBuilder builder = new WhileyBuilder(project, new Pipeline(
+				Collections.EMPTY_LIST));
+		Path.Entry<WyilFile> target = wyilRoot.create(source.id(),
+				WyilFile.ContentType);
+		builder.build(delta(source, target));
+
+		Unit unit = new Unit(source, read(source), builder,
+				write(target.read()));
+
+		// Second, check the pipeline can be applied to it
+		WyilFile wyil = unit.wyil();
+		for (Transform<WyilFile> stage : unit.pipeline()) {
+			stage.apply(wyil);
+		}
+		return unit;
+	}
+
+	private WycsFile generate(Unit unit, Wyil2WyalBuilder wyalBuilder)
+			throws Exception {
+		Path.Entry<WyilFile> wyil = wyilRoot.get(unit.id(),
+				WyilFile.ContentType);
+		WyilFile module = unit.wyil();
+		for (Transform<WyilFile> stage : unit.pipeline()) {
+			stage.apply(module);
+		}
+		wyil.write(module);
+		Path.Entry<WyalFile> wyal = wyalRoot.create(unit.id(),
+				WyalFile.ContentType);
+		wyalBuilder.build(delta(wyil, wyal));
+		Path.Entry<WycsFile> wycs = wycsRoot.create(unit.id(),
+				WycsFile.ContentType);
+		wycsBuilder.build(delta(wyal, wycs));
+		return wycs.read();
+	}
+
+	private static List delta(Path.Entry<?> source, Path.Entry<?> target) {
+		ArrayList<Pair<Path.Entry<?>, Path.Entry<?>>> delta = new ArrayList<Pair<Path.Entry<?>, Path.Entry<?>>>();
+		delta.add(new Pair<Path.Entry<?>, Path.Entry<?>>(source, target));
+		return delta;
+	}
+
+	private static String read(Path.Entry<?> entry) throws IOException {
+		Reader reader = new InputStreamReader(entry.inputStream(), "UTF-8");
+		try {
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[4096];
+			int n;
+			while ((n = reader.read(buffer)) != -1) {
+				sb.append(buffer, 0, n);
+			}
+			return sb.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static byte[] write(WyilFile module) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		new WyilFileWriter(bout).write(module);
+		return bout.toByteArray();
+	}
+
+	/**
+	 * A single program in the corpus.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Unit {
+		private final Path.Entry<WhileyFile> entry;
+		private final String source;
+		private final WhileyBuilder builder;
+		private final byte[] wyil;
+
+		private Unit(Path.Entry<WhileyFile> entry, String source,
+				WhileyBuilder builder, byte[] wyil) {
+			this.entry = entry;
+			this.source = source;
+			this.builder = builder;
+			this.wyil = wyil;
+		}
+
+		public Path.ID id() {
+			return entry.id();
+		}
+
+		public String filename() {
+			return entry.location();
+		}
+
+		/**
+		 * Get the source text of this program.
+		 *
+		 * @return
+		 */
+		public String source() {
+			return source;
+		}
+
+		/**
+		 * Parse a fresh copy of this program, which may be modified freely.
+		 * This copy replaces that previously held by the source entry, so that
+		 * it is the one seen when resolving names through the builder.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public WhileyFile parse() throws IOException {
+			entry.refresh();
+			return entry.read();
+		}
+
+		/**
+		 * Get the builder which compiled this program. This can be used to
+		 * resolve names within it.
+		 *
+		 * @return
+		 */
+		public WhileyBuilder builder() {
+			return builder;
+		}
+
+		/**
+		 * Get the unoptimised WyIL file generated for this program, in binary
+		 * form.
+		 *
+		 * @return
+		 */
+		public byte[] wyilBytes() {
+			return wyil;
+		}
+
+		/**
+		 * Get a fresh copy of the unoptimised WyIL file generated for this
+		 * program, which may be modified freely.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public WyilFile wyil() throws IOException {
+			return new WyilFileReader(new ByteArrayInputStream(wyil)).read();
+		}
+
+		/**
+		 * Instantiate the transforms of the standard pipeline for this
+		 * program.
+		 *
+		 * @return
+		 */
+		public List<Transform<WyilFile>> pipeline() {
+			return new Pipeline<WyilFile>((List) PIPELINE).instantiate(builder);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybench;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Responsible for running benchmarks and reporting their results. Each
+ * benchmark is first run for a number of warmup iterations, which are not
+ * measured, to allow the JVM to compile hot methods. Then, it is run for a
+ * number of measured iterations. For each benchmark, the mean and standard
+ * deviation of the time per operation are reported, along with the time spent
+ * in garbage collection. Each measured iteration (i.e. sample) times a batch
+ * of calls to the benchmark, which is large enough that the sample lasts for
+ * at least <code>MIN_SAMPLE</code> nanoseconds (unless the benchmark cannot be
+ * repeated).
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class Harness {
+	/**
+	 * The minimum time (in nanoseconds) of each sample, below which the
+	 * resolution and overhead of the timer are significant.
+	 */
+	private static final long MIN_SAMPLE = 10000000;
+
+	/**
+	 * The maximum number of calls to a benchmark in each sample.
+	 */
+	private static final int MAX_BATCH = 1 << 20;
+
+	/**
+	 * Results of the benchmarks are written here, so the JVM cannot determine
+	 * that they are unused.
+	 */
+	private static volatile Object sink;
+
+	private final PrintStream out;
+	private final int warmup;
+	private final int iterations;
+
+	/**
+	 * Construct a harness.
+	 *
+	 * @param out
+	 *            --- stream to which results are reported.
+	 * @param warmup
+	 *            --- number of unmeasured iterations of each benchmark.
+	 * @param iterations
+	 *            --- number of measured iterations of each benchmark.
+	 */
+	public Harness(PrintStream out, int warmup, int iterations) {
+		this.out = out;
+		this.warmup = warmup;
+		this.iterations = iterations;
+	}
+
+	public void header() {
+		out.println(String.format("%-40s %8s %14s %12s %10s", "Benchmark",
+				"Ops", "ns/op", "+/-", "GC ms"));
+	}
+
+	/**
+	 * Run a given benchmark and report the result. The benchmark must already
+	 * have been setup.
+	 *
+	 * @param benchmark
+	 * @throws Exception
+	 */
+	public void run(Benchmark benchmark) throws Exception {
+		int batch = batch(benchmark, 1);
+		for (int i = 0; i != warmup; ++i) {
+			benchmark.prepare();
+			for (int j = 0; j != batch; ++j) {
+				sink = benchmark.run();
+			}
+		}
+		// NOTE: the benchmark is likely to run faster now it has been warmed
+		// up, in which case a larger batch is needed.
+		batch = batch(benchmark, batch);
+		long operations = (long) batch * Math.max(1, benchmark.operations());
+		double[] samples = new double[iterations];
+		long gcStart = gcTime();
+		for (int i = 0; i != iterations; ++i) {
+			benchmark.prepare();
+			long start = System.nanoTime();
+			for (int j = 0; j != batch; ++j) {
+				sink = benchmark.run();
+			}
+			long time = System.nanoTime() - start;
+			samples[i] = ((double) time) / operations;
+		}
+		long gc = gcTime() - gcStart;
+
+		double mean = 0;
+		for (double s : samples) {
+			mean += s;
+		}
+		mean = mean / samples.length;
+		double variance = 0;
+		for (double s : samples) {
+			variance += (s - mean) * (s - mean);
+		}
+		double stddev = samples.length > 1 ? Math.sqrt(variance
+				/ (samples.length - 1)) : 0;
+
+		out.println(String.format("%-40s %8d %14.1f %12.1f %10d",
+				benchmark.name(), operations, mean, stddev, gc));
+	}
+
+	/**
+	 * Determine how many calls to a given benchmark are needed for a sample to
+	 * last at least <code>MIN_SAMPLE</code> nanoseconds. This is found by
+	 * timing batches of increasing size.
+	 *
+	 * @param benchmark
+	 * @param batch
+	 *            --- the size of the first batch timed.
+	 * @return
+	 * @throws Exception
+	 */
+	private static int batch(Benchmark benchmark, int batch) throws Exception {
+		if (!benchmark.repeatable()) {
+			return 1;
+		}
+		while (batch < MAX_BATCH) {
+			benchmark.prepare();
+			long start = System.nanoTime();
+			for (int j = 0; j != batch; ++j) {
+				sink = benchmark.run();
+			}
+			if ((System.nanoTime() - start) >= MIN_SAMPLE) {
+				break;
+			}
+			batch = batch * 2;
+		}
+		return batch;
+	}
+
+	/**
+	 * Determine the total time spent in garbage collection so far.
+	 *
+	 * @return
+	 */
+	private static long gcTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+}
@@ -0,0 +1,141 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybench;
+
+import java.io.File;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import wybs.util.OptArg;
+
+/**
+ * Command-line entry point for running benchmarks. Benchmarks are selected by
+ * giving one or more regular expressions, and only those whose names match
+ * one are run. If none are given, all benchmarks are run.
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class Main {
+
+	public static final OptArg[] OPTIONS = new OptArg[] {
+			new OptArg("help", "Print this help information"),
+			new OptArg("list", "List the available benchmarks"),
+			new OptArg("corpus", OptArg.FILEDIR,
+					"Specify directory of whiley programs used as input",
+					new File("tests/base/valid")),
+			new OptArg("bootpath", "bp", OptArg.FILELIST,
+					"Specify where to find whiley standard library files",
+					new ArrayList<File>()),
+			new OptArg("limit", OptArg.INT,
+					"Specify maximum number of programs used as input", -1),
+			new OptArg("warmup", OptArg.INT,
+					"Specify number of unmeasured iterations", 5),
+			new OptArg("iterations", OptArg.INT,
+					"Specify number of measured iterations", 10) };
+
+	public static void main(String[] _args) throws Exception {
+		ArrayList<String> args = new ArrayList<String>(Arrays.asList(_args));
+		Map<String, Object> values = OptArg.parseOptions(args, OPTIONS);
+
+		if (values.containsKey("help")) {
+			System.out.println("usage: wybench <options> <patterns>");
+			OptArg.usage(System.out, OPTIONS);
+			return;
+		}
+
+		// First, select the benchmarks to run
+		ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+		for (String arg : args) {
+			patterns.add(Pattern.compile(arg));
+		}
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (Benchmark b : all()) {
+			if (matches(b.name(), patterns)) {
+				benchmarks.add(b);
+			}
+		}
+
+		if (values.containsKey("list")) {
+			for (Benchmark b : benchmarks) {
+				System.out.println(b.name());
+			}
+			return;
+		}
+
+		// Second, setup the benchmarks. The corpus is only loaded if one of
+		// them uses it.
+		File dir = (File) values.get("corpus");
+		List<File> bootpath = (List<File>) values.get("bootpath");
+		int limit = (Integer) values.get("limit");
+		long start = System.currentTimeMillis();
+		Corpus corpus = new Corpus(dir, bootpath, limit);
+		for (Benchmark b : benchmarks) {
+			b.setup(corpus);
+		}
+		if (corpus.isLoaded()) {
+			System.out.println("Setup " + benchmarks.size()
+					+ " benchmarks using " + corpus.units().size()
+					+ " programs from " + dir + " ("
+					+ (System.currentTimeMillis() - start) + "ms)");
+		}
+
+		// Third, run the benchmarks
+		Harness harness = new Harness(System.out,
+				(Integer) values.get("warmup"),
+				(Integer) values.get("iterations"));
+		harness.header();
+		for (Benchmark b : benchmarks) {
+			harness.run(b);
+		}
+	}
+
+	/**
+	 * Construct every available benchmark.
+	 *
+	 * @return
+	 */
+	public static List<Benchmark> all() {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(CompilerBenchmarks.create());
+		benchmarks.addAll(TypeBenchmarks.create());
+		benchmarks.addAll(RuntimeBenchmarks.create());
+		benchmarks.addAll(SolverBenchmarks.create());
+		return benchmarks;
+	}
+
+	private static boolean matches(String name, List<Pattern> patterns) {
+		if (patterns.isEmpty()) {
+			return true;
+		}
+		for (Pattern p : patterns) {
+			if (p.matcher(name).find()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,392 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybench;
+
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.util.*;
+
+import wyjc.runtime.Util;
+import wyjc.runtime.WyList;
+import wyjc.runtime.WyMap;
+import wyjc.runtime.WyObject;
+import wyjc.runtime.WyRat;
+import wyjc.runtime.WyRecord;
+import wyjc.runtime.WySet;
+
+/**
+ * Benchmarks for the primitive operations provided by the Whiley runtime, as
+ * called from generated bytecode. These do not use the corpus, but operate on
+ * synthetic collections of a fixed size instead. Where each operation has its
+ * own result, these are kept in an array which is returned from
+ * <code>run()</code>, so that none can be discarded.
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class RuntimeBenchmarks {
+
+	/**
+	 * The number of elements in each collection operated on.
+	 */
+	private static final int SIZE = 256;
+
+	public static List<Benchmark> create() {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Arithmetic());
+		benchmarks.add(new Rational());
+		benchmarks.add(new ListAppend());
+		benchmarks.add(new ListGet());
+		benchmarks.add(new ListSet());
+		benchmarks.add(new ListSublist());
+		benchmarks.add(new ListCompare());
+		benchmarks.add(new SetUnion());
+		benchmarks.add(new MapPut());
+		benchmarks.add(new RecordGet());
+		benchmarks.add(new RecordPut());
+		benchmarks.add(new ObjectSend());
+		return benchmarks;
+	}
+
+	private static BigInteger[] integers() {
+		BigInteger[] items = new BigInteger[SIZE];
+		for (int i = 0; i != SIZE; ++i) {
+			items[i] = BigInteger.valueOf(i);
+		}
+		return items;
+	}
+
+	private static WyList list() {
+		WyList list = new WyList();
+		for (BigInteger item : integers()) {
+			WyList.internal_add(list, item);
+		}
+		return list;
+	}
+
+	/**
+	 * Measures integer arithmetic on small values.
+	 */
+	private static final class Arithmetic extends Benchmark {
+		private final BigInteger[] items = integers();
+
+		public Arithmetic() {
+			super("runtime.arithmetic");
+		}
+
+		public Object run() {
+			BigInteger sum = BigInteger.ZERO;
+			for (BigInteger item : items) {
+				sum = Util.add(sum, Util.multiply(item, item));
+			}
+			return sum;
+		}
+
+		public int operations() {
+			return SIZE * 2;
+		}
+	}
+
+	/**
+	 * Measures rational arithmetic on small values, which are typical of real
+	 * numbers in Whiley programs.
+	 */
+	private static final class Rational extends Benchmark {
+		private final WyRat[] items = new WyRat[SIZE];
+		private final WyRat[] results = new WyRat[SIZE];
+
+		public Rational() {
+			super("runtime.rational");
+			for (int i = 0; i != SIZE; ++i) {
+				items[i] = WyRat.valueOf(i, i + 1);
+			}
+		}
+
+		public Object run() {
+			for (int i = 0; i != SIZE; ++i) {
+				WyRat item = items[i];
+				results[i] = item.multiply(item).add(item).divide(2);
+			}
+			return results;
+		}
+
+		public int operations() {
+			return SIZE * 3;
+		}
+	}
+
+	/**
+	 * Measures building a list one element at a time.
+	 */
+	private static final class ListAppend extends Benchmark {
+		private final BigInteger[] items = integers();
+
+		public ListAppend() {
+			super("runtime.list-append");
+		}
+
+		public Object run() {
+			WyList list = new WyList();
+			for (BigInteger item : items) {
+				list = WyList.append(list, item);
+			}
+			return list;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures reading every element of a list.
+	 */
+	private static final class ListGet extends Benchmark {
+		private final WyList list = list();
+		private final BigInteger[] indices = integers();
+		private final Object[] results = new Object[SIZE];
+
+		public ListGet() {
+			super("runtime.list-get");
+		}
+
+		public Object run() {
+			for (int i = 0; i != SIZE; ++i) {
+				results[i] = WyList.get(list, indices[i]);
+			}
+			return results;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures updating every element of a list. Since the list is not owned,
+	 * it is cloned by every update.
+	 */
+	private static final class ListSet extends Benchmark {
+		private final WyList original = list();
+		private final BigInteger[] indices = integers();
+
+		public ListSet() {
+			super("runtime.list-set");
+		}
+
+		public Object run() {
+			WyList list = original;
+			for (BigInteger index : indices) {
+				list = WyList.set(list, index, BigInteger.ZERO);
+			}
+			return list;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures taking every sublist of a list beginning at its start.
+	 */
+	private static final class ListSublist extends Benchmark {
+		private final WyList list = list();
+		private final BigInteger[] indices = integers();
+		private final WyList[] results = new WyList[SIZE];
+
+		public ListSublist() {
+			super("runtime.list-sublist");
+		}
+
+		public Object run() {
+			for (int i = 0; i != SIZE; ++i) {
+				results[i] = WyList.sublist(list, BigInteger.ZERO, indices[i]);
+			}
+			return results;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures comparing two equal lists.
+	 */
+	private static final class ListCompare extends Benchmark {
+		private final WyList lhs = list();
+		private final WyList rhs = list();
+
+		public ListCompare() {
+			super("runtime.list-compare");
+		}
+
+		public Object run() {
+			int result = 0;
+			for (int i = 0; i != SIZE; ++i) {
+				result += Util.compare(lhs, rhs);
+			}
+			return result;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures the union of a set with successive singleton sets.
+	 */
+	private static final class SetUnion extends Benchmark {
+		private final BigInteger[] items = integers();
+
+		public SetUnion() {
+			super("runtime.set-union");
+		}
+
+		public Object run() {
+			WySet set = new WySet();
+			for (BigInteger item : items) {
+				set = WySet.union(set, item);
+			}
+			return set;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures building a map one entry at a time.
+	 */
+	private static final class MapPut extends Benchmark {
+		private final BigInteger[] items = integers();
+
+		public MapPut() {
+			super("runtime.map-put");
+		}
+
+		public Object run() {
+			WyMap map = new WyMap();
+			for (BigInteger item : items) {
+				map = WyMap.put(map, item, item);
+			}
+			return map;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures reading a field of a record, as done by compiled code.
+	 */
+	private static final class RecordGet extends Benchmark {
+		private final WyRecord record = new WyRecord(WyRecord.Shape.get("x",
+				"y"), new Object[] { BigInteger.ZERO, BigInteger.ONE });
+		private final Object[] results = new Object[SIZE];
+
+		public RecordGet() {
+			super("runtime.record-get");
+		}
+
+		public Object run() {
+			for (int i = 0; i != SIZE; ++i) {
+				results[i] = WyRecord.get(record, 1, "y");
+			}
+			return results;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures updating a field of a record.
+	 */
+	private static final class RecordPut extends Benchmark {
+		private final BigInteger[] items = integers();
+
+		public RecordPut() {
+			super("runtime.record-put");
+		}
+
+		public Object run() {
+			WyRecord record = new WyRecord(WyRecord.Shape.get("x", "y"),
+					new Object[] { BigInteger.ZERO, BigInteger.ZERO });
+			for (BigInteger item : items) {
+				record = WyRecord.put(record, 0, "x", item);
+			}
+			return record;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * Measures creating a number of objects and sending each a synchronous
+	 * message, which requires them to be scheduled.
+	 */
+	private static final class ObjectSend extends Benchmark {
+		private final BigInteger[] items = integers();
+		private final Object[] results = new Object[SIZE];
+		private Method method;
+
+		public ObjectSend() {
+			super("runtime.object-send");
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			method = RuntimeBenchmarks.class.getDeclaredMethod("receive",
+					WyObject.class);
+		}
+
+		public Object run() {
+			for (int i = 0; i != SIZE; ++i) {
+				WyObject object = new WyObject(items[i]);
+				results[i] = object.syncSend(method, new Object[1]);
+			}
+			return results;
+		}
+
+		public int operations() {
+			return SIZE;
+		}
+	}
+
+	/**
+	 * The message received by objects in the ObjectSend benchmark.
+	 */
+	public static Object receive(WyObject self) {
+		return self.state();
+	}
+}
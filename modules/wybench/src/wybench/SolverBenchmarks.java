@@ -0,0 +1,163 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybench;
+
+import java.util.*;
+
+import wyautl.core.Automaton;
+import wyautl.util.BigRational;
+import wycs.solver.Solver;
+import wyrl.util.RewriteContext;
+
+/**
+ * Benchmarks for the automata underlying the wycs solver, and for the solver
+ * itself. Unlike the other benchmarks, these do not depend upon the corpus.
+ * Instead, they operate on automata constructed directly from the terms of
+ * the solver. This allows them to be run against builds which differ only in
+ * the implementation of <code>Automaton</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class SolverBenchmarks {
+
+	/**
+	 * The number of distinct variables added to each automaton. Each variable
+	 * requires two states (i.e. the term and its name).
+	 */
+	private static final int VARIABLES = 20000;
+
+	/**
+	 * The number of variables in the chain of inequalities refuted by the
+	 * solver.
+	 */
+	private static final int CHAIN = 4;
+
+	public static List<Benchmark> create() {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Add(false));
+		benchmarks.add(new Add(true));
+		benchmarks.add(new Infer());
+		return benchmarks;
+	}
+
+	/**
+	 * Measures the time taken to add a state to an automaton, which must first
+	 * check whether an equivalent state already exists. When measuring
+	 * duplicates, every state added already exists and, hence, the automaton
+	 * does not grow.
+	 */
+	private static final class Add extends Benchmark {
+		private final boolean duplicates;
+		private Automaton automaton;
+
+		public Add(boolean duplicates) {
+			super(duplicates ? "solver.automaton-add-duplicate"
+					: "solver.automaton-add");
+			this.duplicates = duplicates;
+		}
+
+		public void prepare() {
+			automaton = new Automaton();
+			if (duplicates) {
+				for (int i = 0; i != VARIABLES; ++i) {
+					Solver.Var(automaton, "x" + i);
+				}
+			}
+		}
+
+		public Object run() {
+			for (int i = 0; i != VARIABLES; ++i) {
+				Solver.Var(automaton, "x" + i);
+			}
+			return automaton;
+		}
+
+		public boolean repeatable() {
+			return duplicates;
+		}
+
+		public int operations() {
+			return VARIABLES * 2;
+		}
+	}
+
+	/**
+	 * Measures the time taken by the solver to refute a cyclic chain of
+	 * integer inequalities, <code>x0 < x1 < ... < x0</code>. This requires
+	 * both inference (to combine inequalities) and reduction (to simplify
+	 * the results), during which many states are added to the automaton.
+	 */
+	private static final class Infer extends Benchmark {
+		private Automaton automaton;
+
+		public Infer() {
+			super("solver.infer-chain");
+		}
+
+		public void prepare() {
+			automaton = new Automaton();
+			int[] vars = new int[CHAIN];
+			for (int i = 0; i != CHAIN; ++i) {
+				vars[i] = Solver.Var(automaton, "x" + i);
+			}
+			int type = automaton.add(Solver.IntT);
+			int[] constraints = new int[CHAIN];
+			for (int i = 0; i != CHAIN; ++i) {
+				// x[i+1] - x[i] - 1 >= 0
+				int next = vars[(i + 1) % CHAIN];
+				int sum = Solver.Sum(automaton, real(-1), automaton
+						.add(new Automaton.Bag(term(1, next), term(-1, vars[i]))));
+				constraints[i] = Solver.Inequality(automaton, type, sum);
+			}
+			automaton.setRoot(0, Solver.And(automaton, constraints));
+			automaton.minimise();
+			automaton.compact();
+		}
+
+		public Object run() {
+			Solver.infer(automaton, new RewriteContext(Solver.MAX_STEPS));
+			if (!automaton.get(automaton.getRoot(0)).equals(Solver.False)) {
+				throw new IllegalStateException("chain of inequalities not refuted");
+			}
+			return automaton;
+		}
+
+		public boolean repeatable() {
+			return false;
+		}
+
+		private int term(long coefficient, int var) {
+			return Solver.Mul(automaton, real(coefficient),
+					automaton.add(new Automaton.Bag(var)));
+		}
+
+		private int real(long value) {
+			return automaton.add(new Automaton.Real(BigRational
+					.valueOf(value)));
+		}
+	}
+}
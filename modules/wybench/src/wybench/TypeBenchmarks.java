@@ -0,0 +1,157 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybench;
+
+import java.util.*;
+
+import wyautl_old.lang.Automaton;
+import wyil.lang.Type;
+import wyil.lang.WyilFile;
+
+/**
+ * Benchmarks for operations on WyIL types. The types used are those declared
+ * in, or used in signatures of, the programs in the corpus.
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class TypeBenchmarks {
+
+	/**
+	 * The maximum number of distinct types taken from the corpus. Since the
+	 * subtype benchmark considers every pair of types, this bounds its running
+	 * time.
+	 */
+	private static final int MAX_TYPES = 256;
+
+	public static List<Benchmark> create() {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Subtype(false));
+		benchmarks.add(new Subtype(true));
+		benchmarks.add(new Construct());
+		return benchmarks;
+	}
+
+	/**
+	 * Collect the distinct types found in the corpus.
+	 *
+	 * @param corpus
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<Type> types(Corpus corpus) throws Exception {
+		LinkedHashSet<Type> types = new LinkedHashSet<Type>();
+		for (Corpus.Unit unit : corpus.units()) {
+			WyilFile wyil = unit.wyil();
+			for (WyilFile.TypeDeclaration td : wyil.types()) {
+				types.add(td.type());
+			}
+			for (WyilFile.MethodDeclaration md : wyil.methods()) {
+				Type.FunctionOrMethod ft = md.type();
+				types.add(ft);
+				types.add(ft.ret());
+				types.addAll(ft.params());
+			}
+		}
+		ArrayList<Type> r = new ArrayList<Type>(types);
+		if (r.size() > MAX_TYPES) {
+			return r.subList(0, MAX_TYPES);
+		}
+		return r;
+	}
+
+	/**
+	 * Measures the time taken to determine whether one type is a subtype of
+	 * another, over all pairs of types. Since the results of such tests are
+	 * remembered, they are forgotten before each run unless the benchmark is
+	 * measuring repeated tests.
+	 */
+	private static final class Subtype extends Benchmark {
+		private final boolean repeated;
+		private List<Type> types;
+
+		public Subtype(boolean repeated) {
+			super(repeated ? "type.subtype-repeated" : "type.subtype");
+			this.repeated = repeated;
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			types = types(corpus);
+		}
+
+		public void prepare() {
+			if (!repeated) {
+				Type.queries().clear();
+			}
+		}
+
+		public Object run() {
+			int subtypes = 0;
+			for (Type t1 : types) {
+				for (Type t2 : types) {
+					if (Type.isSubtype(t1, t2)) {
+						subtypes++;
+					}
+				}
+			}
+			return subtypes;
+		}
+
+		public int operations() {
+			return types.size() * types.size();
+		}
+	}
+
+	/**
+	 * Measures the time taken to construct a type from its automaton, which
+	 * includes minimising and canonicalising the automaton.
+	 */
+	private static final class Construct extends Benchmark {
+		private ArrayList<Automaton> automata = new ArrayList<Automaton>();
+
+		public Construct() {
+			super("type.construct");
+		}
+
+		public void setup(Corpus corpus) throws Exception {
+			for (Type t : types(corpus)) {
+				automata.add(Type.destruct(t));
+			}
+		}
+
+		public Object run() {
+			ArrayList<Type> result = new ArrayList<Type>();
+			for (Automaton automaton : automata) {
+				result.add(Type.construct(automaton));
+			}
+			return result;
+		}
+
+		public int operations() {
+			return automata.size();
+		}
+	}
+}
@@ -26,25 +26,46 @@
 package wybs.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
+/**
+ * Reads data from an input stream at the granularity of bits, rather than
+ * bytes. When the underlying stream is a <code>ByteBufferInputStream</code>
+ * (e.g. a memory-mapped file), data is read directly from its buffer.
+ * 
+ * @author David J. Pearce
+ * 
+ */
 public class BinaryInputStream extends InputStream {
 	protected InputStream input;
+	protected ByteBuffer buffer;
 	protected int value;
 	protected int count;
 
 	public BinaryInputStream(InputStream input) {
 		this.input = input;
+		if(input instanceof ByteBufferInputStream) {
+			this.buffer = ((ByteBufferInputStream) input).buffer();
+		}
+	}
+	
+	public BinaryInputStream(ByteBuffer buffer) {
+		this(new ByteBufferInputStream(buffer));
 	}
 	
 	public int read() throws IOException {
 		if(count == 0) {
-			return input.read();
+			return next();
 		} else {
 			return read_un(8);
 		}
 	}
 	
 	public int read(byte[] bytes) throws IOException {
+		if (count == 0 && buffer != null && buffer.remaining() >= bytes.length) {
+			buffer.get(bytes);
+			return bytes.length;
+		}
 		for (int i = 0; i != bytes.length; ++i) {
 			bytes[i] = (byte) read();
 		}
@@ -60,7 +81,7 @@ public class BinaryInputStream extends InputStream {
 	
 	public int read_u8() throws IOException {
 		if(count == 0) {
-			return input.read() & 0xFF;
+			return next() & 0xFF;
 		} else {
 			return read_un(8);
 		}
@@ -103,7 +124,7 @@ public class BinaryInputStream extends InputStream {
 	
 	public boolean read_bit() throws IOException {
 		if(count == 0) {
-			value = input.read();
+			value = next();
 			if(value < 0) { throw new EOFException(); }
 			count = 8;
 		}
@@ -116,4 +137,11 @@ public class BinaryInputStream extends InputStream {
 	public void pad_u8() throws IOException {		
 		count = 0; // easy!!
 	}
+	
+	private int next() throws IOException {
+		if(buffer != null) {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+		return input.read();
+	}
 }
@@ -0,0 +1,242 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.testing;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+import wybs.lang.Content;
+import wybs.lang.Path;
+import wybs.util.BuildDatabase;
+import wybs.util.DirectoryRoot;
+import wybs.util.Trie;
+
+/**
+ * Unit tests for the BuildDatabase class. These check that the records used
+ * for incremental compilation survive a save / load cycle, that modified and
+ * deleted source files are detected, and that dependents of a changed module
+ * are identified.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class BuildDatabaseTests {
+
+	/**
+	 * A trivial content type for plain text files.
+	 */
+	private static final Content.Type<String> TEXT = new Content.Type<String>() {
+		public String read(Path.Entry<String> e, InputStream input)
+				throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = input.read()) != -1) {
+				sb.append((char) c);
+			}
+			return sb.toString();
+		}
+
+		public void write(OutputStream output, String value)
+				throws IOException {
+			output.write(value.getBytes("UTF-8"));
+		}
+	};
+
+	private static final Content.Registry REGISTRY = new Content.Registry() {
+		public void associate(Path.Entry e) {
+			if (e.suffix().equals("txt")) {
+				e.associate(TEXT, null);
+			}
+		}
+
+		public String suffix(Content.Type<?> t) {
+			return "txt";
+		}
+	};
+
+	private File dir;
+
+	@Before public void setUp() throws IOException {
+		dir = File.createTempFile("wybuild", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After public void tearDown() {
+		delete(dir);
+	}
+
+	@Test public void putAndGet() throws IOException {
+		BuildDatabase db = new BuildDatabase(new File(dir, BuildDatabase.FILENAME));
+		assertNull(db.get(id("a")));
+		assertTrue(db.put(id("a"), record("h1", "f1")));
+		BuildDatabase.Record r = db.get(id("a"));
+		assertEquals("h1", r.hash);
+		assertEquals("f1", r.fingerprint);
+	}
+
+	@Test public void changedFingerprint() throws IOException {
+		BuildDatabase db = new BuildDatabase(new File(dir, BuildDatabase.FILENAME));
+		db.put(id("a"), record("h1", "f1"));
+		assertEquals(Collections.singleton(id("a")), db.changed());
+		// changed() clears the set of changed modules
+		assertTrue(db.changed().isEmpty());
+		// same fingerprint, different hash (e.g. a comment was edited)
+		assertFalse(db.put(id("a"), record("h2", "f1")));
+		assertTrue(db.changed().isEmpty());
+		assertTrue(db.put(id("a"), record("h3", "f2")));
+		assertEquals(Collections.singleton(id("a")), db.changed());
+	}
+
+	@Test public void dependents() throws IOException {
+		BuildDatabase db = new BuildDatabase(new File(dir, BuildDatabase.FILENAME));
+		db.put(id("a"), record("h", "f"));
+		db.put(id("b"), record("h", "f", "a"));
+		db.put(id("c"), record("h", "f", "b"));
+		db.put(id("x/d"), record("h", "f", "a", "c"));
+		Set<Path.ID> deps = db.dependentsOf(Collections.singleton(id("a")));
+		assertEquals(new HashSet<Path.ID>(Arrays.asList(id("b"), id("x/d"))),
+				deps);
+		assertTrue(db.dependentsOf(Collections.singleton(id("x/d"))).isEmpty());
+	}
+
+	@Test public void saveAndLoad() throws IOException {
+		File file = new File(dir, BuildDatabase.FILENAME);
+		BuildDatabase db = new BuildDatabase(file);
+		db.put(id("a"), record("h1", "f1"));
+		db.put(id("x/b"), record("h2", "f2", "a"));
+		db.save();
+
+		BuildDatabase loaded = new BuildDatabase(file);
+		assertEquals("h1", loaded.get(id("a")).hash);
+		assertEquals("f2", loaded.get(id("x/b")).fingerprint);
+		assertEquals(Collections.singleton(id("a")),
+				loaded.get(id("x/b")).imports);
+		// nothing has changed since the database was saved
+		assertTrue(loaded.changed().isEmpty());
+		assertFalse(loaded.put(id("a"), record("h1", "f1")));
+	}
+
+	@Test public void headerMismatch() throws IOException {
+		File file = new File(dir, BuildDatabase.FILENAME);
+		write(file, "wybuild 0\na h f\n");
+		BuildDatabase db = new BuildDatabase(file);
+		assertNull(db.get(id("a")));
+	}
+
+	@Test public void corruptRecord() throws IOException {
+		File file = new File(dir, BuildDatabase.FILENAME);
+		BuildDatabase db = new BuildDatabase(file);
+		db.put(id("a"), record("h", "f"));
+		db.save();
+		append(file, "garbage\n");
+		db = new BuildDatabase(file);
+		assertNull(db.get(id("a")));
+	}
+
+	@Test public void modifiedSource() throws IOException {
+		write(new File(dir, "a.txt"), "hello");
+		DirectoryRoot root = new DirectoryRoot(dir, REGISTRY);
+		Path.Entry<String> entry = root.get(id("a"), TEXT);
+		BuildDatabase db = new BuildDatabase(new File(dir, BuildDatabase.FILENAME));
+		assertTrue(db.isModified(entry));
+		db.put(id("a"), record(BuildDatabase.hash(entry), "f"));
+		assertFalse(db.isModified(entry));
+		write(new File(dir, "a.txt"), "world");
+		assertTrue(db.isModified(entry));
+	}
+
+	@Test public void pruneDeletedSource() throws IOException {
+		File file = new File(dir, BuildDatabase.FILENAME);
+		write(new File(dir, "a.txt"), "a");
+		write(new File(dir, "b.txt"), "b");
+		BuildDatabase db = new BuildDatabase(file);
+		db.put(id("a"), record("h", "f"));
+		db.put(id("b"), record("h", "f", "a"));
+		db.save();
+
+		new File(dir, "a.txt").delete();
+		db = new BuildDatabase(file);
+		DirectoryRoot root = new DirectoryRoot(dir, REGISTRY);
+		assertEquals(Collections.singleton(id("a")), db.prune(root, TEXT));
+		assertNull(db.get(id("a")));
+		assertNotNull(db.get(id("b")));
+		// the deleted module counts as changed, so its importers are rebuilt
+		Set<Path.ID> changed = db.changed();
+		assertEquals(Collections.singleton(id("a")), changed);
+		assertEquals(Collections.singleton(id("b")), db.dependentsOf(changed));
+
+		db.save();
+		db = new BuildDatabase(file);
+		assertNull(db.get(id("a")));
+		assertTrue(db.prune(root, TEXT).isEmpty());
+	}
+
+	private static Path.ID id(String str) {
+		return Trie.fromString(str);
+	}
+
+	private static BuildDatabase.Record record(String hash, String fingerprint,
+			String... imports) {
+		ArrayList<Path.ID> ids = new ArrayList<Path.ID>();
+		for (String i : imports) {
+			ids.add(id(i));
+		}
+		return new BuildDatabase.Record(hash, fingerprint, ids);
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void append(File file, String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
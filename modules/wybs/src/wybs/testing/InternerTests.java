@@ -0,0 +1,129 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.testing;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import wybs.util.Interner;
+
+/**
+ * Unit tests for the Interner class.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class InternerTests {
+
+	@Test public void canonicalInstance() {
+		Interner<String> interner = new Interner<String>();
+		String s1 = new String("hello");
+		String s2 = new String("hello");
+		assertSame(s1, interner.intern(s1));
+		assertSame(s1, interner.intern(s2));
+		assertEquals(1, interner.hits());
+		assertEquals(1, interner.misses());
+		assertEquals(1, interner.size());
+	}
+
+	@Test public void distinctInstances() {
+		Interner<String> interner = new Interner<String>();
+		for (int i = 0; i != 1000; ++i) {
+			interner.intern(Integer.toString(i));
+		}
+		for (int i = 0; i != 1000; ++i) {
+			String s = Integer.toString(i);
+			assertEquals(s, interner.intern(new String(s)));
+		}
+		assertEquals(1000, interner.misses());
+		assertEquals(1000, interner.hits());
+		assertEquals(1000, interner.size());
+	}
+
+	@Test public void collidingHashes() {
+		// "Aa" and "BB" have the same hash code
+		Interner<String> interner = new Interner<String>();
+		String s1 = new String("Aa");
+		String s2 = new String("BB");
+		assertSame(s1, interner.intern(s1));
+		assertSame(s2, interner.intern(s2));
+		assertSame(s1, interner.intern(new String("Aa")));
+		assertSame(s2, interner.intern(new String("BB")));
+	}
+
+	@Test public void unusedInstancesReclaimed() throws InterruptedException {
+		Interner<String> interner = new Interner<String>();
+		ArrayList<String> live = new ArrayList<String>();
+		for (int i = 0; i != 1000; ++i) {
+			String s = interner.intern(new String("item" + i));
+			if (i % 10 == 0) {
+				live.add(s);
+			}
+		}
+		for (int i = 0; i != 20 && interner.size() > live.size(); ++i) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals(live.size(), interner.size());
+		for (String s : live) {
+			assertSame(s, interner.intern(new String(s)));
+		}
+	}
+
+	@Test public void concurrentInterning() throws Exception {
+		final Interner<String> interner = new Interner<String>();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			ArrayList<Future<String[]>> results = new ArrayList<Future<String[]>>();
+			for (int t = 0; t != 4; ++t) {
+				results.add(executor.submit(new Callable<String[]>() {
+					public String[] call() {
+						String[] items = new String[500];
+						for (int i = 0; i != items.length; ++i) {
+							items[i] = interner.intern(new String("item" + i));
+						}
+						return items;
+					}
+				}));
+			}
+			String[] first = results.get(0).get();
+			for (Future<String[]> f : results) {
+				String[] items = f.get();
+				for (int i = 0; i != items.length; ++i) {
+					assertSame(first[i], items[i]);
+				}
+			}
+			assertEquals(2000, interner.hits() + interner.misses());
+			assertEquals(500, interner.misses());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wybs.testing;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import wybs.util.MemoTable;
+
+/**
+ * Unit tests for the MemoTable class.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class MemoTableTests {
+
+	@Test public void putAndGet() {
+		MemoTable<String, Integer> table = new MemoTable<String, Integer>(100);
+		assertNull(table.get("a"));
+		table.put("a", 1);
+		table.put("b", 2);
+		assertEquals(Integer.valueOf(1), table.get("a"));
+		assertEquals(Integer.valueOf(2), table.get("b"));
+		assertNull(table.get("c"));
+		assertEquals(2, table.size());
+		assertEquals(2, table.hits());
+		assertEquals(2, table.misses());
+	}
+
+	@Test public void hitRate() {
+		MemoTable<String, Integer> table = new MemoTable<String, Integer>(100);
+		table.get("a");
+		table.put("a", 1);
+		table.get("a");
+		table.get("a");
+		table.get("a");
+		assertEquals(3, table.hits());
+		assertEquals(1, table.misses());
+		assertTrue(table.toString(), table.toString().contains("75% hit rate"));
+		assertTrue(new MemoTable<String, Integer>(100).toString().contains(
+				"0% hit rate"));
+	}
+
+	@Test public void bounded() {
+		MemoTable<Integer, Integer> table = new MemoTable<Integer, Integer>(160);
+		for (int i = 0; i != 10000; ++i) {
+			table.put(i, i);
+			assertTrue(table.size() <= 160);
+		}
+		// the most recently recorded results are retained
+		assertEquals(Integer.valueOf(9999), table.get(9999));
+	}
+
+	@Test public void leastRecentlyUsedEvicted() {
+		// keys which are multiples of 16 (below 2^16) fall into the same
+		// segment, which holds 4 entries for a capacity of 64
+		MemoTable<Integer, Integer> table = new MemoTable<Integer, Integer>(64);
+		for (int i = 0; i != 4; ++i) {
+			table.put(i * 16, i);
+		}
+		assertEquals(4, table.size());
+		// using the first key makes the second the least recently used
+		assertEquals(Integer.valueOf(0), table.get(0));
+		table.put(4 * 16, 4);
+		assertEquals(4, table.size());
+		assertEquals(Integer.valueOf(0), table.get(0));
+		assertNull(table.get(16));
+		assertEquals(Integer.valueOf(2), table.get(32));
+		assertEquals(Integer.valueOf(4), table.get(64));
+		// other segments are unaffected
+		table.put(1, 1);
+		assertEquals(5, table.size());
+	}
+
+	@Test public void clear() {
+		MemoTable<Integer, Integer> table = new MemoTable<Integer, Integer>(100);
+		for (int i = 0; i != 50; ++i) {
+			table.put(i, i);
+		}
+		table.clear();
+		assertEquals(0, table.size());
+		assertNull(table.get(1));
+	}
+
+	@Test public void concurrentLookups() throws Exception {
+		final MemoTable<Integer, Integer> table = new MemoTable<Integer, Integer>(
+				1000);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t != 4; ++t) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						for (int i = 0; i != 500; ++i) {
+							Integer v = table.get(i);
+							if (v == null) {
+								table.put(i, i * i);
+							} else if (v != i * i) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> f : results) {
+				assertTrue(f.get());
+			}
+			assertEquals(2000, table.hits() + table.misses());
+			assertTrue(table.misses() >= 500);
+			assertEquals(500, table.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,308 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wybs.testing;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import wybs.util.PersistentMap;
+
+/**
+ * Unit tests for the PersistentMap class. These check every operation against
+ * a <code>HashMap</code> performing the same operations. Keys are given
+ * deliberately poor hash codes, so that the trie contains both deep branches
+ * and nodes holding keys whose hash codes collide completely.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class PersistentMapTests {
+
+	@Test public void putAndGet() {
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		HashMap<Key, Integer> oracle = new HashMap<Key, Integer>();
+		for (int i = 0; i != 1000; ++i) {
+			Key k = new Key(i, i);
+			map = map.put(k, i);
+			oracle.put(k, i);
+		}
+		check(oracle, map);
+	}
+
+	@Test public void persistence() {
+		PersistentMap<Key, Integer> m1 = PersistentMap.empty();
+		for (int i = 0; i != 100; ++i) {
+			m1 = m1.put(new Key(i, i), i);
+		}
+		PersistentMap<Key, Integer> m2 = m1.put(new Key(5, 5), 500).remove(
+				new Key(6, 6));
+		assertEquals(Integer.valueOf(5), m1.get(new Key(5, 5)));
+		assertEquals(Integer.valueOf(6), m1.get(new Key(6, 6)));
+		assertEquals(Integer.valueOf(500), m2.get(new Key(5, 5)));
+		assertNull(m2.get(new Key(6, 6)));
+		assertEquals(100, m1.size());
+		assertEquals(99, m2.size());
+	}
+
+	@Test public void unchangedIsSame() {
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		Integer v = 1;
+		map = map.put(new Key(1, 1), v);
+		assertSame(map, map.remove(new Key(2, 2)));
+		assertSame(map, map.remove(new Key(2, 1)));
+	}
+
+	@Test public void collidingHashes() {
+		// every key has the same hash code
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		HashMap<Key, Integer> oracle = new HashMap<Key, Integer>();
+		for (int i = 0; i != 50; ++i) {
+			Key k = new Key(i, 42);
+			map = map.put(k, i);
+			oracle.put(k, i);
+			check(oracle, map);
+		}
+		for (int i = 0; i != 50; i += 2) {
+			Key k = new Key(i, 42);
+			map = map.put(k, -i);
+			oracle.put(k, -i);
+			check(oracle, map);
+		}
+		for (int i = 0; i != 50; ++i) {
+			Key k = new Key(i, 42);
+			map = map.remove(k);
+			oracle.remove(k);
+			check(oracle, map);
+		}
+		assertTrue(map.isEmpty());
+	}
+
+	@Test public void partiallyCollidingHashes() {
+		// hash codes which differ only in their higher bits, and so collide
+		// at every level of the trie except the last
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		HashMap<Key, Integer> oracle = new HashMap<Key, Integer>();
+		for (int i = 0; i != 64; ++i) {
+			Key k = new Key(i, (i & 3) << 30);
+			map = map.put(k, i);
+			oracle.put(k, i);
+		}
+		check(oracle, map);
+		for (int i = 0; i < 64; i += 3) {
+			Key k = new Key(i, (i & 3) << 30);
+			map = map.remove(k);
+			oracle.remove(k);
+		}
+		check(oracle, map);
+	}
+
+	@Test public void randomOperations() {
+		Random random = new Random(1);
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		HashMap<Key, Integer> oracle = new HashMap<Key, Integer>();
+		for (int i = 0; i != 5000; ++i) {
+			Key k = randomKey(random);
+			if (random.nextInt(3) == 0) {
+				map = map.remove(k);
+				oracle.remove(k);
+			} else {
+				int v = random.nextInt(100);
+				map = map.put(k, v);
+				oracle.put(k, v);
+			}
+			assertEquals(oracle.get(k), map.get(k));
+			if (i % 100 == 0) {
+				check(oracle, map);
+			}
+		}
+		check(oracle, map);
+	}
+
+	@Test public void equalityAcrossInsertionOrders() {
+		Random random = new Random(2);
+		ArrayList<Key> keys = new ArrayList<Key>();
+		for (int i = 0; i != 200; ++i) {
+			keys.add(randomKey(random));
+		}
+		PersistentMap<Key, Integer> first = null;
+		for (int n = 0; n != 10; ++n) {
+			Collections.shuffle(keys, random);
+			PersistentMap<Key, Integer> map = PersistentMap.empty();
+			// insert some extra keys, which are later removed
+			for (int i = 0; i != 20; ++i) {
+				map = map.put(new Key(1000 + i, i % 16), i);
+			}
+			for (Key k : keys) {
+				map = map.put(k, k.id);
+			}
+			for (int i = 0; i != 20; ++i) {
+				map = map.remove(new Key(1000 + i, i % 16));
+			}
+			if (first == null) {
+				first = map;
+			} else {
+				assertEquals(first, map);
+				assertEquals(map, first);
+				assertEquals(first.hashCode(), map.hashCode());
+			}
+		}
+		// changing a single value breaks equality
+		Key k = keys.get(0);
+		assertFalse(first.equals(first.put(k, -1)));
+		assertFalse(first.equals(first.remove(k)));
+		assertFalse(first.remove(k).equals(first));
+	}
+
+	@Test public void intersect() {
+		Random random = new Random(3);
+		for (int n = 0; n != 20; ++n) {
+			// build two maps from a common base, so they share structure
+			PersistentMap<Key, Integer> base = PersistentMap.empty();
+			for (int i = 0; i != 300; ++i) {
+				Key k = randomKey(random);
+				base = base.put(k, random.nextInt(100));
+			}
+			PersistentMap<Key, Integer> m1 = mutate(base, random);
+			PersistentMap<Key, Integer> m2 = mutate(base, random);
+			HashMap<Key, Integer> oracle = new HashMap<Key, Integer>();
+			for (Map.Entry<Key, Integer> e : m1) {
+				Integer v2 = m2.get(e.getKey());
+				if (v2 != null) {
+					oracle.put(e.getKey(), Math.max(e.getValue(), v2));
+				}
+			}
+			check(oracle, m1.intersect(m2, MAX));
+			check(oracle, m2.intersect(m1, MAX));
+		}
+	}
+
+	@Test public void intersectSharedIsSame() {
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		for (int i = 0; i != 100; ++i) {
+			map = map.put(new Key(i, i), i);
+		}
+		assertSame(map, map.intersect(map, MAX));
+		assertTrue(map.intersect(PersistentMap.<Key, Integer> empty(), MAX)
+				.isEmpty());
+	}
+
+	@Test public void putAll() {
+		Random random = new Random(4);
+		for (int n = 0; n != 20; ++n) {
+			PersistentMap<Key, Integer> m1 = mutate(
+					PersistentMap.<Key, Integer> empty(), random);
+			PersistentMap<Key, Integer> m2 = mutate(
+					PersistentMap.<Key, Integer> empty(), random);
+			HashMap<Key, Integer> oracle = toHashMap(m1);
+			oracle.putAll(toHashMap(m2));
+			check(oracle, m1.putAll(m2));
+		}
+	}
+
+	// =========================================================================
+	// Helpers
+	// =========================================================================
+
+	private static final PersistentMap.Combiner<Integer> MAX = new PersistentMap.Combiner<Integer>() {
+		public Integer combine(Integer v1, Integer v2) {
+			return v1 >= v2 ? v1 : v2;
+		}
+	};
+
+	/**
+	 * A key whose hash code can be chosen independently of its identity.
+	 */
+	private static final class Key {
+		public final int id;
+		public final int hash;
+
+		public Key(int id, int hash) {
+			this.id = id;
+			this.hash = hash;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).id == id;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public String toString() {
+			return "k" + id;
+		}
+	}
+
+	/**
+	 * Generate a key from a small space, with a hash code which is one of only
+	 * a few values. Hence, the same key is likely to be generated more than
+	 * once, and many keys have colliding hash codes.
+	 */
+	private static Key randomKey(Random random) {
+		int id = random.nextInt(500);
+		return new Key(id, (id % 37) * 0x01010101);
+	}
+
+	private static PersistentMap<Key, Integer> mutate(
+			PersistentMap<Key, Integer> map, Random random) {
+		for (int i = 0; i != 100; ++i) {
+			Key k = randomKey(random);
+			if (random.nextInt(3) == 0) {
+				map = map.remove(k);
+			} else {
+				map = map.put(k, random.nextInt(100));
+			}
+		}
+		return map;
+	}
+
+	private static HashMap<Key, Integer> toHashMap(PersistentMap<Key, Integer> map) {
+		HashMap<Key, Integer> r = new HashMap<Key, Integer>();
+		for (Map.Entry<Key, Integer> e : map) {
+			assertNull("duplicate key " + e.getKey(),
+					r.put(e.getKey(), e.getValue()));
+		}
+		return r;
+	}
+
+	private static void check(HashMap<Key, Integer> oracle,
+			PersistentMap<Key, Integer> map) {
+		assertEquals(oracle.size(), map.size());
+		assertEquals(oracle.isEmpty(), map.isEmpty());
+		assertEquals(oracle, toHashMap(map));
+		assertEquals(oracle.keySet(), map.keySet());
+		for (Map.Entry<Key, Integer> e : oracle.entrySet()) {
+			assertEquals(e.getValue(), map.get(e.getKey()));
+			assertTrue(map.containsKey(e.getKey()));
+		}
+		assertEquals(oracle.hashCode(), map.hashCode());
+	}
+}
@@ -0,0 +1,191 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wybs.testing;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import wybs.util.PersistentVector;
+
+/**
+ * Unit tests for the PersistentVector class. These check every operation
+ * against an <code>ArrayList</code> performing the same operations. Lists are
+ * made large enough to require several levels in the trie.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class PersistentVectorTests {
+
+	@Test public void appendAndGet() {
+		PersistentVector<Integer> list = PersistentVector.empty();
+		ArrayList<Integer> oracle = new ArrayList<Integer>();
+		// 32 * 32 * 32 elements fill three levels, so go just beyond
+		for (int i = 0; i != 32 * 32 * 32 + 5; ++i) {
+			list = list.append(i);
+			oracle.add(i);
+			if (i % 1000 == 0 || i == 31 || i == 32 || i == 1023 || i == 1024) {
+				check(oracle, list);
+			}
+		}
+		check(oracle, list);
+	}
+
+	@Test public void outOfBounds() {
+		PersistentVector<Integer> list = PersistentVector.empty();
+		list = list.append(1);
+		try {
+			list.get(1);
+			fail("index out of bounds");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		try {
+			list.update(-1, 1);
+			fail("index out of bounds");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	@Test public void persistence() {
+		PersistentVector<Integer> l1 = build(100);
+		PersistentVector<Integer> l2 = l1.update(50, -1).append(100);
+		assertEquals(Integer.valueOf(50), l1.get(50));
+		assertEquals(Integer.valueOf(-1), l2.get(50));
+		assertEquals(100, l1.size());
+		assertEquals(101, l2.size());
+		assertSame(l1, l1.update(10, l1.get(10)));
+	}
+
+	@Test public void randomUpdates() {
+		Random random = new Random(1);
+		PersistentVector<Integer> list = build(2000);
+		ArrayList<Integer> oracle = new ArrayList<Integer>(list);
+		for (int i = 0; i != 5000; ++i) {
+			int index = random.nextInt(list.size());
+			int value = random.nextInt(100);
+			list = list.update(index, value);
+			oracle.set(index, value);
+			assertEquals(oracle.get(index), list.get(index));
+		}
+		check(oracle, list);
+	}
+
+	@Test public void equality() {
+		Random random = new Random(2);
+		PersistentVector<Integer> l1 = build(1500);
+		// construct the same list independently, by a different route
+		PersistentVector<Integer> l2 = PersistentVector.empty();
+		for (int i = 0; i != 1500; ++i) {
+			l2 = l2.append(-1);
+		}
+		ArrayList<Integer> indices = new ArrayList<Integer>();
+		for (int i = 0; i != 1500; ++i) {
+			indices.add(i);
+		}
+		Collections.shuffle(indices, random);
+		for (int i : indices) {
+			l2 = l2.update(i, i);
+		}
+		assertEquals(l1, l2);
+		assertEquals(l2, l1);
+		assertEquals(l1.hashCode(), l2.hashCode());
+		assertEquals(new ArrayList<Integer>(l1), l2);
+		assertEquals(l2, new ArrayList<Integer>(l1));
+		assertFalse(l1.equals(l2.update(700, -1)));
+		assertFalse(l1.equals(l2.append(1500)));
+	}
+
+	@Test public void merge() {
+		Random random = new Random(3);
+		for (int n = 0; n != 20; ++n) {
+			// build two lists from a common base, so they share structure
+			PersistentVector<Integer> base = build(1 + random.nextInt(3000));
+			PersistentVector<Integer> l1 = mutate(base, random);
+			PersistentVector<Integer> l2 = mutate(base, random);
+			ArrayList<Integer> oracle = new ArrayList<Integer>();
+			for (int i = 0; i != base.size(); ++i) {
+				oracle.add(Math.max(l1.get(i), l2.get(i)));
+			}
+			check(oracle, l1.merge(l2, MAX));
+			check(oracle, l2.merge(l1, MAX));
+		}
+	}
+
+	@Test public void mergeSharedIsSame() {
+		PersistentVector<Integer> list = build(500);
+		assertSame(list, list.merge(list, MAX));
+		// merging with a list which only differs by smaller elements
+		assertSame(list, list.merge(list.update(7, -1), MAX));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mergeDifferentSizes() {
+		build(10).merge(build(11), MAX);
+	}
+
+	// =========================================================================
+	// Helpers
+	// =========================================================================
+
+	private static final PersistentVector.Merger<Integer> MAX = new PersistentVector.Merger<Integer>() {
+		public Integer merge(Integer v1, Integer v2) {
+			return v1 >= v2 ? v1 : v2;
+		}
+	};
+
+	private static PersistentVector<Integer> build(int size) {
+		PersistentVector<Integer> list = PersistentVector.empty();
+		for (int i = 0; i != size; ++i) {
+			list = list.append(i);
+		}
+		return list;
+	}
+
+	private static PersistentVector<Integer> mutate(
+			PersistentVector<Integer> list, Random random) {
+		for (int i = 0; i != 50; ++i) {
+			list = list.update(random.nextInt(list.size()),
+					random.nextInt(5000) - 1000);
+		}
+		return list;
+	}
+
+	private static void check(List<Integer> oracle,
+			PersistentVector<Integer> list) {
+		assertEquals(oracle.size(), list.size());
+		for (int i = 0; i != oracle.size(); ++i) {
+			assertEquals(oracle.get(i), list.get(i));
+		}
+		assertEquals(oracle, new ArrayList<Integer>(list));
+		assertEquals(oracle.hashCode(), list.hashCode());
+	}
+}
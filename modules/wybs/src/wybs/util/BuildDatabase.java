@@ -0,0 +1,359 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.util;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import wybs.lang.Content;
+import wybs.lang.Path;
+
+/**
+ * <p>
+ * A persistent record of what was built by previous builds, which allows
+ * subsequent builds to be incremental. For every source file built, the
+ * database records a hash of its contents, the modules it imports and a
+ * fingerprint of the interface of the binary file generated from it.
+ * </p>
+ *
+ * <p>
+ * A source file needs to be rebuilt when its contents differ from those last
+ * built. Furthermore, when the interface fingerprint of a rebuilt module
+ * changes, every source file which imports that module needs to be rebuilt as
+ * well. However, when only the implementation of a module changes, its
+ * dependents do not need to be rebuilt.
+ * </p>
+ *
+ * <p>
+ * The database is stored as a simple text file, where each line records one
+ * source file. This is typically located in the output directory of the
+ * build, so that a clean build can be obtained simply by deleting that
+ * directory.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class BuildDatabase {
+
+	/**
+	 * The default name of the file in which the database is stored.
+	 */
+	public static final String FILENAME = ".wybuild";
+
+	/**
+	 * Identifies the format of the file. A database file in any other format
+	 * is simply ignored, causing everything to be rebuilt.
+	 */
+	private static final String HEADER = "wybuild 1";
+
+	/**
+	 * The file in which this database is stored.
+	 */
+	private final File file;
+
+	/**
+	 * The records of all source files built, indexed by their module
+	 * identifiers.
+	 */
+	private final HashMap<Path.ID, Record> records = new HashMap<Path.ID, Record>();
+
+	/**
+	 * The modules whose interface fingerprint has changed since this was last
+	 * cleared.
+	 */
+	private final HashSet<Path.ID> changed = new HashSet<Path.ID>();
+
+	/**
+	 * Open the database stored in a given file. If the file does not exist, or
+	 * cannot be understood, then an empty database is returned.
+	 *
+	 * @param file
+	 *            --- file in which database is (or will be) stored.
+	 * @throws IOException
+	 */
+	public BuildDatabase(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			load();
+		}
+	}
+
+	public File file() {
+		return file;
+	}
+
+	/**
+	 * Get the record for a given source module, or <code>null</code> if no
+	 * such record exists (i.e. it has never been built).
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized Record get(Path.ID id) {
+		return records.get(Trie.fromString(id));
+	}
+
+	/**
+	 * Record that a given source module has been built. If the interface
+	 * fingerprint of the module differs from that previously recorded, then
+	 * the module is marked as changed.
+	 *
+	 * @param id
+	 *            --- source module which was built.
+	 * @param record
+	 *            --- record describing what was built.
+	 * @return true if the interface of the module changed.
+	 */
+	public synchronized boolean put(Path.ID id, Record record) {
+		Trie key = Trie.fromString(id);
+		Record old = records.put(key, record);
+		if (old == null || !old.fingerprint.equals(record.fingerprint)) {
+			changed.add(key);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Return the set of modules whose interface has changed since this method
+	 * was last called, and clear that set.
+	 *
+	 * @return
+	 */
+	public synchronized Set<Path.ID> changed() {
+		HashSet<Path.ID> r = new HashSet<Path.ID>(changed);
+		changed.clear();
+		return r;
+	}
+
+	/**
+	 * Determine all recorded source modules which import one or more of the
+	 * given modules.
+	 *
+	 * @param modules
+	 * @return
+	 */
+	public synchronized Set<Path.ID> dependentsOf(Collection<Path.ID> modules) {
+		HashSet<Path.ID> dependents = new HashSet<Path.ID>();
+		for (Map.Entry<Path.ID, Record> e : records.entrySet()) {
+			for (Path.ID mid : modules) {
+				if (e.getValue().imports.contains(mid)) {
+					dependents.add(e.getKey());
+					break;
+				}
+			}
+		}
+		return dependents;
+	}
+
+	/**
+	 * Forget every recorded source module which no longer exists in a given
+	 * root (e.g. because its file has been deleted). Such modules are marked
+	 * as changed, so that any modules which import them are rebuilt (and,
+	 * hence, report the missing import).
+	 *
+	 * @param root
+	 *            --- root containing the source files.
+	 * @param contentType
+	 *            --- content type of the source files.
+	 * @return the modules which were forgotten.
+	 * @throws IOException
+	 */
+	public synchronized Set<Path.ID> prune(Path.Root root,
+			Content.Type<?> contentType) throws IOException {
+		HashSet<Path.ID> removed = new HashSet<Path.ID>();
+		Iterator<Path.ID> iter = records.keySet().iterator();
+		while (iter.hasNext()) {
+			Path.ID id = iter.next();
+			if (!root.exists(id, contentType)) {
+				iter.remove();
+				removed.add(id);
+			}
+		}
+		changed.addAll(removed);
+		return removed;
+	}
+
+	/**
+	 * Determine whether or not a given source entry has been modified since it
+	 * was last built. This is the case if it was never built, or if its
+	 * contents have since changed.
+	 *
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isModified(Path.Entry<?> source) throws IOException {
+		Record record = get(source.id());
+		return record == null || !record.hash.equals(hash(source));
+	}
+
+	/**
+	 * Write this database back to its file.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		ArrayList<Path.ID> ids = new ArrayList<Path.ID>(records.keySet());
+		Collections.sort(ids);
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8")));
+		try {
+			out.println(HEADER);
+			for (Path.ID id : ids) {
+				Record r = records.get(id);
+				out.print(id + " " + r.hash + " " + r.fingerprint);
+				for (Path.ID mid : r.imports) {
+					out.print(" " + mid);
+				}
+				out.println();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void load() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			if (!HEADER.equals(in.readLine())) {
+				return;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split(" ");
+				if (fields.length < 3) {
+					// corrupt record, so forget everything
+					records.clear();
+					return;
+				}
+				HashSet<Path.ID> imports = new HashSet<Path.ID>();
+				for (int i = 3; i < fields.length; ++i) {
+					imports.add(Trie.fromString(fields[i]));
+				}
+				records.put(Trie.fromString(fields[0]), new Record(fields[1],
+						fields[2], imports));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Compute the hash of a given entry's contents.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public static String hash(Path.Entry<?> entry) throws IOException {
+		MessageDigest digest = digest();
+		InputStream input = entry.inputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			input.close();
+		}
+		return toHexString(digest.digest());
+	}
+
+	/**
+	 * Compute the hash of a given string. This is useful for constructing
+	 * fingerprints.
+	 *
+	 * @param str
+	 * @return
+	 */
+	public static String hash(String str) {
+		try {
+			return toHexString(digest().digest(str.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			// dead code, since UTF-8 is always supported
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// dead code, since SHA-1 is always supported
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHexString(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Records what was built from a single source file.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Record {
+		/**
+		 * Hash of the source file's contents when it was built.
+		 */
+		public final String hash;
+
+		/**
+		 * Fingerprint of the interface of the binary file generated from the
+		 * source file.
+		 */
+		public final String fingerprint;
+
+		/**
+		 * The modules imported by the source file.
+		 */
+		public final Set<Path.ID> imports;
+
+		public Record(String hash, String fingerprint,
+				Collection<? extends Path.ID> imports) {
+			this.hash = hash;
+			this.fingerprint = fingerprint;
+			this.imports = new HashSet<Path.ID>();
+			for (Path.ID mid : imports) {
+				this.imports.add(Trie.fromString(mid));
+			}
+		}
+	}
+}
@@ -26,8 +26,11 @@
 package wybs.util;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
+import wybs.io.ByteBufferInputStream;
 import wybs.lang.Content;
 import wybs.lang.Content.Filter;
 import wybs.lang.Path;
@@ -190,11 +193,26 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 	 * 
 	 */
 	public static final class Entry<T> extends AbstractEntry<T> implements Path.Entry<T> {		
+		/**
+		 * Files at least this large are memory-mapped when read. Smaller files
+		 * are simply read into memory, since this is cheaper than setting up a
+		 * mapping for them.
+		 */
+		private static final int MAP_THRESHOLD = 64 * 1024;
+		
 		private final java.io.File file;
 		
+		/**
+		 * The modification time of the file when this entry was created or
+		 * last flushed. This is used to determine whether the file has since
+		 * changed on disk.
+		 */
+		private long timestamp;
+		
 		public Entry(Path.ID id, java.io.File file) {
 			super(id);
 			this.file = file;			
+			this.timestamp = file.lastModified();
 		}
 		
 		public String location() {
@@ -209,6 +227,23 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 			return file;
 		}		
 		
+		/**
+		 * Check whether or not the contents of this entry (if loaded) are still
+		 * consistent with the file on disk. This is not the case if the file
+		 * has been changed since, or if this entry has been written but not
+		 * flushed.
+		 */
+		public boolean isCurrent() {
+			return !modified && file.lastModified() == timestamp;
+		}
+		
+		public synchronized void flush() throws IOException {
+			if (modified) {
+				super.flush();
+				timestamp = file.lastModified();
+			}
+		}
+		
 		public String suffix() {
 			String filename = file.getName();
 			String suffix = "";
@@ -219,8 +254,30 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 			return suffix;
 		}
 		
+		/**
+		 * Open an input stream to this entry. The file is read (or, if it is
+		 * large, memory-mapped) in its entirety, so that binary content types
+		 * can decode it directly from the resulting buffer, rather than
+		 * through a stream.
+		 */
 		public InputStream inputStream() throws IOException {
-			return new FileInputStream(file);
+			FileInputStream fin = new FileInputStream(file);
+			try {
+				FileChannel channel = fin.getChannel();
+				long size = channel.size();
+				ByteBuffer buffer;
+				if (size >= MAP_THRESHOLD) {
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				} else {
+					buffer = ByteBuffer.allocate((int) size);
+					while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+					}
+					buffer.flip();
+				}
+				return new ByteBufferInputStream(buffer);
+			} finally {
+				fin.close();
+			}
 		}
 		
 		public OutputStream outputStream() throws IOException {
@@ -240,6 +297,15 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 	 *
 	 */
 	public final class Folder extends AbstractFolder {
+		
+		/**
+		 * The items in this folder when it was last listed, indexed by their
+		 * file names. When the folder is listed again after a refresh, those
+		 * which are unchanged on disk are reused. This means their contents
+		 * need not be loaded again.
+		 */
+		private HashMap<String, Path.Item> items = new HashMap<String, Path.Item>();
+		
 		public Folder(Path.ID id) {
 			super(id);
 		}
@@ -247,6 +313,8 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 		@Override
 		protected Path.Item[] contents() throws IOException {			
 			File myDir = new File(dir, id.toString().replace('/', File.separatorChar));		
+			HashMap<String, Path.Item> previous = this.items;
+			this.items = new HashMap<String, Path.Item>();
 			
 			if (myDir.exists() && myDir.isDirectory()) {
 				File[] files = myDir.listFiles(filter);
@@ -255,16 +323,27 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 				for(int i=0;i!=files.length;++i) {
 					File file = files[i];
 					String filename = file.getName();
+					Path.Item old = previous.get(filename);
 					if (file.isDirectory()) {
-						items[count++] = new Folder(id.append(filename));
+						if (old instanceof Folder) {
+							old.refresh();
+						} else {
+							old = new Folder(id.append(filename));
+						}
+						this.items.put(filename, old);
+						items[count++] = old;
 					} else {
 						int idx = filename.lastIndexOf('.');
 						if (idx > 0) {
-							String name = filename.substring(0, idx);
-							Path.ID oid = id.append(name);
-							Entry e = new Entry(oid, file);
-							contentTypes.associate(e);
-							items[count++] = e;
+							if (!(old instanceof Entry) || !((Entry) old).isCurrent()) {
+								String name = filename.substring(0, idx);
+								Path.ID oid = id.append(name);
+								Entry e = new Entry(oid, file);
+								contentTypes.associate(e);
+								old = e;
+							}
+							this.items.put(filename, old);
+							items[count++] = old;
 						}
 					}
 				}
@@ -298,6 +377,7 @@ public final class DirectoryRoot extends AbstractRoot<DirectoryRoot.Folder> {
 					e = new Entry(nid, nfile);
 					e.associate(ct, null);
 					super.insert(e);
+					items.put(nfile.getName(), e);
 				}
 				return e;
 			} else {
@@ -0,0 +1,132 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.util;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * An interner implements the flyweight pattern. That is, it maps every object
+ * to a single <i>canonical</i> instance which is equal to it. Interning allows
+ * equal objects to share the same memory, and is used for example to ensure
+ * only one instance of any given bytecode exists.
+ * </p>
+ * <p>
+ * Interned objects are only weakly referenced by the interner. Thus, an object
+ * is reclaimed by the garbage collector as soon as nothing else refers to it,
+ * and the memory consumed by the interner is proportional to the number of
+ * distinct objects which are actually in use (rather than the number ever
+ * created). An interner is safe for use by multiple threads at once. To
+ * reduce contention, its contents are split into several independently locked
+ * segments.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ * @param <T>
+ */
+public final class Interner<T> {
+	private static final int SEGMENTS = 16;
+
+	private final WeakHashMap<T, WeakReference<T>>[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public Interner() {
+		this.segments = new WeakHashMap[SEGMENTS];
+		for (int i = 0; i != SEGMENTS; ++i) {
+			segments[i] = new WeakHashMap<T, WeakReference<T>>();
+		}
+	}
+
+	/**
+	 * Return the canonical instance of a given object. If no equal object is
+	 * currently interned, then the given object becomes the canonical instance.
+	 * 
+	 * @param item
+	 *            --- object to be interned.
+	 * @return
+	 */
+	public T intern(T item) {
+		WeakHashMap<T, WeakReference<T>> segment = segment(item);
+		synchronized (segment) {
+			WeakReference<T> ref = segment.get(item);
+			T canonical = ref == null ? null : ref.get();
+			if (canonical != null) {
+				hits.incrementAndGet();
+				return canonical;
+			}
+			segment.put(item, new WeakReference<T>(item));
+			misses.incrementAndGet();
+			return item;
+		}
+	}
+
+	/**
+	 * Return the number of times an equal object was already interned.
+	 * 
+	 * @return
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * Return the number of times an object became the canonical instance.
+	 * 
+	 * @return
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Return the number of canonical instances which are currently live.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for (WeakHashMap<T, WeakReference<T>> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public String toString() {
+		return "hits=" + hits() + ", misses=" + misses() + ", size=" + size();
+	}
+
+	private WeakHashMap<T, WeakReference<T>> segment(T item) {
+		int h = item.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (SEGMENTS - 1)];
+	}
+}
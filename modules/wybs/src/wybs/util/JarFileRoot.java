@@ -26,9 +26,11 @@
 package wybs.util;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.jar.*;
 
+import wybs.io.ByteBufferInputStream;
 import wybs.lang.Content;
 import wybs.lang.Content.Type;
 import wybs.lang.Path;
@@ -44,6 +46,13 @@ public final class JarFileRoot extends AbstractRoot<JarFileRoot.Folder> implemen
 	private final File dir;
 	private Path.Item[] jfContents;
 	
+	/**
+	 * The modification time of the jar file when it was last loaded. The jar
+	 * file is only reloaded on a refresh if this has changed, thus retaining
+	 * any entries already read.
+	 */
+	private long timestamp;
+	
 	public JarFileRoot(String dir, Content.Registry contentTypes) throws IOException {
 		super(contentTypes);
 		this.dir = new File(dir);
@@ -68,6 +77,10 @@ public final class JarFileRoot extends AbstractRoot<JarFileRoot.Folder> implemen
 
 	@Override
 	public void refresh() throws IOException {
+		if (jfContents != null && dir.lastModified() == timestamp) {
+			return; // unchanged
+		}
+		timestamp = dir.lastModified();
 		JarFile jf = new JarFile(dir);
 		Enumeration<JarEntry> entries = jf.entries();
 		this.jfContents = new Path.Item[jf.size()];
@@ -90,6 +103,7 @@ public final class JarFileRoot extends AbstractRoot<JarFileRoot.Folder> implemen
 				jfContents[i++] = new Folder(pkg);
 			}
 		}		
+		root.refresh();
 	}
 	
 	@Override
@@ -180,8 +194,33 @@ public final class JarFileRoot extends AbstractRoot<JarFileRoot.Folder> implemen
 			return suffix;
 		}
 		
+		/**
+		 * Open an input stream to this entry. The entry is decompressed in its
+		 * entirety with bulk reads, so that binary content types can decode
+		 * it directly from the resulting buffer, rather than a byte at a time
+		 * from the inflater.
+		 */
 		public InputStream inputStream() throws IOException {
-			return parent.getInputStream(entry);
+			InputStream input = parent.getInputStream(entry);
+			try {
+				long size = entry.getSize();
+				byte[] bytes = new byte[size >= 0 ? (int) size : 4096];
+				int length = 0;
+				int n;
+				while ((n = input.read(bytes, length, bytes.length - length)) >= 0) {
+					length += n;
+					if (length == bytes.length) {
+						if (length == size) {
+							break;
+						}
+						bytes = Arrays.copyOf(bytes, length * 2);
+					}
+				}
+				return new ByteBufferInputStream(ByteBuffer.wrap(bytes, 0,
+						length));
+			} finally {
+				input.close();
+			}
 		}
 
 		public OutputStream outputStream() throws IOException {
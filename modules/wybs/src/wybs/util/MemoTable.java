@@ -0,0 +1,169 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A memo table records the results of an expensive function, so that repeated
+ * applications of it to the same arguments need not be recomputed. This is
+ * only sound when the function is pure, and its arguments are immutable.
+ * </p>
+ * <p>
+ * A memo table is bounded in size. When it is full, the least recently used
+ * entry is discarded to make room for a new one. A memo table is safe for use
+ * by multiple threads at once. To reduce contention, its contents are split
+ * into several independently locked segments, each of which is bounded
+ * separately.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ * @param <K>
+ * @param <V>
+ */
+public final class MemoTable<K, V> {
+	private static final int SEGMENTS = 16;
+
+	private final LinkedHashMap<K, V>[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Construct a memo table which holds at most (roughly) a given number of
+	 * entries.
+	 * 
+	 * @param capacity
+	 *            --- maximum number of entries to retain.
+	 */
+	public MemoTable(int capacity) {
+		final int max = Math.max(1, capacity / SEGMENTS);
+		this.segments = new LinkedHashMap[SEGMENTS];
+		for (int i = 0; i != SEGMENTS; ++i) {
+			segments[i] = new LinkedHashMap<K, V>(16, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+					return size() > max;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Return the result recorded for a given key, or <code>null</code> if
+	 * there is none.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public V get(K key) {
+		LinkedHashMap<K, V> segment = segment(key);
+		V value;
+		synchronized (segment) {
+			value = segment.get(key);
+		}
+		if (value != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * Record the result for a given key.
+	 * 
+	 * @param key
+	 * @param value
+	 *            --- result to record, which may not be <code>null</code>.
+	 */
+	public void put(K key, V value) {
+		LinkedHashMap<K, V> segment = segment(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	/**
+	 * Discard all recorded results.
+	 */
+	public void clear() {
+		for (LinkedHashMap<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Return the number of lookups which found a recorded result.
+	 * 
+	 * @return
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * Return the number of lookups which did not find a recorded result.
+	 * 
+	 * @return
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Return the number of results currently recorded.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for (LinkedHashMap<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public String toString() {
+		long h = hits();
+		long total = h + misses();
+		long rate = total == 0 ? 0 : (h * 100) / total;
+		return "hits=" + h + ", misses=" + misses() + " (" + rate
+				+ "% hit rate), size=" + size();
+	}
+
+	private LinkedHashMap<K, V> segment(K key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (SEGMENTS - 1)];
+	}
+}
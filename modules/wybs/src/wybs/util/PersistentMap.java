@@ -0,0 +1,614 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.util;
+
+import java.util.*;
+
+/**
+ * <p>
+ * An immutable map implemented as a <i>hash array mapped trie</i>. Every
+ * update returns a new map, but this shares all of the trie with the original
+ * except for the path from the root to the updated entry. Thus, updates cost
+ * O(log n) time and space, rather than the O(n) needed to copy a
+ * <code>HashMap</code>, whilst a copy costs nothing at all.
+ * </p>
+ * 
+ * <p>
+ * This is intended for use by dataflow analyses, where the store at each
+ * point in a method is typically a small modification of the store at its
+ * predecessor. Furthermore, since maps derived from the same original share
+ * structure, comparing or joining them need only consider those parts which
+ * actually differ. <b>NOTE:</b> <code>null</code> values are not permitted.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ * @param <K>
+ * @param <V>
+ */
+public final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+	private static final PersistentMap EMPTY = new PersistentMap(null);
+
+	private final Node<K, V> root;
+
+	private PersistentMap(Node<K, V> root) {
+		this.root = root;
+	}
+
+	/**
+	 * Return the empty map.
+	 * 
+	 * @return
+	 */
+	public static <K, V> PersistentMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Return the value associated with a given key, or <code>null</code> if
+	 * there is none.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public V get(K key) {
+		return root == null ? null : root.get(key, hash(key), 0);
+	}
+
+	public boolean containsKey(K key) {
+		return get(key) != null;
+	}
+
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	/**
+	 * Return the number of entries in this map. This requires traversing the
+	 * map, and so takes O(n) time.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return root == null ? 0 : root.size();
+	}
+
+	/**
+	 * Return a map which is identical to this, except that it associates a
+	 * given key with a given value.
+	 * 
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public PersistentMap<K, V> put(K key, V value) {
+		int hash = hash(key);
+		Node<K, V> nroot;
+		if (root == null) {
+			nroot = new Leaf<K, V>(hash, key, value);
+		} else {
+			nroot = root.put(hash, key, value, 0);
+		}
+		return nroot == root ? this : new PersistentMap<K, V>(nroot);
+	}
+
+	/**
+	 * Return a map which is identical to this, except that it associates no
+	 * value with a given key.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public PersistentMap<K, V> remove(K key) {
+		if (root == null) {
+			return this;
+		}
+		Node<K, V> nroot = root.remove(hash(key), key, 0);
+		return nroot == root ? this : new PersistentMap<K, V>(nroot);
+	}
+
+	/**
+	 * Return a map which contains every entry of this map and of another. Where
+	 * both maps have a value for a key, that of the other map is taken.
+	 * 
+	 * @param map
+	 * @return
+	 */
+	public PersistentMap<K, V> putAll(PersistentMap<K, V> map) {
+		if (root == null) {
+			return map;
+		}
+		PersistentMap<K, V> r = this;
+		for (Map.Entry<K, V> e : map) {
+			r = r.put(e.getKey(), e.getValue());
+		}
+		return r;
+	}
+
+	/**
+	 * Return a map which contains only those keys present in both this map and
+	 * another, where each is associated with the combination of its values in
+	 * the two. Parts of the two maps which are shared are not traversed, and
+	 * are shared with the result. Therefore, the combiner must return a value
+	 * equivalent to its arguments whenever they are the same.
+	 * 
+	 * @param map
+	 * @param combiner
+	 * @return
+	 */
+	public PersistentMap<K, V> intersect(PersistentMap<K, V> map,
+			Combiner<V> combiner) {
+		if (root == map.root) {
+			return this;
+		} else if (root == null || map.root == null) {
+			return empty();
+		}
+		Node<K, V> nroot = intersect(root, map.root, 0, combiner);
+		return nroot == root ? this : new PersistentMap<K, V>(nroot);
+	}
+
+	/**
+	 * Return the set of keys in this map. This requires traversing the map,
+	 * and so takes O(n) time.
+	 * 
+	 * @return
+	 */
+	public Set<K> keySet() {
+		HashSet<K> keys = new HashSet<K>();
+		for (Map.Entry<K, V> e : this) {
+			keys.add(e.getKey());
+		}
+		return keys;
+	}
+
+	public Iterator<Map.Entry<K, V>> iterator() {
+		ArrayList<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+		if (root != null) {
+			root.entries(entries);
+		}
+		return Collections.unmodifiableList(entries).iterator();
+	}
+
+	public boolean equals(Object o) {
+		if (o instanceof PersistentMap) {
+			PersistentMap<K, V> m = (PersistentMap<K, V>) o;
+			if (root == m.root) {
+				return true;
+			} else if (root == null || m.root == null) {
+				return false;
+			}
+			return root.equals(m.root, 0);
+		}
+		return false;
+	}
+
+	public int hashCode() {
+		int h = 0;
+		for (Map.Entry<K, V> e : this) {
+			h += e.hashCode();
+		}
+		return h;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		boolean first = true;
+		for (Map.Entry<K, V> e : this) {
+			if (!first) {
+				sb.append(", ");
+			}
+			first = false;
+			sb.append(e.getKey() + "=" + e.getValue());
+		}
+		return sb.append("}").toString();
+	}
+
+	/**
+	 * Combines the values associated with a key in two maps.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 * @param <V>
+	 */
+	public interface Combiner<V> {
+		public V combine(V v1, V v2);
+	}
+
+	// =========================================================================
+	// Trie
+	// =========================================================================
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static <K, V> Node<K, V> intersect(Node<K, V> n1, Node<K, V> n2,
+			int shift, Combiner<V> combiner) {
+		if (n1 == n2) {
+			return n1;
+		} else if (n1 instanceof Branch && n2 instanceof Branch) {
+			Branch<K, V> b1 = (Branch<K, V>) n1;
+			Branch<K, V> b2 = (Branch<K, V>) n2;
+			Node<K, V>[] children = new Node[Integer.bitCount(b1.bitmap
+					& b2.bitmap)];
+			int bitmap = 0;
+			int size = 0;
+			boolean same = true;
+			int remaining = b1.bitmap;
+			for (int i = 0; i != b1.children.length; ++i) {
+				int bit = Integer.lowestOneBit(remaining);
+				remaining &= remaining - 1;
+				if ((b2.bitmap & bit) == 0) {
+					same = false;
+					continue;
+				}
+				Node<K, V> c1 = b1.children[i];
+				Node<K, V> c2 = b2.children[Integer.bitCount(b2.bitmap
+						& (bit - 1))];
+				Node<K, V> c = intersect(c1, c2, shift + BITS, combiner);
+				same &= c == c1;
+				if (c != null) {
+					children[size++] = c;
+					bitmap |= bit;
+				}
+			}
+			if (same) {
+				return n1;
+			} else if (size == 0) {
+				return null;
+			} else if (size == 1 && !(children[0] instanceof Branch)) {
+				return children[0];
+			}
+			return new Branch<K, V>(bitmap, Arrays.copyOf(children, size));
+		} else {
+			ArrayList<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+			n1.entries(entries);
+			Node<K, V> r = null;
+			for (Map.Entry<K, V> e : entries) {
+				K key = e.getKey();
+				int hash = hash(key);
+				V v2 = n2.get(key, hash, shift);
+				if (v2 != null) {
+					V v = combiner.combine(e.getValue(), v2);
+					r = r == null ? new Leaf<K, V>(hash, key, v) : r.put(hash,
+							key, v, shift);
+				}
+			}
+			return r;
+		}
+	}
+
+	private static abstract class Node<K, V> {
+		public abstract V get(K key, int hash, int shift);
+
+		public abstract Node<K, V> put(int hash, K key, V value, int shift);
+
+		public abstract Node<K, V> remove(int hash, K key, int shift);
+
+		public abstract int size();
+
+		public abstract void entries(List<Map.Entry<K, V>> entries);
+
+		public abstract boolean equals(Node<K, V> node, int shift);
+	}
+
+	private static final class Leaf<K, V> extends Node<K, V> implements
+			Map.Entry<K, V> {
+		private final int hash;
+		private final K key;
+		private final V value;
+
+		public Leaf(int hash, K key, V value) {
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
+		}
+
+		public V get(K key, int hash, int shift) {
+			return hash == this.hash && key.equals(this.key) ? value : null;
+		}
+
+		public Node<K, V> put(int hash, K key, V value, int shift) {
+			if (hash == this.hash) {
+				if (key.equals(this.key)) {
+					return value == this.value ? this : new Leaf<K, V>(hash,
+							key, value);
+				}
+				return new Collision<K, V>(hash, new Leaf[] { this,
+						new Leaf<K, V>(hash, key, value) });
+			}
+			return Branch.create(shift, this, this.hash, new Leaf<K, V>(hash,
+					key, value));
+		}
+
+		public Node<K, V> remove(int hash, K key, int shift) {
+			return hash == this.hash && key.equals(this.key) ? null : this;
+		}
+
+		public int size() {
+			return 1;
+		}
+
+		public void entries(List<Map.Entry<K, V>> entries) {
+			entries.add(this);
+		}
+
+		public boolean equals(Node<K, V> node, int shift) {
+			if (node instanceof Leaf) {
+				Leaf<K, V> l = (Leaf<K, V>) node;
+				return hash == l.hash && key.equals(l.key)
+						&& value.equals(l.value);
+			}
+			return false;
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof Map.Entry) {
+				Map.Entry<K, V> e = (Map.Entry<K, V>) o;
+				return key.equals(e.getKey()) && value.equals(e.getValue());
+			}
+			return false;
+		}
+
+		public int hashCode() {
+			return key.hashCode() ^ value.hashCode();
+		}
+	}
+
+	/**
+	 * A node holding several keys whose hashes are identical.
+	 */
+	private static final class Collision<K, V> extends Node<K, V> {
+		private final int hash;
+		private final Leaf<K, V>[] leaves;
+
+		public Collision(int hash, Leaf<K, V>[] leaves) {
+			this.hash = hash;
+			this.leaves = leaves;
+		}
+
+		public V get(K key, int hash, int shift) {
+			if (hash == this.hash) {
+				for (Leaf<K, V> l : leaves) {
+					if (key.equals(l.key)) {
+						return l.value;
+					}
+				}
+			}
+			return null;
+		}
+
+		public Node<K, V> put(int hash, K key, V value, int shift) {
+			if (hash != this.hash) {
+				return Branch.create(shift, this, this.hash, new Leaf<K, V>(
+						hash, key, value));
+			}
+			for (int i = 0; i != leaves.length; ++i) {
+				if (key.equals(leaves[i].key)) {
+					if (value == leaves[i].value) {
+						return this;
+					}
+					Leaf<K, V>[] nleaves = leaves.clone();
+					nleaves[i] = new Leaf<K, V>(hash, key, value);
+					return new Collision<K, V>(hash, nleaves);
+				}
+			}
+			Leaf<K, V>[] nleaves = Arrays.copyOf(leaves, leaves.length + 1);
+			nleaves[leaves.length] = new Leaf<K, V>(hash, key, value);
+			return new Collision<K, V>(hash, nleaves);
+		}
+
+		public Node<K, V> remove(int hash, K key, int shift) {
+			if (hash != this.hash) {
+				return this;
+			}
+			for (int i = 0; i != leaves.length; ++i) {
+				if (key.equals(leaves[i].key)) {
+					if (leaves.length == 2) {
+						return leaves[1 - i];
+					}
+					Leaf<K, V>[] nleaves = new Leaf[leaves.length - 1];
+					System.arraycopy(leaves, 0, nleaves, 0, i);
+					System.arraycopy(leaves, i + 1, nleaves, i, nleaves.length
+							- i);
+					return new Collision<K, V>(hash, nleaves);
+				}
+			}
+			return this;
+		}
+
+		public int size() {
+			return leaves.length;
+		}
+
+		public void entries(List<Map.Entry<K, V>> entries) {
+			for (Leaf<K, V> l : leaves) {
+				entries.add(l);
+			}
+		}
+
+		public boolean equals(Node<K, V> node, int shift) {
+			if (node instanceof Collision) {
+				Collision<K, V> c = (Collision<K, V>) node;
+				if (hash != c.hash || leaves.length != c.leaves.length) {
+					return false;
+				}
+				for (Leaf<K, V> l : leaves) {
+					if (!l.value.equals(c.get(l.key, hash, shift))) {
+						return false;
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A node whose children are selected by the next few bits of the hash. The
+	 * bitmap identifies which children are present, and these are stored
+	 * contiguously in order.
+	 */
+	private static final class Branch<K, V> extends Node<K, V> {
+		private final int bitmap;
+		private final Node<K, V>[] children;
+
+		public Branch(int bitmap, Node<K, V>[] children) {
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+
+		/**
+		 * Create a branch containing two nodes whose hashes differ, where the
+		 * first is a leaf or collision node.
+		 */
+		public static <K, V> Node<K, V> create(int shift, Node<K, V> n1,
+				int h1, Leaf<K, V> n2) {
+			int f1 = (h1 >>> shift) & MASK;
+			int f2 = (n2.hash >>> shift) & MASK;
+			if (f1 == f2) {
+				return new Branch<K, V>(1 << f1, new Node[] { create(shift
+						+ BITS, n1, h1, n2) });
+			} else if (f1 < f2) {
+				return new Branch<K, V>((1 << f1) | (1 << f2), new Node[] {
+						n1, n2 });
+			} else {
+				return new Branch<K, V>((1 << f1) | (1 << f2), new Node[] {
+						n2, n1 });
+			}
+		}
+
+		public V get(K key, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+			return children[index(bit)].get(key, hash, shift + BITS);
+		}
+
+		public Node<K, V> put(int hash, K key, V value, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			int index = index(bit);
+			if ((bitmap & bit) == 0) {
+				Node<K, V>[] nchildren = new Node[children.length + 1];
+				System.arraycopy(children, 0, nchildren, 0, index);
+				nchildren[index] = new Leaf<K, V>(hash, key, value);
+				System.arraycopy(children, index, nchildren, index + 1,
+						children.length - index);
+				return new Branch<K, V>(bitmap | bit, nchildren);
+			}
+			Node<K, V> child = children[index];
+			Node<K, V> nchild = child.put(hash, key, value, shift + BITS);
+			if (nchild == child) {
+				return this;
+			}
+			Node<K, V>[] nchildren = children.clone();
+			nchildren[index] = nchild;
+			return new Branch<K, V>(bitmap, nchildren);
+		}
+
+		public Node<K, V> remove(int hash, K key, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int index = index(bit);
+			Node<K, V> child = children[index];
+			Node<K, V> nchild = child.remove(hash, key, shift + BITS);
+			if (nchild == child) {
+				return this;
+			} else if (nchild != null) {
+				if (children.length == 1 && !(nchild instanceof Branch)) {
+					return nchild;
+				}
+				Node<K, V>[] nchildren = children.clone();
+				nchildren[index] = nchild;
+				return new Branch<K, V>(bitmap, nchildren);
+			} else if (children.length == 1) {
+				return null;
+			} else if (children.length == 2
+					&& !(children[1 - index] instanceof Branch)) {
+				return children[1 - index];
+			}
+			Node<K, V>[] nchildren = new Node[children.length - 1];
+			System.arraycopy(children, 0, nchildren, 0, index);
+			System.arraycopy(children, index + 1, nchildren, index,
+					nchildren.length - index);
+			return new Branch<K, V>(bitmap & ~bit, nchildren);
+		}
+
+		public int size() {
+			int size = 0;
+			for (Node<K, V> child : children) {
+				size += child.size();
+			}
+			return size;
+		}
+
+		public void entries(List<Map.Entry<K, V>> entries) {
+			for (Node<K, V> child : children) {
+				child.entries(entries);
+			}
+		}
+
+		public boolean equals(Node<K, V> node, int shift) {
+			if (node instanceof Branch) {
+				Branch<K, V> b = (Branch<K, V>) node;
+				if (bitmap != b.bitmap) {
+					return false;
+				}
+				for (int i = 0; i != children.length; ++i) {
+					if (children[i] != b.children[i]
+							&& !children[i].equals(b.children[i], shift + BITS)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+	}
+}
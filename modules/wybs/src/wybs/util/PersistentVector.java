@@ -0,0 +1,238 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wybs.util;
+
+import java.util.*;
+
+/**
+ * <p>
+ * An immutable list implemented as a trie with a branching factor of 32.
+ * Every update returns a new list, but this shares all of the trie with the
+ * original except for the path from the root to the updated element. Thus,
+ * updates cost O(log n) time and space (which, in practice, is almost
+ * constant), rather than the O(n) needed to copy an <code>ArrayList</code>,
+ * whilst a copy costs nothing at all.
+ * </p>
+ * 
+ * <p>
+ * This is intended for use by dataflow analyses over registers, where the
+ * store at each point in a method is typically a small modification of the
+ * store at its predecessor. Furthermore, since lists derived from the same
+ * original share structure, comparing or merging them need only consider
+ * those parts which actually differ.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ * @param <T>
+ */
+public final class PersistentVector<T> extends AbstractList<T> {
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	private static final PersistentVector EMPTY = new PersistentVector(0, 0,
+			new Object[WIDTH]);
+
+	private final int size;
+	private final int shift;
+	private final Object[] root;
+
+	private PersistentVector(int size, int shift, Object[] root) {
+		this.size = size;
+		this.shift = shift;
+		this.root = root;
+	}
+
+	/**
+	 * Return the empty list.
+	 * 
+	 * @return
+	 */
+	public static <T> PersistentVector<T> empty() {
+		return EMPTY;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public T get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size "
+					+ size);
+		}
+		Object[] node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Object[]) node[(index >>> level) & MASK];
+		}
+		return (T) node[index & MASK];
+	}
+
+	/**
+	 * Return a list which is identical to this, except that the element at a
+	 * given index is replaced with a given value.
+	 * 
+	 * @param index
+	 * @param value
+	 * @return
+	 */
+	public PersistentVector<T> update(int index, T value) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size "
+					+ size);
+		} else if (get(index) == value) {
+			return this;
+		}
+		return new PersistentVector<T>(size, shift, update(root, shift, index,
+				value));
+	}
+
+	/**
+	 * Return a list which is identical to this, except that a given value is
+	 * appended to the end.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public PersistentVector<T> append(T value) {
+		if (size == (WIDTH << shift)) {
+			// the trie is full, so add a level
+			Object[] nroot = new Object[WIDTH];
+			nroot[0] = root;
+			return new PersistentVector<T>(size + 1, shift + BITS, update(
+					nroot, shift + BITS, size, value));
+		}
+		return new PersistentVector<T>(size + 1, shift, update(root, shift,
+				size, value));
+	}
+
+	/**
+	 * Return a list whose elements are the merge of the corresponding elements
+	 * of this list and another of the same size. Parts of the two lists which
+	 * are shared are not traversed, and are shared with the result. Therefore,
+	 * the merger must return a value equivalent to its arguments whenever
+	 * they are the same.
+	 * 
+	 * @param list
+	 * @param merger
+	 * @return
+	 */
+	public PersistentVector<T> merge(PersistentVector<T> list,
+			Merger<T> merger) {
+		if (size != list.size || shift != list.shift) {
+			throw new IllegalArgumentException("lists have different sizes");
+		} else if (root == list.root) {
+			return this;
+		}
+		Object[] nroot = merge(root, list.root, shift, merger);
+		return nroot == root ? this : new PersistentVector<T>(size, shift,
+				nroot);
+	}
+
+	public boolean equals(Object o) {
+		if (o instanceof PersistentVector) {
+			PersistentVector<T> v = (PersistentVector<T>) o;
+			if (root == v.root) {
+				return true;
+			} else if (size != v.size) {
+				return false;
+			}
+			return equals(root, v.root, shift);
+		}
+		return super.equals(o);
+	}
+
+	/**
+	 * Merges the corresponding elements of two lists.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 * @param <T>
+	 */
+	public interface Merger<T> {
+		public T merge(T v1, T v2);
+	}
+
+	private static Object[] update(Object[] node, int level, int index,
+			Object value) {
+		Object[] nnode = node.clone();
+		if (level == 0) {
+			nnode[index & MASK] = value;
+		} else {
+			int i = (index >>> level) & MASK;
+			Object[] child = (Object[]) node[i];
+			if (child == null) {
+				child = new Object[WIDTH];
+			}
+			nnode[i] = update(child, level - BITS, index, value);
+		}
+		return nnode;
+	}
+
+	private static <T> Object[] merge(Object[] n1, Object[] n2, int level,
+			Merger<T> merger) {
+		Object[] r = null;
+		for (int i = 0; i != WIDTH; ++i) {
+			Object c1 = n1[i];
+			Object c2 = n2[i];
+			Object c;
+			if (c1 == c2) {
+				continue;
+			} else if (level == 0) {
+				c = merger.merge((T) c1, (T) c2);
+			} else {
+				c = merge((Object[]) c1, (Object[]) c2, level - BITS, merger);
+			}
+			if (c != c1) {
+				if (r == null) {
+					r = n1.clone();
+				}
+				r[i] = c;
+			}
+		}
+		return r == null ? n1 : r;
+	}
+
+	private static boolean equals(Object[] n1, Object[] n2, int level) {
+		for (int i = 0; i != WIDTH; ++i) {
+			Object c1 = n1[i];
+			Object c2 = n2[i];
+			if (c1 == c2) {
+				continue;
+			} else if (c1 == null || c2 == null) {
+				return false;
+			} else if (level == 0) {
+				if (!c1.equals(c2)) {
+					return false;
+				}
+			} else if (!equals((Object[]) c1, (Object[]) c2, level - BITS)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
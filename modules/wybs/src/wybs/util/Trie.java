@@ -48,6 +48,11 @@ import wybs.lang.Path;
  * tries. Therefore, the memory consumed is proportional to the total number of
  * distinct tries created throughout the program's life
  * </p>
+ * <p>
+ * <b>NOTE:</b> tries may be appended to concurrently from different threads.
+ * Appending is synchronised on the parent trie, which ensures that every path
+ * still corresponds to exactly one instance.
+ * </p>
  * 
  * @author David J. Pearce
  * 
@@ -189,7 +194,7 @@ public final class Trie implements Path.ID, Path.Filter {
 		return this == o;
 	}
 	
-	public Trie append(final String component) {
+	public synchronized Trie append(final String component) {
 		int index = binarySearch(children, nchildren, component);
 		if(index >= 0) {
 			return children[index];
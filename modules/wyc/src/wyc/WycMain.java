@@ -28,7 +28,12 @@ package wyc;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URI;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.*;
 
 import wybs.lang.*;
@@ -63,6 +68,12 @@ public class WycMain {
 	public static final int SYNTAX_ERROR = 1;
 	public static final int INTERNAL_FAILURE = 2;
 
+	/**
+	 * The time (in milliseconds) a compile server waits for a client to send
+	 * its request.
+	 */
+	private static final int REQUEST_TIMEOUT = 10000;
+
 	public static final OptArg[] DEFAULT_OPTIONS = new OptArg[] {
 			new OptArg("help", "Print this help information"),
 			new OptArg("version", "Print version information"),
@@ -70,6 +81,12 @@ public class WycMain {
 					"Print detailed information on what the compiler is doing"),
 			new OptArg("verify",
 					"Enable detailed verification checking"),
+			new OptArg("threads", "j", OptArg.INT,
+					"Specify number of threads used to compile source files", 1),
+			new OptArg("incremental",
+					"Only rebuild source files affected by changes since the last build"),
+			new OptArg("daemon", OptArg.INT,
+					"Run as a compile server on the given local port"),
 			new OptArg("whileypath", "wp", OptArg.FILELIST,
 					"Specify where to find whiley (binary) files",
 					new ArrayList<String>()),
@@ -155,6 +172,21 @@ public class WycMain {
 	// =========================================================================
 
 	public int run(String[] _args) {
+		return run(_args, null);
+	}
+	
+	/**
+	 * Run the compiler with the given command-line arguments, where relative
+	 * file names are taken relative to a given working directory. If no
+	 * working directory is given, the current directory of this process is
+	 * used.
+	 * 
+	 * @param _args
+	 * @param dir
+	 *            --- working directory, or <code>null</code>.
+	 * @return
+	 */
+	public int run(String[] _args, File dir) {
 		boolean verbose = false;
 
 		try {
@@ -164,6 +196,20 @@ public class WycMain {
 
 			ArrayList<String> args = new ArrayList<String>(Arrays.asList(_args));
 			Map<String, Object> values = OptArg.parseOptions(args, options);
+			if (dir != null) {
+				for (Map.Entry<String, Object> e : values.entrySet()) {
+					e.setValue(resolve(e.getValue(), dir));
+				}
+			}
+
+			// Check if we're running as a compile server
+			if (values.containsKey("daemon")) {
+				if (dir != null) {
+					System.out.println("wyc: already running as a compile server");
+					return INTERNAL_FAILURE;
+				}
+				return serve((Integer) values.get("daemon"));
+			}
 
 			// Second, check if we're printing version
 			if (values.containsKey("version")) {
@@ -186,7 +232,7 @@ public class WycMain {
 						
 			ArrayList<File> delta = new ArrayList<File>();
 			for (String arg : args) {
-				delta.add(new File(arg));
+				delta.add((File) resolve(new File(arg), dir));
 			}
 			
 			// sanity check we've actually compiling things that exist
@@ -226,6 +272,198 @@ public class WycMain {
 		return SUCCESS;
 	}
 
+	// =========================================================================
+	// Compile Server
+	// =========================================================================
+
+	/**
+	 * <p>
+	 * Run as a compile server, listening on a given port of the loopback
+	 * interface. This avoids the cost of starting and warming up a fresh JVM
+	 * for every build. Furthermore, roots (and the files loaded from them) are
+	 * retained between builds, and only reloaded when they change on disk.
+	 * </p>
+	 * 
+	 * <p>
+	 * Each connection carries a single build request. This consists of the
+	 * server's token on the first line, the client's working directory on the
+	 * second, followed by its command-line arguments (one per line) and then
+	 * an empty line. All output produced by the build is sent back to the
+	 * client, followed by a final line containing the exit code. Requests are
+	 * handled one at a time.
+	 * </p>
+	 * 
+	 * <p>
+	 * Since any local user can connect to the port, requests are only accepted
+	 * from clients which know the token. This is chosen at random when the
+	 * server starts, and is written to a file which only the user running the
+	 * server can read (see <code>tokenFile()</code>).
+	 * </p>
+	 * 
+	 * @param port
+	 * @return
+	 * @throws IOException
+	 */
+	public int serve(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port, 0, InetAddress.getByName(null));
+		File tokenFile = tokenFile(server.getLocalPort());
+		try {
+			String token = createToken(tokenFile);
+			System.err.println("wyc: listening on port " + server.getLocalPort());
+			while (true) {
+				Socket client = server.accept();
+				try {
+					handle(client, token);
+				} catch (IOException e) {
+					System.err.println("wyc: " + e.getMessage());
+				} finally {
+					client.close();
+				}
+			}
+		} finally {
+			server.close();
+			tokenFile.delete();
+		}
+	}
+
+	private void handle(Socket client, String token) throws IOException {
+		// don't let a client which never completes its request hold up others
+		client.setSoTimeout(REQUEST_TIMEOUT);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				client.getInputStream(), "UTF-8"));
+		String key = in.readLine();
+		if (key == null) {
+			return; // client went away
+		}
+		PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+		if (!MessageDigest.isEqual(key.getBytes("UTF-8"),
+				token.getBytes("UTF-8"))) {
+			out.println("wyc: compile server refused request (invalid token)");
+			out.println(INTERNAL_FAILURE);
+			return;
+		}
+		String dir = in.readLine();
+		if (dir == null) {
+			return; // client went away
+		}
+		ArrayList<String> args = new ArrayList<String>();
+		String line;
+		while ((line = in.readLine()) != null && !line.equals("")) {
+			args.add(line);
+		}
+		client.setSoTimeout(0);
+
+		PrintStream stdout = System.out;
+		PrintStream stderr = System.err;
+		PrintStream olderrout = errout;
+		System.setOut(out);
+		System.setErr(out);
+		errout = out;
+		int result;
+		try {
+			builder.reset();
+			builder.setLogOut(out);
+			result = run(args.toArray(new String[args.size()]), new File(dir));
+		} finally {
+			System.setOut(stdout);
+			System.setErr(stderr);
+			errout = olderrout;
+			builder.setLogOut(stderr);
+		}
+		out.println(result);
+		out.flush();
+	}
+
+	/**
+	 * Get the file holding the token of the compile server on a given port.
+	 * This is located in the user's home directory, so that clients run by
+	 * the same user can find it.
+	 * 
+	 * @param port
+	 * @return
+	 */
+	public static File tokenFile(int port) {
+		return new File(System.getProperty("user.home"), ".wyc"
+				+ File.separatorChar + "daemon-" + port);
+	}
+
+	/**
+	 * Choose a random token and write it to a given file, which is made
+	 * readable by its owner only. The file is created afresh, so that no-one
+	 * else can have it open already.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static String createToken(File file) throws IOException {
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : bytes) {
+			token.append(Character.forDigit((b >> 4) & 0xF, 16));
+			token.append(Character.forDigit(b & 0xF, 16));
+		}
+
+		File dir = file.getParentFile();
+		dir.mkdirs();
+		restrict(dir);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("unable to remove " + file);
+		}
+		if (!file.createNewFile()) {
+			throw new IOException("unable to create " + file);
+		}
+		file.deleteOnExit();
+		restrict(file);
+		PrintStream out = new PrintStream(new FileOutputStream(file), true,
+				"UTF-8");
+		try {
+			out.println(token);
+		} finally {
+			out.close();
+		}
+		return token.toString();
+	}
+
+	/**
+	 * Make a given file or directory accessible by its owner only.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	private static void restrict(File file) throws IOException {
+		boolean dir = file.isDirectory();
+		if (!(file.setReadable(false, false) && file.setReadable(true, true)
+				&& file.setWritable(false, false)
+				&& file.setWritable(true, true)
+				&& file.setExecutable(false, false)
+				&& (!dir || file.setExecutable(true, true)))) {
+			throw new IOException("unable to restrict access to " + file);
+		}
+	}
+
+	/**
+	 * Resolve any relative files in a given option value against a given
+	 * directory.
+	 */
+	private static Object resolve(Object value, File dir) {
+		if (dir == null) {
+			return value;
+		} else if (value instanceof File) {
+			File f = (File) value;
+			return f.isAbsolute() ? f : new File(dir, f.getPath());
+		} else if (value instanceof List) {
+			ArrayList<Object> r = new ArrayList<Object>();
+			for (Object o : (List<?>) value) {
+				r.add(resolve(o, dir));
+			}
+			return r;
+		} else {
+			return value;
+		}
+	}
+
 	// =========================================================================
 	// Helper Methods
 	// =========================================================================
@@ -235,6 +473,11 @@ public class WycMain {
 				
 		builder.setVerbose(verbose);
 		builder.setVerification(values.containsKey("verify"));
+		builder.setIncremental(values.containsKey("incremental"));
+		Integer threads = (Integer) values.get("threads");
+		if (threads != null) {
+			builder.setThreads(threads);
+		}
 
 		ArrayList<Pipeline.Modifier> pipelineModifiers = (ArrayList) values
 				.get("pipeline");
@@ -1,21 +1,40 @@
 package wyc.builder;
 
-import java.util.HashMap;
 import java.util.Set;
 
+import wybs.util.PersistentMap;
 
+/**
+ * <p>
+ * A typing environment, which maps each variable in scope to its (current)
+ * type. Environments are passed through the statements of a function or
+ * method during flow typing, and updated as variables are assigned or
+ * retyped.
+ * </p>
+ * 
+ * <p>
+ * Environments are reference counted. An environment is updated in place
+ * when only one reference to it exists; otherwise, a new environment is
+ * returned. Since the underlying map is persistent, such a copy shares almost
+ * all of its structure with the original. Thus, an update costs O(log n)
+ * rather than O(n), as would copying the entire map.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
 public final class Environment {
-	private final HashMap<String,Nominal> map;
+	private PersistentMap<String,Nominal> map;
 	private int count; // refCount
 	
 	public Environment() {
 		count = 1;
-		map = new HashMap<String,Nominal>();
+		map = PersistentMap.empty();
 	}
 	
-	private Environment(HashMap<String,Nominal> types) {
+	private Environment(PersistentMap<String,Nominal> types) {
 		count = 1;
-		this.map = (HashMap<String,Nominal>) types.clone();
+		this.map = types;
 	}
 
 	public Nominal get(String key) {
@@ -32,11 +51,10 @@ public final class Environment {
 	
 	public Environment put(String key, Nominal value) {
 		if(count == 1) {
-			map.put(key,value);
+			map = map.put(key,value);
 			return this;
 		} else {				
-			Environment nenv = new Environment(map);
-			nenv.map.put(key,value);
+			Environment nenv = new Environment(map.put(key,value));
 			count--;
 			return nenv;
 		}
@@ -44,13 +62,10 @@ public final class Environment {
 	
 	public Environment putAll(Environment env) {
 		if(count == 1) {
-			HashMap<String,Nominal> envTypes = env.map;							
-			map.putAll(envTypes);			
+			map = map.putAll(env.map);			
 			return this;
 		} else { 
-			Environment nenv = new Environment(map);
-			HashMap<String,Nominal> envTypes = env.map;			
-			nenv.map.putAll(envTypes);			
+			Environment nenv = new Environment(map.putAll(env.map));
 			count--;
 			return nenv;				
 		}
@@ -58,16 +73,35 @@ public final class Environment {
 	
 	public Environment remove(String key) {
 		if(count == 1) {
-			map.remove(key);
+			map = map.remove(key);
 			return this;
 		} else {				
-			Environment nenv = new Environment(map);
-			nenv.map.remove(key);
+			Environment nenv = new Environment(map.remove(key));
 			count--;
 			return nenv;
 		}
 	}		
 	
+	/**
+	 * Compute a new environment containing only those variables in both this
+	 * environment and another, where the type of each is the union of its
+	 * types in the two. Variables which the two environments share (i.e.
+	 * which have not been updated since they were cloned from a common
+	 * ancestor) are not considered.
+	 * 
+	 * @param env
+	 * @return
+	 */
+	public Environment join(Environment env) {
+		return new Environment(map.intersect(env.map, UNION));
+	}
+	
+	private static final PersistentMap.Combiner<Nominal> UNION = new PersistentMap.Combiner<Nominal>() {
+		public Nominal combine(Nominal t1, Nominal t2) {
+			return Nominal.Union(t1, t2);
+		}
+	};
+	
 	public Environment clone() {
 		count++;
 		return this;
@@ -27,6 +27,7 @@ package wyc.builder;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import wyil.*;
 import wyil.lang.*;
@@ -77,6 +78,16 @@ import wyc.stages.*;
  * Every stage of the compiler can be configured by setting various options.
  * Stages can also be bypassed (typically for testing) and new ones can be
  * added.
+ * </p>
+ * <p>
+ * The builder can optionally use several worker threads. In this case, all
+ * source files are lexed and parsed concurrently. They are then typed and
+ * converted into WYIL in <i>waves</i>, where every file in a wave depends only
+ * upon source files from earlier waves. Finally, each pipeline stage is applied
+ * to all WYIL files concurrently, with every stage completing on all files
+ * before the next begins. The files produced are identical to those produced
+ * by a sequential build.
+ * </p>
  * 
  * @author David J. Pearce
  * 
@@ -90,6 +101,12 @@ public final class WhileyBuilder implements Builder {
 	 */
 	private final NameSpace namespace;		
 	
+	/**
+	 * The pipeline from which the stages applied to a Wyil file are
+	 * instantiated. 
+	 */
+	private final Pipeline<WyilFile> pipeline;
+	
 	/**
 	 * The list of stages which must be applied to a Wyil file.
 	 */
@@ -97,6 +114,18 @@ public final class WhileyBuilder implements Builder {
 	
 	private Logger logger;
 	
+	/**
+	 * The number of worker threads used for building. When this is one, the
+	 * build is performed sequentially on the calling thread.
+	 */
+	private int threads = 1;
+	
+	/**
+	 * The build database in which built source files are recorded, or
+	 * <code>null</code> if builds are not being recorded.
+	 */
+	private BuildDatabase database;
+	
 	/**
 	 * A map of the source files currently being compiled.
 	 */
@@ -108,9 +137,10 @@ public final class WhileyBuilder implements Builder {
 	 * time. For example, the statement <code>import whiley.lang.*</code>
 	 * corresponds to the triple <code>("whiley.lang",*,null)</code>.
 	 */
-	private final HashMap<Trie,ArrayList<Path.ID>> importCache = new HashMap();	
+	private final ConcurrentHashMap<Trie,ArrayList<Path.ID>> importCache = new ConcurrentHashMap();	
 		
 	public WhileyBuilder(NameSpace namespace, Pipeline<WyilFile> pipeline) {
+		this.pipeline = pipeline;
 		this.stages = pipeline.instantiate(this);
 		this.logger = Logger.NULL;
 		this.namespace = namespace;
@@ -124,7 +154,37 @@ public final class WhileyBuilder implements Builder {
 		this.logger = logger;
 	}
 	
+	/**
+	 * Set the number of worker threads to use when building. A value of one
+	 * (the default) indicates a sequential build.
+	 * 
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("invalid number of threads: " + threads);
+		}
+		this.threads = threads;
+	}
+	
+	/**
+	 * Set the build database in which to record the source files built, along
+	 * with the modules they import and the interfaces of the wyil files
+	 * generated for them. This information allows subsequent builds to be
+	 * incremental.
+	 * 
+	 * @param database
+	 */
+	public void setDatabase(BuildDatabase database) {
+		this.database = database;
+	}
+	
 	public void build(List<Pair<Path.Entry<?>,Path.Entry<?>>> delta) throws Exception {
+		if(threads > 1) {
+			buildParallel(delta);
+			return;
+		}
+		
 		Runtime runtime = Runtime.getRuntime();
 		long startTime = System.currentTimeMillis();
 		long startMemory = runtime.freeMemory();
@@ -211,6 +271,8 @@ public final class WhileyBuilder implements Builder {
 			}
 		}	
 	
+		record(delta);
+		
 		// ========================================================================
 		// Done
 		// ========================================================================
@@ -220,6 +282,151 @@ public final class WhileyBuilder implements Builder {
 				endTime - startTime, startMemory - runtime.freeMemory());
 	}
 	
+	private void buildParallel(final List<Pair<Path.Entry<?>, Path.Entry<?>>> delta)
+			throws Exception {
+		Runtime runtime = Runtime.getRuntime();
+		long startTime = System.currentTimeMillis();
+		long startMemory = runtime.freeMemory();
+		long tmpTime = startTime;
+		long tmpMemory = startMemory;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		
+		// Each worker thread has its own resolver, generator and pipeline
+		// stages, since these all carry state between files.
+		final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+			protected Worker initialValue() {
+				return new Worker();
+			}
+		};
+		
+		try {
+			// ====================================================================
+			// Parse and register source files
+			// ====================================================================
+
+			srcFiles.clear();
+			final ArrayList<Path.Entry<WhileyFile>> sources = new ArrayList<Path.Entry<WhileyFile>>();
+			final HashMap<Path.ID, Path.Entry<WyilFile>> targets = new HashMap<Path.ID, Path.Entry<WyilFile>>();
+			for (Pair<Path.Entry<?>, Path.Entry<?>> p : delta) {
+				Path.Entry<?> f = p.first();
+				Path.Entry<?> s = p.second();
+				if (f.contentType() == WhileyFile.ContentType) {
+					Path.Entry<WhileyFile> sf = (Path.Entry<WhileyFile>) f;
+					sources.add(sf);
+					if(s.contentType() == WyilFile.ContentType) {
+						targets.put(sf.id(), (Path.Entry<WyilFile>) s);
+					}
+				}
+			}
+
+			ArrayList<Callable<Set<String>>> parsers = new ArrayList<Callable<Set<String>>>();
+			for (final Path.Entry<WhileyFile> sf : sources) {
+				parsers.add(new Callable<Set<String>>() {
+					public Set<String> call() throws Exception {
+						sf.read();
+						return identifiers(sf);
+					}
+				});
+			}
+			List<Set<String>> identifiers = execute(executor, parsers);
+			
+			HashMap<Path.ID, Set<String>> idents = new HashMap<Path.ID, Set<String>>();
+			for (int i = 0; i != sources.size(); ++i) {
+				Path.Entry<WhileyFile> sf = sources.get(i);
+				WhileyFile wf = sf.read();
+				srcFiles.put(wf.module, sf);
+				idents.put(wf.module, identifiers.get(i));
+			}
+
+			logger.logTimedMessage("Parsed " + sources.size() + " source file(s).",
+					System.currentTimeMillis() - tmpTime,
+					tmpMemory - runtime.freeMemory());
+
+			// ====================================================================
+			// Flow Type and Generate Code in Waves
+			// ====================================================================
+
+			runtime = Runtime.getRuntime();
+			tmpTime = System.currentTimeMillis();
+			tmpMemory = runtime.freeMemory();
+
+			List<List<List<Path.Entry<WhileyFile>>>> waves = schedule(sources,
+					idents);
+			
+			for (List<List<Path.Entry<WhileyFile>>> wave : waves) {
+				ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+				for (final List<Path.Entry<WhileyFile>> group : wave) {
+					tasks.add(new Callable<Object>() {
+						public Object call() throws Exception {
+							Worker worker = workers.get();
+							for (Path.Entry<WhileyFile> sf : group) {
+								new FlowTyping(worker.resolver).propagate(sf.read());
+							}
+							for (Path.Entry<WhileyFile> sf : group) {
+								Path.Entry<WyilFile> target = targets.get(sf.id());
+								if (target != null) {
+									target.write(worker.generator.generate(sf.read()));
+								}
+							}
+							return null;
+						}
+					});
+				}
+				execute(executor, tasks);
+			}
+
+			logger.logTimedMessage("Typed and generated code for "
+					+ sources.size() + " source file(s) in " + waves.size()
+					+ " wave(s).", System.currentTimeMillis() - tmpTime,
+					tmpMemory - runtime.freeMemory());
+
+			// ====================================================================
+			// Pipeline Stages
+			// ====================================================================
+			
+			final ArrayList<Path.Entry<WyilFile>> binaries = new ArrayList<Path.Entry<WyilFile>>();
+			for (Pair<Path.Entry<?>, Path.Entry<?>> p : delta) {
+				Path.Entry<?> f = p.second();
+				if (f.contentType() == WyilFile.ContentType) {
+					binaries.add((Path.Entry<WyilFile>) f);
+				}
+			}
+			
+			// NOTE: every stage must complete on all files before the next
+			// begins. This is because some stages (e.g. runtime assertions)
+			// inspect other files and must see them as they would be in a
+			// sequential build.
+			
+			for (int i = 0; i != stages.size(); ++i) {
+				final int stage = i;
+				ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+				for (final Path.Entry<WyilFile> wf : binaries) {
+					tasks.add(new Callable<Object>() {
+						public Object call() throws Exception {
+							process(wf.read(), workers.get().stages.get(stage));
+							return null;
+						}
+					});
+				}
+				execute(executor, tasks);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		record(delta);
+		
+		// ========================================================================
+		// Done
+		// ========================================================================
+		
+		long endTime = System.currentTimeMillis();
+		logger.logTimedMessage("Whiley => Wyil: compiled " + delta.size()
+				+ " file(s) using " + threads + " thread(s)", endTime - startTime,
+				startMemory - runtime.freeMemory());
+	}
+	
 	// ======================================================================
 	// Public Accessors
 	// ======================================================================
@@ -301,6 +508,25 @@ public final class WhileyBuilder implements Builder {
 		}
 	}	
 			
+	/**
+	 * Determine all modules which a given source file may import. This is a
+	 * conservative approximation of the modules which its names may be resolved
+	 * against (see <code>GlobalResolver.resolveAsName()</code> and
+	 * <code>GlobalResolver.resolveAsModule()</code>).
+	 * 
+	 * @param wf
+	 * @return
+	 */
+	public Set<Path.ID> importedModules(WhileyFile wf) throws ResolveError {
+		HashSet<Path.ID> modules = new HashSet<Path.ID>();
+		for (WhileyFile.Import imp : declaredImports(wf)) {
+			modules.addAll(imports(imp.filter));
+			modules.addAll(imports(imp.filter.parent().append("*")));
+		}
+		modules.remove(wf.module);
+		return modules;
+	}
+	
 	/**
 	 * Get the source file associated with a given module identifier. If the
 	 * source file does not exist, null is returned.
@@ -334,6 +560,295 @@ public final class WhileyBuilder implements Builder {
 	// Private Implementation
 	// ======================================================================
 
+	/**
+	 * Holds the state used by a single worker thread during a parallel build.
+	 * The resolver and generator cache information between files, whilst
+	 * pipeline stages keep information about the file being processed.
+	 * Therefore, none of these can be shared between threads.
+	 */
+	private final class Worker {
+		final GlobalResolver resolver;
+		final CodeGeneration generator;
+		final List<Transform<WyilFile>> stages;
+		
+		public Worker() {
+			this.resolver = new GlobalResolver(WhileyBuilder.this);
+			this.generator = new CodeGeneration(WhileyBuilder.this,
+					new GlobalGenerator(WhileyBuilder.this, resolver), resolver);
+			this.stages = pipeline.instantiate(WhileyBuilder.this);
+		}
+	}
+	
+	/**
+	 * Execute a list of tasks and wait for them all to complete. The results
+	 * are returned in the same order as the tasks. If any task fails, then the
+	 * exception thrown by the first failing task (in order) is rethrown. This
+	 * ensures errors are reported deterministically.
+	 * 
+	 * @param executor
+	 * @param tasks
+	 * @return
+	 * @throws Exception
+	 */
+	private static <T> List<T> execute(ExecutorService executor,
+			List<? extends Callable<T>> tasks) throws Exception {
+		ArrayList<T> results = new ArrayList<T>();
+		for (Future<T> f : executor.invokeAll(tasks)) {
+			try {
+				results.add(f.get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw e;
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Determine the set of identifiers used in a given source file. This is
+	 * used to identify which other source files it may depend upon, since a
+	 * file can only refer to another via a name that the other declares, or
+	 * via the other's module name.
+	 * 
+	 * @param sf
+	 * @return
+	 * @throws IOException
+	 */
+	private static Set<String> identifiers(Path.Entry<WhileyFile> sf)
+			throws IOException {
+		HashSet<String> identifiers = new HashSet<String>();
+		InputStream input = sf.inputStream();
+		try {
+			for (WhileyLexer.Token t : new WhileyLexer(input).scan()) {
+				if (t instanceof WhileyLexer.Identifier) {
+					identifiers.add(t.text);
+				}
+			}
+		} finally {
+			input.close();
+		}
+		return identifiers;
+	}
+	
+	/**
+	 * Determine the source files (other than itself) that a given source file
+	 * may depend upon. This is a conservative approximation of the names which
+	 * will be resolved through its import statements (see
+	 * <code>GlobalResolver.resolveAsName()</code> and
+	 * <code>GlobalResolver.resolveAsModule()</code>).
+	 * 
+	 * @param wf
+	 *            --- source file whose dependencies are required.
+	 * @param identifiers
+	 *            --- identifiers used in the source file.
+	 * @param names
+	 *            --- names declared in each source file being compiled.
+	 * @return
+	 */
+	private Set<Path.ID> dependencies(WhileyFile wf, Set<String> identifiers,
+			Map<Path.ID, Set<String>> names) {
+		List<WhileyFile.Import> imports = declaredImports(wf);
+
+		HashSet<Path.ID> dependencies = new HashSet<Path.ID>();
+		for (Path.ID mid : srcFiles.keySet()) {
+			if (mid == wf.module) {
+				continue;
+			}
+			boolean byModule = identifiers.contains(mid.last());
+			boolean byName = !Collections.disjoint(identifiers, names.get(mid));
+			for (WhileyFile.Import imp : imports) {
+				Trie filter = imp.filter;
+				if ((byModule && filter.parent().append("*").matches(mid))
+						|| (byName && imp.name != null && filter.matches(mid))) {
+					dependencies.add(mid);
+					break;
+				}
+			}
+		}
+		return dependencies;
+	}
+	
+	/**
+	 * Determine the import statements in effect for a given source file. This
+	 * includes those which are implicit in every source file.
+	 * 
+	 * @param wf
+	 * @return
+	 */
+	private static List<WhileyFile.Import> declaredImports(WhileyFile wf) {
+		ArrayList<WhileyFile.Import> imports = new ArrayList<WhileyFile.Import>();
+		imports.add(new WhileyFile.Import(Trie.fromString("whiley/lang/*"), null));
+		imports.add(new WhileyFile.Import(Trie.fromString(wf.module.parent(), "*"), null));
+		for (WhileyFile.Declaration d : wf.declarations) {
+			if (d instanceof WhileyFile.Import) {
+				imports.add((WhileyFile.Import) d);
+			}
+		}
+		return imports;
+	}
+	
+	/**
+	 * Record the given source files in the build database (if there is one).
+	 * This is done once all pipeline stages have been applied, since these
+	 * may change the interface of a module (e.g. by transforming its
+	 * preconditions).
+	 * 
+	 * @param delta
+	 * @throws Exception
+	 */
+	private void record(List<Pair<Path.Entry<?>, Path.Entry<?>>> delta)
+			throws Exception {
+		if (database == null) {
+			return;
+		}
+		for (Pair<Path.Entry<?>, Path.Entry<?>> p : delta) {
+			Path.Entry<?> f = p.first();
+			Path.Entry<?> s = p.second();
+			if (f.contentType() == WhileyFile.ContentType
+					&& s.contentType() == WyilFile.ContentType) {
+				Path.Entry<WhileyFile> source = (Path.Entry<WhileyFile>) f;
+				Path.Entry<WyilFile> target = (Path.Entry<WyilFile>) s;
+				database.put(source.id(), new BuildDatabase.Record(
+						BuildDatabase.hash(source), target.read().fingerprint(),
+						importedModules(source.read())));
+			}
+		}
+	}
+	
+	/**
+	 * Schedule the given source files into waves, such that every file in a
+	 * wave depends only upon those in earlier waves. Each wave consists of one
+	 * or more groups which can be processed concurrently. Files which depend
+	 * upon each other (directly or indirectly) are placed in the same group,
+	 * and each group lists its files in build order.
+	 * 
+	 * @param sources
+	 *            --- source files in build order.
+	 * @param identifiers
+	 *            --- identifiers used in each source file.
+	 * @return
+	 * @throws IOException
+	 */
+	private List<List<List<Path.Entry<WhileyFile>>>> schedule(
+			List<Path.Entry<WhileyFile>> sources,
+			Map<Path.ID, Set<String>> identifiers) throws IOException {
+		int n = sources.size();
+		HashMap<Path.ID, Integer> indices = new HashMap<Path.ID, Integer>();
+		HashMap<Path.ID, Set<String>> names = new HashMap<Path.ID, Set<String>>();
+		for (int i = 0; i != n; ++i) {
+			WhileyFile wf = sources.get(i).read();
+			HashSet<String> declared = new HashSet<String>();
+			for (WhileyFile.Declaration d : wf.declarations) {
+				declared.add(d.name());
+			}
+			indices.put(wf.module, i);
+			names.put(wf.module, declared);
+		}
+		int[][] edges = new int[n][];
+		for (int i = 0; i != n; ++i) {
+			WhileyFile wf = sources.get(i).read();
+			Set<Path.ID> deps = dependencies(wf, identifiers.get(wf.module), names);
+			edges[i] = new int[deps.size()];
+			int j = 0;
+			for (Path.ID dep : deps) {
+				edges[i][j++] = indices.get(dep);
+			}
+		}
+
+		// First, compute the strongly connected components. These are
+		// produced such that every component follows those it depends upon.
+		ArrayList<ArrayList<Integer>> components = new Tarjan(edges).components;
+		int[] component = new int[n];
+		for (int c = 0; c != components.size(); ++c) {
+			for (int i : components.get(c)) {
+				component[i] = c;
+			}
+		}
+
+		// Second, assign each component to the earliest wave possible.
+		ArrayList<List<List<Path.Entry<WhileyFile>>>> waves = new ArrayList<List<List<Path.Entry<WhileyFile>>>>();
+		int[] wave = new int[components.size()];
+		for (int c = 0; c != components.size(); ++c) {
+			ArrayList<Integer> files = components.get(c);
+			int w = 0;
+			for (int i : files) {
+				for (int j : edges[i]) {
+					if (component[j] != c) {
+						w = Math.max(w, wave[component[j]] + 1);
+					}
+				}
+			}
+			wave[c] = w;
+			while (waves.size() <= w) {
+				waves.add(new ArrayList<List<Path.Entry<WhileyFile>>>());
+			}
+			Collections.sort(files);
+			ArrayList<Path.Entry<WhileyFile>> group = new ArrayList<Path.Entry<WhileyFile>>();
+			for (int i : files) {
+				group.add(sources.get(i));
+			}
+			waves.get(w).add(group);
+		}
+
+		return waves;
+	}
+	
+	/**
+	 * Tarjan's algorithm for computing the strongly connected components of a
+	 * graph. Components are produced in reverse topological order (i.e. a
+	 * component comes after all those it can reach).
+	 */
+	private static final class Tarjan {
+		private final int[][] edges;
+		private final int[] index;
+		private final int[] lowlink;
+		private final boolean[] onStack;
+		private final ArrayList<Integer> stack = new ArrayList<Integer>();
+		private int counter = 1;
+		final ArrayList<ArrayList<Integer>> components = new ArrayList<ArrayList<Integer>>();
+
+		public Tarjan(int[][] edges) {
+			this.edges = edges;
+			this.index = new int[edges.length];
+			this.lowlink = new int[edges.length];
+			this.onStack = new boolean[edges.length];
+			for (int i = 0; i != edges.length; ++i) {
+				if (index[i] == 0) {
+					visit(i);
+				}
+			}
+		}
+
+		private void visit(int v) {
+			index[v] = lowlink[v] = counter++;
+			stack.add(v);
+			onStack[v] = true;
+			for (int w : edges[v]) {
+				if (index[w] == 0) {
+					visit(w);
+					lowlink[v] = Math.min(lowlink[v], lowlink[w]);
+				} else if (onStack[w]) {
+					lowlink[v] = Math.min(lowlink[v], index[w]);
+				}
+			}
+			if (lowlink[v] == index[v]) {
+				ArrayList<Integer> component = new ArrayList<Integer>();
+				int w;
+				do {
+					w = stack.remove(stack.size() - 1);
+					onStack[w] = false;
+					component.add(w);
+				} while (w != v);
+				components.add(component);
+			}
+		}
+	}
+
 	private void process(WyilFile module, Transform stage) throws Exception {
 		Runtime runtime = Runtime.getRuntime();
 		long start = System.currentTimeMillis();		
@@ -344,7 +859,11 @@ public final class WhileyBuilder implements Builder {
 			stage.apply(module);			
 			logger.logTimedMessage("[" + module.filename() + "] applied "
 					+ name, System.currentTimeMillis() - start, memory - runtime.freeMemory());
-			System.gc();
+			if(threads == 1) {
+				// the memory statistics are meaningless when other threads
+				// are running, so don't stall them. 
+				System.gc();
+			}
 		} catch (RuntimeException ex) {
 			logger.logTimedMessage("[" + module.filename() + "] failed on "
 					+ name + " (" + ex.getMessage() + ")",
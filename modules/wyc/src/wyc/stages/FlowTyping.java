@@ -826,15 +826,6 @@ public final class FlowTyping {
 		lhs.free();
 		rhs.free(); 		
 		
-		Environment result = new Environment();
-		for(String key : lhs.keySet()) {
-			if(rhs.containsKey(key)) {
-				Nominal lhs_t = lhs.get(key);
-				Nominal rhs_t = rhs.get(key);				
-				result.put(key, Nominal.Union(lhs_t, rhs_t));
-			}
-		}
-		
-		return result;
+		return lhs.join(rhs);
 	}	
 }
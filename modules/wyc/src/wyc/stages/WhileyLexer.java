@@ -27,8 +27,10 @@ package wyc.stages;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
 import java.util.*;
 
+import wybs.io.ByteBufferInputStream;
 import wybs.lang.SyntaxError;
 import wyautl.util.BigRational;
 
@@ -53,20 +55,32 @@ public class WhileyLexer {
 	}
 	
 	public WhileyLexer(InputStream instream) throws IOException {
-		this(new InputStreamReader(instream,"UTF-8"));		
+		if (instream instanceof ByteBufferInputStream) {
+			// decode straight from the buffer, which avoids copying the file
+			// through an intermediate reader.
+			input = UTF8.decode(((ByteBufferInputStream) instream).buffer())
+					.toString();
+		} else {
+			input = read(new InputStreamReader(instream, "UTF-8"));
+		}
 	}
 	
 	public WhileyLexer(Reader reader) throws IOException {	
+		input = read(reader);
+	}
+	
+	private static String read(Reader reader) throws IOException {
 		StringBuilder tmp = new StringBuilder();	    
 	    int len = 0;
 	    char[] buf = new char[1024]; 
 	    while((len = reader.read(buf)) != -1) {
 	    	tmp.append(buf,0,len);	    	
 	    }
-		
-		input = tmp.toString();	
+		return tmp.toString();
 	}
 	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
 	public List<Token> scan() {
 		ArrayList<Token> tokens = new ArrayList<Token>();
 		pos = 0;
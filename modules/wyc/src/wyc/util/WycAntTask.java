@@ -113,6 +113,14 @@ public class WycAntTask extends MatchingTask {
     	builder.setVerbose(b);
     }
     
+    public void setThreads(int threads) {
+    	builder.setThreads(threads);
+    }
+    
+    public void setIncremental(boolean b) {
+    	builder.setIncremental(b);
+    }
+    
     public void execute() throws BuildException { 
     	try {
     		int count = builder.buildAll();    		
@@ -11,10 +11,16 @@ import wyil.checks.*;
 import wyc.builder.WhileyBuilder;
 import wyc.lang.WhileyFile;
 import wycs.builders.Wyal2WycsBuilder;
+import wycs.core.SemanticType;
 import wycs.core.WycsFile;
 import wycs.syntax.WyalFile;
+import wycs.transforms.VerificationCheck;
+import wycs.util.ProofCache;
 import wycs.util.WycsBuildTask;
 import wyil.io.WyilFilePrinter;
+import wyil.lang.Code;
+import wyil.lang.Constant;
+import wyil.lang.Type;
 import wyil.lang.WyilFile;
 
 /**
@@ -279,6 +285,37 @@ public class WycBuildTask {
 	 */
 	protected boolean verification = false;	
 	
+	/**
+	 * The number of worker threads used to compile whiley source files. When
+	 * this is one, source files are compiled sequentially.
+	 */
+	protected int threads = 1;
+	
+	/**
+	 * Indicates whether or not builds should be incremental. When they are, a
+	 * build database is maintained in the wyil directory which records what was
+	 * previously built. Then, only source files whose contents have changed are
+	 * rebuilt, along with any source files that import a module whose interface
+	 * has changed as a result.
+	 */
+	protected boolean incremental = false;
+	
+	/**
+	 * The build database used for incremental builds. This is opened when
+	 * first needed.
+	 */
+	protected BuildDatabase database;
+	
+	/**
+	 * The roots previously created by this build task, indexed by their
+	 * location and file filter. These are reused (after being refreshed)
+	 * whenever the same location is configured again. This is important when
+	 * a build task is used for several builds (e.g. by a compile server),
+	 * since files loaded by earlier builds need only be loaded again if they
+	 * have changed on disk.
+	 */
+	private final HashMap<Pair<File, FileFilter>, Path.Root> roots = new HashMap<Pair<File, FileFilter>, Path.Root>();
+	
 	// ==========================================================================
 	// Constructors & Configuration
 	// ========================================================================== 
@@ -309,30 +346,54 @@ public class WycBuildTask {
 		this.verification = verification;
 	}
 	
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
 	public void setPipelineModifiers(List<Pipeline.Modifier> modifiers) {		
 		this.pipelineModifiers = new ArrayList<Pipeline.Modifier>(modifiers);
 	}
+	
+	/**
+	 * Reset the configuration of this build task, so that it can be
+	 * reconfigured for another build. The output directories revert to their
+	 * defaults and any pipeline modifiers are discarded. However, previously
+	 * loaded roots are retained for reuse.
+	 */
+	public void reset() {
+		this.wyilDir = new VirtualRoot(registry);
+		this.wyalDir = new VirtualRoot(registry);
+		this.wycsDir = new VirtualRoot(registry);
+		this.pipelineModifiers = null;
+		this.database = null;
+	}
 		
 	public void setWhileyDir(File whileydir) throws IOException {
-		this.whileyDir = new DirectoryRoot(whileydir, whileyFileFilter, registry);
+		this.whileyDir = directoryRoot(whileydir, whileyFileFilter);
 		if(wyilDir instanceof VirtualRoot) {
 			// The point here is to ensure that when this build task is used in
 			// a standalone fashion, that wyil files are actually written to
 			// disk. 
-			this.wyilDir = new DirectoryRoot(whileydir, wyilFileFilter, registry);
+			this.wyilDir = directoryRoot(whileydir, wyilFileFilter);
+			this.database = null;
 		}
 	}
 
     public void setWyilDir (File wyildir) throws IOException {	
-        this.wyilDir = new DirectoryRoot(wyildir, wyilFileFilter, registry);
+        this.wyilDir = directoryRoot(wyildir, wyilFileFilter);
+        this.database = null;
     }
     
     public void setWyalDir (File wyaldir) throws IOException {	    	
-        this.wyalDir = new DirectoryRoot(wyaldir, wyalFileFilter, registry);
+        this.wyalDir = directoryRoot(wyaldir, wyalFileFilter);
     }
     
     public void setWycsDir (File wycsdir) throws IOException {	    	
-        this.wycsDir = new DirectoryRoot(wycsdir, wycsFileFilter, registry);
+        this.wycsDir = directoryRoot(wycsdir, wycsFileFilter);
     }
     
     public void setWhileyPath(List<File> roots) throws IOException {		
@@ -340,9 +401,9 @@ public class WycBuildTask {
 		for (File root : roots) {
 			try {
 				if (root.getName().endsWith(".jar")) {
-					whileypath.add(new JarFileRoot(root, registry));
+					whileypath.add(jarFileRoot(root));
 				} else {
-					whileypath.add(new DirectoryRoot(root, wyilFileFilter, registry));
+					whileypath.add(directoryRoot(root, wyilFileFilter));
 				}
 			} catch (IOException e) {
 				if (verbose) {
@@ -358,9 +419,9 @@ public class WycBuildTask {
 		for (File root : roots) {
 			try {
 				if (root.getName().endsWith(".jar")) {
-					bootpath.add(new JarFileRoot(root, registry));
+					bootpath.add(jarFileRoot(root));
 				} else {
-					bootpath.add(new DirectoryRoot(root, wyilOrWycsFileFilter, registry));
+					bootpath.add(directoryRoot(root, wyilOrWycsFileFilter));
 				}
 			} catch (IOException e) {
 				if (verbose) {
@@ -443,8 +504,20 @@ public class WycBuildTask {
 	 * 
 	 * @param _args
 	 */
-	public void build(List<File> files) throws Exception {					
-		buildEntries(whileyDir.find(files, WhileyFile.ContentType));    
+	public void build(List<File> files) throws Exception {
+		List<Path.Entry<WhileyFile>> entries = whileyDir.find(files, WhileyFile.ContentType);
+		BuildDatabase database = database();
+		if (database != null) {
+			// only those given files which have actually changed need building
+			ArrayList<Path.Entry<WhileyFile>> modified = new ArrayList<Path.Entry<WhileyFile>>();
+			for (Path.Entry<WhileyFile> e : entries) {
+				if (e == null || isModified(e, database)) {
+					modified.add(e);
+				}
+			}
+			entries = modified;
+		}
+		buildEntries(entries);    
 	}
 
     /**
@@ -476,9 +549,55 @@ public class WycBuildTask {
 		// Build!
 		// ======================================================================		
 
+		BuildDatabase database = database();
+		if (database != null && whileyDir != null) {
+			// Forget source files which have been deleted since they were
+			// built. Any modules importing them are rebuilt below.
+			database.prune(whileyDir, WhileyFile.ContentType);
+		}
+		
 		project.build(delta);
 		
+		if (database != null) {
+			// Now, rebuild every source file which imports a module whose
+			// interface has changed. In turn, this may change their interfaces
+			// and so on.
+			HashSet<Path.ID> built = new HashSet<Path.ID>();
+			for (Path.Entry<T> e : delta) {
+				built.add(e.id());
+			}
+			Set<Path.ID> changed = database.changed();
+			while (!changed.isEmpty()) {
+				ArrayList<Path.Entry<WhileyFile>> dependents = new ArrayList<Path.Entry<WhileyFile>>();
+				for (Path.ID id : database.dependentsOf(changed)) {
+					Path.Entry<WhileyFile> e = whileyDir.get(id, WhileyFile.ContentType);
+					if (e != null && built.add(id)) {
+						dependents.add(e);
+					}
+				}
+				if (dependents.isEmpty()) {
+					break;
+				}
+				if (verbose) {
+					logout.println("Rebuilding " + dependents.size()
+							+ " dependent source file(s)");
+				}
+				project.build(dependents);
+				changed = database.changed();
+			}
+			database.save();
+		}
+		
 		flush();		
+		
+		if(verbose) {
+			logout.println("Interned types: " + Type.interner());
+			logout.println("Interned constants: " + Constant.interner());
+			logout.println("Interned bytecodes: " + Code.interner());
+			logout.println("Type queries: " + Type.queries());
+			logout.println("Semantic type queries: " + SemanticType.queries());
+			logout.println("Constructed semantic types: " + SemanticType.constructed());
+		}
 	}
 	
 	// ==========================================================================
@@ -519,15 +638,110 @@ public class WycBuildTask {
 	}
 	
 	protected List getModifiedSourceFiles() throws IOException {
+		BuildDatabase database = database();
 		if (whileyDir == null) {
 			// Note, whileyDir can be null if e.g. compiling wyil -> wyjc
 			return new ArrayList();
+		} else if (database != null) {
+			ArrayList<Path.Entry<WhileyFile>> sources = new ArrayList<Path.Entry<WhileyFile>>();
+			for (Path.Entry<WhileyFile> source : whileyDir.get(whileyIncludes)) {
+				if (isModified(source, database)) {
+					sources.add(source);
+				}
+			}
+			return sources;
 		} else {
 			return getModifiedSourceFiles(whileyDir, whileyIncludes, wyilDir,
 					WyilFile.ContentType);
 		}
 	}
 	
+	/**
+	 * Get the root for a given directory and file filter. If this was
+	 * previously created, then it is refreshed and reused. Entries whose files
+	 * are unchanged on disk are retained, along with any contents already
+	 * loaded. The exception is the contents of source files, which are
+	 * rewritten in place as they are compiled (e.g. during flow typing) and,
+	 * hence, must be parsed again for each build.
+	 * 
+	 * @param dir
+	 * @param filter
+	 * @return
+	 * @throws IOException
+	 */
+	protected DirectoryRoot directoryRoot(File dir, FileFilter filter)
+			throws IOException {
+		Pair<File, FileFilter> key = new Pair<File, FileFilter>(
+				dir.getCanonicalFile(), filter);
+		DirectoryRoot root = (DirectoryRoot) roots.get(key);
+		if (root == null) {
+			root = new DirectoryRoot(dir, filter, registry);
+			roots.put(key, root);
+		} else {
+			root.refresh();
+			if (filter == whileyFileFilter) {
+				for (Path.Entry<WhileyFile> e : root.get(Content.filter("**",
+						WhileyFile.ContentType))) {
+					e.refresh(); // discard contents
+				}
+			}
+		}
+		return root;
+	}
+	
+	/**
+	 * Get the root for a given jar file. If this was previously created, then
+	 * it is reused unless the jar file has since changed.
+	 * 
+	 * @param jar
+	 * @return
+	 * @throws IOException
+	 */
+	protected JarFileRoot jarFileRoot(File jar) throws IOException {
+		Pair<File, FileFilter> key = new Pair<File, FileFilter>(
+				jar.getCanonicalFile(), null);
+		JarFileRoot root = (JarFileRoot) roots.get(key);
+		if (root == null) {
+			root = new JarFileRoot(jar, registry);
+			roots.put(key, root);
+		} else {
+			root.refresh();
+		}
+		return root;
+	}
+	
+	/**
+	 * Get the build database used for incremental builds, opening it if
+	 * necessary. This is <code>null</code> if builds are not incremental, or
+	 * if wyil files are not being written to disk (in which case there is
+	 * nothing to be incremental with respect to).
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	protected BuildDatabase database() throws IOException {
+		if (database == null && incremental && wyilDir instanceof DirectoryRoot) {
+			File dir = ((DirectoryRoot) wyilDir).location();
+			database = new BuildDatabase(new File(dir, BuildDatabase.FILENAME));
+		}
+		return database;
+	}
+	
+	/**
+	 * Determine whether a given source file must be rebuilt. This is the case
+	 * if it has changed since it was last built, or its wyil file is missing.
+	 * 
+	 * @param source
+	 * @param database
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean isModified(Path.Entry<WhileyFile> source,
+			BuildDatabase database) throws IOException {
+		return database.isModified(source)
+				|| wyilDir.get(source.id(), WyilFile.ContentType) == null;
+	}
+	
 	/**
 	 * Add all build rules to the project. By default, this adds a standard
 	 * build rule for compiling whiley files to wyil files using the
@@ -550,6 +764,8 @@ public class WycBuildTask {
 			// ========================================================
 			
 			WhileyBuilder wyilBuilder = new WhileyBuilder(project,wyilPipeline);
+			wyilBuilder.setThreads(threads);
+			wyilBuilder.setDatabase(database);
 
 			if(verbose) {			
 				wyilBuilder.setLogger(new Logger.Default(System.err));
@@ -587,6 +803,14 @@ public class WycBuildTask {
 				
 				Pipeline<WycsFile> wycsPipeline = new Pipeline(WycsBuildTask.defaultPipeline);    		
 
+				if (incremental && wyilDir instanceof DirectoryRoot) {
+					// cache the outcome of verifying each assertion alongside
+					// the build database, so unchanged assertions are skipped.
+					File dir = ((DirectoryRoot) wyilDir).location();
+					wycsPipeline.setOption(VerificationCheck.class, "cache",
+							new File(dir, ProofCache.FILENAME).getPath());
+				}
+
 				if(pipelineModifiers != null) {
 					wycsPipeline.apply(pipelineModifiers);
 				}
@@ -1086,6 +1086,8 @@ public class Wyil2CBuilder implements Builder {
 
 			} else if (cod instanceof Code.Assign) {
 				this.writeCodeAssign(cod);
+			} else if (cod instanceof Code.Move) {
+				this.writeCodeMove(cod);
 			} else if (cod instanceof Code.Invoke) {
 				this.writeCodeInvoke(cod);
 			} else if (cod instanceof Code.BinArithOp) {
@@ -2260,6 +2262,20 @@ public class Wyil2CBuilder implements Builder {
 			this.mbodyAddLineTINL(	"WY_OBJ_BUMP(X" + rhs + ");"	);
 			return;
 		}
+
+		public void writeCodeMove(Code codIn){
+			int targ, rhs;
+
+			Code.Move cod = (Code.Move) codIn;
+			targ = cod.target;
+			rhs = cod.operand;
+			writeClearTarget(targ);
+			// the operand is dead, but it is still released when cleared
+			this.addDecl(targ, "wycc_obj*");
+			this.mbodyAddLineTINL(	"X" + targ + " = X" + rhs + ";"	);
+			this.mbodyAddLineTINL(	"WY_OBJ_BUMP(X" + rhs + ");"	);
+			return;
+		}
 			
 		public void writeCodeConvert(Code codIn){
 			String tmp;
@@ -40,6 +40,7 @@ import static wycs.solver.Solver.SCHEMA;
 
 import wycs.solver.Solver;
 import wycs.util.WycsBuildTask;
+import wyrl.util.RewriteContext;
 
 /**
 * The main class provides all of the necessary plumbing to process command-line
@@ -186,14 +187,14 @@ public class WycsMain {
 					FileInputStream fin = new FileInputStream(args.get(0));
 					PrettyAutomataReader reader = new PrettyAutomataReader(fin,SCHEMA);				
 					Automaton automaton = reader.read();
-					Solver.MAX_STEPS = 2000000;
+					RewriteContext context = new RewriteContext(2000000);
 					new PrettyAutomataWriter(System.err, SCHEMA, "And",
 							"Or").write(automaton);					
 					//for(int i=0;i!=100;++i) {
-						Solver.infer(automaton);
-						System.err.println("\n\n=> (" + Solver.numSteps
-								+ " steps, " + Solver.numInferences
-								+ " reductions, " + Solver.numInferences
+						Solver.infer(automaton, context);
+						System.err.println("\n\n=> (" + context.numSteps
+								+ " steps, " + context.numReductions
+								+ " reductions, " + context.numInferences
 								+ " inferences)\n");
 						new PrettyAutomataWriter(System.err, SCHEMA, "And",
 								"Or").write(automaton);
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Map;
 import wyautl.core.*;
 import wyautl.io.PrettyAutomataWriter;
+import wybs.util.MemoTable;
 import static wycs.core.Types.*;
 
 public abstract class SemanticType {
@@ -14,6 +15,29 @@ public abstract class SemanticType {
 	// Public Interface
 	// =============================================================
 	
+	/**
+	 * The maximum number of constructed types, and results of subtype tests,
+	 * which are remembered.
+	 */
+	private static final int MAX_QUERIES = 1 << 14;
+	
+	/**
+	 * Remembers the types constructed so far, indexed by the canonical form of
+	 * their automaton. Thus, types which are isomorphic are represented by the
+	 * same instance, which means the canonical form of each need only be
+	 * computed once. <b>NOTE:</b> this must be initialised before the type
+	 * constants below, since constructing these uses it.
+	 */
+	private static final MemoTable<Automaton,SemanticType> constructed = new MemoTable<Automaton,SemanticType>(MAX_QUERIES);
+	
+	/**
+	 * Remembers the results of subtype tests between types. These are
+	 * expensive, since each requires rewriting the intersection of one type
+	 * with the negation of the other. Yet, the same questions are asked many
+	 * times over (e.g. during type propagation).
+	 */
+	private static final MemoTable<Query,Boolean> queries = new MemoTable<Query,Boolean>(MAX_QUERIES);
+	
 	public static final Any Any = new Any();
 	public static final Void Void = new Void();
 	public static final Bool Bool = new Bool();
@@ -461,6 +485,12 @@ public abstract class SemanticType {
 
 	protected final Automaton automaton;
 	
+	/**
+	 * The canonical form of this type's automaton, which is computed when
+	 * first needed.
+	 */
+	private volatile Automaton canonical;
+	
 	private SemanticType() {
 		this.automaton = new Automaton();
 	}	
@@ -472,6 +502,38 @@ public abstract class SemanticType {
 	public Automaton automaton() {
 		return automaton;
 	}
+	
+	/**
+	 * Get the canonical form of this type's automaton. Any two types which are
+	 * isomorphic have identical canonical forms, and hence this is suitable
+	 * for use as a key.
+	 * 
+	 * @return
+	 */
+	private Automaton canonical() {
+		Automaton c = canonical;
+		if (c == null) {
+			c = canonical(automaton);
+			canonical = c;
+		}
+		return c;
+	}
+	
+	/**
+	 * Compute the canonical form of a given automaton, which is not modified.
+	 * This is used both to index constructed types and to identify subtype
+	 * tests, so these must agree on what is isomorphic.
+	 * 
+	 * @param automaton
+	 * @return
+	 */
+	private static Automaton canonical(Automaton automaton) {
+		Automaton c = new Automaton(automaton);
+		c.minimise();
+		c.compact();
+		c.canonicalise();
+		return c;
+	}
 			
 	public int hashCode() {
 		return automaton.hashCode();
@@ -687,7 +749,9 @@ public abstract class SemanticType {
 	
 	/**
 	 * Construct a given type from an automaton. This is primarily used to
-	 * reconstruct a type after expansion.
+	 * reconstruct a type after expansion. If an isomorphic type has already
+	 * been constructed, then that is returned instead. Hence, the automaton of
+	 * the returned type may be shared and must not be modified.
 	 * 
 	 * @param automaton
 	 * @return
@@ -710,10 +774,24 @@ public abstract class SemanticType {
 			return Int;
 		case K_RealT:
 			return Real;
-		case K_VarT:
-			return new SemanticType.Var(automaton);
 		case K_StringT:
 			return String;
+		}
+		
+		Automaton canonical = canonical(automaton);
+		SemanticType type = constructed.get(canonical);
+		if (type == null) {
+			type = construct(automaton, state.kind);
+			type.canonical = canonical;
+			constructed.put(canonical, type);
+		}
+		return type;
+	}
+	
+	private static SemanticType construct(Automaton automaton, int kind) {
+		switch(kind) {
+		case K_VarT:
+			return new SemanticType.Var(automaton);
 		// connectives
 		case K_NotT:
 			return new SemanticType.Not(automaton);
@@ -735,7 +813,7 @@ public abstract class SemanticType {
 		case K_FunctionT:
 			return new SemanticType.Function(automaton);
 		default:
-			throw new IllegalArgumentException("Unknown kind encountered - " + state.kind);
+			throw new IllegalArgumentException("Unknown kind encountered - " + kind);
 		}
 	}
 	
@@ -767,23 +845,72 @@ public abstract class SemanticType {
 	 *            --- Semantic type to test whether contained by <code>t1</code>.	 
 	 */
 	public static boolean isSubtype(SemanticType t1, SemanticType t2) {		
-		SemanticType result = SemanticType.And(SemanticType.Not(t1),t2);
-//		try {
-//			new PrettyAutomataWriter(System.err, SCHEMA, "And",
-//					"Or").write(result.automaton);
-//			System.out.println();
-//		} catch(IOException e) {}
-		Types.infer(result.automaton);		
-		boolean r = result.equals(SemanticType.Void);
-//		System.out.println("CHECKING SUBTYPE: " + t1 + " :> " + t2 + " : " + r);		
-//		try {
-//			new PrettyAutomataWriter(System.err, SCHEMA, "And",
-//					"Or").write(result.automaton);
-//			System.out.println();
-//		} catch(IOException e) {}
+		Query query = new Query(t1.canonical(), t2.canonical());
+		Boolean r = queries.get(query);
+		if (r == null) {
+			SemanticType result = SemanticType.And(SemanticType.Not(t1), t2);
+			// NOTE: the result may be shared, hence it is copied before being
+			// rewritten.
+			Automaton automaton = new Automaton(result.automaton);
+			Types.infer(automaton);
+			r = automaton.equals(SemanticType.Void.automaton);
+			queries.put(query, r);
+		}
 		return r;
 	}
 	
+	/**
+	 * Get the table of remembered subtype tests. This is useful for reporting
+	 * statistics on how often they are reused.
+	 * 
+	 * @return
+	 */
+	public static MemoTable<?,?> queries() {
+		return queries;
+	}
+	
+	/**
+	 * Get the table of remembered types. This is useful for reporting
+	 * statistics on how often they are reused.
+	 * 
+	 * @return
+	 */
+	public static MemoTable<?,?> constructed() {
+		return constructed;
+	}
+	
+	/**
+	 * Identifies a subtype test between a pair of types, using the canonical
+	 * forms of their automata.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class Query {
+		private final Automaton t1;
+		private final Automaton t2;
+		private final int hashCode;
+		
+		public Query(Automaton t1, Automaton t2) {
+			this.t1 = t1;
+			this.t2 = t2;
+			this.hashCode = t1.hashCode() * 31 + t2.hashCode();
+		}
+		
+		public boolean equals(Object o) {
+			if (o instanceof Query) {
+				Query q = (Query) o;
+				return hashCode == q.hashCode && t1.equals(q.t1)
+						&& t2.equals(q.t2);
+			}
+			return false;
+		}
+		
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+	
 	/**
 	 * Attempt to bind a generic type against a concrete type. This will fail if
 	 * no possible binding exists, otherwise it produces a binding from
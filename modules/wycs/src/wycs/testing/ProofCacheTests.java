@@ -0,0 +1,292 @@
+package wycs.testing;
+
+import static org.junit.Assert.*;
+import static wycs.solver.Solver.*;
+
+import java.io.*;
+import java.util.ArrayList;
+
+import org.junit.*;
+
+import wyautl.core.Automaton;
+import wyrl.util.RewriteContext;
+import wycs.transforms.VerificationCheck.Outcome;
+import wycs.util.ProofCache;
+
+/**
+ * Unit tests for the ProofCache class, covering the keys computed for
+ * assertions and the outcomes which are (or are not) kept between builds.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ProofCacheTests {
+
+	private File dir;
+
+	@Before public void setUp() throws IOException {
+		dir = File.createTempFile("wyproofs", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Test that the key of an assertion does not depend upon the order in
+	 * which its automaton was constructed.
+	 */
+	@Test public void keyIgnoresConstructionOrder() {
+		Automaton a1 = new Automaton();
+		int x1 = Var(a1, "x");
+		int y1 = Var(a1, "y");
+		a1.setRoot(0, Not(a1, And(a1, x1, Or(a1, y1, x1))));
+		Automaton a2 = new Automaton();
+		int y2 = Var(a2, "y");
+		int x2 = Var(a2, "x");
+		a2.setRoot(0, Not(a2, And(a2, Or(a2, x2, y2), x2)));
+		prepare(a1);
+		prepare(a2);
+		assertEquals(ProofCache.key(a1, 1000), ProofCache.key(a2, 1000));
+	}
+
+	/**
+	 * Test that computing the key of an assertion does not modify its
+	 * automaton, and always gives the same result.
+	 */
+	@Test public void keyIsStable() {
+		Automaton a = assertion("x", "y");
+		String before = a.toString();
+		String key = ProofCache.key(a, 1000);
+		assertEquals(before, a.toString());
+		assertEquals(key, ProofCache.key(a, 1000));
+		assertEquals(key, ProofCache.key(new Automaton(a), 1000));
+		assertEquals(key, ProofCache.key(assertion("x", "y"), 1000));
+	}
+
+	/**
+	 * Test that assertions which differ, or which are given different step
+	 * budgets, have different keys.
+	 */
+	@Test public void keyDistinguishes() {
+		String key = ProofCache.key(assertion("x", "y"), 1000);
+		assertFalse(key.equals(ProofCache.key(assertion("x", "z"), 1000)));
+		assertFalse(key.equals(ProofCache.key(assertion("x", "y"), 1001)));
+	}
+
+	/**
+	 * Test that outcomes recorded in one build are available in the next.
+	 */
+	@Test public void saveAndLoad() throws IOException {
+		ProofCache cache = ProofCache.open(new File(dir, "a"));
+		String k1 = ProofCache.key(assertion("x", "y"), 1000);
+		String k2 = ProofCache.key(assertion("x", "z"), 1000);
+		cache.put(k1, new ProofCache.Proof(Outcome.PROVED, 12));
+		cache.save();
+		cache.put(k2, new ProofCache.Proof(Outcome.DISPROVED, 34));
+		cache.save();
+		assertSame(cache, ProofCache.open(new File(dir, "a")));
+
+		ProofCache next = reopen(cache, "b");
+		assertEquals(Outcome.PROVED, next.get(k1).outcome);
+		assertEquals(12, next.get(k1).steps);
+		assertEquals(Outcome.DISPROVED, next.get(k2).outcome);
+		assertEquals(34, next.get(k2).steps);
+	}
+
+	/**
+	 * Test that outcomes recorded by a different version of the solver are
+	 * discarded, and that the cache file is then rewritten for this version.
+	 */
+	@Test public void versionMismatch() throws IOException {
+		ProofCache cache = ProofCache.open(new File(dir, "a"));
+		String k1 = ProofCache.key(assertion("x", "y"), 1000);
+		String k2 = ProofCache.key(assertion("x", "z"), 1000);
+		cache.put(k1, new ProofCache.Proof(Outcome.PROVED, 12));
+		cache.save();
+
+		ArrayList<String> lines = read(cache.file());
+		String header = lines.get(0);
+		lines.set(0, header.substring(0, header.lastIndexOf(' ') + 1)
+				+ "0000");
+		write(new File(dir, "b"), lines);
+		ProofCache stale = ProofCache.open(new File(dir, "b"));
+		assertNull(stale.get(k1));
+
+		stale.put(k2, new ProofCache.Proof(Outcome.PROVED, 56));
+		stale.save();
+		lines = read(stale.file());
+		assertEquals(header, lines.get(0));
+		assertEquals(2, lines.size());
+		ProofCache next = reopen(stale, "c");
+		assertNull(next.get(k1));
+		assertEquals(56, next.get(k2).steps);
+	}
+
+	/**
+	 * Test that a cache whose file has been deleted (e.g. by a clean build) is
+	 * read again when next opened, rather than the same instance being reused.
+	 */
+	@Test public void reopenAfterDelete() throws IOException {
+		ProofCache cache = ProofCache.open(new File(dir, "a"));
+		String k1 = ProofCache.key(assertion("x", "y"), 1000);
+		cache.put(k1, new ProofCache.Proof(Outcome.PROVED, 12));
+		cache.save();
+		assertTrue(cache.file().delete());
+
+		ProofCache next = ProofCache.open(new File(dir, "a"));
+		assertNotSame(cache, next);
+		assertNull(next.get(k1));
+		assertSame(next, ProofCache.open(new File(dir, "a")));
+	}
+
+	/**
+	 * Test that a cache whose file has been changed by anything else is read
+	 * again when next opened.
+	 */
+	@Test public void reopenAfterChange() throws IOException {
+		ProofCache cache = ProofCache.open(new File(dir, "a"));
+		ProofCache other = ProofCache.open(new File(dir, "b"));
+		String k1 = ProofCache.key(assertion("x", "y"), 1000);
+		String k2 = ProofCache.key(assertion("x", "z"), 1000);
+		cache.put(k1, new ProofCache.Proof(Outcome.PROVED, 12));
+		cache.save();
+		other.put(k1, new ProofCache.Proof(Outcome.PROVED, 12));
+		other.put(k2, new ProofCache.Proof(Outcome.DISPROVED, 34));
+		other.save();
+		write(cache.file(), read(other.file()));
+
+		ProofCache next = ProofCache.open(new File(dir, "a"));
+		assertNotSame(cache, next);
+		assertEquals(Outcome.DISPROVED, next.get(k2).outcome);
+	}
+
+	/**
+	 * Test that, when the file of a cache is deleted whilst the cache is in
+	 * use, it is written afresh (including its header) when next saved.
+	 */
+	@Test public void headerOnRecreate() throws IOException {
+		ProofCache cache = ProofCache.open(new File(dir, "a"));
+		String k1 = ProofCache.key(assertion("x", "y"), 1000);
+		String k2 = ProofCache.key(assertion("x", "z"), 1000);
+		cache.put(k1, new ProofCache.Proof(Outcome.PROVED, 12));
+		cache.save();
+		String header = read(cache.file()).get(0);
+		assertTrue(cache.file().delete());
+
+		cache.put(k2, new ProofCache.Proof(Outcome.PROVED, 56));
+		cache.save();
+		ArrayList<String> lines = read(cache.file());
+		assertEquals(header, lines.get(0));
+		assertEquals(3, lines.size());
+		ProofCache next = reopen(cache, "b");
+		assertEquals(12, next.get(k1).steps);
+		assertEquals(56, next.get(k2).steps);
+	}
+
+	/**
+	 * Test that a cache file which cannot be understood is ignored.
+	 */
+	@Test public void corruptFile() throws IOException {
+		ProofCache cache = ProofCache.open(new File(dir, "a"));
+		String k1 = ProofCache.key(assertion("x", "y"), 1000);
+		cache.put(k1, new ProofCache.Proof(Outcome.PROVED, 12));
+		cache.save();
+		ArrayList<String> lines = read(cache.file());
+		lines.add("garbage");
+		write(new File(dir, "b"), lines);
+		assertNull(ProofCache.open(new File(dir, "b")).get(k1));
+	}
+
+	/**
+	 * Test that an assertion for which the solver ran out of time is not
+	 * recorded, whilst one for which it ran out of steps is.
+	 */
+	@Test public void timedOutNotCacheable() throws InterruptedException {
+		RewriteContext steps = new RewriteContext(10);
+		steps.numSteps = 11;
+		assertTrue(steps.exhausted());
+		assertTrue(ProofCache.isCacheable(Outcome.EXHAUSTED, steps));
+
+		RewriteContext time = new RewriteContext(1000000, 1);
+		Thread.sleep(10);
+		assertTrue(time.expired());
+		assertTrue(time.exhausted());
+		assertFalse(ProofCache.isCacheable(Outcome.EXHAUSTED, time));
+	}
+
+	/**
+	 * Test that assertions shown to hold, or not, are recorded regardless of
+	 * whether or not a time budget was given.
+	 */
+	@Test public void completedCacheable() {
+		RewriteContext none = new RewriteContext(1000);
+		RewriteContext time = new RewriteContext(1000, 60000);
+		for (Outcome o : new Outcome[] { Outcome.PROVED, Outcome.DISPROVED }) {
+			assertTrue(ProofCache.isCacheable(o, none));
+			assertTrue(ProofCache.isCacheable(o, time));
+		}
+	}
+
+	/**
+	 * Construct the automaton for a simple assertion over two variables, in
+	 * the same way as the verification check does.
+	 */
+	private static Automaton assertion(String v1, String v2) {
+		Automaton automaton = new Automaton();
+		int x = Var(automaton, v1);
+		int y = Var(automaton, v2);
+		automaton.setRoot(0, Not(automaton, Or(automaton, x, Not(automaton, y))));
+		prepare(automaton);
+		return automaton;
+	}
+
+	private static void prepare(Automaton automaton) {
+		automaton.minimise();
+		automaton.compact();
+	}
+
+	/**
+	 * Open a fresh copy of a given cache, as the next build would. This is
+	 * necessary since opening the same file again gives the same instance.
+	 */
+	private ProofCache reopen(ProofCache cache, String name)
+			throws IOException {
+		File copy = new File(dir, name);
+		write(copy, read(cache.file()));
+		return ProofCache.open(copy);
+	}
+
+	private static ArrayList<String> read(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			ArrayList<String> lines = new ArrayList<String>();
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+			return lines;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void write(File file, ArrayList<String> lines)
+			throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			for (String line : lines) {
+				out.println(line);
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
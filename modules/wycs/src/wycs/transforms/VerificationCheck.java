@@ -3,8 +3,14 @@ package wycs.transforms;
 import static wybs.lang.SyntaxError.*;
 import static wycs.solver.Solver.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import wyautl.core.*;
 import wyautl.io.PrettyAutomataWriter;
@@ -26,6 +32,9 @@ import wycs.core.WycsFile;
 import wycs.io.WycsFilePrinter;
 import wycs.solver.Solver;
 import wycs.solver.SolverUtil;
+import wycs.util.ProofCache;
+import wyrl.util.RewriteContext;
+import wyrl.util.RewriteProfile;
 
 /**
  * Responsible for converting a <code>WycsFile</code> into an automaton that can
@@ -49,6 +58,52 @@ public class VerificationCheck implements Transform<WycsFile> {
 	 */
 	private boolean debug = getDebug();
 	
+	/**
+	 * Determines the number of threads used to check assertions. Assertions
+	 * are independent of each other and, hence, can be checked in parallel.
+	 */
+	private int threads = getThreads();
+	
+	/**
+	 * The file in which the outcomes of checking assertions are cached, or
+	 * <code>null</code> if they are not cached. When they are, assertions which
+	 * are unchanged since they were last checked are not checked again.
+	 */
+	private String cache = getCache();
+	
+	/**
+	 * The maximum number of steps the solver may take to check an assertion.
+	 */
+	private int maxSteps = getMaxSteps();
+	
+	/**
+	 * The maximum time (in milliseconds) the solver may take to check an
+	 * assertion, or zero if there is no limit. Unlike the step budget, this
+	 * makes the outcome depend upon the speed of the machine.
+	 */
+	private int timeout = getTimeout();
+	
+	/**
+	 * Determines whether or not a profile of the work done by each rule of the
+	 * solver is reported for each file. This requires that the solver was
+	 * generated with instrumentation enabled.
+	 */
+	private boolean profile = getProfile();
+	
+	/**
+	 * Determines whether or not a profile of the work done by each rule of the
+	 * solver is reported for each assertion.
+	 */
+	private boolean profileAssertions = getProfileAssertions();
+	
+	/**
+	 * The profile accumulated over all assertions checked in the current file,
+	 * or <code>null</code> if this is not being reported.
+	 */
+	private RewriteProfile fileProfile;
+	
+	private ProofCache proofs;
+	
 	private Logger logger;
 	
 	private String filename;
@@ -93,6 +148,78 @@ public class VerificationCheck implements Transform<WycsFile> {
 		this.debug = flag;
 	}
 
+	public static String describeThreads() {
+		return "Set number of threads used to check assertions";
+	}
+
+	public static int getThreads() {
+		return Runtime.getRuntime().availableProcessors(); // default value
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public static String describeCache() {
+		return "Set file in which outcomes of checking assertions are cached";
+	}
+
+	public static String getCache() {
+		return null; // default value
+	}
+
+	public void setCache(String cache) {
+		this.cache = cache;
+	}
+
+	public static String describeMaxSteps() {
+		return "Set maximum number of steps the solver may take for each assertion";
+	}
+
+	public static int getMaxSteps() {
+		return 100000; // default value
+	}
+
+	public void setMaxSteps(int maxSteps) {
+		this.maxSteps = Math.max(0, maxSteps);
+	}
+
+	public static String describeTimeout() {
+		return "Set maximum time (in milliseconds) the solver may take for each assertion (0 for no limit)";
+	}
+
+	public static int getTimeout() {
+		return 0; // default value
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = Math.max(0, timeout);
+	}
+
+	public static String describeProfile() {
+		return "Enable/disable profile of solver rules for each file (requires instrumented solver)";
+	}
+
+	public static boolean getProfile() {
+		return false; // default value
+	}
+
+	public void setProfile(boolean flag) {
+		this.profile = flag;
+	}
+
+	public static String describeProfileAssertions() {
+		return "Enable/disable profile of solver rules for each assertion (requires instrumented solver)";
+	}
+
+	public static boolean getProfileAssertions() {
+		return false; // default value
+	}
+
+	public void setProfileAssertions(boolean flag) {
+		this.profileAssertions = flag;
+	}
+
 	// ======================================================================
 	// Apply Method
 	// ======================================================================
@@ -108,12 +235,12 @@ public class VerificationCheck implements Transform<WycsFile> {
 			this.filename = wf.filename();
 			
 			List<WycsFile.Declaration> statements = wf.declarations();
-			int count = 0;
+			ArrayList<WycsFile.Assert> assertions = new ArrayList<WycsFile.Assert>();
 			for (int i = 0; i != statements.size(); ++i) {
 				WycsFile.Declaration stmt = statements.get(i);
 
 				if (stmt instanceof WycsFile.Assert) {
-					checkValid((WycsFile.Assert) stmt, ++count);
+					assertions.add((WycsFile.Assert) stmt);
 				} else if (stmt instanceof WycsFile.Function
 						|| stmt instanceof WycsFile.Macro) {
 					// TODO: we could try to verify that the function makes
@@ -124,6 +251,101 @@ public class VerificationCheck implements Transform<WycsFile> {
 							filename, stmt);
 				}
 			}
+			
+			// NOTE: the cache is not used when debugging or profiling, since
+			// the automata needed for debugging output are not cached, and
+			// cached assertions would be missing from the profile.
+			proofs = null;
+			if (cache != null && !debug && !profile && !profileAssertions) {
+				try {
+					proofs = ProofCache.open(new File(cache));
+				} catch (IOException e) {
+					// cannot open cache, so just check everything
+				}
+			}
+			
+			fileProfile = null;
+			if (profile || profileAssertions) {
+				if (!Solver.INSTRUMENTED) {
+					System.err.println("[" + filename
+							+ "] Solver not instrumented, so no profile recorded (see wyrl -instrument)");
+				} else if (profile) {
+					fileProfile = new RewriteProfile(Solver.RULES);
+				}
+			}
+			
+			try {
+				// NOTE: debugging output is not thread-safe, so we don't check
+				// in parallel when debugging is enabled.
+				if (threads > 1 && !debug && assertions.size() > 1) {
+					checkValid(assertions);
+				} else {
+					for (int i = 0; i != assertions.size(); ++i) {
+						checkValid(assertions.get(i), i + 1);
+					}
+				}
+			} finally {
+				// NOTE: the profile is reported even when an assertion fails,
+				// since such assertions are often the most interesting.
+				if (fileProfile != null && !fileProfile.isEmpty()) {
+					synchronized (System.err) {
+						System.err.println("[" + filename + "] Solver profile:");
+						fileProfile.print(System.err);
+					}
+				}
+				if (proofs != null) {
+					try {
+						proofs.save();
+					} catch (IOException e) {
+						// cannot save cache, so just lose its updates
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check a list of assertions in parallel. Each assertion is checked
+	 * using its own automaton and rewrite context and, hence, they can be
+	 * safely checked concurrently. If any assertions fail, then the failure
+	 * of the first (in order) is rethrown. This ensures errors are reported
+	 * deterministically.
+	 * 
+	 * @param assertions
+	 */
+	private void checkValid(List<WycsFile.Assert> assertions) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				threads, assertions.size()));
+		try {
+			ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int i = 0; i != assertions.size(); ++i) {
+				final WycsFile.Assert stmt = assertions.get(i);
+				final int number = i + 1;
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						checkValid(stmt, number);
+						return null;
+					}
+				});
+			}
+			for (Future<Object> f : executor.invokeAll(tasks)) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new RuntimeException(cause);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 	
@@ -147,6 +369,25 @@ public class VerificationCheck implements Transform<WycsFile> {
 		automaton.minimise();
 		automaton.compact();
 		
+		String key = null;
+		if (proofs != null) {
+			key = ProofCache.key(automaton, maxSteps);
+			ProofCache.Proof proof = proofs.get(key);
+			if (proof != null) {
+				if (proof.outcome != Outcome.PROVED) {
+					RewriteContext context = new RewriteContext(maxSteps);
+					context.numSteps = proof.steps;
+					throw new AssertionFailure(message(stmt, proof.outcome),
+							stmt, automaton, null, context, proof.outcome);
+				}
+				long endTime = System.currentTimeMillis();
+				logger.logTimedMessage("[" + filename + "] Verified assertion #"
+						+ number + " (cached)", endTime - startTime,
+						startMemory - runtime.freeMemory());
+				return;
+			}
+		}
+		
 		if (debug) {				
 			ArrayList<WycsFile.Declaration> tmpDecls = new ArrayList();
 			tmpDecls.add(new WycsFile.Assert("", neg));
@@ -158,13 +399,49 @@ public class VerificationCheck implements Transform<WycsFile> {
 			//debug(original);
 		}
 		
-		Solver.MAX_STEPS = 100000;
-		infer(automaton);
+		RewriteContext context = new RewriteContext(maxSteps, timeout);
+		if (Solver.INSTRUMENTED && (profile || profileAssertions)) {
+			context.profile = new RewriteProfile(Solver.RULES);
+		}
+		infer(automaton, context);
+		
+		if (context.profile != null) {
+			if (fileProfile != null) {
+				fileProfile.add(context.profile);
+			}
+			if (profileAssertions) {
+				synchronized (System.err) {
+					System.err.println("[" + filename
+							+ "] Solver profile for assertion #" + number + ":");
+					context.profile.print(System.err);
+				}
+			}
+		}
+		
+		Outcome outcome;
+		if (automaton.get(automaton.getRoot(0)).equals(Solver.False)) {
+			outcome = Outcome.PROVED;
+		} else if (context.exhausted()) {
+			outcome = Outcome.EXHAUSTED;
+		} else {
+			outcome = Outcome.DISPROVED;
+		}
+		
+		if (key != null && ProofCache.isCacheable(outcome, context)) {
+			proofs.put(key, new ProofCache.Proof(outcome, context.numSteps));
+		}
 	
-		if(!automaton.get(automaton.getRoot(0)).equals(Solver.False)) {
-			String msg = stmt.message;
-			msg = msg == null ? "assertion failure" : msg;
-			throw new AssertionFailure(msg,stmt,automaton,original);
+		if (outcome == Outcome.EXHAUSTED) {
+			long endTime = System.currentTimeMillis();
+			logger.logTimedMessage("[" + filename
+					+ "] Exhausted budget for assertion #" + number + " ("
+					+ context.numSteps + " steps)", endTime - startTime,
+					startMemory - runtime.freeMemory());
+		}
+		
+		if(outcome != Outcome.PROVED) {
+			throw new AssertionFailure(message(stmt, outcome), stmt,
+					automaton, original, context, outcome);
 		}		
 		
 		long endTime = System.currentTimeMillis();
@@ -172,6 +449,23 @@ public class VerificationCheck implements Transform<WycsFile> {
 				endTime - startTime, startMemory - runtime.freeMemory());		
 	}
 	
+	/**
+	 * Determine the error message reported for an assertion which could not
+	 * be shown to hold.
+	 * 
+	 * @param stmt
+	 * @param outcome
+	 * @return
+	 */
+	private static String message(WycsFile.Assert stmt, Outcome outcome) {
+		String msg = stmt.message;
+		msg = msg == null ? "assertion failure" : msg;
+		if (outcome == Outcome.EXHAUSTED) {
+			msg = msg + " (verification budget exhausted)";
+		}
+		return msg;
+	}
+	
 	private int translate(Code expr, Automaton automaton, HashMap<String,Integer> environment) {
 		int r;
 		if(expr instanceof Code.Constant) {
@@ -391,7 +685,9 @@ public class VerificationCheck implements Transform<WycsFile> {
 	 * @return the index of the new node.
 	 */
 	public static int convert(Automaton automaton, SemanticType type) {		
-		Automaton type_automaton = type.automaton();
+		// NOTE: the type's automaton is copied since it may be shared with
+		// other threads.
+		Automaton type_automaton = new Automaton(type.automaton());
 		// The following is important to make sure that the type is in minimised
 		// form before verification begins. This firstly reduces the amount of
 		// work during verification, and also allows the functions in
@@ -412,17 +708,43 @@ public class VerificationCheck implements Transform<WycsFile> {
 		}
 	}
 	
+	/**
+	 * The possible outcomes of checking an assertion.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	public enum Outcome {
+		/**
+		 * The solver showed that the assertion holds.
+		 */
+		PROVED,
+		/**
+		 * The solver completed, but could not show that the assertion holds.
+		 */
+		DISPROVED,
+		/**
+		 * The solver used up its budget of steps (or time) before completing.
+		 */
+		EXHAUSTED
+	}
+	
 	public static class AssertionFailure extends RuntimeException {
 		private final WycsFile.Assert assertion;
 		private final Automaton reduced;
 		private final Automaton original;
+		private final RewriteContext context;
+		private final Outcome outcome;
 		
 		public AssertionFailure(String msg, WycsFile.Assert assertion,
-				Automaton reduced, Automaton original) {
+				Automaton reduced, Automaton original, RewriteContext context,
+				Outcome outcome) {
 			super(msg);
 			this.assertion = assertion;
 			this.reduced = reduced;
 			this.original = original;
+			this.context = context;
+			this.outcome = outcome;
 		}
 		
 		public WycsFile.Assert assertion() {
@@ -436,5 +758,20 @@ public class VerificationCheck implements Transform<WycsFile> {
 		public Automaton original() {
 			return original;
 		}
+		
+		public RewriteContext context() {
+			return context;
+		}
+		
+		/**
+		 * Get the outcome of checking the assertion, which distinguishes
+		 * assertions the solver could not show to hold from those it ran out
+		 * of budget on.
+		 * 
+		 * @return
+		 */
+		public Outcome outcome() {
+			return outcome;
+		}
 	}
 }
@@ -0,0 +1,423 @@
+package wycs.util;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import wyautl.core.Automata;
+import wyautl.core.Automaton;
+import wyautl.core.ParentIndex;
+import wyautl.util.BigRational;
+import wyrl.util.RewriteContext;
+import wyrl.util.Runtime;
+import wycs.solver.Solver;
+import wycs.solver.Solver$native;
+import wycs.transforms.VerificationCheck.Outcome;
+
+/**
+ * <p>
+ * A persistent record of the outcome of previous attempts to verify
+ * assertions, which allows verification conditions that have not changed
+ * since they were last checked to be skipped. Every outcome is recorded
+ * against a key, which is a hash of the automaton generated for the
+ * assertion (after it has been minimised and canonicalised) and the step
+ * budget given to the solver. Thus, assertions which differ only in the
+ * order of their clauses share the same key.
+ * </p>
+ *
+ * <p>
+ * Since the outcome of an attempt also depends upon the rewrite rules used by
+ * the solver, the cache records the version of the solver used. Whenever this
+ * differs from that of the solver being used, all recorded outcomes are
+ * discarded. The version is determined from the class files of the solver
+ * (i.e. the generated rules and the hand-written code they call) and of the
+ * automata and rewriting library it uses. Hence, it changes whenever any of
+ * these do.
+ * </p>
+ *
+ * <p>
+ * The cache is stored as a simple text file, where each line records one
+ * outcome. New outcomes are appended to the file, so that saving the cache
+ * after each file is checked remains cheap. This is typically located in the
+ * output directory of the build, so that it is discarded along with
+ * everything else by a clean build. Since an opened cache may outlive a build
+ * (e.g. in the compile server), it is read again if its file is deleted or
+ * changed by anything else.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class ProofCache {
+
+	/**
+	 * The default name of the file in which the cache is stored.
+	 */
+	public static final String FILENAME = ".wyproofs";
+
+	/**
+	 * Identifies the format of the file. A cache file in any other format is
+	 * simply ignored, causing every assertion to be checked again.
+	 */
+	private static final String HEADER = "wyproofs 2";
+
+	/**
+	 * The classes which determine the outcome of the solver, and hence its
+	 * version. The classes nested within each are also included.
+	 */
+	private static final Class<?>[] SOLVER_CLASSES = { Solver.class,
+			Solver$native.class, Runtime.class, RewriteContext.class,
+			Automaton.class, Automata.class, ParentIndex.class,
+			BigRational.class };
+
+	/**
+	 * The caches opened so far, indexed by their file. These are shared so
+	 * that several transforms checking assertions against the same cache
+	 * (e.g. one for each file being built) see each other's outcomes.
+	 */
+	private static final HashMap<File, ProofCache> caches = new HashMap<File, ProofCache>();
+
+	/**
+	 * The version of the solver, which is determined when first needed.
+	 */
+	private static String version;
+
+	/**
+	 * The file in which this cache is stored.
+	 */
+	private final File file;
+
+	/**
+	 * The outcomes recorded so far, indexed by their key.
+	 */
+	private final HashMap<String, Proof> proofs = new HashMap<String, Proof>();
+
+	/**
+	 * The keys of outcomes recorded since the cache was last saved.
+	 */
+	private final ArrayList<String> pending = new ArrayList<String>();
+
+	/**
+	 * Indicates whether or not the file must be rewritten from scratch when
+	 * next saved (e.g. because it was written for a different solver).
+	 */
+	private boolean truncate = true;
+
+	/**
+	 * The modification time and length of the file when it was last read or
+	 * written by this cache, or zero if it did not exist.
+	 */
+	private long modified, length;
+
+	private ProofCache(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			load();
+		}
+		stamp();
+	}
+
+	/**
+	 * Open the cache stored in a given file. If this cache has already been
+	 * opened, then the same instance is returned unless the file has since
+	 * been deleted or changed by anything else, in which case it is read
+	 * again. If the file does not exist, or cannot be understood, then an
+	 * empty cache is returned.
+	 *
+	 * @param file
+	 *            --- file in which cache is (or will be) stored.
+	 * @return
+	 * @throws IOException
+	 */
+	public static ProofCache open(File file) throws IOException {
+		file = file.getCanonicalFile();
+		synchronized (caches) {
+			ProofCache cache = caches.get(file);
+			if (cache == null || cache.isStale()) {
+				cache = new ProofCache(file);
+				caches.put(file, cache);
+			}
+			return cache;
+		}
+	}
+
+	public File file() {
+		return file;
+	}
+
+	/**
+	 * Get the outcome recorded against a given key, or <code>null</code> if no
+	 * such outcome exists.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized Proof get(String key) {
+		return proofs.get(key);
+	}
+
+	/**
+	 * Record the outcome of checking an assertion against a given key.
+	 *
+	 * @param key
+	 *            --- key of the assertion, as determined by
+	 *            <code>key()</code>.
+	 * @param proof
+	 *            --- outcome of checking the assertion.
+	 */
+	public synchronized void put(String key, Proof proof) {
+		if (proofs.put(key, proof) == null) {
+			pending.add(key);
+		}
+	}
+
+	/**
+	 * Determine whether or not the outcome of checking an assertion should be
+	 * recorded. An assertion for which the solver ran out of time is not,
+	 * since it may well be checked successfully next time. In contrast, one
+	 * for which the solver ran out of steps is, since the same thing will
+	 * happen again for the same step budget.
+	 *
+	 * @param outcome
+	 *            --- outcome of checking the assertion.
+	 * @param context
+	 *            --- context in which the solver checked the assertion.
+	 * @return
+	 */
+	public static boolean isCacheable(Outcome outcome, RewriteContext context) {
+		return outcome != Outcome.EXHAUSTED || !context.expired();
+	}
+
+	/**
+	 * Write any outcomes recorded since this cache was last saved to its file.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (isStale()) {
+			// NOTE: the file has been deleted or changed since it was read,
+			// so it must be rewritten from scratch (including its header).
+			truncate = true;
+		}
+		if (pending.isEmpty() && !truncate) {
+			return;
+		}
+		PrintWriter out = new PrintWriter(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file, !truncate),
+						"UTF-8")));
+		try {
+			if (truncate) {
+				out.println(HEADER + " " + version());
+				pending.clear();
+				pending.addAll(proofs.keySet());
+				truncate = false;
+			}
+			for (String key : pending) {
+				Proof p = proofs.get(key);
+				out.println(key + " " + p.outcome.name().toLowerCase() + " "
+						+ p.steps);
+			}
+			pending.clear();
+		} finally {
+			out.close();
+			stamp();
+		}
+	}
+
+	/**
+	 * Determine whether the file has been deleted or changed since it was last
+	 * read or written by this cache.
+	 *
+	 * @return
+	 */
+	private synchronized boolean isStale() {
+		return file.lastModified() != modified || file.length() != length;
+	}
+
+	/**
+	 * Record the current modification time and length of the file.
+	 */
+	private void stamp() {
+		modified = file.lastModified();
+		length = file.length();
+	}
+
+	private void load() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			if (!(HEADER + " " + version()).equals(in.readLine())) {
+				return;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split(" ");
+				if (fields.length != 3) {
+					// corrupt record, so forget everything
+					proofs.clear();
+					return;
+				}
+				try {
+					proofs.put(fields[0], new Proof(Outcome.valueOf(fields[1]
+							.toUpperCase()), Long.parseLong(fields[2])));
+				} catch (IllegalArgumentException e) {
+					// NOTE: includes NumberFormatException
+					proofs.clear();
+					return;
+				}
+			}
+			truncate = false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Compute the key for a given assertion automaton, and a given step
+	 * budget. The automaton should already be minimised and compacted, and is
+	 * not modified by this method.
+	 *
+	 * @param automaton
+	 *            --- automaton generated for the assertion.
+	 * @param maxSteps
+	 *            --- maximum number of steps the solver may take.
+	 * @return
+	 */
+	public static String key(Automaton automaton, long maxSteps) {
+		Automaton canonical = new Automaton(automaton);
+		canonical.canonicalise();
+		MessageDigest digest = digest();
+		update(digest, maxSteps);
+		update(digest, canonical.nStates());
+		for (int i = 0; i != canonical.nStates(); ++i) {
+			Automaton.State state = canonical.get(i);
+			if (state == null) {
+				update(digest, Automaton.K_FREE);
+				continue;
+			}
+			update(digest, state.kind);
+			if (state instanceof Automaton.Term) {
+				update(digest, ((Automaton.Term) state).contents);
+			} else if (state instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) state;
+				update(digest, c.size());
+				for (int j = 0; j != c.size(); ++j) {
+					update(digest, c.get(j));
+				}
+			} else {
+				String value = ((Automaton.Constant) state).value.toString();
+				update(digest, value.length());
+				for (int j = 0; j != value.length(); ++j) {
+					update(digest, value.charAt(j));
+				}
+			}
+		}
+		update(digest, canonical.nRoots());
+		for (int i = 0; i != canonical.nRoots(); ++i) {
+			update(digest, canonical.getRoot(i));
+		}
+		return toHexString(digest.digest());
+	}
+
+	/**
+	 * Determine the version of the solver, which is a hash of the class files
+	 * in <code>SOLVER_CLASSES</code>.
+	 *
+	 * @return
+	 */
+	private static synchronized String version() throws IOException {
+		if (version == null) {
+			MessageDigest digest = digest();
+			for (Class<?> c : SOLVER_CLASSES) {
+				update(digest, c);
+			}
+			version = toHexString(digest.digest());
+		}
+		return version;
+	}
+
+	/**
+	 * Update a given digest with the class file of a given class, followed by
+	 * those of any classes nested within it.
+	 *
+	 * @param digest
+	 * @param c
+	 * @throws IOException
+	 */
+	private static void update(MessageDigest digest, Class<?> c)
+			throws IOException {
+		String name = c.getName();
+		name = name.substring(name.lastIndexOf('.') + 1) + ".class";
+		InputStream input = c.getResourceAsStream(name);
+		if (input == null) {
+			throw new IOException("unable to determine solver version");
+		}
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			input.close();
+		}
+		Class<?>[] nested = c.getDeclaredClasses();
+		Arrays.sort(nested, new Comparator<Class<?>>() {
+			public int compare(Class<?> c1, Class<?> c2) {
+				return c1.getName().compareTo(c2.getName());
+			}
+		});
+		for (Class<?> inner : nested) {
+			update(digest, inner);
+		}
+	}
+
+	private static void update(MessageDigest digest, long value) {
+		for (int i = 0; i != 64; i += 8) {
+			digest.update((byte) (value >> i));
+		}
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// dead code, since SHA-1 is always supported
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHexString(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Records the outcome of checking a single assertion.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Proof {
+		/**
+		 * Indicates whether the assertion was shown to hold or not, or whether
+		 * the solver ran out of steps.
+		 */
+		public final Outcome outcome;
+
+		/**
+		 * The number of steps taken by the solver.
+		 */
+		public final long steps;
+
+		public Proof(Outcome outcome, long steps) {
+			this.outcome = outcome;
+			this.steps = steps;
+		}
+	}
+}
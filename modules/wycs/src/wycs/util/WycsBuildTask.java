@@ -20,6 +20,7 @@ import wybs.util.Trie;
 import wybs.util.VirtualRoot;
 import wycs.builders.Wyal2WycsBuilder;
 import wycs.builders.Wycs2WyalBuilder;
+import wycs.core.SemanticType;
 import wycs.core.WycsFile;
 import wycs.syntax.WyalFile;
 import wycs.transforms.*;
@@ -375,6 +376,11 @@ public class WycsBuildTask {
 		project.build(delta);
 
 		flush();
+
+		if (verbose) {
+			logout.println("Semantic type queries: " + SemanticType.queries());
+			logout.println("Constructed semantic types: " + SemanticType.constructed());
+		}
 	}
 
 	// ==========================================================================
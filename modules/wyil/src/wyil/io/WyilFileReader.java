@@ -28,6 +28,7 @@ package wyil.io;
 import java.io.*;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import wybs.io.BinaryInputStream;
 import wybs.lang.NameID;
@@ -38,8 +39,18 @@ import wyil.lang.*;
 import wyautl.util.BigRational;
 
 /**
+ * <p>
  * Read a binary WYIL file from a byte stream and convert into the corresponding
  * WyilFile object.
+ * </p>
+ * 
+ * <p>
+ * The bodies of functions and methods are not decoded when the file is read.
+ * Instead, the bytes of each body block are retained (since every block records
+ * its size, this requires no decoding) and then decoded when the body is first
+ * requested. This is worthwhile because many WyIL files are read only to
+ * resolve the names they declare, in which case their bodies are never needed.
+ * </p>
  * 
  * @author David J. Pearce
  * 
@@ -62,6 +73,21 @@ public final class WyilFileReader {
 		this.input = new BinaryInputStream(input);
 	}
 	
+	/**
+	 * Construct a reader for a block contained in a file already read by
+	 * another reader, using the pools of that reader.
+	 * 
+	 * @param block
+	 * @param pools
+	 */
+	private WyilFileReader(byte[] block, LazyBlock pools) {
+		this.input = new BinaryInputStream(new ByteArrayInputStream(block));
+		this.stringPool = pools.stringPool;
+		this.namePool = pools.namePool;
+		this.constantPool = pools.constantPool;
+		this.typePool = pools.typePool;
+	}
+	
 	public void close() throws IOException {
 		input.close();
 	}
@@ -454,7 +480,7 @@ public final class WyilFileReader {
 	private WyilFile.Case readFunctionOrMethodCase(Type.FunctionOrMethod type) throws IOException {
 		Block precondition = null;
 		Block postcondition = null;
-		Block body = null;		
+		WyilFile.Decoder body = null;		
 		int numInputs = type.params().size();
 		int nBlocks = input.read_uv();
 		
@@ -473,14 +499,72 @@ public final class WyilFileReader {
 				postcondition = readCodeBlock(numInputs + 1);
 				break;
 			case WyilFileWriter.BLOCK_Body:
-				body = readCodeBlock(numInputs);
+				body = readLazyCodeBlock(size, numInputs);
 				break;
 			default:
 				throw new RuntimeException("Unknown case block encountered");
 			}
 		}
 
-		return new WyilFile.Case(body, precondition, postcondition, Collections.EMPTY_LIST);
+		return new WyilFile.Case(body, precondition, postcondition,
+				Collections.EMPTY_LIST, Collections.EMPTY_LIST);
+	}
+	
+	/**
+	 * Read the bytes of a code block without decoding them. The block is
+	 * decoded when first needed using a fresh reader which shares the pools of
+	 * this one.
+	 * 
+	 * @param size
+	 *            --- size of the block in bytes.
+	 * @param numInputs
+	 *            --- number of inputs to the block.
+	 * @return
+	 * @throws IOException
+	 */
+	private WyilFile.Decoder readLazyCodeBlock(int size, int numInputs)
+			throws IOException {
+		byte[] bytes = new byte[size];
+		input.read(bytes);
+		return new LazyBlock(bytes, numInputs, stringPool, namePool,
+				constantPool, typePool);
+	}
+	
+	/**
+	 * A code block which has been read but not yet decoded. This holds only
+	 * the bytes of the block and the pools needed to decode it, rather than
+	 * the reader which produced it. This is important, since otherwise every
+	 * undecoded block would keep that reader (and its input stream) alive.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class LazyBlock implements WyilFile.Decoder {
+		private final byte[] bytes;
+		private final int numInputs;
+		private final String[] stringPool;
+		private final NameID[] namePool;
+		private final Constant[] constantPool;
+		private final Type[] typePool;
+		
+		public LazyBlock(byte[] bytes, int numInputs, String[] stringPool,
+				NameID[] namePool, Constant[] constantPool, Type[] typePool) {
+			this.bytes = bytes;
+			this.numInputs = numInputs;
+			this.stringPool = stringPool;
+			this.namePool = namePool;
+			this.constantPool = constantPool;
+			this.typePool = typePool;
+		}
+		
+		public Block decode() {
+			try {
+				return new WyilFileReader(bytes, this).readCodeBlock(numInputs);
+			} catch (IOException e) {
+				// dead code, since reading from a byte array
+				throw new RuntimeException(e);
+			}
+		}
 	}
 	
 	private Block readCodeBlock(int numInputs) throws IOException {
@@ -1024,13 +1108,13 @@ public final class WyilFileReader {
 		}
 	}
 	
-	private static int labelCount = 0;
+	private static final AtomicInteger labelCount = new AtomicInteger();
 
 	private static Code.Label findLabel(int target,
 			HashMap<Integer, Code.Label> labels) {
 		Code.Label label = labels.get(target);
 		if (label == null) {
-			label = Code.Label("label" + labelCount++);
+			label = Code.Label("label" + labelCount.getAndIncrement());
 			labels.put(target, label);
 		}
 		return label;
@@ -1040,7 +1124,7 @@ public final class WyilFileReader {
 			HashMap<Integer, Code.Label> labels) {
 		Code.Label label = labels.get(target);
 		if (label == null) {
-			Code.LoopEnd end = Code.LoopEnd("label" + labelCount++);
+			Code.LoopEnd end = Code.LoopEnd("label" + labelCount.getAndIncrement());
 			labels.put(target, end);
 			return end;
 		} else {
@@ -26,6 +26,7 @@
 package wyil.lang;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import wybs.lang.Attribute;
 import wybs.lang.SyntacticElement;
@@ -81,6 +82,7 @@ import wyil.util.*;
 public final class Block implements Iterable<Block.Entry> {
 	private final ArrayList<Entry> stmts;
 	private final int numInputs;
+	private ControlFlow controlFlow;
 			
 	public Block(int numInputs) {
 		this.stmts = new ArrayList<Entry>();
@@ -156,9 +158,23 @@ public final class Block implements Iterable<Block.Entry> {
 	}
 
 	public Iterator<Entry> iterator() {
-		return stmts.iterator();
+		return Collections.unmodifiableList(stmts).iterator();
 	}		
 	
+	/**
+	 * Get the control-flow graph of this block, in which every label has been
+	 * resolved to its position in the block. This is computed once and then
+	 * cached until the block is next changed.
+	 * 
+	 * @return
+	 */
+	public ControlFlow controlFlow() {
+		if(controlFlow == null) {
+			controlFlow = new ControlFlow(stmts);
+		}
+		return controlFlow;
+	}
+	
 	/**
 	 * Generate a typing for this block, from which the type of every register
 	 * at every point can be determined. Note that this typing is valid for the
@@ -279,6 +295,7 @@ public final class Block implements Iterable<Block.Entry> {
 	
 	public void append(Block.Entry entry) {
 		stmts.add(new Entry(entry.code,entry.attributes()));
+		controlFlow = null;
 	}
 
 	/**
@@ -292,6 +309,7 @@ public final class Block implements Iterable<Block.Entry> {
 	 */
 	public void append(Code code, Attribute... attributes) {
 		stmts.add(new Entry(code,attributes));
+		controlFlow = null;
 	}
 
 	/**
@@ -305,6 +323,7 @@ public final class Block implements Iterable<Block.Entry> {
 	 */
 	public void append(Code code, Collection<Attribute> attributes) {
 		stmts.add(new Entry(code,attributes));		
+		controlFlow = null;
 	}
 
 	/**
@@ -342,6 +361,7 @@ public final class Block implements Iterable<Block.Entry> {
 	 */
 	public void insert(int index, Code code, Attribute... attributes) {
 		stmts.add(index,new Entry(code,attributes));
+		controlFlow = null;
 	}
 	
 	/**
@@ -355,6 +375,7 @@ public final class Block implements Iterable<Block.Entry> {
 	 */
 	public void insert(int index, Code code, Collection<Attribute> attributes) {
 		stmts.add(index,new Entry(code,attributes));
+		controlFlow = null;
 	}
 
 	/**
@@ -391,6 +412,7 @@ public final class Block implements Iterable<Block.Entry> {
 	 */
 	public void replace(int index, Code code, Attribute... attributes) {
 		stmts.set(index,new Entry(code,attributes));
+		controlFlow = null;
 	}
 	
 	/**
@@ -405,6 +427,7 @@ public final class Block implements Iterable<Block.Entry> {
 	 */
 	public void replace(int index, Code code, Collection<Attribute> attributes) {
 		stmts.set(index, new Entry(code, attributes));
+		controlFlow = null;
 	}
 
 	/**
@@ -418,6 +441,7 @@ public final class Block implements Iterable<Block.Entry> {
 	 */
 	public void remove(int index) {
 		stmts.remove(index);
+		controlFlow = null;
 	}
 
 	// ===================================================================
@@ -439,9 +463,9 @@ public final class Block implements Iterable<Block.Entry> {
 		return r + "]";
 	}
 
-	private static int _idx=0;
+	private static final AtomicInteger _idx = new AtomicInteger();
 	public static String freshLabel() {
-		return "blklab" + _idx++;
+		return "blklab" + _idx.getAndIncrement();
 	}
 
 	/**
@@ -481,6 +505,129 @@ public final class Block implements Iterable<Block.Entry> {
 		}
 	}	
 	
+	/**
+	 * <p>
+	 * Represents the control-flow structure of a block. Every label used by a
+	 * branch, loop or try-catch bytecode is resolved to the position of the
+	 * matching label in the block, so that clients (e.g. dataflow analyses) can
+	 * work with positions rather than repeatedly looking up labels by name.
+	 * </p>
+	 * 
+	 * <p>
+	 * This is computed in full on construction and is immutable thereafter,
+	 * and so may be safely shared between threads.
+	 * </p>
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	public static final class ControlFlow {
+		private static final int[] NONE = new int[0];
+		
+		private final HashMap<String,Integer> labels;
+		private final int[][] targets;
+		private final int[] ends;
+		
+		private ControlFlow(ArrayList<Entry> stmts) {
+			int size = stmts.size();
+			labels = new HashMap<String,Integer>();
+			targets = new int[size][];
+			ends = new int[size];
+			
+			// First, resolve every label to its position
+			for (int i = 0; i != size; ++i) {
+				Code code = stmts.get(i).code;
+				if (code instanceof Code.Label) {
+					String label = ((Code.Label) code).label;
+					if (!labels.containsKey(label)) {
+						labels.put(label, i);
+					}
+				}
+			}
+			
+			// Second, resolve branch targets and match up the start and end of
+			// every loop and try-catch.
+			Arrays.fill(ends, -1);
+			for (int i = 0; i != size; ++i) {
+				Code code = stmts.get(i).code;
+				targets[i] = NONE;
+				if (code instanceof Code.Goto) {
+					targets[i] = new int[] { indexOf(((Code.Goto) code).target) };
+				} else if (code instanceof Code.If) {
+					targets[i] = new int[] { indexOf(((Code.If) code).target) };
+				} else if (code instanceof Code.IfIs) {
+					targets[i] = new int[] { indexOf(((Code.IfIs) code).target) };
+				} else if (code instanceof Code.Switch) {
+					Code.Switch sw = (Code.Switch) code;
+					int[] ts = new int[sw.branches.size() + 1];
+					for (int j = 0; j != sw.branches.size(); ++j) {
+						ts[j] = indexOf(sw.branches.get(j).second());
+					}
+					ts[ts.length - 1] = indexOf(sw.defaultTarget);
+					targets[i] = ts;
+				} else if (code instanceof Code.TryCatch) {
+					Code.TryCatch tc = (Code.TryCatch) code;
+					int[] ts = new int[tc.catches.size()];
+					for (int j = 0; j != ts.length; ++j) {
+						ts[j] = indexOf(tc.catches.get(j).second());
+					}
+					targets[i] = ts;
+					match(i, indexOf(tc.target));
+				} else if (code instanceof Code.Loop) {
+					match(i, indexOf(((Code.Loop) code).target));
+				}
+			}
+		}
+		
+		/**
+		 * Get the position of a given label in the block, or -1 if no such
+		 * label exists.
+		 * 
+		 * @param label
+		 * @return
+		 */
+		public int indexOf(String label) {
+			Integer index = labels.get(label);
+			return index == null ? -1 : index;
+		}
+		
+		/**
+		 * Get the positions of the labels targeted by the bytecode at a given
+		 * position. For a conditional or unconditional branch, this is the
+		 * single branch target. For a switch, these are the targets of each
+		 * branch in turn, followed by that of the default branch. For a
+		 * try-catch, these are the catch handlers in turn. Targets which
+		 * cannot be resolved are given as -1.
+		 * 
+		 * @param index
+		 * @return
+		 */
+		public int[] targets(int index) {
+			return targets[index];
+		}
+		
+		/**
+		 * Get the position of the bytecode matching that at a given position.
+		 * For a loop or try-catch, this is the position of the label ending
+		 * its body; for the label ending a loop or try-catch body, this is the
+		 * position of the loop or try-catch itself. Otherwise, this is -1.
+		 * 
+		 * @param index
+		 * @return
+		 */
+		public int match(int index) {
+			return ends[index];
+		}
+		
+		private void match(int start, int end) {
+			if (end > start) {
+				ends[start] = end;
+				ends[end] = start;
+			}
+		}
+	}
+
+	
 	/**
 	 * Represents complete typing information for a block. The calculation is
 	 * done lazily to avoid unnecessary recomputation.
@@ -28,6 +28,7 @@ package wyil.lang;
 import java.util.*;
 
 import wybs.lang.NameID;
+import wybs.util.Interner;
 import wybs.util.Pair;
 import wyil.util.*;
 
@@ -4391,18 +4392,24 @@ public abstract class Code {
 		return nOperands;
 	}
 
-	private static final ArrayList<Code> values = new ArrayList<Code>();
-	private static final HashMap<Code, Integer> cache = new HashMap<Code, Integer>();
+	/**
+	 * The following is for implementing the fly-weight pattern. Only bytecodes
+	 * which are still in use are retained.
+	 */
+	private static final Interner<Code> interned = new Interner<Code>();
 
 	private static <T extends Code> T get(T type) {
-		Integer idx = cache.get(type);
-		if (idx != null) {
-			return (T) values.get(idx);
-		} else {
-			cache.put(type, values.size());
-			values.add(type);
-			return type;
-		}
+		return (T) interned.intern(type);
+	}
+	
+	/**
+	 * Get the table of interned bytecodes. This is useful for reporting
+	 * statistics on bytecode construction.
+	 * 
+	 * @return
+	 */
+	public static Interner<Code> interner() {
+		return interned;
 	}
 	
 	public static final int FMT_SHIFT        = 5;
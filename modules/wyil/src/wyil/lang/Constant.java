@@ -29,6 +29,7 @@ import java.math.BigInteger;
 import java.util.*;
 
 import wybs.lang.NameID;
+import wybs.util.Interner;
 import wybs.util.Pair;
 import wyautl.util.BigRational;
 
@@ -827,17 +828,23 @@ public abstract class Constant implements Comparable<Constant> {
 		}
 	}
 		
-	private static final ArrayList<Constant> values = new ArrayList<Constant>();
-	private static final HashMap<Constant,java.lang.Integer> cache = new HashMap<Constant,java.lang.Integer>();
+	/**
+	 * The following is for implementing the fly-weight pattern. Only constants
+	 * which are still in use are retained.
+	 */
+	private static final Interner<Constant> interned = new Interner<Constant>();
 	
 	private static <T extends Constant> T get(T type) {
-		java.lang.Integer idx = cache.get(type);
-		if(idx != null) {
-			return (T) values.get(idx);
-		} else {					
-			cache.put(type, values.size());
-			values.add(type);
-			return type;
-		}
+		return (T) interned.intern(type);
+	}
+	
+	/**
+	 * Get the table of interned constants. This is useful for reporting
+	 * statistics on constant construction.
+	 * 
+	 * @return
+	 */
+	public static Interner<Constant> interner() {
+		return interned;
 	}
 }
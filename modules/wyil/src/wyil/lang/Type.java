@@ -28,6 +28,8 @@ import wyautl_old.lang.Automaton.State;
 import wybs.io.BinaryInputStream;
 import wybs.io.BinaryOutputStream;
 import wybs.lang.NameID;
+import wybs.util.Interner;
+import wybs.util.MemoTable;
 import wybs.util.Trie;
 import wyil.util.type.*;
 
@@ -40,6 +42,30 @@ import wyil.util.type.*;
  * 
  */
 public abstract class Type {
+	/**
+	 * The following is for implementing the fly-weight pattern. Since types are
+	 * always normalised and canonicalised before being interned, equivalent
+	 * types share the same instance (for as long as that instance is in use).
+	 * <b>NOTE:</b> this must be initialised before the type constants below,
+	 * since some of them are constructed.
+	 */
+	private static final Interner<Type> interned = new Interner<Type>();
+	
+	/**
+	 * The maximum number of results of type operations which are remembered.
+	 */
+	private static final int MAX_QUERIES = 1 << 16;
+	
+	/**
+	 * Remembers the results of subtype and intersection tests between types
+	 * (e.g. <code>isSubtype()</code>). These are expensive, since they require constructing automata for both
+	 * types and then exploring their product. Yet, the same questions are
+	 * asked many times over (e.g. during flow typing). Since types are
+	 * immutable, their results never change. <b>NOTE:</b> like the interner
+	 * above, this must be initialised before the type constants below.
+	 */
+	private static final MemoTable<Query,Object> queries = new MemoTable<Query,Object>(MAX_QUERIES);
+	
 	// =============================================================
 	// Debug Code
 	// =============================================================
@@ -534,10 +560,16 @@ public abstract class Type {
 	 * <code>t2</code> is a subset of that described by <code>t1</code>.
 	 */
 	public static boolean isImplicitCoerciveSubtype(Type t1, Type t2) {				
-		Automaton a1 = destruct(t1);
-		Automaton a2 = destruct(t2);
-		ImplicitCoercionOperator relation = new ImplicitCoercionOperator(a1,a2);				
-		return relation.isSubtype(0, 0); 
+		Query query = new Query(Query.IMPLICIT_SUBTYPE, t1, t2);
+		Boolean r = (Boolean) queries.get(query);
+		if (r == null) {
+			Automaton a1 = destruct(t1);
+			Automaton a2 = destruct(t2);
+			ImplicitCoercionOperator relation = new ImplicitCoercionOperator(a1,a2);
+			r = relation.isSubtype(0, 0);
+			queries.put(query, r);
+		}
+		return r; 
 	}
 
 	/**
@@ -545,10 +577,16 @@ public abstract class Type {
 	 * subtype</i> of type <code>t1</code>.  
 	 */
 	public static boolean isExplicitCoerciveSubtype(Type t1, Type t2) {				
-		Automaton a1 = destruct(t1);
-		Automaton a2 = destruct(t2);
-		ExplicitCoercionOperator relation = new ExplicitCoercionOperator(a1,a2);				
-		return relation.isSubtype(0, 0); 
+		Query query = new Query(Query.EXPLICIT_SUBTYPE, t1, t2);
+		Boolean r = (Boolean) queries.get(query);
+		if (r == null) {
+			Automaton a1 = destruct(t1);
+			Automaton a2 = destruct(t2);
+			ExplicitCoercionOperator relation = new ExplicitCoercionOperator(a1,a2);
+			r = relation.isSubtype(0, 0);
+			queries.put(query, r);
+		}
+		return r; 
 	}
 	
 	/**
@@ -558,10 +596,16 @@ public abstract class Type {
 	 * that described by <code>t1</code>.
 	 */
 	public static boolean isSubtype(Type t1, Type t2) {		
-		Automaton a1 = destruct(t1);
-		Automaton a2 = destruct(t2);
-		SubtypeOperator relation = new SubtypeOperator(a1,a2);		
-		return relation.isSubtype(0, 0);		
+		Query query = new Query(Query.SUBTYPE, t1, t2);
+		Boolean r = (Boolean) queries.get(query);
+		if (r == null) {
+			Automaton a1 = destruct(t1);
+			Automaton a2 = destruct(t2);
+			SubtypeOperator relation = new SubtypeOperator(a1,a2);
+			r = relation.isSubtype(0, 0);
+			queries.put(query, r);
+		}
+		return r;		
 	}
 	
 	/**
@@ -600,7 +644,63 @@ public abstract class Type {
 	 * @return
 	 */
 	public static Type intersect(Type t1, Type t2) {
-		return TypeAlgorithms.intersect(t1,t2);
+		Query query = new Query(Query.INTERSECT, t1, t2);
+		Type r = (Type) queries.get(query);
+		if (r == null) {
+			r = TypeAlgorithms.intersect(t1,t2);
+			queries.put(query, r);
+		}
+		return r;
+	}
+	
+	/**
+	 * Get the table of remembered results of type operations. This is useful
+	 * for reporting statistics on how often they are reused.
+	 * 
+	 * @return
+	 */
+	public static MemoTable<?,?> queries() {
+		return queries;
+	}
+	
+	/**
+	 * Identifies an operation applied to a pair of types. Since types are
+	 * interned, equal types are (almost always) the same instance. Therefore,
+	 * types are compared by identity here, which avoids the cost of comparing
+	 * their automata. At worst, this means the result for a type is computed
+	 * again for a distinct (but equal) instance.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class Query {
+		private static final int SUBTYPE = 0;
+		private static final int IMPLICIT_SUBTYPE = 1;
+		private static final int EXPLICIT_SUBTYPE = 2;
+		private static final int INTERSECT = 3;
+		
+		private final int operator;
+		private final Type t1;
+		private final Type t2;
+		
+		public Query(int operator, Type t1, Type t2) {
+			this.operator = operator;
+			this.t1 = t1;
+			this.t2 = t2;
+		}
+		
+		public boolean equals(Object o) {
+			if (o instanceof Query) {
+				Query q = (Query) o;
+				return operator == q.operator && t1 == q.t1 && t2 == q.t2;
+			}
+			return false;
+		}
+		
+		public int hashCode() {
+			return (System.identityHashCode(t1) * 31 + System
+					.identityHashCode(t2)) * 4 + operator;
+		}
 	}
 		
 	public static Reference effectiveReference(Type t) {
@@ -2189,7 +2289,7 @@ public abstract class Type {
 		
 		//distinctTypes.add(type);
 		
-		return type;
+		return interned.intern(type);
 	}
 
 	/**
@@ -2346,22 +2446,15 @@ public abstract class Type {
 	public static final byte K_METHOD = 20; 
 	public static final byte K_NOMINAL = 21;
 	
-	private static final ArrayList<Automaton> values = new ArrayList<Automaton>();
-	private static final HashMap<Automaton,Integer> cache = new HashMap<Automaton,Integer>();
-
 	/**
-	 * The following method is for implementing the fly-weight pattern.
+	 * Get the table of interned types. This is useful for reporting statistics
+	 * on type construction.
+	 * 
+	 * @return
 	 */
-	private static <T extends Automaton> T get(T type) {
-		Integer idx = cache.get(type);
-		if(idx != null) {
-			return (T) values.get(idx);
-		} else {					
-			cache.put(type, values.size());
-			values.add(type);
-			return type;
-		}
-	}	
+	public static Interner<Type> interner() {
+		return interned;
+	}
 	
 	public static void main(String[] args) {
 		//Type from = fromString("(null,null)");
@@ -29,12 +29,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import wybs.lang.Attribute;
 import wybs.lang.CompilationUnit;
 import wybs.lang.Content;
 import wybs.lang.Path;
 import wybs.lang.SyntacticElement;
+import wybs.util.BuildDatabase;
 import wybs.util.Pair;
 import wyil.util.*;
 import wyil.io.*;
@@ -77,6 +80,14 @@ public final class WyilFile implements CompilationUnit {
 	private final String filename;
 	private final ArrayList<Declaration> declarations;
 	
+	/**
+	 * Index of named declarations, which allows names to be resolved without
+	 * traversing every declaration in the module. This matters since every
+	 * imported name is resolved against the modules it may come from, and
+	 * these can be large (e.g. <code>whiley.lang.*</code>).
+	 */
+	private final HashMap<String,ArrayList<NamedDeclaration>> index = new HashMap<String,ArrayList<NamedDeclaration>>();
+	
 	// =========================================================================
 	// Constructors
 	// =========================================================================
@@ -94,6 +105,7 @@ public final class WyilFile implements CompilationUnit {
 		HashSet<String> constants = new HashSet<String>();
 		
 		for (Declaration d : declarations) {
+			addToIndex(d);
 			if(d instanceof MethodDeclaration) {
 				MethodDeclaration m = (MethodDeclaration) d;
 				Pair<String,Type.FunctionOrMethod> p = new Pair<String,Type.FunctionOrMethod>(m.name(),m.type());				
@@ -133,12 +145,9 @@ public final class WyilFile implements CompilationUnit {
 	}
 	
 	public TypeDeclaration type(String name) {
-		for (Declaration d : declarations) {
+		for (NamedDeclaration d : lookup(name)) {
 			if(d instanceof TypeDeclaration) {
-				TypeDeclaration td = (TypeDeclaration) d;
-				if(td.name().equals(name)) {
-					return td;
-				}					
+				return (TypeDeclaration) d;
 			}
 		}
 		return null;		
@@ -155,12 +164,9 @@ public final class WyilFile implements CompilationUnit {
 	}
 	
 	public ConstantDeclaration constant(String name) {
-		for (Declaration d : declarations) {
+		for (NamedDeclaration d : lookup(name)) {
 			if(d instanceof ConstantDeclaration) {
-				ConstantDeclaration cd = (ConstantDeclaration) d;
-				if(cd.name().equals(name)) {
-					return cd;
-				}					
+				return (ConstantDeclaration) d;
 			}
 		}
 		return null;
@@ -178,22 +184,19 @@ public final class WyilFile implements CompilationUnit {
 	
 	public List<MethodDeclaration> method(String name) {
 		ArrayList<MethodDeclaration> r = new ArrayList<MethodDeclaration>();
-		for (Declaration d : declarations) {
+		for (NamedDeclaration d : lookup(name)) {
 			if (d instanceof MethodDeclaration) {
-				MethodDeclaration m = (MethodDeclaration) d;
-				if (m.name().equals(name)) {
-					r.add(m);
-				}
+				r.add((MethodDeclaration) d);
 			}
 		}
 		return r;
 	}
 	
 	public MethodDeclaration method(String name, Type.FunctionOrMethod ft) {
-		for (Declaration d : declarations) {
+		for (NamedDeclaration d : lookup(name)) {
 			if (d instanceof MethodDeclaration) {
 				MethodDeclaration md = (MethodDeclaration) d;
-				if (md.name().equals(name) && md.type().equals(ft)) {
+				if (md.type().equals(ft)) {
 					return md;
 				}
 			}
@@ -223,21 +226,110 @@ public final class WyilFile implements CompilationUnit {
 		for(int i=0;i!=declarations.size();++i) {
 			if(declarations.get(i) == old) {
 				declarations.set(i,nuw);
+				removeFromIndex(old);
+				addToIndex(nuw);
 				return;
 			}			
 		}
 	}
 	
-	public boolean hasName(String name) {
+	/**
+	 * Compute a fingerprint of this module's interface. That is, of those parts
+	 * which other modules can depend upon: its type and constant declarations,
+	 * and the signatures, preconditions and postconditions of its functions and
+	 * methods. Since method bodies are not included, changing only them does
+	 * not change the fingerprint. Non-public declarations are included, since
+	 * they may be exposed through public ones (e.g. a public type defined in
+	 * terms of a private one).
+	 * 
+	 * @return
+	 */
+	public String fingerprint() {
+		StringBuilder sb = new StringBuilder();
 		for (Declaration d : declarations) {
-			if(d instanceof NamedDeclaration) {
-				NamedDeclaration nd = (NamedDeclaration) d;
-				if(nd.name().equals(name)) {
-					return true;
+			if (d instanceof TypeDeclaration) {
+				TypeDeclaration td = (TypeDeclaration) d;
+				sb.append("type " + td.modifiers() + " " + td.name() + " "
+						+ td.type() + "\n");
+				fingerprint(td.constraint(), sb);
+			} else if (d instanceof ConstantDeclaration) {
+				ConstantDeclaration cd = (ConstantDeclaration) d;
+				sb.append("constant " + cd.modifiers() + " " + cd.name() + " "
+						+ cd.constant() + "\n");
+			} else if (d instanceof MethodDeclaration) {
+				MethodDeclaration md = (MethodDeclaration) d;
+				sb.append("method " + md.modifiers() + " " + md.name() + " "
+						+ md.type() + "\n");
+				for (Case c : md.cases()) {
+					fingerprint(c.precondition(), sb);
+					fingerprint(c.postcondition(), sb);
+				}
+			}
+		}
+		return BuildDatabase.hash(sb.toString());
+	}
+	
+	private static void fingerprint(Block block, StringBuilder sb) {
+		if (block != null) {
+			// Labels are freshly generated each time a file is compiled, and so
+			// must be renamed consistently.
+			HashMap<String, String> labels = new HashMap<String, String>();
+			for (Block.Entry e : block) {
+				Matcher m = LABEL.matcher(e.code.toString());
+				StringBuffer code = new StringBuffer();
+				while (m.find()) {
+					String label = labels.get(m.group());
+					if (label == null) {
+						label = "lab" + labels.size();
+						labels.put(m.group(), label);
+					}
+					m.appendReplacement(code, label);
+				}
+				m.appendTail(code);
+				sb.append(code);
+				sb.append("\n");
+			}
+		}
+		sb.append("\n");
+	}
+	
+	private static final Pattern LABEL = Pattern.compile("blklab[0-9]+");
+	
+	public boolean hasName(String name) {
+		return index.containsKey(name);
+	}
+	
+	private List<NamedDeclaration> lookup(String name) {
+		List<NamedDeclaration> r = index.get(name);
+		if(r == null) {
+			return Collections.EMPTY_LIST;
+		}
+		return r;
+	}
+	
+	private void addToIndex(Declaration d) {
+		if(d instanceof NamedDeclaration) {
+			NamedDeclaration nd = (NamedDeclaration) d;
+			ArrayList<NamedDeclaration> ds = index.get(nd.name());
+			if(ds == null) {
+				ds = new ArrayList<NamedDeclaration>();
+				index.put(nd.name(), ds);
+			}
+			ds.add(nd);
+		}
+	}
+	
+	private void removeFromIndex(Declaration d) {
+		if(d instanceof NamedDeclaration) {
+			NamedDeclaration nd = (NamedDeclaration) d;
+			ArrayList<NamedDeclaration> ds = index.get(nd.name());
+			if(ds != null) {
+				ds.remove(nd);
+				if(ds.isEmpty()) {
+					index.remove(nd.name());
 				}
-			} 
-		}		
-		return false;
+			}
+		}
 	}
 	
 	// =========================================================================
@@ -413,10 +505,21 @@ public final class WyilFile implements CompilationUnit {
 		}
 	}	
 	
+	/**
+	 * Responsible for decoding a block from its binary form on demand.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	public interface Decoder {
+		public Block decode();
+	}
+	
 	public static final class Case extends SyntacticElement.Impl {				
 		private final Block precondition;
 		private final Block postcondition;
-		private final Block body;
+		private Block body;
+		private Decoder decoder;
 		private final ArrayList<String> locals;		
 		
 		public Case(Block body, Block precondition, Block postcondition,
@@ -437,7 +540,25 @@ public final class WyilFile implements CompilationUnit {
 			this.locals = new ArrayList<String>(locals);			
 		}
 		
-		public Block body() {
+		/**
+		 * Construct a case whose body is decoded when first requested. This is
+		 * used when reading a case from a binary WyIL file, since the bodies of
+		 * methods in imported modules are typically never needed.
+		 */
+		public Case(Decoder body, Block precondition, Block postcondition,
+				Collection<String> locals, Collection<Attribute> attributes) {
+			super(attributes);			
+			this.decoder = body;
+			this.precondition = precondition;
+			this.postcondition = postcondition;
+			this.locals = new ArrayList<String>(locals);			
+		}
+		
+		public synchronized Block body() {
+			if(decoder != null) {
+				body = decoder.decode();
+				decoder = null;
+			}
 			return body;
 		}
 		
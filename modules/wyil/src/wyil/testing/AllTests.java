@@ -30,6 +30,7 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({ ListSubtypeTests.class, RecordSubtypeTests.class,
-		RecursiveSubtypeTests.class, TupleSubtypeTests.class })
+		RecursiveSubtypeTests.class, TupleSubtypeTests.class,
+		InterningTests.class })
 public class AllTests {
 }
@@ -0,0 +1,76 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyil.testing;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+import org.junit.*;
+
+import wyil.lang.Code;
+import wyil.lang.Constant;
+import wyil.lang.Type;
+
+/**
+ * Checks that types, constants and bytecodes are interned, such that equal
+ * instances constructed separately are identical.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class InterningTests {
+
+	@Test public void types() {
+		assertSame(Type.List(Type.T_INT, false), Type.List(Type.T_INT, false));
+		assertSame(Type.Set(Type.T_REAL, true), Type.Set(Type.T_REAL, true));
+		assertNotSame(Type.Set(Type.T_REAL, true), Type.Set(Type.T_REAL, false));
+		assertSame(Type.fromString("{int f, [real] g}"),
+				Type.fromString("{[real] g, int f}"));
+		assertSame(Type.fromString("X<null|(int,X)>"),
+				Type.fromString("Y<null|(int,Y)>"));
+	}
+
+	@Test public void constants() {
+		Constant c1 = Constant.V_INTEGER(BigInteger.valueOf(123456789));
+		Constant c2 = Constant.V_INTEGER(new BigInteger("123456789"));
+		assertSame(c1, c2);
+		ArrayList<Constant> values = new ArrayList<Constant>();
+		values.add(c1);
+		values.add(Constant.V_STRING("hello"));
+		assertSame(Constant.V_LIST(values), Constant.V_LIST(values));
+	}
+
+	@Test public void bytecodes() {
+		Constant c = Constant.V_INTEGER(BigInteger.TEN);
+		assertSame(Code.Const(1, c), Code.Const(1, c));
+		assertNotSame(Code.Const(1, c), Code.Const(2, c));
+		assertSame(Code.BinArithOp(Type.T_INT, 3, 1, 2,
+				Code.BinArithKind.ADD), Code.BinArithOp(Type.T_INT, 3, 1,
+				2, Code.BinArithKind.ADD));
+	}
+}
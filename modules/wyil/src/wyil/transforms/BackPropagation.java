@@ -31,6 +31,7 @@ import java.util.*;
 
 import wybs.lang.*;
 import wybs.util.Pair;
+import wybs.util.PersistentVector;
 import wybs.util.Trie;
 import wyil.lang.*;
 import wyil.lang.Block.Entry;
@@ -85,8 +86,8 @@ import wyil.util.dfa.BackwardFlowAnalysis;
  * 
  */
 public final class BackPropagation extends BackwardFlowAnalysis<BackPropagation.Env> implements Transform<WyilFile> {	
-	private static final HashMap<Integer,Block> afterInserts = new HashMap<Integer,Block>();
-	private static final HashMap<Integer,Block.Entry> rewrites = new HashMap<Integer,Block.Entry>();
+	private final HashMap<Integer,Block> afterInserts = new HashMap<Integer,Block>();
+	private final HashMap<Integer,Block.Entry> rewrites = new HashMap<Integer,Block.Entry>();
 	
 	public BackPropagation(Builder builder) {
 		super();
@@ -115,8 +116,7 @@ public final class BackPropagation extends BackwardFlowAnalysis<BackPropagation.
 		// TODO: back propagate through pre- and post-conditions
 		
 		methodCase = mcase;
-		block = mcase.body();
-		stores = new HashMap<String,Env>();
+		initialise(mcase.body());
 		afterInserts.clear();
 		rewrites.clear();
 		
@@ -768,6 +768,11 @@ public final class BackPropagation extends BackwardFlowAnalysis<BackPropagation.
 			return env2;
 		}
 		
+		if (env1.size() == env2.size()) {
+			// only registers which differ need be considered
+			return new Env(env1.values.merge(env2.values, JOIN));
+		}
+		
 		Env env = new Env();
 		for (int i = 0; i != Math.min(env1.size(), env2.size()); ++i) {
 			env.add(Type.Union(env1.get(i), env2.get(i)));
@@ -801,14 +806,63 @@ public final class BackPropagation extends BackwardFlowAnalysis<BackPropagation.
 		return env;
 	}
 	
-	protected static class Env extends ArrayList<Type> {
+	private static final PersistentVector.Merger<Type> JOIN = new PersistentVector.Merger<Type>() {
+		public Type merge(Type t1, Type t2) {
+			return Type.Union(t1, t2);
+		}
+	};
+	
+	/**
+	 * The store of this analysis, which gives the type required of each
+	 * register. This is backed by a persistent vector, so that a clone costs
+	 * O(1) and an update O(log n), rather than both costing O(n).
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	protected static class Env extends AbstractList<Type> {
+		private PersistentVector<Type> values;
+		
 		public Env() {
+			this.values = PersistentVector.empty();
 		}
 		public Env(Collection<Type> v) {
-			super(v);
-		}		
+			if(v instanceof Env) {
+				this.values = ((Env) v).values;
+			} else {
+				this.values = PersistentVector.empty();
+				addAll(v);
+			}
+		}
+		private Env(PersistentVector<Type> values) {
+			this.values = values;
+		}
+		public Type get(int index) {
+			return values.get(index);
+		}
+		public Type set(int index, Type type) {
+			Type old = values.get(index);
+			values = values.update(index, type);
+			return old;
+		}
+		public boolean add(Type type) {
+			values = values.append(type);
+			return true;
+		}
+		public int size() {
+			return values.size();
+		}
+		public boolean equals(Object o) {
+			if(o instanceof Env) {
+				return values.equals(((Env) o).values);
+			}
+			return super.equals(o);
+		}
+		public int hashCode() {
+			return values.hashCode();
+		}
 		public Env clone() {
-			return new Env(this);
+			return new Env(values);
 		}
 	}
 }
@@ -34,6 +34,7 @@ import wybs.lang.Builder;
 import wybs.lang.Path;
 import wybs.lang.Transform;
 import wybs.util.Pair;
+import wybs.util.PersistentVector;
 import wyautl.util.BigRational;
 import wyil.lang.*;
 import wyil.lang.Block.Entry;
@@ -42,7 +43,7 @@ import wyil.util.*;
 import wyil.util.dfa.ForwardFlowAnalysis;
 
 public class ConstantPropagation extends ForwardFlowAnalysis<ConstantPropagation.Env> implements Transform<WyilFile> {	
-	private static final HashMap<Integer,Rewrite> rewrites = new HashMap<Integer,Rewrite>();
+	private final HashMap<Integer,Rewrite> rewrites = new HashMap<Integer,Rewrite>();
 	
 	/**
 	 * Determines whether constant propagation is enabled or not.
@@ -111,8 +112,7 @@ public class ConstantPropagation extends ForwardFlowAnalysis<ConstantPropagation
 	}
 	
 	public Block propagate(Block body) {				
-		block = body;
-		stores = new HashMap<String,Env>();		
+		initialise(body);
 		rewrites.clear();
 
 		// TODO: propagate constants through pre- and post-conditions.
@@ -982,27 +982,79 @@ public class ConstantPropagation extends ForwardFlowAnalysis<ConstantPropagation
 		} else if (env1 == null) {
 			return env2;
 		}
+		if (env1.size() == env2.size()) {
+			// only registers which differ need be considered
+			return new Env(env1.values.merge(env2.values, JOIN));
+		}
 		Env env = new Env();
 		for (int i = 0; i != Math.min(env1.size(), env2.size()); ++i) {
-			Constant mt = env1.get(i);
-			Constant ot = env2.get(i);
-			if (ot instanceof Constant && mt instanceof Constant && ot.equals(mt)) {
-				env.add(mt);
-			} else {
-				env.add(null);
-			}			
+			env.add(JOIN.merge(env1.get(i), env2.get(i)));
 		}
 		return env;
 	}	
 	
-	public final static class Env extends ArrayList<Constant> {
+	private static final PersistentVector.Merger<Constant> JOIN = new PersistentVector.Merger<Constant>() {
+		public Constant merge(Constant mt, Constant ot) {
+			if (ot instanceof Constant && mt instanceof Constant && ot.equals(mt)) {
+				return mt;
+			} else {
+				return null;
+			}
+		}
+	};
+	
+	/**
+	 * The store of this analysis, which gives the constant (if any) held in
+	 * each register. This is cloned for every bytecode propagated through.
+	 * Therefore, it is backed by a persistent vector, so that a clone costs
+	 * O(1) and an update O(log n), rather than both costing O(n).
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	public final static class Env extends AbstractList<Constant> {
+		private PersistentVector<Constant> values;
+		
 		public Env() {
+			this.values = PersistentVector.empty();
 		}
 		public Env(Collection<Constant> v) {
-			super(v);
-		}		
+			if(v instanceof Env) {
+				this.values = ((Env) v).values;
+			} else {
+				this.values = PersistentVector.empty();
+				addAll(v);
+			}
+		}
+		private Env(PersistentVector<Constant> values) {
+			this.values = values;
+		}
+		public Constant get(int index) {
+			return values.get(index);
+		}
+		public Constant set(int index, Constant constant) {
+			Constant old = values.get(index);
+			values = values.update(index, constant);
+			return old;
+		}
+		public boolean add(Constant constant) {
+			values = values.append(constant);
+			return true;
+		}
+		public int size() {
+			return values.size();
+		}
+		public boolean equals(Object o) {
+			if(o instanceof Env) {
+				return values.equals(((Env) o).values);
+			}
+			return super.equals(o);
+		}
+		public int hashCode() {
+			return values.hashCode();
+		}
 		public Env clone() {
-			return new Env(this);
+			return new Env(values);
 		}
 	}
 	
@@ -64,12 +64,24 @@ import wyil.util.dfa.*;
  * href="http://en.wikipedia.org/wiki/Live_variable_analysis">the Wikipedia
  * page</a>.
  * </p>
+ * <p>
+ * Using this information, an <code>assign</code> whose operand is no longer
+ * live afterwards is rewritten into a <code>move</code>. This makes explicit
+ * that the value is transferred to the target register, rather than being
+ * aliased by it. Furthermore, where the moved value was computed by the
+ * immediately preceding bytecode, that bytecode is retargeted to write
+ * directly into the move's target and the move is removed. For example,
+ * <code>append %8 = %1, %7; assign %1 = %8</code> becomes
+ * <code>append %1 = %1, %7</code>. In both cases, a back-end can then see
+ * that the original value is never used again and, hence, can be updated in
+ * place.
+ * </p>
  * 
  * @author David J. Pearce, 2011
  * 
  */
 public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAnalysis.Env> implements Transform<WyilFile> {
-	private static final HashMap<Integer,Block.Entry> rewrites = new HashMap<Integer,Block.Entry>();
+	private final HashMap<Integer,Block.Entry> rewrites = new HashMap<Integer,Block.Entry>();
 	
 	/**
 	 * Determines whether constant propagation is enabled or not.
@@ -78,6 +90,14 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 	
 	private boolean nops = getNops();
 	
+	/**
+	 * Determines whether assignments are rewritten into moves for the block
+	 * currently being analysed. This is only done for method bodies, since
+	 * other blocks (e.g. preconditions) may be inlined into code where their
+	 * input registers remain live.
+	 */
+	private boolean moves;
+	
 	public LiveVariablesAnalysis(Builder builder) {
 		
 	}	
@@ -144,14 +164,15 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 		if (postcondition != null) {
 			postcondition = propagate(postcondition);
 		}
+		moves = true;
 		Block nbody = propagate(mcase.body());
+		moves = false;
 		return new WyilFile.Case(nbody, precondition, postcondition,
 				mcase.locals(), mcase.attributes());
 	}
 	
 	public Block propagate(Block body) {		
-		block = body;
-		stores = new HashMap<String,Env>();
+		initialise(body);
 		rewrites.clear();
 		Env environment = lastStore();		
 		propagate(0,body.size(), environment, Collections.EMPTY_LIST);	
@@ -161,6 +182,9 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 		for(int i=0;i!=body.size();++i) {
 			Block.Entry rewrite = rewrites.get(i);			
 			if(rewrite != null) {		
+				if(rewrite.code instanceof Code.Move && coalesce(nbody, rewrite)) {
+					rewrite = new Block.Entry(Code.Nop, rewrite.attributes());
+				}
 				if (!(rewrite.code instanceof Code.Nop) || nops) {
 					nbody.append(rewrite);
 				}
@@ -172,11 +196,96 @@ public class LiveVariablesAnalysis extends BackwardFlowAnalysis<LiveVariablesAna
 		return nbody;
 	}
 	
+	/**
+	 * Attempt to coalesce a move with the bytecode immediately preceding it
+	 * which, if it writes the moved register, can write directly into the
+	 * move's target instead. This is safe since the moved register is not
+	 * live after the move and, hence, its value is not used anywhere else.
+	 * 
+	 * @param nbody
+	 *            --- block being constructed, whose last entry precedes the
+	 *            move.
+	 * @param entry
+	 *            --- entry containing the move.
+	 * @return true if the move was coalesced, and should be removed.
+	 */
+	private boolean coalesce(Block nbody, Block.Entry entry) {
+		Code.Move move = (Code.Move) entry.code;
+		int last = nbody.size() - 1;
+		if (last < 0) {
+			return false;
+		}
+		Block.Entry previous = nbody.get(last);
+		Code code = previous.code;
+		if (!(code instanceof Code.AbstractAssignable)
+				|| code instanceof Code.Update || code instanceof Code.Void
+				|| ((Code.AbstractAssignable) code).target != move.operand) {
+			return false;
+		}
+		// The moved register must not also be an operand, since remapping
+		// would then change what is read as well as what is written.
+		if (reads(code, move.operand)) {
+			return false;
+		}
+		HashMap<Integer, Integer> binding = new HashMap<Integer, Integer>();
+		binding.put(move.operand, move.target);
+		nbody.replace(last, code.remap(binding), previous.attributes());
+		return true;
+	}
+	
+	/**
+	 * Determine whether a given assignable bytecode reads a given register.
+	 * 
+	 * @param code
+	 * @param register
+	 * @return
+	 */
+	private static boolean reads(Code code, int register) {
+		if (code instanceof Code.Const) {
+			return false;
+		} else if (code instanceof Code.AbstractUnaryAssignable) {
+			Code.AbstractUnaryAssignable c = (Code.AbstractUnaryAssignable) code;
+			return c.operand == register;
+		} else if (code instanceof Code.AbstractBinaryAssignable) {
+			Code.AbstractBinaryAssignable c = (Code.AbstractBinaryAssignable) code;
+			return c.leftOperand == register || c.rightOperand == register;
+		} else if (code instanceof Code.AbstractNaryAssignable) {
+			Code.AbstractNaryAssignable c = (Code.AbstractNaryAssignable) code;
+			return contains(c.operands, register);
+		} else if (code instanceof Code.AbstractSplitNaryAssignable) {
+			Code.AbstractSplitNaryAssignable c = (Code.AbstractSplitNaryAssignable) code;
+			return c.operand == register || contains(c.operands, register);
+		}
+		return true; // conservative
+	}
+	
+	private static boolean contains(int[] operands, int register) {
+		for (int operand : operands) {
+			if (operand == register) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	@Override
 	public Env propagate(int index, Entry entry, Env environment) {		
 		rewrites.put(index,null);
 		Code code = entry.code;		
 		boolean isLive = true;
+		
+		if (moves && code instanceof Code.Assign) {
+			Code.Assign a = (Code.Assign) code;
+			if (a.target != a.operand && environment.contains(a.target)
+					&& !environment.contains(a.operand)) {
+				// operand is dead afterwards, so its value can be moved
+				entry = new Block.Entry(
+						Code.Move(a.type, a.target, a.operand),
+						entry.attributes());
+				rewrites.put(index, entry);
+			}
+		}
+		
 		environment = (Env) environment.clone();
 		
 		if (code instanceof Code.AbstractAssignable) {
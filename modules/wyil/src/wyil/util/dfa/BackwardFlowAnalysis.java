@@ -29,9 +29,7 @@ import static wybs.lang.SyntaxError.internalFailure;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import wybs.lang.Path;
 import wybs.lang.SyntaxError;
@@ -46,7 +44,8 @@ public abstract class BackwardFlowAnalysis<T> {
 	protected Block block;
 	protected WyilFile.MethodDeclaration method;
 	protected WyilFile.Case methodCase;
-	protected HashMap<String,T> stores;
+	protected Block.ControlFlow flow;
+	protected T[] stores;
 	
 	public void apply(WyilFile module) {	
 		filename = module.filename();
@@ -86,13 +85,25 @@ public abstract class BackwardFlowAnalysis<T> {
 	
 	protected WyilFile.Case propagate(WyilFile.Case mcase) {
 		this.methodCase = mcase;
-		this.stores = new HashMap<String,T>();
-		this.block = mcase.body();
+		initialise(mcase.body());
 		T last = lastStore();						
 		propagate(0, mcase.body().size(), last, Collections.EMPTY_LIST);		
 		return mcase;
 	}		
 	
+	/**
+	 * Prepare to propagate through a given block. This resolves the labels
+	 * used in the block, and clears the stores recorded at each of them. Stores
+	 * are indexed by the position of their label in the block.
+	 * 
+	 * @param block
+	 */
+	protected void initialise(Block block) {
+		this.block = block;
+		this.flow = block.controlFlow();
+		this.stores = (T[]) new Object[block.size()];
+	}
+	
 	protected T propagate(int start, int end, T store, List<Pair<Type,String>> handlers) {
 		
 		for(int i=end-1;i>=start;--i) {						
@@ -102,72 +113,52 @@ public abstract class BackwardFlowAnalysis<T> {
 				
 				// First, check for a label which may have incoming information.
 				if (code instanceof Code.LoopEnd) {					
-					Code.Loop loop = null;
-					String label = ((Code.LoopEnd) code).label;
 					// first, save the store since it might be needed for break
 					// statements.
-					stores.put(label,store);
+					stores[i] = store;
 					// now, identify the loop body.
 					int loopEnd = i;
-					while (--i >= 0) {						
-						stmt = block.get(i);
-						if (stmt.code instanceof Code.Loop) {
-							loop = (Code.Loop) stmt.code;
-							if (label.equals(loop.target)) {
-								// start of loop body found
-								break;
-							}
-						}						
-					}			
+					i = flow.match(i);
+					stmt = block.get(i);
+					Code.Loop loop = (Code.Loop) stmt.code;
 					
 					store = propagate(i, loopEnd, loop, stmt, store, handlers);															
 					continue;
 				} else if (code instanceof Code.TryEnd) {					
-					Code.TryCatch tc = null;
-					String label = ((Code.TryEnd) code).label;
-					stores.put(label,store);
+					stores[i] = store;
 					// now, identify the try-catch body.
 					int tcEnd = i;
-					while (--i >= 0) {						
-						stmt = block.get(i);
-						if (stmt.code instanceof Code.TryCatch) {
-							tc = (Code.TryCatch) stmt.code;
-							if (label.equals(tc.target)) {
-								// start of loop body found
-								break;
-							}
-						}						
-					}			
+					i = flow.match(i);
+					stmt = block.get(i);
+					Code.TryCatch tc = (Code.TryCatch) stmt.code;
 					ArrayList<Pair<Type, String>> nhandlers = new ArrayList<Pair<Type, String>>(
 							handlers);
 					nhandlers.addAll(0, tc.catches);					
 					store = propagate(i+1, tcEnd, store, nhandlers);															
 					continue;
 				} else if (code instanceof Code.Label) {
-					Code.Label l = (Code.Label) code;
-					stores.put(l.label,store);
+					stores[i] = store;
 				} else if (code instanceof Code.If) {
 					Code.If ifgoto = (Code.If) code;
-					T trueStore = stores.get(ifgoto.target);					
+					T trueStore = store(flow.targets(i)[0]);					
 					store = propagate(i, ifgoto, stmt, trueStore,store);										
 				} else if (code instanceof Code.IfIs) {
 					Code.IfIs iftype = (Code.IfIs) code;
-					T trueStore = stores.get(iftype.target);					
+					T trueStore = store(flow.targets(i)[0]);					
 					store = propagate(i, iftype, stmt, trueStore,store);										
 				} else if (code instanceof Code.Switch) {
 					Code.Switch sw = (Code.Switch) code;
 					
+					int[] targets = flow.targets(i);
 					ArrayList<T> swStores = new ArrayList<T>();
 					for(int j=0;j!=sw.branches.size();++j){
-						String target = sw.branches.get(j).second();
-						swStores.add(stores.get(target));
+						swStores.add(store(targets[j]));
 					}
-					T defStore = stores.get(sw.defaultTarget);
+					T defStore = store(targets[targets.length-1]);
 					
 					store = propagate(i, sw, stmt, swStores, defStore);																				
 				} else if (code instanceof Code.Goto) {
-					Code.Goto gto = (Code.Goto) stmt.code;
-					store = stores.get(gto.target);					
+					store = store(flow.targets(i)[0]);					
 				} else {
 					// This indicates a sequential statement was encountered.
 					if (code instanceof Code.Return
@@ -177,7 +168,7 @@ public abstract class BackwardFlowAnalysis<T> {
 					store = propagate(i, stmt, store);									
 				}
 				
-				store = mergeHandlers(i,code,store,handlers,stores);
+				store = mergeHandlers(i,code,store,handlers);
 			} catch (SyntaxError se) {
 				throw se;
 			} catch (Throwable ex) {
@@ -188,26 +179,36 @@ public abstract class BackwardFlowAnalysis<T> {
 		return store;
 	}
 
-	protected T mergeHandlers(int index, Code code, T store, List<Pair<Type, String>> handlers,
-			Map<String, T> stores) {
+	/**
+	 * Get the store recorded at the label in a given position, or
+	 * <code>null</code> if the label is unknown or nothing has been recorded
+	 * for it yet.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	private T store(int index) {
+		return index < 0 ? null : stores[index];
+	}
+
+	protected T mergeHandlers(int index, Code code, T store, List<Pair<Type, String>> handlers) {
 		if(code instanceof Code.Throw) {
 			Code.Throw t = (Code.Throw) code;	
-			return mergeHandler(t.type,store,handlers,stores);
+			return mergeHandler(t.type,store,handlers);
 		} else if(code instanceof Code.IndirectInvoke) {
 			Code.IndirectInvoke i = (Code.IndirectInvoke) code;			
-			return mergeHandler(i.type.throwsClause(),store,handlers,stores);
+			return mergeHandler(i.type.throwsClause(),store,handlers);
 		} else if(code instanceof Code.Invoke) {
 			Code.Invoke i = (Code.Invoke) code;	
-			return mergeHandler(i.type.throwsClause(),store,handlers,stores);
+			return mergeHandler(i.type.throwsClause(),store,handlers);
 		} 
 		return store;
 	}
 	
-	protected T mergeHandler(Type type, T store, List<Pair<Type, String>> handlers,
-			Map<String, T> stores) {
+	protected T mergeHandler(Type type, T store, List<Pair<Type, String>> handlers) {
 		for(Pair<Type,String> p : handlers) {
 			Type handler = p.first();			
-			T exceptionStore = stores.get(p.second());
+			T exceptionStore = store(flow.indexOf(p.second()));
 			if(exceptionStore == null) {
 				continue;
 			} else if(Type.isSubtype(handler,type)) {
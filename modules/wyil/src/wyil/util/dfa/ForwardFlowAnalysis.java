@@ -29,9 +29,7 @@ import static wybs.lang.SyntaxError.internalFailure;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import wybs.lang.SyntaxError;
 import wybs.lang.Transform;
@@ -45,7 +43,8 @@ public abstract class ForwardFlowAnalysis<T> {
 	protected WyilFile.MethodDeclaration method;
 	protected WyilFile.Case methodCase;
 	protected Block block;
-	protected HashMap<String,T> stores;
+	protected Block.ControlFlow flow;
+	protected T[] stores;
 	
 	public void apply(WyilFile module) {			
 		filename = module.filename();
@@ -86,13 +85,25 @@ public abstract class ForwardFlowAnalysis<T> {
 	
 	protected WyilFile.Case propagate(WyilFile.Case mcase) {
 		this.methodCase = mcase;		
-		this.stores = new HashMap<String,T>();
-		this.block = mcase.body();
+		initialise(mcase.body());
 		T init = initialStore();		
 		propagate(0, mcase.body().size(), init, Collections.EMPTY_LIST);		
 		return mcase;
 	}		
 	
+	/**
+	 * Prepare to propagate through a given block. This resolves the labels
+	 * used in the block, and clears the stores recorded at each of them. Stores
+	 * are indexed by the position of their label in the block.
+	 * 
+	 * @param block
+	 */
+	protected void initialise(Block block) {
+		this.block = block;
+		this.flow = block.controlFlow();
+		this.stores = (T[]) new Object[block.size()];
+	}
+	
 	protected T propagate(int start, int end, T store, List<Code.TryCatch> handlers) {
 		for(int i=start;i<end;++i) {						
 			Entry entry = block.get(i);			
@@ -101,8 +112,7 @@ public abstract class ForwardFlowAnalysis<T> {
 				
 				// First, check for a label which may have incoming information.
 				if (code instanceof Code.Label) {
-					Code.Label l = (Code.Label) code;
-					T tmp = stores.get(l.label);					
+					T tmp = stores[i];					
 					if (tmp != null && store != null) {						
 						store = join(store, tmp);
 					} else if (tmp != null) {
@@ -117,19 +127,8 @@ public abstract class ForwardFlowAnalysis<T> {
 					continue;
 				} else if (code instanceof Code.Loop) {
 					Code.Loop loop = (Code.Loop) code;
-					Block.Entry nEntry = entry;
 					int s = i;
-					// Note, I could make this more efficient!					
-					while (++i < block.size()) {
-						nEntry = block.get(i);
-						if (nEntry.code instanceof Code.Label) {
-							Code.Label l = (Code.Label) nEntry.code;
-							if (l.label.equals(loop.target)) {
-								// end of loop body found
-								break;
-							}
-						}						
-					}
+					i = end(i);
 					// propagate through the loop body
 					store = propagate(s, i, loop, entry, store, handlers);
 					// following is needed to ensure branches to exit label
@@ -140,12 +139,12 @@ public abstract class ForwardFlowAnalysis<T> {
 					Code.If ifgoto = (Code.If) code;
 					Pair<T, T> r = propagate(i, ifgoto, entry, store);					
 					store = r.second();
-					merge(ifgoto.target, r.first(), stores);
+					merge(flow.targets(i)[0], r.first());
 				}  else if (code instanceof Code.IfIs) {
 					Code.IfIs ifgoto = (Code.IfIs) code;
 					Pair<T, T> r = propagate(i, ifgoto, entry, store);					
 					store = r.second();
-					merge(ifgoto.target, r.first(), stores);
+					merge(flow.targets(i)[0], r.first());
 				} else if (code instanceof Code.Switch) {
 					Code.Switch sw = (Code.Switch) code;
 					
@@ -153,28 +152,17 @@ public abstract class ForwardFlowAnalysis<T> {
 
 					// assert r.second().size() == nsw.branches.size()
 					Code.Switch nsw = (Code.Switch) entry.code;
+					int[] targets = flow.targets(i);
 					for(int j=0;j!=nsw.branches.size();++j){
-						String target = nsw.branches.get(j).second();
 						T nstore = r.get(j);
-						merge(target, nstore, stores);
+						merge(targets[j], nstore);
 					}
-					merge(sw.defaultTarget, store, stores);
+					merge(targets[targets.length-1], store);
 					store = null;
 				} else if (code instanceof Code.TryCatch) {
 					Code.TryCatch tc = (Code.TryCatch) code;					
 					int s = i;
-
-					// Note, I could make this more efficient!					
-					while (++i < block.size()) {
-						entry = block.get(i);
-						if (entry.code instanceof Code.Label) {
-							Code.Label l = (Code.Label) entry.code;
-							if (l.label.equals(tc.target)) {
-								// end of loop body found
-								break;
-							}
-						}						
-					}
+					i = end(i);
 					
 					ArrayList<Code.TryCatch> nhandlers = new ArrayList<Code.TryCatch>(handlers);														
 					nhandlers.add(tc);
@@ -183,7 +171,7 @@ public abstract class ForwardFlowAnalysis<T> {
 								// try-catch is first label of catch handler
 				} else if (code instanceof Code.Goto) {
 					Code.Goto gto = (Code.Goto) entry.code;
-					merge(gto.target, store, stores);
+					merge(flow.targets(i)[0], store);
 					store = null;
 				} else {
 					// This indicates a sequential statement was encountered.
@@ -194,7 +182,7 @@ public abstract class ForwardFlowAnalysis<T> {
 					}
 				}				
 					
-				mergeHandlers(i,code,oldStore,handlers,stores);
+				mergeHandlers(i,code,oldStore,handlers);
 				
 			} catch (SyntaxError se) {
 				throw se;
@@ -206,31 +194,46 @@ public abstract class ForwardFlowAnalysis<T> {
 		return store;
 	}
 	
-	private void merge(String target, T store, Map<String, T> stores) {		
-		T old = stores.get(target);
+	/**
+	 * Determine the position of the label ending the loop or try-catch body
+	 * which starts at a given position. If there is no such label, then the
+	 * body is assumed to extend to the end of the block.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	private int end(int index) {
+		int end = flow.match(index);
+		return end < 0 ? block.size() : end;
+	}
+	
+	private void merge(int target, T store) {
+		if (target < 0) {
+			// unknown label, so no need to record anything
+			return;
+		}
+		T old = stores[target];
 		if (old == null) {
-			stores.put(target, store);
+			stores[target] = store;
 		} else {
-			stores.put(target, join(old, store));
+			stores[target] = join(old, store);
 		}
 	}
 
-	protected void mergeHandlers(int index, Code code, T store, List<Code.TryCatch> handlers,
-			Map<String, T> stores) {
+	protected void mergeHandlers(int index, Code code, T store, List<Code.TryCatch> handlers) {
 		if(code instanceof Code.Throw) {
 			Code.Throw t = (Code.Throw) code;	
-			mergeHandler(t.type,store,handlers,stores);
+			mergeHandler(t.type,store,handlers);
 		} else if(code instanceof Code.IndirectInvoke) {
 			Code.IndirectInvoke i = (Code.IndirectInvoke) code;			
-			mergeHandler(i.type.throwsClause(),store,handlers,stores);
+			mergeHandler(i.type.throwsClause(),store,handlers);
 		} else if(code instanceof Code.Invoke) {
 			Code.Invoke i = (Code.Invoke) code;	
-			mergeHandler(i.type.throwsClause(),store,handlers,stores);
+			mergeHandler(i.type.throwsClause(),store,handlers);
 		} 
 	}
 	
-	protected void mergeHandler(Type type, T store, List<Code.TryCatch> handlers,
-			Map<String, T> stores) {
+	protected void mergeHandler(Type type, T store, List<Code.TryCatch> handlers) {
 		for(int i=handlers.size()-1;i>=0;--i) {
 			Code.TryCatch tc = handlers.get(i);
 			for(Pair<Type,String> p : tc.catches) { 
@@ -238,11 +241,11 @@ public abstract class ForwardFlowAnalysis<T> {
 
 				if(Type.isSubtype(handler,type)) {
 					T nstore = propagate(handler,tc,store);
-					merge(p.second(),nstore,stores);
+					merge(flow.indexOf(p.second()),nstore);
 					return; // completely subsumed
 				} else if(Type.isSubtype(type, handler)) {
 					T nstore = propagate(handler,tc,store);
-					merge(p.second(),nstore,stores);
+					merge(flow.indexOf(p.second()),nstore);
 					// not completely subsumed
 					type = Type.intersect(type,Type.Negation(handler));
 				}
@@ -650,9 +650,11 @@ public class Util$native {
 			@SuppressWarnings("rawtypes")
 			Class type = element0.getClass();
 
-			for (Object o : list) {
-				if (o.getClass() != type) {
-					throw new RuntimeException("Unmarshable list encountered (contains a mixture of types): " + list);
+			if (list.kind() == WyList.OBJECTS) {
+				for (Object o : list) {
+					if (o.getClass() != type) {
+						throw new RuntimeException("Unmarshable list encountered (contains a mixture of types): " + list);
+					}
 				}
 			}
 
@@ -723,8 +725,15 @@ public class Util$native {
 	private static void writeObjectToBytes(WyList list, ByteBuffer buffer) {
 		buffer.putInt(list.size()); // FIXME: this assumes lots about the format of cl_int
 
-		for (Object o : list) {
-			writeObjectToBytes(o, buffer);
+		if (list.kind() == WyList.LONGS) {
+			// integers stored unboxed can be written directly
+			for (int i = 0; i != list.size(); ++i) {
+				buffer.putInt((int) list.getLong(i)); // FIXME: this assumes lots about the format of cl_int
+			}
+		} else {
+			for (Object o : list) {
+				writeObjectToBytes(o, buffer);
+			}
 		}
 	}
 	
@@ -30,7 +30,6 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.HashMap;
 
 import wyjc.runtime.WyObject;
 import wyjc.runtime.WyList;
@@ -68,13 +67,13 @@ public class File$native {
 	}
 	
 	public static void close(WyObject p) {
-		FileInputStream fin = (FileInputStream) ((HashMap) p.state())
+		FileInputStream fin = (FileInputStream) ((WyRecord) p.state())
 				.get("$fin");		
 		try {
 			if(fin != null) {
 				fin.close();
 			} else {
-				FileOutputStream fout = (FileOutputStream) ((HashMap) p.state())
+				FileOutputStream fout = (FileOutputStream) ((WyRecord) p.state())
 				.get("$fout");		
 				fout.close();
 			}
@@ -84,26 +83,23 @@ public class File$native {
 	}
 	
 	public static WyList read(WyObject p, BigInteger max) {		
-		FileInputStream fin = (FileInputStream) ((HashMap) p.state())
+		FileInputStream fin = (FileInputStream) ((WyRecord) p.state())
 				.get("$fin");
 		
-		WyList r = new WyList();
 		byte[] bytes = new byte[max.intValue()];		
 		try {
 			int nbytes = fin.read(bytes);
-			for(int i=0;i!=nbytes;++i) {				
-				r.add(bytes[i]);
-			}
+			return WyList.fromBytes(bytes, Math.max(nbytes, 0));
 		} catch (IOException ioe) {
 			// what to do here??
 		}
 		
-		return r;		
+		return new WyList();		
 	}
 	
 	private static final int CHUNK_SIZE = 1024;
 	public static WyList read(WyObject p) {		
-		FileInputStream fin = (FileInputStream) ((HashMap) p.state())
+		FileInputStream fin = (FileInputStream) ((WyRecord) p.state())
 				.get("$fin");
 		
 		WyList r = new WyList();				
@@ -112,9 +108,7 @@ public class File$native {
 			do {
 				byte[] bytes = new byte[CHUNK_SIZE];
 				nbytes = fin.read(bytes);
-				for(int i=0;i!=nbytes;++i) {
-					r.add(bytes[i]);
-				}
+				r.addAll(WyList.fromBytes(bytes, Math.max(nbytes, 0)));
 			} while(nbytes == CHUNK_SIZE);			
 		} catch (IOException ioe) {
 			// what to do here??
@@ -124,16 +118,11 @@ public class File$native {
 	}
 	
 	public static void write(WyObject p, WyList bytes) {
-		FileOutputStream fout = (FileOutputStream) ((HashMap) p.state())
+		FileOutputStream fout = (FileOutputStream) ((WyRecord) p.state())
 				.get("$fout");
 				
 		try {			
-			byte[] bs = new byte[bytes.size()];
-			for(int i=0;i!=bs.length;++i) {
-				Byte r = (Byte) bytes.get(i); 
-				bs[i] = r.byteValue();
-			}			
-			fout.write(bs);			
+			fout.write(WyList.toBytes(bytes));			
 		} catch (IOException ioe) {
 			// what to do here??
 		}		
@@ -30,7 +30,6 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.HashMap;
 import java.io.*;
 import java.net.*;
 import java.net.Socket;
@@ -68,7 +67,7 @@ public class Socket$native {
 		if (p == null) {
 			return false;
 		} else {
-			Socket s = (Socket) ((HashMap) p.state()).get("$csock");
+			Socket s = (Socket) ((WyRecord) p.state()).get("$csock");
 			return s.isConnected();
 		}
 	}
@@ -94,7 +93,7 @@ public class Socket$native {
 		if (p == null)
 			return null;
 		WyRecord r = new WyRecord();
-		ServerSocket ss = (ServerSocket) ((HashMap) p.state()).get("$ssock");
+		ServerSocket ss = (ServerSocket) ((WyRecord) p.state()).get("$ssock");
 		try {
 			Socket s = ss.accept();
 			DataInputStream sin = new DataInputStream(s.getInputStream());
@@ -119,9 +118,9 @@ public class Socket$native {
 	public static void close(WyObject p) {
 		if (!isConnected(p))
 			return;
-		Socket s = (Socket) ((HashMap) p.state()).get("$csock");
-		DataInputStream sin = (DataInputStream) ((HashMap) p.state()).get("$sin");
-		DataOutputStream sout = (DataOutputStream) ((HashMap) p.state()).get("$sout");
+		Socket s = (Socket) ((WyRecord) p.state()).get("$csock");
+		DataInputStream sin = (DataInputStream) ((WyRecord) p.state()).get("$sin");
+		DataOutputStream sout = (DataOutputStream) ((WyRecord) p.state()).get("$sout");
 		try {
 			sin.close();
 			sout.close();
@@ -134,31 +133,23 @@ public class Socket$native {
 	public static WyList read(WyObject p, BigInteger max) {
 		if (!isConnected(p))
 			return new WyList();
-		DataInputStream sin = (DataInputStream) ((HashMap) p.state()).get("$sin");	
-		WyList r = new WyList();
+		DataInputStream sin = (DataInputStream) ((WyRecord) p.state()).get("$sin");	
 		byte[] bytes = new byte[max.intValue()];		
 		try {
 			int nbytes = sin.read(bytes);
-			for(int i = 0; i != nbytes; ++i) {				
-				r.add(bytes[i]);
-			}
+			return WyList.fromBytes(bytes, Math.max(nbytes, 0));
 		} catch (IOException ioe) {
 			//ioe.printStack();
 		}
-		return r;	
+		return new WyList();	
 	}
 	
 	public static void write(WyObject p, WyList bytes) {
 		if (!isConnected(p))
 			return;
-		DataOutputStream sout = (DataOutputStream) ((HashMap) p.state()).get("$sout");
+		DataOutputStream sout = (DataOutputStream) ((WyRecord) p.state()).get("$sout");
 		try {
-			byte[] bs = new byte[bytes.size()];
-			for(int i = 0; i != bs.length; ++i) {
-				Byte r = (Byte) bytes.get(i); 
-				bs[i] = r.byteValue();
-			}
-			sout.write(bs);			
+			sout.write(WyList.toBytes(bytes));			
 		} catch (IOException ioe) {
 			//ioe.printStack();
 		}
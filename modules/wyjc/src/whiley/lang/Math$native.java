@@ -13,11 +13,16 @@ public class Math$native {
 	 */
 	public static WyRat sqrt(BigInteger i, WyRat err) {
 		int nbits = i.bitLength();
-		if(nbits < 32) {
-			// Note, need to restrict to ints, since long=>double conversion is
-			// lossy in Java. 
-			int v = i.intValue();
+		if(nbits < 53) {
+			// Note, need to restrict to 53 bits, since long=>double conversion
+			// is lossy beyond this in Java. Perfect squares are returned
+			// exactly, rather than via their double approximation.
+			long v = i.longValue();
 			double r = java.lang.Math.sqrt(v);
+			long s = (long) r;
+			if(s * s == v) {
+				return WyRat.valueOf(s);
+			}
 			return WyRat.valueOf(r);
 		} else {
 			throw new RuntimeException("need to implement general sqrt");
@@ -48,13 +53,64 @@ public class Math$native {
 		return WyRat.valueOf(java.lang.Math.exp(x.doubleValue()));
 	}
 	public static WyRat exp10(WyRat x) {
+		if(x.isInteger() && x.compareTo(MAX_EXP10) <= 0
+				&& x.compareTo(MAX_EXP10.negate()) >= 0) {
+			// small integer exponent, so compute the exact result
+			int n = x.intValue();
+			long p = POWERS_OF_TEN[n < 0 ? -n : n];
+			return n < 0 ? WyRat.valueOf(1, p) : WyRat.valueOf(p);
+		}
 		return WyRat.valueOf(java.lang.Math.pow(10.0, x.doubleValue()));
 	}
 	public static WyRat log(WyRat x) {
 		return WyRat.valueOf(java.lang.Math.log(x.doubleValue()));
 	}
 	public static WyRat log10(WyRat x) {
+		if(x.compareTo(WyRat.ZERO) > 0) {
+			// exact powers of ten give an exact result
+			int n = indexOf(x);
+			if(n >= 0) {
+				return WyRat.valueOf(n);
+			}
+			n = indexOf(WyRat.ONE.divide(x));
+			if(n >= 0) {
+				return WyRat.valueOf(-n);
+			}
+		}
 		return WyRat.valueOf(java.lang.Math.log10(x.doubleValue()));
 	}
+
+	private static final WyRat MAX_EXP10 = WyRat.valueOf(18);
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	static {
+		long p = 1;
+		for(int i=0;i!=POWERS_OF_TEN.length;++i) {
+			POWERS_OF_TEN[i] = p;
+			p = p * 10;
+		}
+	}
+
+	private static final WyRat MAX_POWER_OF_TEN = WyRat.valueOf(POWERS_OF_TEN[18]);
+
+	/**
+	 * Determine n such that x is 10^n, or -1 if no such n exists (within the
+	 * range of long).
+	 * 
+	 * @param x
+	 * @return
+	 */
+	private static int indexOf(WyRat x) {
+		if(x.isInteger() && x.compareTo(MAX_POWER_OF_TEN) <= 0) {
+			long v = x.longValue();
+			for(int i=0;i!=POWERS_OF_TEN.length;++i) {
+				if(POWERS_OF_TEN[i] == v) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
 }
 
@@ -51,6 +51,7 @@ import wyjvm.lang.JvmType;
 import wyjvm.lang.ClassFile;
 import wyjvm.lang.JvmTypes;
 import wyjvm.lang.Modifier;
+import wyjvm.util.TypeAnalysis;
 import wyjvm.util.Validation;
 import wyrl.io.JavaIdentifierOutputStream;
 import static wyjvm.lang.JvmTypes.*;
@@ -64,11 +65,31 @@ import static wyjvm.lang.JvmTypes.*;
  * 
  */
 public class Wyil2JavaBuilder implements Builder {
-	private static int CLASS_VERSION = 49;
+	private static int CLASS_VERSION = 50;
 	private Logger logger = Logger.NULL;
 	protected String filename;
 	protected JvmType.Clazz owner;
 	
+	/**
+	 * Maps each register whose ownership is tracked in the block being
+	 * translated to the JVM slot holding its ownership flag. See
+	 * <code>translateOwnership()</code> for more on this.
+	 */
+	private HashMap<Integer,Integer> ownership = new HashMap<Integer,Integer>();
+	
+	/**
+	 * Maps each register which is held as a long in the block being translated
+	 * to the first of the three JVM slots allocated for it. See
+	 * <code>translateLongs()</code> for more on this.
+	 */
+	private HashMap<Integer,Integer> longs = new HashMap<Integer,Integer>();
+	
+	/**
+	 * The parameter types of the method being translated, or null if these
+	 * are unknown.
+	 */
+	private List<Type> parameters;
+	
 	public void setLogger(Logger logger) {
 		this.logger = logger;
 	}
@@ -97,15 +118,10 @@ public class Wyil2JavaBuilder implements Builder {
 				// validate generated bytecode
 				new Validation().apply(contents);
 				
-				// FIXME: deadCode elimination is currently unsafe because the
-				// LineNumberTable and Exceptions attributes do not deal with rewrites
-				// properly.
-					
-				// eliminate any dead code that was introduced.		
-				// new DeadCodeElimination().apply(file);			
-				
-				// Compute the StackMapTable
-				//new TypeAnalysis().apply(file);	
+				// Compute the StackMapTable. This also neutralises any dead
+				// code that was introduced, since the StackMapTable cannot
+				// describe it.
+				new TypeAnalysis().apply(contents);
 				
 				// finally, write the file into its destination
 				df.write(contents);
@@ -127,7 +143,7 @@ public class Wyil2JavaBuilder implements Builder {
 		ArrayList<Modifier> modifiers = new ArrayList<Modifier>();
 		modifiers.add(Modifier.ACC_PUBLIC);
 		modifiers.add(Modifier.ACC_FINAL);
-		ClassFile cf = new ClassFile(49, owner, JAVA_LANG_OBJECT,
+		ClassFile cf = new ClassFile(CLASS_VERSION, owner, JAVA_LANG_OBJECT,
 				new ArrayList<JvmType.Clazz>(), modifiers);
 	
 		this.filename = module.filename();
@@ -207,7 +223,30 @@ public class Wyil2JavaBuilder implements Builder {
 				// Now, create code to intialise this field
 				translate(constant,0,bytecodes);
 				bytecodes.add(new Bytecode.PutField(owner, name, type, Bytecode.STATIC));
-			} 
+			} else if(c instanceof JvmShape) {
+				nvalues++;
+				String[] fields = ((JvmShape)c).fields;
+				String name = "shape$" + entry.getValue();
+				ArrayList<Modifier> fmods = new ArrayList<Modifier>();
+				fmods.add(Modifier.ACC_PRIVATE);
+				fmods.add(Modifier.ACC_STATIC);
+				fmods.add(Modifier.ACC_FINAL);
+				cf.fields().add(new ClassFile.Field(name, WHILEYSHAPE, fmods));
+				
+				bytecodes.add(new Bytecode.LoadConst(fields.length));
+				bytecodes.add(new Bytecode.New(JAVA_LANG_STRING_ARRAY));
+				for (int i = 0; i != fields.length; ++i) {
+					bytecodes.add(new Bytecode.Dup(JAVA_LANG_STRING_ARRAY));
+					bytecodes.add(new Bytecode.LoadConst(i));
+					bytecodes.add(new Bytecode.LoadConst(fields[i]));
+					bytecodes.add(new Bytecode.ArrayStore(JAVA_LANG_STRING_ARRAY));
+				}
+				JvmType.Function ftype = new JvmType.Function(WHILEYSHAPE,
+						JAVA_LANG_STRING_ARRAY);
+				bytecodes.add(new Bytecode.Invoke(WHILEYSHAPE, "get", ftype,
+						Bytecode.STATIC));
+				bytecodes.add(new Bytecode.PutField(owner, name, WHILEYSHAPE, Bytecode.STATIC));
+			}
 		}
 		
 		if(nvalues > 0) {
@@ -304,7 +343,9 @@ public class Wyil2JavaBuilder implements Builder {
 		ArrayList<Handler> handlers = new ArrayList<Handler>();
 		ArrayList<LineNumberTable.Entry> lineNumbers = new ArrayList<LineNumberTable.Entry>();		
 		ArrayList<Bytecode> codes;				
+		parameters = method.type().params();
 		codes = translate(mcase,constants,handlers,lineNumbers);		
+		parameters = null;
 		wyjvm.attributes.Code code = new wyjvm.attributes.Code(codes,handlers,cm);
 		if(!lineNumbers.isEmpty()) {
 			code.attributes().add(new LineNumberTable(lineNumbers));
@@ -404,15 +445,20 @@ public class Wyil2JavaBuilder implements Builder {
 			ArrayList<Bytecode> bytecodes) {
 
 		ArrayList<UnresolvedHandler> unresolvedHandlers = new ArrayList<UnresolvedHandler>();
+		freeSlot = translateLongs(blk, freeSlot, bytecodes);
+		freeSlot = translateOwnership(blk, freeSlot, bytecodes);
 		for (int i = 0; i != blk.size(); ++i) {
 			Entry s = blk.get(i);
 			Attribute.Source loc = s.attribute(Attribute.Source.class);
+			int start = bytecodes.size();
 			if (loc != null) {
-				lineNumbers.add(new LineNumberTable.Entry(bytecodes.size(),
-						loc.line));
+				lineNumbers.add(new LineNumberTable.Entry(start, loc.line));
 			}
+			clearOwnership(s.code, bytecodes);
 			freeSlot = translate(s, freeSlot, constants, unresolvedHandlers,
 					bytecodes);
+			updateOwnership(s.code, bytecodes);
+			lowerLongs(start, bytecodes);
 		}
 
 		if (unresolvedHandlers.size() > 0) {
@@ -438,6 +484,350 @@ public class Wyil2JavaBuilder implements Builder {
 		// here, we need to resolve the handlers.
 	}
 	
+	/**
+	 * <p>
+	 * Determine which registers in a block only ever hold integers, and
+	 * allocate JVM slots to hold each as a <code>long</code>. A Whiley
+	 * <code>int</code> is unbounded and, in general, must be represented as a
+	 * <code>BigInteger</code>. However, the values held in loop counters, list
+	 * indices, lengths, etc almost always fit into a <code>long</code>, and
+	 * allocating a <code>BigInteger</code> for every operation on them is
+	 * expensive. For example:
+	 * </p>
+	 * 
+	 * <pre>
+	 * add %1 = %1, %2 : int
+	 * ifge %1, %3 goto blklab1 : int
+	 * </pre>
+	 * 
+	 * <p>
+	 * Here, if <code>%1</code>, <code>%2</code> and <code>%3</code> are held as
+	 * longs then no allocation is required at all. Each such register is held
+	 * in three JVM slots: the first two hold a <code>long</code>, and the
+	 * third holds a <code>BigInteger</code> which is <code>null</code> unless
+	 * the value does not fit into a <code>long</code> (see
+	 * <code>Util.valueOf(long,BigInteger)</code>). The original slot of the
+	 * register is unused, except to pass in a parameter.
+	 * </p>
+	 * 
+	 * <p>
+	 * Only those bytecodes for which this matters (e.g. arithmetic,
+	 * comparisons, list indexing, etc) operate on the long directly, and fall
+	 * back to the <code>BigInteger</code> path when either operand does not
+	 * fit into a <code>long</code>, or the result overflows. Every other
+	 * bytecode is translated as normal, and its loads and stores of such
+	 * registers are then rewritten to convert between the two
+	 * representations (see <code>lowerLongs()</code>).
+	 * </p>
+	 * 
+	 * <p>
+	 * A register qualifies if every value assigned to it has type
+	 * <code>int</code> (including the parameter it holds, if any). Registers
+	 * which are retyped by a type test, or which hold a caught exception, are
+	 * excluded.
+	 * </p>
+	 * 
+	 * @param blk
+	 *            --- block being translated.
+	 * @param freeSlot
+	 *            --- first unused bytecode register.
+	 * @param bytecodes
+	 *            --- list to insert bytecodes into.
+	 * @return first unused bytecode register after allocating slots.
+	 */
+	private int translateLongs(Block blk, int freeSlot,
+			ArrayList<Bytecode> bytecodes) {
+		TreeSet<Integer> candidates = new TreeSet<Integer>();
+		HashSet<Integer> excluded = new HashSet<Integer>();
+		for (int i = 0; i != blk.numInputs(); ++i) {
+			if (parameters != null && i < parameters.size()
+					&& parameters.get(i).equals(Type.T_INT)) {
+				candidates.add(i);
+			} else {
+				excluded.add(i);
+			}
+		}
+		for (Block.Entry e : blk) {
+			Code code = e.code;
+			if (code instanceof Code.AbstractAssignable) {
+				Code.AbstractAssignable a = (Code.AbstractAssignable) code;
+				if (a.target == Code.NULL_REG) {
+					continue;
+				} else if (Type.T_INT.equals(resultType(a))) {
+					candidates.add(a.target);
+				} else {
+					excluded.add(a.target);
+				}
+			} else if (code instanceof Code.ForAll) {
+				Code.ForAll f = (Code.ForAll) code;
+				if (f.type.element().equals(Type.T_INT)) {
+					candidates.add(f.indexOperand);
+				} else {
+					excluded.add(f.indexOperand);
+				}
+			} else if (code instanceof Code.IfIs) {
+				excluded.add(((Code.IfIs) code).operand);
+			} else if (code instanceof Code.TryCatch) {
+				excluded.add(((Code.TryCatch) code).operand);
+			}
+		}
+		candidates.removeAll(excluded);
+
+		longs = new HashMap<Integer, Integer>();
+		for (int reg : candidates) {
+			longs.put(reg, freeSlot);
+			if (reg < blk.numInputs()) {
+				bytecodes.add(new Bytecode.Load(reg, WHILEYINT));
+				addStoreBig(freeSlot, bytecodes);
+			}
+			freeSlot += 3;
+		}
+		return freeSlot;
+	}
+
+	/**
+	 * Determine the type of value written into the target register of a
+	 * bytecode, or <code>null</code> if this is not known. This differs from
+	 * <code>assignedType()</code> which, for some bytecodes (e.g. convert),
+	 * gives the type of the operand instead.
+	 * 
+	 * @param code
+	 * @return
+	 */
+	private static Type resultType(Code.AbstractAssignable code) {
+		if (code instanceof Code.BinArithOp) {
+			Code.BinArithOp c = (Code.BinArithOp) code;
+			return c.kind == Code.BinArithKind.RANGE ? null : c.type;
+		} else if (code instanceof Code.Const || code instanceof Code.Assign
+				|| code instanceof Code.Move || code instanceof Code.UnArithOp
+				|| code instanceof Code.LengthOf
+				|| code instanceof Code.IndexOf
+				|| code instanceof Code.Invoke
+				|| code instanceof Code.IndirectInvoke
+				|| code instanceof Code.FieldLoad
+				|| code instanceof Code.TupleLoad
+				|| code instanceof Code.Dereference) {
+			return code.assignedType();
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Rewrite every load or store of a register held as a long, in the
+	 * bytecodes translated from a single wyil bytecode. Such a load or store
+	 * expects a <code>BigInteger</code>, and so it must be converted from or
+	 * to the long representation.
+	 * 
+	 * @param start
+	 *            --- index of first bytecode to rewrite.
+	 * @param bytecodes
+	 *            --- list of bytecodes to rewrite.
+	 */
+	private void lowerLongs(int start, ArrayList<Bytecode> bytecodes) {
+		if (longs.isEmpty()) {
+			return;
+		}
+		List<Bytecode> range = bytecodes.subList(start, bytecodes.size());
+		ArrayList<Bytecode> original = new ArrayList<Bytecode>(range);
+		range.clear();
+		for (Bytecode b : original) {
+			if (b instanceof Bytecode.Load) {
+				Bytecode.Load l = (Bytecode.Load) b;
+				Integer slot = longs.get(l.slot);
+				if (slot != null && l.type instanceof JvmType.Reference) {
+					addLoadBig(slot, bytecodes);
+					continue;
+				}
+			} else if (b instanceof Bytecode.Store) {
+				Bytecode.Store st = (Bytecode.Store) b;
+				Integer slot = longs.get(st.slot);
+				if (slot != null && st.type instanceof JvmType.Reference) {
+					addStoreBig(slot, bytecodes);
+					continue;
+				}
+			}
+			bytecodes.add(b);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Determine which registers in a block should have their ownership tracked,
+	 * allocate a flag for each and initialise it to false. A register is owned
+	 * when it holds the only reference to its value, in which case that value
+	 * can be updated in place. For example:
+	 * </p>
+	 * 
+	 * <pre>
+	 * update %1[%2] = %3 : [int] -> [int]
+	 * </pre>
+	 * 
+	 * <p>
+	 * Here, if <code>%1</code> is owned, then the list it holds can be updated
+	 * without being cloned. Ownership is tracked dynamically since, for
+	 * parameters and values carried around loops, it cannot be determined
+	 * statically. For example, a list passed into a method must be cloned on
+	 * the first iteration of a loop updating it, but not thereafter.
+	 * </p>
+	 * 
+	 * <p>
+	 * Only registers which are the target of an in-place update or append, and
+	 * those moved into them, are tracked. A register becomes owned when it is
+	 * assigned a freshly constructed value, and stops being owned as soon as
+	 * its value is read by any bytecode which might retain a reference to it.
+	 * Since assignments to dead registers are turned into moves by
+	 * <code>LiveVariablesAnalysis</code>, ownership is passed along by them.
+	 * </p>
+	 * 
+	 * @param blk
+	 *            --- block being translated.
+	 * @param freeSlot
+	 *            --- first unused bytecode register.
+	 * @param bytecodes
+	 *            --- list to insert bytecodes into.
+	 * @return first unused bytecode register after allocating flags.
+	 */
+	private int translateOwnership(Block blk, int freeSlot,
+			ArrayList<Bytecode> bytecodes) {
+		HashSet<Integer> tracked = new HashSet<Integer>();
+		HashSet<Integer> excluded = new HashSet<Integer>();
+		for (Block.Entry e : blk) {
+			Code code = e.code;
+			if (code instanceof Code.Update) {
+				Code.Update u = (Code.Update) code;
+				Code.LVal lv = u.iterator().next();
+				if (lv instanceof Code.ListLVal || lv instanceof Code.MapLVal
+						|| lv instanceof Code.RecordLVal) {
+					tracked.add(u.target);
+				}
+			} else if (code instanceof Code.BinListOp) {
+				Code.BinListOp b = (Code.BinListOp) code;
+				if (b.kind != Code.BinListKind.RIGHT_APPEND
+						&& b.target == b.leftOperand) {
+					tracked.add(b.target);
+				}
+			} else if (code instanceof Code.ForAll) {
+				// index operands are assigned outside of translate(Entry)
+				excluded.add(((Code.ForAll) code).indexOperand);
+			} else if (code instanceof Code.TryCatch) {
+				excluded.add(((Code.TryCatch) code).operand);
+			}
+		}
+		// ownership is passed along by moves into tracked registers
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Block.Entry e : blk) {
+				if (e.code instanceof Code.Move) {
+					Code.Move m = (Code.Move) e.code;
+					if (tracked.contains(m.target)) {
+						changed |= tracked.add(m.operand);
+					}
+				}
+			}
+		}
+		tracked.removeAll(excluded);
+
+		ownership = new HashMap<Integer, Integer>();
+		for (int reg : tracked) {
+			ownership.put(reg, freeSlot);
+			bytecodes.add(new Bytecode.LoadConst(0));
+			bytecodes.add(new Bytecode.Store(freeSlot++, T_BOOL));
+		}
+		return freeSlot;
+	}
+
+	/**
+	 * Clear the ownership flag of every tracked register read by a given
+	 * bytecode which may retain a reference to its value. Reading a value
+	 * without retaining it (e.g. loading an element from a list) does not
+	 * affect ownership, and neither does reading the target of an update.
+	 * 
+	 * @param code
+	 * @param bytecodes
+	 */
+	private void clearOwnership(Code code, ArrayList<Bytecode> bytecodes) {
+		if (ownership.isEmpty() || code instanceof Code.IndexOf
+				|| code instanceof Code.FieldLoad
+				|| code instanceof Code.TupleLoad
+				|| code instanceof Code.LengthOf
+				|| code instanceof Code.SubList || code instanceof Code.If
+				|| code instanceof Code.IfIs || code instanceof Code.Switch
+				|| code instanceof Code.AssertOrAssume
+				|| code instanceof Code.Debug
+				|| code instanceof Code.BinArithOp
+				|| code instanceof Code.UnArithOp
+				|| code instanceof Code.Invert
+				|| code instanceof Code.BinStringOp
+				|| code instanceof Code.SubString
+				|| code instanceof Code.Move) {
+			return;
+		}
+		HashSet<Integer> registers = new HashSet<Integer>();
+		code.registers(registers);
+		if (code instanceof Code.AbstractAssignable) {
+			registers.remove(((Code.AbstractAssignable) code).target);
+		}
+		if (code instanceof Code.BinListOp) {
+			// appending copies the elements of a list, not the list itself
+			Code.BinListOp b = (Code.BinListOp) code;
+			if (b.kind != Code.BinListKind.RIGHT_APPEND) {
+				registers.remove(b.leftOperand);
+			}
+			if (b.kind != Code.BinListKind.LEFT_APPEND) {
+				registers.remove(b.rightOperand);
+			}
+		}
+		for (int reg : registers) {
+			Integer flag = ownership.get(reg);
+			if (flag != null) {
+				bytecodes.add(new Bytecode.LoadConst(0));
+				bytecodes.add(new Bytecode.Store(flag, T_BOOL));
+			}
+		}
+	}
+
+	/**
+	 * Update the ownership flag of the tracked register (if any) assigned by a
+	 * given bytecode. The register is owned if the bytecode constructs a fresh
+	 * value, or moves an owned value into it.
+	 * 
+	 * @param code
+	 * @param bytecodes
+	 */
+	private void updateOwnership(Code code, ArrayList<Bytecode> bytecodes) {
+		if (!(code instanceof Code.AbstractAssignable)) {
+			return;
+		}
+		Integer flag = ownership.get(((Code.AbstractAssignable) code).target);
+		if (flag == null) {
+			return;
+		} else if (code instanceof Code.Move) {
+			Integer from = ownership.get(((Code.Move) code).operand);
+			if (from != null) {
+				bytecodes.add(new Bytecode.Load(from, T_BOOL));
+				bytecodes.add(new Bytecode.Store(flag, T_BOOL));
+				bytecodes.add(new Bytecode.LoadConst(0));
+				bytecodes.add(new Bytecode.Store(from, T_BOOL));
+				return;
+			}
+		} else if (code instanceof Code.NewList
+				|| code instanceof Code.NewSet
+				|| code instanceof Code.NewMap
+				|| code instanceof Code.NewRecord
+				|| code instanceof Code.NewTuple
+				|| code instanceof Code.Update
+				|| code instanceof Code.BinListOp
+				|| code instanceof Code.SubList) {
+			bytecodes.add(new Bytecode.LoadConst(1));
+			bytecodes.add(new Bytecode.Store(flag, T_BOOL));
+			return;
+		}
+		bytecodes.add(new Bytecode.LoadConst(0));
+		bytecodes.add(new Bytecode.Store(flag, T_BOOL));
+	}
+	
 	protected int translate(Entry entry, int freeSlot,
 			HashMap<JvmConstant, Integer> constants,
 			ArrayList<UnresolvedHandler> handlers, ArrayList<Bytecode> bytecodes) {
@@ -496,7 +886,7 @@ public class Wyil2JavaBuilder implements Builder {
 			} else if(code instanceof Code.NewList) {
 				 translate((Code.NewList)code,freeSlot,bytecodes);
 			} else if(code instanceof Code.NewRecord) {
-				 translate((Code.NewRecord)code,freeSlot,bytecodes);
+				 translate((Code.NewRecord)code,freeSlot,constants,bytecodes);
 			} else if(code instanceof Code.NewSet) {
 				 translate((Code.NewSet)code,freeSlot,bytecodes);
 			} else if(code instanceof Code.NewTuple) {
@@ -544,6 +934,15 @@ public class Wyil2JavaBuilder implements Builder {
 		Constant constant = c.constant;
 		JvmType jt = convertType(constant.type());
 		
+		if (constant instanceof Constant.Integer && isLong(c.target)) {
+			BigInteger value = ((Constant.Integer) constant).value;
+			if (value.bitLength() < 64) {
+				bytecodes.add(new Bytecode.LoadConst(value.longValue()));
+				addStoreLong(c.target, bytecodes);
+				return;
+			}
+		}
+		
 		if (constant instanceof Constant.Rational || constant instanceof Constant.Bool
 				|| constant instanceof Constant.Null || constant instanceof Constant.Byte) {
 			translate(constant,freeSlot,bytecodes);					
@@ -568,7 +967,9 @@ public class Wyil2JavaBuilder implements Builder {
 	private void translate(Code.Update code, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Load(code.target, convertType(code.type)));
-		translateUpdate(code.iterator(), code, bytecodes);
+		Integer flag = ownership.get(code.target);
+		translateUpdate(code.iterator(), code, flag == null ? -1 : flag,
+				freeSlot, bytecodes);
 		bytecodes.add(new Bytecode.Store(code.target,
 				convertType(code.afterType)));
 	}
@@ -581,36 +982,59 @@ public class Wyil2JavaBuilder implements Builder {
 	 *            --- update iterator.
 	 * @param rhsOperand
 	 *            --- register operand of right-hand side
+	 * @param flag
+	 *            --- slot holding the ownership flag of the value being
+	 *            updated, or -1 if it is not known to be owned.
+	 * @param freeSlot
+	 *            --- first slot which may be used as a temporary.
 	 * @param bytecodes
 	 *            --- list of bytecodes to append to.
 	 */
 	private void translateUpdate(Iterator<Code.LVal> iterator, Code.Update code,
-			ArrayList<Bytecode> bytecodes) {
+			int flag, int freeSlot, ArrayList<Bytecode> bytecodes) {
 		Code.LVal lv = iterator.next();
 		if(lv instanceof Code.ListLVal) {
 			Code.ListLVal l = (Code.ListLVal) lv;
+			// an index which does not fit into a long is out of bounds anyway
+			boolean isLong = isLong(l.indexOperand);
+			JvmType indexType = isLong ? T_LONG : WHILEYINT;
 			if(iterator.hasNext()) {
 				// In this case, we're partially updating the element at a
 				// given position. 
 				bytecodes.add(new Bytecode.Dup(WHILEYLIST));											
-				bytecodes.add(new Bytecode.Load(l.indexOperand,WHILEYINT));				
+				addLoadIndex(l.indexOperand,bytecodes);
 				JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-						WHILEYLIST,WHILEYINT);
+						WHILEYLIST,indexType);
 				bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "internal_get", ftype,
 						Bytecode.STATIC));				
 				addReadConversion(l.rawType().element(),bytecodes);
-				translateUpdate(iterator,code,bytecodes);		
-				bytecodes.add(new Bytecode.Load(l.indexOperand,WHILEYINT));				
-				bytecodes.add(new Bytecode.Swap());
+				translateUpdate(iterator,code,-1,freeSlot+1,bytecodes);
+				if(isLong) {
+					// there is no swap for a long and a reference, so park
+					// the updated element in a temporary instead.
+					bytecodes.add(new Bytecode.Store(freeSlot,JAVA_LANG_OBJECT));
+					addLoadIndex(l.indexOperand,bytecodes);
+					bytecodes.add(new Bytecode.Load(freeSlot,JAVA_LANG_OBJECT));
+				} else {
+					addLoadIndex(l.indexOperand,bytecodes);
+					bytecodes.add(new Bytecode.Swap());
+				}
 			} else {
-				bytecodes.add(new Bytecode.Load(l.indexOperand,WHILEYINT));
+				addLoadIndex(l.indexOperand,bytecodes);
 				bytecodes.add(new Bytecode.Load(code.operand, convertType(l
 						.rawType().element())));	
 				addWriteConversion(code.rhs(),bytecodes);
 			}
 
-			JvmType.Function ftype = new JvmType.Function(WHILEYLIST,
-					WHILEYLIST,WHILEYINT,JAVA_LANG_OBJECT);			
+			JvmType.Function ftype;
+			if(flag >= 0) {
+				bytecodes.add(new Bytecode.Load(flag, T_BOOL));
+				ftype = new JvmType.Function(WHILEYLIST, WHILEYLIST,
+						indexType, JAVA_LANG_OBJECT, T_BOOL);
+			} else {
+				ftype = new JvmType.Function(WHILEYLIST, WHILEYLIST,
+						indexType, JAVA_LANG_OBJECT);
+			}
 			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "set", ftype,
 					Bytecode.STATIC));	
 
@@ -639,7 +1063,7 @@ public class Wyil2JavaBuilder implements Builder {
 				bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "internal_get", ftype,
 					Bytecode.STATIC));				
 				addReadConversion(l.rawType().value(),bytecodes);
-				translateUpdate(iterator,code,bytecodes);
+				translateUpdate(iterator,code,-1,freeSlot,bytecodes);
 				bytecodes.add(new Bytecode.Load(l.keyOperand,keyType));
 				addWriteConversion(l.rawType().key(),bytecodes);		
 				bytecodes.add(new Bytecode.Swap());
@@ -650,8 +1074,15 @@ public class Wyil2JavaBuilder implements Builder {
 				addWriteConversion(l.rawType().value(),bytecodes);
 			}
 						
-			JvmType.Function ftype = new JvmType.Function(WHILEYMAP,
-					WHILEYMAP,JAVA_LANG_OBJECT,JAVA_LANG_OBJECT);						
+			JvmType.Function ftype;
+			if(flag >= 0) {
+				bytecodes.add(new Bytecode.Load(flag, T_BOOL));
+				ftype = new JvmType.Function(WHILEYMAP, WHILEYMAP,
+						JAVA_LANG_OBJECT, JAVA_LANG_OBJECT, T_BOOL);
+			} else {
+				ftype = new JvmType.Function(WHILEYMAP, WHILEYMAP,
+						JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
+			}
 			bytecodes.add(new Bytecode.Invoke(WHILEYMAP, "put", ftype,
 					Bytecode.STATIC));			
 				
@@ -659,25 +1090,39 @@ public class Wyil2JavaBuilder implements Builder {
 			Code.RecordLVal l = (Code.RecordLVal) lv;
 			Type.EffectiveRecord type = l.rawType();
 			
+			int slot = slotOf(type, l.field);
+			
 			if (iterator.hasNext()) {
 				bytecodes.add(new Bytecode.Dup(WHILEYRECORD));
+				bytecodes.add(new Bytecode.LoadConst(slot));
 				bytecodes.add(new Bytecode.LoadConst(l.field));
 				JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-						WHILEYRECORD, JAVA_LANG_STRING);
+						WHILEYRECORD, T_INT, JAVA_LANG_STRING);
 				bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "internal_get",
 						ftype, Bytecode.STATIC));
 				addReadConversion(type.field(l.field), bytecodes);
-				translateUpdate(iterator, code, bytecodes);
+				translateUpdate(iterator, code, -1, freeSlot, bytecodes);
+				bytecodes.add(new Bytecode.LoadConst(slot));
+				bytecodes.add(new Bytecode.Swap());
 				bytecodes.add(new Bytecode.LoadConst(l.field));
 				bytecodes.add(new Bytecode.Swap());
 			} else {
+				bytecodes.add(new Bytecode.LoadConst(slot));
 				bytecodes.add(new Bytecode.LoadConst(l.field));
 				bytecodes.add(new Bytecode.Load(code.operand, convertType(type
 						.field(l.field))));
 				addWriteConversion(type.field(l.field), bytecodes);
 			}
 			
-			JvmType.Function ftype = new JvmType.Function(WHILEYRECORD,WHILEYRECORD,JAVA_LANG_STRING,JAVA_LANG_OBJECT);						
+			JvmType.Function ftype;
+			if(flag >= 0) {
+				bytecodes.add(new Bytecode.Load(flag, T_BOOL));
+				ftype = new JvmType.Function(WHILEYRECORD, WHILEYRECORD, T_INT,
+						JAVA_LANG_STRING, JAVA_LANG_OBJECT, T_BOOL);
+			} else {
+				ftype = new JvmType.Function(WHILEYRECORD, WHILEYRECORD, T_INT,
+						JAVA_LANG_STRING, JAVA_LANG_OBJECT);
+			}
 			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"put",ftype,Bytecode.STATIC));	
 		} else {
 			Code.ReferenceLVal l = (Code.ReferenceLVal) lv;
@@ -686,13 +1131,28 @@ public class Wyil2JavaBuilder implements Builder {
 			bytecodes.add(new Bytecode.Invoke(WHILEYOBJECT, "state", ftype,
 					Bytecode.VIRTUAL));
 			addReadConversion(l.rawType().element(), bytecodes);
-			translateUpdate(iterator, code, bytecodes);
+			translateUpdate(iterator, code, -1, freeSlot, bytecodes);
 			ftype = new JvmType.Function(WHILEYOBJECT, JAVA_LANG_OBJECT);
 			bytecodes.add(new Bytecode.Invoke(WHILEYOBJECT, "setState", ftype,
 					Bytecode.VIRTUAL));
 		}
 	}
 	
+	/**
+	 * Load a list index onto the stack. This is a long if the register holding
+	 * it is held as a long, and a <code>BigInteger</code> otherwise.
+	 * 
+	 * @param register
+	 * @param bytecodes
+	 */
+	private void addLoadIndex(int register, ArrayList<Bytecode> bytecodes) {
+		if (isLong(register)) {
+			addLoadLong(register, bytecodes);
+		} else {
+			bytecodes.add(new Bytecode.Load(register, WHILEYINT));
+		}
+	}
+	
 	private void translate(Code.Return c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		if (c.type == Type.T_VOID) {
@@ -820,9 +1280,65 @@ public class Wyil2JavaBuilder implements Builder {
 	private void translateIfGoto(Code.If code, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {	
 		JvmType jt = convertType(code.type);
+		String exitLabel = translateLongIfGoto(code.type, code.op,
+				code.leftOperand, code.rightOperand, code.target, bytecodes);
 		bytecodes.add(new Bytecode.Load(code.leftOperand,jt));
 		bytecodes.add(new Bytecode.Load(code.rightOperand,jt));		
 		translateIfGoto(code.type,code.op,code.target,stmt,freeSlot,bytecodes);
+		if(exitLabel != null) {
+			bytecodes.add(new Bytecode.Label(exitLabel));
+		}
+	}
+	
+	/**
+	 * Translate a comparison of two registers held as longs, where possible.
+	 * The comparison is performed on the longs directly, unless either does
+	 * not fit into a long. In that case, control falls through to the
+	 * <code>BigInteger</code> comparison which must follow.
+	 * 
+	 * @return the label to place after the <code>BigInteger</code>
+	 *         comparison, or null if no long comparison was possible.
+	 */
+	private String translateLongIfGoto(Type type, Code.Comparator cop,
+			int leftOperand, int rightOperand, String target,
+			ArrayList<Bytecode> bytecodes) {
+		int op;
+		switch (cop) {
+		case EQ:
+			op = Bytecode.If.EQ;
+			break;
+		case NEQ:
+			op = Bytecode.If.NE;
+			break;
+		case LT:
+			op = Bytecode.If.LT;
+			break;
+		case LTEQ:
+			op = Bytecode.If.LE;
+			break;
+		case GT:
+			op = Bytecode.If.GT;
+			break;
+		case GTEQ:
+			op = Bytecode.If.GE;
+			break;
+		default:
+			return null;
+		}
+		if (!type.equals(Type.T_INT) || !isLong(leftOperand, rightOperand)) {
+			return null;
+		}
+		String slowLabel = freshLabel();
+		String exitLabel = freshLabel();
+		addIfBig(leftOperand, slowLabel, bytecodes);
+		addIfBig(rightOperand, slowLabel, bytecodes);
+		addLoadLong(leftOperand, bytecodes);
+		addLoadLong(rightOperand, bytecodes);
+		bytecodes.add(new Bytecode.Cmp(T_LONG, Bytecode.Cmp.EQ));
+		bytecodes.add(new Bytecode.If(op, target));
+		bytecodes.add(new Bytecode.Goto(exitLabel));
+		bytecodes.add(new Bytecode.Label(slowLabel));
+		return exitLabel;
 	}
 	
 	private void translateIfGoto(Type c_type, Code.Comparator cop, String target, Entry stmt, int freeSlot,
@@ -1064,6 +1580,10 @@ public class Wyil2JavaBuilder implements Builder {
 			ArrayList<Bytecode> bytecodes) {	
 		
 		Type elementType = c.type.element();		
+		
+		if (c.type instanceof Type.EffectiveList && isLong(c.indexOperand)) {
+			return translateLong(c, freeSlot, bytecodes);
+		}
 
 		bytecodes.add(new Bytecode.Load(c.sourceOperand, convertType((Type) c.type)));
 		JvmType.Function ftype = new JvmType.Function(JAVA_UTIL_ITERATOR,JAVA_LANG_OBJECT);
@@ -1089,6 +1609,41 @@ public class Wyil2JavaBuilder implements Builder {
 		return freeSlot + 1;
 	}
 	
+	/**
+	 * Translate a loop over a list of integers into a register held as a long.
+	 * Rather than using an iterator, which boxes each element, the list is
+	 * traversed by position and each element read without boxing.
+	 * 
+	 * @param c
+	 * @param freeSlot
+	 * @param bytecodes
+	 * @return
+	 */
+	private int translateLong(Code.ForAll c, int freeSlot,
+			ArrayList<Bytecode> bytecodes) {
+		int list = freeSlot;
+		int position = freeSlot + 1;
+		bytecodes.add(new Bytecode.Load(c.sourceOperand, convertType((Type) c.type)));
+		bytecodes.add(new Bytecode.CheckCast(WHILEYLIST));
+		bytecodes.add(new Bytecode.Store(list, WHILEYLIST));
+		bytecodes.add(new Bytecode.LoadConst(0));
+		bytecodes.add(new Bytecode.Store(position, T_INT));
+		bytecodes.add(new Bytecode.Label(c.target + "$head"));
+		bytecodes.add(new Bytecode.Load(position, T_INT));
+		bytecodes.add(new Bytecode.Load(list, WHILEYLIST));
+		JvmType.Function ftype = new JvmType.Function(T_INT);
+		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "size", ftype,
+				Bytecode.VIRTUAL));
+		bytecodes.add(new Bytecode.IfCmp(Bytecode.IfCmp.GE, T_INT, c.target));
+		addGetLong(list, position, T_INT, c.indexOperand, bytecodes);
+		bytecodes.add(new Bytecode.Iinc(position, 1));
+		
+		// we need to increase the freeSlot, since we've allocated two slots
+		// to hold the list and the position.
+		
+		return freeSlot + 2;
+	}
+	
 	protected  void translate(Code.Goto c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Goto(c.target));
@@ -1110,9 +1665,14 @@ public class Wyil2JavaBuilder implements Builder {
 			ArrayList<Bytecode> bytecodes) {
 		String lab = freshLabel();
 		JvmType jt = convertType(c.type);
+		String exitLabel = translateLongIfGoto(c.type, c.op, c.leftOperand,
+				c.rightOperand, lab, bytecodes);
 		bytecodes.add(new Bytecode.Load(c.leftOperand, jt));
 		bytecodes.add(new Bytecode.Load(c.rightOperand, jt));
 		translateIfGoto(c.type, c.op, lab, entry, freeSlot, bytecodes);
+		if(exitLabel != null) {
+			bytecodes.add(new Bytecode.Label(exitLabel));
+		}
 		bytecodes.add(new Bytecode.New(JAVA_LANG_RUNTIMEEXCEPTION));
 		bytecodes.add(new Bytecode.Dup(JAVA_LANG_RUNTIMEEXCEPTION));
 		bytecodes.add(new Bytecode.LoadConst(c.msg));
@@ -1124,6 +1684,10 @@ public class Wyil2JavaBuilder implements Builder {
 	}
 	
 	protected  void translate(Code.Assign c, int freeSlot, ArrayList<Bytecode> bytecodes) {
+		if (isLong(c.target, c.operand)) {
+			translateLongMove(c.target, c.operand, bytecodes);
+			return;
+		}
 		JvmType jt = convertType(c.type);
 		bytecodes.add(new Bytecode.Load(c.operand, jt));
 		addIncRefs(c.type,bytecodes);
@@ -1131,10 +1695,32 @@ public class Wyil2JavaBuilder implements Builder {
 	}
 	
 	protected  void translate(Code.Move c, int freeSlot, ArrayList<Bytecode> bytecodes) {
+		if (isLong(c.target, c.operand)) {
+			translateLongMove(c.target, c.operand, bytecodes);
+			return;
+		}
 		JvmType jt = convertType(c.type);
 		bytecodes.add(new Bytecode.Load(c.operand, jt));
 		bytecodes.add(new Bytecode.Store(c.target, jt));
 	}
+	
+	/**
+	 * Copy one register held as a long into another, without converting it
+	 * into a <code>BigInteger</code>.
+	 * 
+	 * @param target
+	 * @param operand
+	 * @param bytecodes
+	 */
+	private void translateLongMove(int target, int operand,
+			ArrayList<Bytecode> bytecodes) {
+		int from = longs.get(operand);
+		int to = longs.get(target);
+		bytecodes.add(new Bytecode.Load(from, T_LONG));
+		bytecodes.add(new Bytecode.Store(to, T_LONG));
+		bytecodes.add(new Bytecode.Load(from + 2, WHILEYINT));
+		bytecodes.add(new Bytecode.Store(to + 2, WHILEYINT));
+	}
 		
 	protected  void translate(Code.BinListOp c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {						
@@ -1167,7 +1753,17 @@ public class Wyil2JavaBuilder implements Builder {
 			return;
 		}			
 		
-		JvmType.Function ftype = new JvmType.Function(WHILEYLIST,leftType,rightType);
+		JvmType.Function ftype;
+		Integer flag = ownership.get(c.target);
+		if (flag != null && c.kind != Code.BinListKind.RIGHT_APPEND
+				&& c.target == c.leftOperand && c.target != c.rightOperand) {
+			// the left-hand side may be appended to in place
+			bytecodes.add(new Bytecode.Load(flag, T_BOOL));
+			ftype = new JvmType.Function(WHILEYLIST, leftType, rightType,
+					T_BOOL);
+		} else {
+			ftype = new JvmType.Function(WHILEYLIST, leftType, rightType);
+		}
 		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "append", ftype,
 				Bytecode.STATIC));	
 		bytecodes.add(new Bytecode.Store(c.target, WHILEYLIST));
@@ -1176,6 +1772,14 @@ public class Wyil2JavaBuilder implements Builder {
 	protected  void translate(Code.LengthOf c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Load(c.operand, convertType((Type) c.type)));
+		if(isLong(c.target)) {
+			JvmType.Function ftype = new JvmType.Function(T_INT, JAVA_LANG_OBJECT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYCOLLECTION, "size", ftype,
+					Bytecode.STATIC));
+			bytecodes.add(new Bytecode.Conversion(T_INT, T_LONG));
+			addStoreLong(c.target, bytecodes);
+			return;
+		}
 		JvmType.Clazz ctype = JAVA_LANG_OBJECT;
 		JvmType.Function ftype = new JvmType.Function(WHILEYINT, ctype);
 		bytecodes.add(new Bytecode.Invoke(WHILEYCOLLECTION, "length", ftype,
@@ -1186,11 +1790,18 @@ public class Wyil2JavaBuilder implements Builder {
 	protected  void translate(Code.SubList c, Entry stmt, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		bytecodes.add(new Bytecode.Load(c.operands[0], WHILEYLIST));
-		bytecodes.add(new Bytecode.Load(c.operands[1], WHILEYINT));
-		bytecodes.add(new Bytecode.Load(c.operands[2], WHILEYINT));
-		
-		JvmType.Function ftype = new JvmType.Function(WHILEYLIST, WHILEYLIST,
-				WHILEYINT, WHILEYINT);
+		JvmType.Function ftype;
+		if(isLong(c.operands[1], c.operands[2])) {
+			// indices which do not fit into a long are out of bounds anyway
+			addLoadLong(c.operands[1], bytecodes);
+			addLoadLong(c.operands[2], bytecodes);
+			ftype = new JvmType.Function(WHILEYLIST, WHILEYLIST, T_LONG, T_LONG);
+		} else {
+			bytecodes.add(new Bytecode.Load(c.operands[1], WHILEYINT));
+			bytecodes.add(new Bytecode.Load(c.operands[2], WHILEYINT));
+			ftype = new JvmType.Function(WHILEYLIST, WHILEYLIST, WHILEYINT,
+					WHILEYINT);
+		}
 		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "sublist", ftype,
 				Bytecode.STATIC));
 		
@@ -1200,7 +1811,25 @@ public class Wyil2JavaBuilder implements Builder {
 	protected  void translate(Code.IndexOf c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {
 		
+		if (c.type instanceof Type.EffectiveList && isLong(c.target, c.rightOperand)
+				&& c.target != c.rightOperand) {
+			addGetLong(c.leftOperand, longs.get(c.rightOperand), T_LONG,
+					c.target, bytecodes);
+			return;
+		}
 		bytecodes.add(new Bytecode.Load(c.leftOperand, WHILEYLIST));
+		if (c.type instanceof Type.EffectiveList && isLong(c.rightOperand)) {
+			// an index which does not fit into a long is out of bounds anyway
+			addLoadLong(c.rightOperand, bytecodes);
+			JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
+					WHILEYLIST, T_LONG);
+			bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "get", ftype,
+					Bytecode.STATIC));
+			addReadConversion(c.type.value(), bytecodes);
+			bytecodes.add(new Bytecode.Store(c.target,
+					convertType(c.type.element())));
+			return;
+		}
 		bytecodes.add(new Bytecode.Load(c.rightOperand, convertType(c.type.key())));
 		addWriteConversion(c.type.key(),bytecodes);
 		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
@@ -1218,8 +1847,9 @@ public class Wyil2JavaBuilder implements Builder {
 		
 		bytecodes.add(new Bytecode.Load(c.operand, WHILEYRECORD));
 		
+		bytecodes.add(new Bytecode.LoadConst(slotOf(c.type, c.field)));
 		bytecodes.add(new Bytecode.LoadConst(c.field));
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,WHILEYRECORD,JAVA_LANG_STRING);
+		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,WHILEYRECORD,T_INT,JAVA_LANG_STRING);
 		bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"get",ftype,Bytecode.STATIC));						
 		addReadConversion(c.fieldType(),bytecodes);
 		
@@ -1231,6 +1861,7 @@ public class Wyil2JavaBuilder implements Builder {
 						
 		JvmType type = convertType(c.type);
 		JvmType.Function ftype = new JvmType.Function(type,type);
+		String exitLabel = translateLong(c, bytecodes);
 		
 		// first, load operands
 		switch(c.kind) {
@@ -1259,24 +1890,19 @@ public class Wyil2JavaBuilder implements Builder {
 		// second, apply operation
 		switch(c.kind) {
 		case ADD:			
-			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "add", ftype,
-					Bytecode.VIRTUAL));
+			translateArithmetic("add", type, ftype, bytecodes);
 			break;
 		case SUB:			
-			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "subtract", ftype,
-					Bytecode.VIRTUAL));
+			translateArithmetic("subtract", type, ftype, bytecodes);
 			break;
 		case MUL:			
-			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "multiply", ftype,
-					Bytecode.VIRTUAL));
+			translateArithmetic("multiply", type, ftype, bytecodes);
 			break;
 		case DIV:			
-			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz)type, "divide", ftype,
-					Bytecode.VIRTUAL));			
+			translateArithmetic("divide", type, ftype, bytecodes);
 			break;
 		case REM:									
-				bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type,
-						"remainder", ftype, Bytecode.VIRTUAL));			
+			translateArithmetic("remainder", type, ftype, bytecodes);
 			break;
 		case RANGE:
 			ftype = new JvmType.Function(WHILEYLIST,WHILEYINT,WHILEYINT);
@@ -1307,6 +1933,105 @@ public class Wyil2JavaBuilder implements Builder {
 		}		
 		
 		bytecodes.add(new Bytecode.Store(c.target, type));
+		if(exitLabel != null) {
+			bytecodes.add(new Bytecode.Label(exitLabel));
+		}
+	}
+
+	/**
+	 * Translate an arithmetic operation on registers held as longs, where
+	 * possible. The operation is performed on the longs directly, unless an
+	 * operand does not fit into a long or the result would overflow. In that
+	 * case, control falls through to the <code>BigInteger</code> translation
+	 * which must follow.
+	 * 
+	 * @param c
+	 *            --- operation to translate.
+	 * @param bytecodes
+	 *            --- list of bytecodes to append to.
+	 * @return the label to place after the <code>BigInteger</code>
+	 *         translation, or null if no long translation was possible.
+	 */
+	private String translateLong(Code.BinArithOp c,
+			ArrayList<Bytecode> bytecodes) {
+		String name;
+		int op;
+		switch (c.kind) {
+		case ADD:
+			name = "add";
+			op = Bytecode.BinOp.ADD;
+			break;
+		case SUB:
+			name = "subtract";
+			op = Bytecode.BinOp.SUB;
+			break;
+		case MUL:
+			name = "multiply";
+			op = Bytecode.BinOp.MUL;
+			break;
+		case DIV:
+			name = "divide";
+			op = Bytecode.BinOp.DIV;
+			break;
+		case REM:
+			// remainder cannot overflow where division does not
+			name = "divide";
+			op = Bytecode.BinOp.REM;
+			break;
+		default:
+			return null;
+		}
+		if (!c.type.equals(Type.T_INT)
+				|| !isLong(c.target, c.leftOperand, c.rightOperand)) {
+			return null;
+		}
+		String slowLabel = freshLabel();
+		String exitLabel = freshLabel();
+		addIfBig(c.leftOperand, slowLabel, bytecodes);
+		addIfBig(c.rightOperand, slowLabel, bytecodes);
+		addLoadLong(c.leftOperand, bytecodes);
+		addLoadLong(c.rightOperand, bytecodes);
+		JvmType.Function ftype = new JvmType.Function(T_BOOL, T_LONG, T_LONG);
+		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, name + "Overflows",
+				ftype, Bytecode.STATIC));
+		bytecodes.add(new Bytecode.If(Bytecode.If.NE, slowLabel));
+		addLoadLong(c.leftOperand, bytecodes);
+		addLoadLong(c.rightOperand, bytecodes);
+		bytecodes.add(new Bytecode.BinOp(op, T_LONG));
+		addStoreLong(c.target, bytecodes);
+		bytecodes.add(new Bytecode.Goto(exitLabel));
+		bytecodes.add(new Bytecode.Label(slowLabel));
+		return exitLabel;
+	}
+
+	/**
+	 * Translate an arithmetic operation whose operands are already on the
+	 * stack. Operations on integers are dispatched to the runtime, which
+	 * performs them on <code>long</code>s where this cannot overflow and
+	 * reuses preallocated values for small results. This avoids allocating a
+	 * fresh <code>BigInteger</code> for every loop counter increment, list
+	 * index calculation, etc.
+	 * 
+	 * @param name
+	 *            --- name of operation to apply.
+	 * @param type
+	 *            --- type of the operands.
+	 * @param ftype
+	 *            --- type of the operation when invoked as a virtual method.
+	 * @param bytecodes
+	 *            --- list of bytecodes to append to.
+	 */
+	private void translateArithmetic(String name, JvmType type,
+			JvmType.Function ftype, ArrayList<Bytecode> bytecodes) {
+		if (type.equals(WHILEYINT)) {
+			JvmType.Function stype = new JvmType.Function(WHILEYINT,
+					WHILEYINT, WHILEYINT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, name, stype,
+					Bytecode.STATIC));
+		} else {
+			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) type, name,
+					ftype, Bytecode.VIRTUAL));
+		}
 	}
 
 	protected  void translate(Code.BinSetOp c, Entry stmt, int freeSlot,
@@ -1436,6 +2161,30 @@ public class Wyil2JavaBuilder implements Builder {
 	
 	protected  void translate(Code.UnArithOp c, int freeSlot,
 			ArrayList<Bytecode> bytecodes) {										
+		if (c.kind == Code.UnArithKind.NEG && c.type.equals(Type.T_INT)
+				&& isLong(c.target, c.operand)) {
+			// negation overflows only for Long.MIN_VALUE
+			String slowLabel = freshLabel();
+			String exitLabel = freshLabel();
+			addIfBig(c.operand, slowLabel, bytecodes);
+			addLoadLong(c.operand, bytecodes);
+			bytecodes.add(new Bytecode.LoadConst(Long.MIN_VALUE));
+			bytecodes.add(new Bytecode.Cmp(T_LONG, Bytecode.Cmp.EQ));
+			bytecodes.add(new Bytecode.If(Bytecode.If.EQ, slowLabel));
+			addLoadLong(c.operand, bytecodes);
+			bytecodes.add(new Bytecode.Neg(T_LONG));
+			addStoreLong(c.target, bytecodes);
+			bytecodes.add(new Bytecode.Goto(exitLabel));
+			bytecodes.add(new Bytecode.Label(slowLabel));
+			translateUnArithOp(c, bytecodes);
+			bytecodes.add(new Bytecode.Label(exitLabel));
+		} else {
+			translateUnArithOp(c, bytecodes);
+		}
+	}
+	
+	private void translateUnArithOp(Code.UnArithOp c,
+			ArrayList<Bytecode> bytecodes) {
 		JvmType srcType = convertType(c.type);
 		JvmType targetType = null;
 		String name = null;
@@ -1453,10 +2202,16 @@ public class Wyil2JavaBuilder implements Builder {
 				name = "denominator";
 				break;
 		}
-		JvmType.Function ftype = new JvmType.Function(targetType);
 		bytecodes.add(new Bytecode.Load(c.operand, srcType));
-		bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) srcType, name,
-				ftype, Bytecode.VIRTUAL));		
+		if(srcType.equals(WHILEYINT)) {
+			JvmType.Function ftype = new JvmType.Function(WHILEYINT,WHILEYINT);
+			bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, name,
+					ftype, Bytecode.STATIC));
+		} else {
+			JvmType.Function ftype = new JvmType.Function(targetType);
+			bytecodes.add(new Bytecode.Invoke((JvmType.Clazz) srcType, name,
+					ftype, Bytecode.VIRTUAL));
+		}
 		bytecodes.add(new Bytecode.Store(c.target, targetType));
 	}
 	
@@ -1465,15 +2220,12 @@ public class Wyil2JavaBuilder implements Builder {
 		JvmType type = convertType(c.type);		
 		bytecodes.add(new Bytecode.New(WHILEYOBJECT));			
 		bytecodes.add(new Bytecode.Dup(WHILEYOBJECT));	
-		bytecodes.add(new Bytecode.Dup(WHILEYOBJECT));	
 		bytecodes.add(new Bytecode.Load(c.operand, convertType(c.type.element())));
 		addWriteConversion(c.type.element(),bytecodes);
 		JvmType.Function ftype = new JvmType.Function(T_VOID,JAVA_LANG_OBJECT);
 		bytecodes.add(new Bytecode.Invoke(WHILEYOBJECT, "<init>", ftype,
 				Bytecode.SPECIAL));
-		ftype = new JvmType.Function(T_VOID);			
-		bytecodes.add(new Bytecode.Invoke(WHILEYOBJECT, "start", ftype,
-				Bytecode.VIRTUAL));
+		// NOTE: objects are scheduled on demand, so need not be started
 		bytecodes.add(new Bytecode.Store(c.target, type));
 	}
 	
@@ -1534,29 +2286,64 @@ public class Wyil2JavaBuilder implements Builder {
 	}
 	
 	protected  void translate(Code.NewRecord code, int freeSlot,
+			HashMap<JvmConstant, Integer> constants,
 			ArrayList<Bytecode> bytecodes) {
-		construct(WHILEYRECORD, freeSlot, bytecodes);				
-		JvmType.Function ftype = new JvmType.Function(JAVA_LANG_OBJECT,
-				JAVA_LANG_OBJECT, JAVA_LANG_OBJECT);
-		
 		HashMap<String,Type> fields = code.type.fields();
 		ArrayList<String> keys = new ArrayList<String>(fields.keySet());
 		Collections.sort(keys);
+		
+		// records are constructed directly in their final shape, with the
+		// fields in sorted order.
+		int id = JvmShape.get(keys.toArray(new String[keys.size()]), constants);
+		bytecodes.add(new Bytecode.New(WHILEYRECORD));
+		bytecodes.add(new Bytecode.Dup(WHILEYRECORD));
+		bytecodes.add(new Bytecode.GetField(owner, "shape$" + id, WHILEYSHAPE,
+				Bytecode.STATIC));
+		bytecodes.add(new Bytecode.LoadConst(code.operands.length));
+		bytecodes.add(new Bytecode.New(JAVA_LANG_OBJECT_ARRAY));
 		for (int i = 0; i != code.operands.length; i++) {
 			int register = code.operands[i];
-			String key = keys.get(i);
-			Type fieldType = fields.get(key);				
-			bytecodes.add(new Bytecode.Dup(WHILEYRECORD));
-			bytecodes.add(new Bytecode.LoadConst(key));
+			Type fieldType = fields.get(keys.get(i));
+			bytecodes.add(new Bytecode.Dup(JAVA_LANG_OBJECT_ARRAY));
+			bytecodes.add(new Bytecode.LoadConst(i));
 			bytecodes.add(new Bytecode.Load(register, convertType(fieldType)));
 			addWriteConversion(fieldType,bytecodes);			
-			bytecodes.add(new Bytecode.Invoke(WHILEYRECORD,"put",ftype,Bytecode.VIRTUAL));						
-			bytecodes.add(new Bytecode.Pop(JAVA_LANG_OBJECT));
+			bytecodes.add(new Bytecode.ArrayStore(JAVA_LANG_OBJECT_ARRAY));
 		}
+		JvmType.Function ftype = new JvmType.Function(T_VOID, WHILEYSHAPE,
+				JAVA_LANG_OBJECT_ARRAY);
+		bytecodes.add(new Bytecode.Invoke(WHILEYRECORD, "<init>", ftype,
+				Bytecode.SPECIAL));
 		
 		bytecodes.add(new Bytecode.Store(code.target, WHILEYRECORD));
 	}
 	
+	/**
+	 * Determine the slot expected to hold a given field in a record of the
+	 * given type. Since the slots of a record follow the sorted order of its
+	 * fields, this is exact for closed record types. Otherwise, it is just a
+	 * guess, which is checked at runtime.
+	 * 
+	 * @param type
+	 * @param field
+	 * @return
+	 */
+	private static int slotOf(Type.EffectiveRecord type, String field) {
+		Collection<String> keys;
+		if (type instanceof Type.Record) {
+			keys = ((Type.Record) type).keys();
+		} else {
+			keys = type.fields().keySet();
+		}
+		int slot = 0;
+		for (String key : keys) {
+			if (key.compareTo(field) < 0) {
+				slot++;
+			}
+		}
+		return slot;
+	}
+	
 	protected void translate(Code.NewSet c, int freeSlot, ArrayList<Bytecode> bytecodes) {
 		construct(WHILEYSET, freeSlot, bytecodes);		
 		JvmType.Function ftype = new JvmType.Function(WHILEYSET,
@@ -2087,7 +2874,7 @@ public class Wyil2JavaBuilder implements Builder {
 			} else {
 				bytecodes.add(new Bytecode.Conversion(T_INT, T_LONG));
 				JvmType.Function ftype = new JvmType.Function(WHILEYINT,T_LONG);			
-				bytecodes.add(new Bytecode.Invoke(WHILEYINT,"valueOf",ftype,Bytecode.STATIC));				
+				bytecodes.add(new Bytecode.Invoke(WHILEYUTIL,"valueOf",ftype,Bytecode.STATIC));				
 			}
 		} else {
 			JvmType.Function ftype = new JvmType.Function(JAVA_LANG_CHARACTER,T_CHAR);			
@@ -2279,7 +3066,7 @@ public class Wyil2JavaBuilder implements Builder {
 		bytecodes.add(new Bytecode.Load(iter,T_INT));
 		bytecodes.add(new Bytecode.Conversion(T_INT,T_LONG));	
 		ftype = new JvmType.Function(WHILEYINT,T_LONG);
-		bytecodes.add(new Bytecode.Invoke(WHILEYINT, "valueOf",
+		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "valueOf",
 				ftype, Bytecode.STATIC));				
 		bytecodes.add(new Bytecode.Load(source,WHILEYMAP));
 		bytecodes.add(new Bytecode.Load(iter,T_INT));
@@ -2636,6 +3423,144 @@ public class Wyil2JavaBuilder implements Builder {
 		}
 	}
 
+	/**
+	 * Load a register held as a long onto the stack as a
+	 * <code>BigInteger</code>.
+	 * 
+	 * @param slot
+	 *            --- first JVM slot allocated to the register.
+	 * @param bytecodes
+	 */
+	private static void addLoadBig(int slot, ArrayList<Bytecode> bytecodes) {
+		bytecodes.add(new Bytecode.Load(slot, T_LONG));
+		bytecodes.add(new Bytecode.Load(slot + 2, WHILEYINT));
+		JvmType.Function ftype = new JvmType.Function(WHILEYINT, T_LONG,
+				WHILEYINT);
+		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "valueOf", ftype,
+				Bytecode.STATIC));
+	}
+
+	/**
+	 * Store the <code>BigInteger</code> on top of the stack into a register
+	 * held as a long.
+	 * 
+	 * @param slot
+	 *            --- first JVM slot allocated to the register.
+	 * @param bytecodes
+	 */
+	private static void addStoreBig(int slot, ArrayList<Bytecode> bytecodes) {
+		bytecodes.add(new Bytecode.CheckCast(WHILEYINT));
+		bytecodes.add(new Bytecode.Dup(WHILEYINT));
+		JvmType.Function ftype = new JvmType.Function(WHILEYINT, WHILEYINT);
+		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "bigValue", ftype,
+				Bytecode.STATIC));
+		bytecodes.add(new Bytecode.Store(slot + 2, WHILEYINT));
+		ftype = new JvmType.Function(T_LONG, WHILEYINT);
+		bytecodes.add(new Bytecode.Invoke(WHILEYUTIL, "longValue", ftype,
+				Bytecode.STATIC));
+		bytecodes.add(new Bytecode.Store(slot, T_LONG));
+	}
+
+	/**
+	 * Load the long slot of a register held as a long onto the stack. Note
+	 * that this is only meaningful if the register is not big (see
+	 * <code>addIfBig()</code>), or if it is being used as an index.
+	 * 
+	 * @param register
+	 * @param bytecodes
+	 */
+	private void addLoadLong(int register, ArrayList<Bytecode> bytecodes) {
+		bytecodes.add(new Bytecode.Load(longs.get(register), T_LONG));
+	}
+
+	/**
+	 * Store the long on top of the stack into a register held as a long.
+	 * 
+	 * @param register
+	 * @param bytecodes
+	 */
+	private void addStoreLong(int register, ArrayList<Bytecode> bytecodes) {
+		int slot = longs.get(register);
+		bytecodes.add(new Bytecode.Store(slot, T_LONG));
+		bytecodes.add(new Bytecode.LoadConst(null));
+		bytecodes.add(new Bytecode.Store(slot + 2, WHILEYINT));
+	}
+
+	/**
+	 * Read an element from a list of integers into a register held as a long.
+	 * This uses <code>WyList.getLong()</code>, which does not box the element,
+	 * and falls back to <code>WyList.get()</code> only when the element does
+	 * not fit into a long.
+	 * 
+	 * @param listSlot
+	 *            --- slot holding the list.
+	 * @param indexSlot
+	 *            --- slot holding the index.
+	 * @param indexType
+	 *            --- type of the index (either int or long).
+	 * @param target
+	 *            --- register to assign the element to.
+	 * @param bytecodes
+	 */
+	private void addGetLong(int listSlot, int indexSlot, JvmType indexType,
+			int target, ArrayList<Bytecode> bytecodes) {
+		String exit = freshLabel();
+		JvmType.Function ftype = new JvmType.Function(T_LONG, WHILEYLIST, T_LONG);
+		bytecodes.add(new Bytecode.Load(listSlot, WHILEYLIST));
+		bytecodes.add(new Bytecode.Load(indexSlot, indexType));
+		if (!indexType.equals(T_LONG)) {
+			bytecodes.add(new Bytecode.Conversion(T_INT, T_LONG));
+		}
+		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "getLong", ftype,
+				Bytecode.STATIC));
+		addStoreLong(target, bytecodes);
+		addLoadLong(target, bytecodes);
+		bytecodes.add(new Bytecode.LoadConst(Long.MIN_VALUE));
+		bytecodes.add(new Bytecode.Cmp(T_LONG, Bytecode.Cmp.EQ));
+		bytecodes.add(new Bytecode.If(Bytecode.If.NE, exit));
+		// the element may not fit into a long
+		ftype = new JvmType.Function(JAVA_LANG_OBJECT, WHILEYLIST, T_LONG);
+		bytecodes.add(new Bytecode.Load(listSlot, WHILEYLIST));
+		bytecodes.add(new Bytecode.Load(indexSlot, indexType));
+		if (!indexType.equals(T_LONG)) {
+			bytecodes.add(new Bytecode.Conversion(T_INT, T_LONG));
+		}
+		bytecodes.add(new Bytecode.Invoke(WHILEYLIST, "get", ftype,
+				Bytecode.STATIC));
+		addReadConversion(Type.T_INT, bytecodes);
+		bytecodes.add(new Bytecode.Store(target, WHILEYINT));
+		bytecodes.add(new Bytecode.Label(exit));
+	}
+
+	/**
+	 * Branch to a given label if the value of a register held as a long does
+	 * not fit into a long.
+	 * 
+	 * @param register
+	 * @param label
+	 * @param bytecodes
+	 */
+	private void addIfBig(int register, String label,
+			ArrayList<Bytecode> bytecodes) {
+		bytecodes.add(new Bytecode.Load(longs.get(register) + 2, WHILEYINT));
+		bytecodes.add(new Bytecode.If(Bytecode.If.NONNULL, label));
+	}
+
+	/**
+	 * Determine whether all of the given registers are held as longs.
+	 * 
+	 * @param registers
+	 * @return
+	 */
+	private boolean isLong(int... registers) {
+		for (int r : registers) {
+			if (!longs.containsKey(r)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Return true if this type is, or maybe reference counted.
 	 * 
@@ -2724,7 +3649,8 @@ public class Wyil2JavaBuilder implements Builder {
 	private final static JvmType.Clazz WHILEYCOLLECTION = new JvmType.Clazz("wyjc.runtime","WyCollection");
 	private final static JvmType.Clazz WHILEYTYPE = new JvmType.Clazz("wyjc.runtime","WyType");	
 	private final static JvmType.Clazz WHILEYMAP = new JvmType.Clazz("wyjc.runtime","WyMap");
-	private final static JvmType.Clazz WHILEYRECORD = new JvmType.Clazz("wyjc.runtime","WyRecord");	
+	private final static JvmType.Clazz WHILEYRECORD = new JvmType.Clazz("wyjc.runtime","WyRecord");
+	private final static JvmType.Clazz WHILEYSHAPE = new JvmType.Clazz("wyjc.runtime","WyRecord","Shape");	
 	private final static JvmType.Clazz WHILEYOBJECT = new JvmType.Clazz("wyjc.runtime", "WyObject");	
 	private final static JvmType.Clazz WHILEYEXCEPTION = new JvmType.Clazz("wyjc.runtime","WyException");	
 	private final static JvmType.Clazz WHILEYINT = new JvmType.Clazz("java.math","BigInteger");
@@ -2735,6 +3661,7 @@ public class Wyil2JavaBuilder implements Builder {
 	private static final JvmType.Clazz JAVA_LANG_CHARACTER = new JvmType.Clazz("java.lang","Character");
 	private static final JvmType.Clazz JAVA_LANG_SYSTEM = new JvmType.Clazz("java.lang","System");
 	private static final JvmType.Array JAVA_LANG_OBJECT_ARRAY = new JvmType.Array(JAVA_LANG_OBJECT);
+	private static final JvmType.Array JAVA_LANG_STRING_ARRAY = new JvmType.Array(JAVA_LANG_STRING);
 	private static final JvmType.Clazz JAVA_UTIL_LIST = new JvmType.Clazz("java.util","List");
 	private static final JvmType.Clazz JAVA_UTIL_SET = new JvmType.Clazz("java.util","Set");
 	//private static final JvmType.Clazz JAVA_LANG_REFLECT_METHOD = new JvmType.Clazz("java.lang.reflect","Method");
@@ -2857,6 +3784,33 @@ public class Wyil2JavaBuilder implements Builder {
 			}			
 		}
 	}
+	protected static final class JvmShape extends JvmConstant {
+		public final String[] fields;
+		public JvmShape(String[] fields) {
+			this.fields = fields;
+		}
+		public boolean equals(Object o) {
+			if(o instanceof JvmShape) {
+				JvmShape s = (JvmShape) o;
+				return Arrays.equals(fields, s.fields);
+			}
+			return false;
+		}
+		public int hashCode() {
+			return Arrays.hashCode(fields);
+		}
+		public static int get(String[] fields, HashMap<JvmConstant,Integer> constants) {
+			JvmShape vc = new JvmShape(fields);
+			Integer r = constants.get(vc);
+			if(r != null) {
+				return r;
+			} else {
+				int x = constants.size();
+				constants.put(vc, x);
+				return x;
+			}			
+		}
+	}
 	protected static final class JvmCoercion extends JvmConstant {
 		public final Type from;
 		public final Type to;
@@ -185,7 +185,7 @@ public class Util {
 	}
 	
 	public static BigInteger stringlength(final String lhs) {
-		return BigInteger.valueOf(lhs.length());
+		return valueOf(lhs.length());
 	}
 	
 	public static String substring(final String lhs, final BigInteger _start, final BigInteger _end) {
@@ -210,16 +210,199 @@ public class Util {
 		return (byte) ((b1&0xFF) >>> b2.intValue());		
 	}
 	
+	// ================================================================================
+	// Integer Operations
+	// ================================================================================
+
+	/**
+	 * The range of small integers which are preallocated. Loop counters, list
+	 * indices and lengths almost always fall within this range and, hence,
+	 * arithmetic on them does not need to allocate.
+	 */
+	private static final int SMALLINT_MIN = -128;
+	private static final int SMALLINT_MAX = 1024;
+	private static final BigInteger[] smallints = new BigInteger[SMALLINT_MAX - SMALLINT_MIN + 1];
+
+	static {
+		for(int i=0;i!=smallints.length;++i) {
+			smallints[i] = BigInteger.valueOf(i + SMALLINT_MIN);
+		}
+	}
+
+	/**
+	 * Convert a long into a Whiley integer, reusing a preallocated integer where
+	 * possible.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static BigInteger valueOf(long value) {
+		if(value >= SMALLINT_MIN && value <= SMALLINT_MAX) {
+			return smallints[(int) value - SMALLINT_MIN];
+		}
+		return BigInteger.valueOf(value);
+	}
+
+	/**
+	 * Add two Whiley integers. When both fit into a <code>long</code> the
+	 * addition is performed on <code>long</code>s, and falls back to
+	 * <code>BigInteger</code> arithmetic only when this overflows.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static BigInteger add(final BigInteger lhs, final BigInteger rhs) {
+		if(lhs.bitLength() < 63 && rhs.bitLength() < 63) {
+			long l = lhs.longValue();
+			long r = rhs.longValue();
+			long v = l + r;
+			if(((l ^ v) & (r ^ v)) >= 0) {
+				return valueOf(v);
+			}
+		}
+		return lhs.add(rhs);
+	}
+
+	public static BigInteger subtract(final BigInteger lhs, final BigInteger rhs) {
+		if(lhs.bitLength() < 63 && rhs.bitLength() < 63) {
+			long l = lhs.longValue();
+			long r = rhs.longValue();
+			long v = l - r;
+			if(((l ^ r) & (l ^ v)) >= 0) {
+				return valueOf(v);
+			}
+		}
+		return lhs.subtract(rhs);
+	}
+
+	public static BigInteger multiply(final BigInteger lhs, final BigInteger rhs) {
+		// the product of two 31-bit values cannot overflow a long
+		if(lhs.bitLength() < 32 && rhs.bitLength() < 32) {
+			return valueOf(lhs.longValue() * rhs.longValue());
+		}
+		return lhs.multiply(rhs);
+	}
+
+	public static BigInteger divide(final BigInteger lhs, final BigInteger rhs) {
+		// NOTE: long division truncates towards zero, as BigInteger does.
+		if(lhs.bitLength() < 63 && rhs.bitLength() < 63 && rhs.signum() != 0) {
+			return valueOf(lhs.longValue() / rhs.longValue());
+		}
+		return lhs.divide(rhs);
+	}
+
+	public static BigInteger remainder(final BigInteger lhs, final BigInteger rhs) {
+		if(lhs.bitLength() < 63 && rhs.bitLength() < 63 && rhs.signum() != 0) {
+			return valueOf(lhs.longValue() % rhs.longValue());
+		}
+		return lhs.remainder(rhs);
+	}
+
+	public static BigInteger negate(final BigInteger value) {
+		if(value.bitLength() < 63) {
+			return valueOf(-value.longValue());
+		}
+		return value.negate();
+	}
+
+	// ================================================================================
+	// Long Registers
+	// ================================================================================
+
+	/**
+	 * <p>
+	 * Registers which only ever hold integers are not stored as
+	 * <code>BigInteger</code>s by the generated code. Instead, each is split
+	 * across a <code>long</code> slot and a <code>BigInteger</code> slot. The
+	 * latter is <code>null</code> whenever the value fits into a
+	 * <code>long</code>, which is the case almost always. Otherwise, it holds
+	 * the value itself and the <code>long</code> slot holds
+	 * <code>Long.MIN_VALUE</code> (so that using it as an index always fails).
+	 * </p>
+	 *
+	 * <p>
+	 * Arithmetic and comparisons on such registers are performed directly on
+	 * <code>long</code>s, and fall back to <code>BigInteger</code> arithmetic
+	 * only when either operand is large or the result would overflow. The
+	 * following methods convert between the two representations, and check
+	 * for overflow.
+	 * </p>
+	 *
+	 * @param value
+	 *            --- the <code>long</code> slot of a register.
+	 * @param big
+	 *            --- the <code>BigInteger</code> slot of a register.
+	 * @return
+	 */
+	public static BigInteger valueOf(long value, BigInteger big) {
+		if(big != null) {
+			return big;
+		}
+		return valueOf(value);
+	}
+
+	/**
+	 * Determine the value of the <code>long</code> slot for a given integer.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static long longValue(BigInteger value) {
+		if(value.bitLength() < 64) {
+			return value.longValue();
+		}
+		return Long.MIN_VALUE;
+	}
+
+	/**
+	 * Determine the value of the <code>BigInteger</code> slot for a given
+	 * integer.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static BigInteger bigValue(BigInteger value) {
+		if(value.bitLength() < 64) {
+			return null;
+		}
+		return value;
+	}
+
+	public static boolean addOverflows(long lhs, long rhs) {
+		long v = lhs + rhs;
+		return ((lhs ^ v) & (rhs ^ v)) < 0;
+	}
+
+	public static boolean subtractOverflows(long lhs, long rhs) {
+		long v = lhs - rhs;
+		return ((lhs ^ rhs) & (lhs ^ v)) < 0;
+	}
+
+	public static boolean multiplyOverflows(long lhs, long rhs) {
+		// the product of two 31-bit values cannot overflow a long
+		if(((Math.abs(lhs) | Math.abs(rhs)) >>> 31) == 0) {
+			return false;
+		}
+		long v = lhs * rhs;
+		return (rhs != 0 && v / rhs != lhs)
+				|| (lhs == Long.MIN_VALUE && rhs == -1);
+	}
+
+	public static boolean divideOverflows(long lhs, long rhs) {
+		// NOTE: division by zero is left to BigInteger, to report it.
+		return rhs == 0 || (lhs == Long.MIN_VALUE && rhs == -1);
+	}
+
 	public static WyList range(BigInteger start, BigInteger end) {
 		WyList l = new WyList();
-		
-		long st = start.longValue();
-		long en = start.longValue();
-		if (BigInteger.valueOf(st).equals(start)
-				&& BigInteger.valueOf(en).equals(end)) {
+
+		if (start.bitLength() < 63 && end.bitLength() < 63) {
+			long st = start.longValue();
+			long en = end.longValue();
 			int dir = st < en ? 1 : -1;
 			while(st != en) {
-				l.add(BigInteger.valueOf(st));
+				l.add(valueOf(st));
 				st = st + dir;
 			}					
 		} else {
@@ -274,7 +457,7 @@ public class Util {
 	public static WyList str2il(String str) {
 		WyList r = new WyList(str.length());
 		for(int i=0;i!=str.length();++i) {
-			r.add(BigInteger.valueOf(str.charAt(i)));
+			r.add(valueOf(str.charAt(i)));
 		}
 		return r;
 	}
@@ -485,6 +668,8 @@ public class Util {
 						return true;
 					} else if(el.kind == K_VOID) {
 						return ol.isEmpty();
+					} else if(storesOnly(ol,el.kind)) {
+						return true;
 					} else {
 						for(Object elem : ol) { 
 							if(!instanceOf(elem,el)) {
@@ -628,6 +813,8 @@ public class Util {
 				return true;
 			} else if(el.kind == K_VOID) {
 				return object.isEmpty();
+			} else if(storesOnly(object,el.kind)) {
+				return true;
 			} else {
 				for(Object elem : object) { 
 					if(!instanceOf(elem,el)) {
@@ -641,6 +828,30 @@ public class Util {
 		}
 	}
 	
+	/**
+	 * Determine whether every element of a list must be of a given primitive
+	 * type, purely from the way in which the list is stored. This allows
+	 * runtime type tests on e.g. <code>[int]</code> to avoid examining every
+	 * element.
+	 * 
+	 * @param list
+	 * @param kind
+	 *            --- kind of the element type being tested against.
+	 * @return
+	 */
+	private static boolean storesOnly(WyList list, int kind) {
+		switch(list.kind()) {
+			case WyList.BYTES:
+				return kind == K_BYTE;
+			case WyList.CHARS:
+				return kind == K_CHAR;
+			case WyList.LONGS:
+				return kind == K_INT;
+			default:
+				return false;
+		}
+	}
+	
 	/**
 	 * This method gets called when we're testing a set object against some
 	 * type. To reduce the number of cases, we can narrow down the possible
@@ -926,6 +1137,24 @@ public class Util {
 			return -1;
 		} else if(s1_size > s2_size) {
 			return 1;
+		} else if(o1.kind() == WyList.LONGS && o2.kind() == WyList.LONGS) {
+			// compare without boxing elements
+			for(int i=0;i!=s1_size;++i) {
+				long e1 = o1.getLong(i);
+				long e2 = o2.getLong(i);
+				if(e1 != e2) {
+					return e1 < e2 ? -1 : 1;
+				}
+			}
+			return 0;
+		} else if(o1.kind() == WyList.CHARS && o2.kind() == WyList.CHARS) {
+			for(int i=0;i!=s1_size;++i) {
+				int c = o1.getChar(i) - o2.getChar(i);
+				if(c != 0) {
+					return c < 0 ? -1 : 1;
+				}
+			}
+			return 0;
 		} else {
 			for(int i=0;i!=s1_size;++i) {
 				Object e1 = o1.get(i);
@@ -984,14 +1213,13 @@ public class Util {
 	}
 
 	public static int compare(WyRecord o1, WyRecord o2) {
-		ArrayList<String> mKeys = new ArrayList<String>(o1.keySet());
-		ArrayList<String> tKeys = new ArrayList<String>(o2.keySet());
-		Collections.sort(mKeys);
-		Collections.sort(tKeys);
+		// record fields are always kept in sorted order
+		String[] mKeys = o1.fields();
+		String[] tKeys = o2.fields();
 
-		for(int i=0;i!=Math.min(mKeys.size(),tKeys.size());++i) {
-			String mk = mKeys.get(i);
-			String tk = tKeys.get(i);
+		for(int i=0;i!=Math.min(mKeys.length,tKeys.length);++i) {
+			String mk = mKeys[i];
+			String tk = tKeys[i];
 			int c = mk.compareTo(tk);
 			if(c != 0) {
 				return c;
@@ -1004,9 +1232,9 @@ public class Util {
 			}
 		}
 
-		if(mKeys.size() < tKeys.size()) {
+		if(mKeys.length < tKeys.length) {
 			return -1;
-		} else if(mKeys.size() > tKeys.size()) {
+		} else if(mKeys.length > tKeys.length) {
 			return 1;
 		} else {
 			return 0;
@@ -1021,7 +1249,6 @@ public class Util {
 		data.put("out", sysout);		
 		data.put("args",fromStringList(args));
 		WyRecord console = new WyRecord(data);
-		sysout.start();		
 		return console;
 	}
 	
@@ -20,18 +20,29 @@ public class WyCollection {
 	}
 		
 	public static BigInteger length(Object col) {				
+		return Util.valueOf(size(col));
+	}		
+	
+	/**
+	 * Determine the number of elements in a collection, without converting it
+	 * into a Whiley integer.
+	 * 
+	 * @param col
+	 * @return
+	 */
+	public static int size(Object col) {
 		Util.decRefs(col);
 		if(col instanceof java.util.Collection) {
 			java.util.Collection c = (java.util.Collection) col;
-			return BigInteger.valueOf(c.size());
+			return c.size();
 		} else if (col instanceof java.util.Map) {
 			java.util.Map m = (java.util.Map) col;
-			return BigInteger.valueOf(m.size());
+			return m.size();
 		} else {
 			String s = (String) col;
-			return BigInteger.valueOf(s.length());
+			return s.length();
 		}
-	}		
+	}
 	
 	public static final class StringIterator implements java.util.Iterator {
 		public final String string;
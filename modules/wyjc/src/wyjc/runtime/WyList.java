@@ -26,10 +26,31 @@
 package wyjc.runtime;
 
 import java.math.BigInteger;
-import java.util.Collections;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collection;
 
-public final class WyList extends java.util.ArrayList {		
+/**
+ * <p>
+ * The runtime representation of a Whiley list. Elements are not necessarily
+ * stored as objects: a list whose elements are all bytes, chars or integers
+ * which fit into a <code>long</code> is stored in a primitive array of the
+ * appropriate kind. This saves an object (and a reference) per element for
+ * lists such as <code>[byte]</code> read from a file, or the rows of an
+ * <code>[[int]]</code> matrix.
+ * </p>
+ * 
+ * <p>
+ * The storage kind of a list is decided by the first element added to it.
+ * Storing an element which cannot be represented by the current kind (e.g. a
+ * record into a list of integers) widens the list to an array of objects.
+ * Lists are never narrowed again. Elements stored in primitive form are boxed
+ * on demand when read through the <code>java.util.List</code> interface.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public final class WyList extends java.util.AbstractList implements java.util.RandomAccess {		
 	/**
 	 * The reference count is use to indicate how many variables are currently
 	 * referencing this compound structure. This is useful for making imperative
@@ -38,25 +59,277 @@ public final class WyList extends java.util.ArrayList {
 	 */
 	int refCount = 100; // temporary measure 
 	
+	// ================================================================================
+	// Storage
+	// ================================================================================	 	
+	
+	/**
+	 * The storage kinds of a list. A list is <code>UNDECIDED</code> until its
+	 * first element is added.
+	 */
+	public static final int UNDECIDED = 0;
+	public static final int BYTES = 1;
+	public static final int CHARS = 2;
+	public static final int LONGS = 3;
+	public static final int OBJECTS = 4;
+	
+	private int kind;
+	private int size;
+	private int capacity;
+	private byte[] bytes;
+	private char[] chars;
+	private long[] longs;
+	private Object[] objects;
+	
 	// ================================================================================
 	// Generic Operations
 	// ================================================================================	 	
 	
 	public WyList() {
-		super();				
+		this(10);				
 	}
 	
 	public WyList(int size) {
-		super(size);			
+		this.kind = UNDECIDED;
+		this.capacity = size;			
 	}
 	
-	WyList(java.util.Collection items) {
-		super(items);			
+	WyList(Collection items) {
+		this(items.size());
 		for(Object o : items) {
+			add(o);
 			Util.incRefs(o);
 		}
 	}
 	
+	WyList(WyList list) {
+		this(list, 0, list.size);
+	}
+	
+	/**
+	 * Construct a list from a given range of another list, using the same
+	 * storage kind.
+	 * 
+	 * @param list
+	 * @param start
+	 *            --- first index (inclusive).
+	 * @param end
+	 *            --- last index (exclusive).
+	 */
+	private WyList(WyList list, int start, int end) {
+		this.kind = list.kind;
+		this.size = end - start;
+		this.capacity = size;
+		switch(kind) {
+			case BYTES:
+				bytes = Arrays.copyOfRange(list.bytes, start, end);
+				break;
+			case CHARS:
+				chars = Arrays.copyOfRange(list.chars, start, end);
+				break;
+			case LONGS:
+				longs = Arrays.copyOfRange(list.longs, start, end);
+				break;
+			case OBJECTS:
+				objects = Arrays.copyOfRange(list.objects, start, end);
+				for(int i=0;i!=size;++i) {
+					Util.incRefs(objects[i]);
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * Construct a list of bytes directly from an array, without boxing them.
+	 * 
+	 * @param bytes
+	 * @param length
+	 *            --- number of bytes to take from the array.
+	 * @return
+	 */
+	public static WyList fromBytes(byte[] bytes, int length) {
+		WyList r = new WyList(length);
+		r.kind = BYTES;
+		r.bytes = Arrays.copyOf(bytes, length);
+		r.size = length;
+		return r;
+	}
+	
+	/**
+	 * Convert a list of bytes into an array, without unboxing them where
+	 * possible.
+	 * 
+	 * @param list
+	 * @return
+	 */
+	public static byte[] toBytes(WyList list) {
+		if(list.kind == BYTES) {
+			return Arrays.copyOf(list.bytes, list.size);
+		}
+		byte[] r = new byte[list.size];
+		for(int i=0;i!=r.length;++i) {
+			r[i] = (Byte) list.get(i);
+		}
+		return r;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public Object get(int index) {
+		rangeCheck(index);
+		switch(kind) {
+			case BYTES:
+				return bytes[index];
+			case CHARS:
+				return chars[index];
+			case LONGS:
+				return Util.valueOf(longs[index]);
+			default:
+				return objects[index];
+		}
+	}
+	
+	public Object set(int index, Object item) {
+		rangeCheck(index);
+		Object old = get(index);
+		accommodate(item);
+		put(index, item);
+		return old;
+	}
+	
+	public boolean add(Object item) {
+		accommodate(item);
+		ensureCapacity(size + 1);
+		put(size++, item);
+		modCount++;
+		return true;
+	}
+	
+	public void add(int index, Object item) {
+		if(index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		accommodate(item);
+		ensureCapacity(size + 1);
+		shift(index, index + 1, size - index);
+		size++;
+		put(index, item);
+		modCount++;
+	}
+	
+	public Object remove(int index) {
+		rangeCheck(index);
+		Object old = get(index);
+		removeRange(index, index + 1);
+		return old;
+	}
+	
+	public void clear() {
+		removeRange(0, size);
+	}
+	
+	public boolean addAll(Collection items) {
+		if(items instanceof WyList) {
+			WyList list = (WyList) items;
+			if(kind == UNDECIDED && size == 0 && list.kind != UNDECIDED) {
+				kind = list.kind;
+				allocate(Math.max(capacity, list.size));
+			}
+			if(kind == list.kind && list.kind != UNDECIDED) {
+				ensureCapacity(size + list.size);
+				switch(kind) {
+					case BYTES:
+						System.arraycopy(list.bytes, 0, bytes, size, list.size);
+						break;
+					case CHARS:
+						System.arraycopy(list.chars, 0, chars, size, list.size);
+						break;
+					case LONGS:
+						System.arraycopy(list.longs, 0, longs, size, list.size);
+						break;
+					default:
+						System.arraycopy(list.objects, 0, objects, size, list.size);
+				}
+				size += list.size;
+				modCount++;
+				return list.size != 0;
+			}
+		}
+		boolean changed = false;
+		for(Object o : items) {
+			changed |= add(o);
+		}
+		return changed;
+	}
+	
+	protected void removeRange(int from, int to) {
+		int n = to - from;
+		if(n > 0) {
+			shift(to, from, size - to);
+			if(kind == OBJECTS) {
+				Arrays.fill(objects, size - n, size, null);
+			}
+			size -= n;
+			modCount++;
+		}
+	}
+	
+	public boolean equals(Object o) {
+		if(o instanceof WyList) {
+			WyList l = (WyList) o;
+			if(l.size != size) {
+				return false;
+			} else if(l.kind == kind) {
+				// compare storage directly to avoid boxing
+				switch(kind) {
+					case BYTES:
+						for(int i=0;i!=size;++i) {
+							if(bytes[i] != l.bytes[i]) { return false; }
+						}
+						return true;
+					case CHARS:
+						for(int i=0;i!=size;++i) {
+							if(chars[i] != l.chars[i]) { return false; }
+						}
+						return true;
+					case LONGS:
+						for(int i=0;i!=size;++i) {
+							if(longs[i] != l.longs[i]) { return false; }
+						}
+						return true;
+				}
+			}
+		}
+		return super.equals(o);
+	}
+	
+	public int hashCode() {
+		// compute directly over storage to avoid boxing, matching the hash of
+		// the boxed elements (see java.util.List.hashCode())
+		int hash = 1;
+		switch(kind) {
+			case BYTES:
+				for(int i=0;i!=size;++i) {
+					hash = 31*hash + bytes[i];
+				}
+				return hash;
+			case CHARS:
+				for(int i=0;i!=size;++i) {
+					hash = 31*hash + chars[i];
+				}
+				return hash;
+			case LONGS:
+				for(int i=0;i!=size;++i) {
+					hash = 31*hash + hashCode(longs[i]);
+				}
+				return hash;
+			default:
+				return super.hashCode();
+		}
+	}
+	
 	public String toString() {
 		String r = "[";
 		boolean firstTime=true;
@@ -70,34 +343,322 @@ public final class WyList extends java.util.ArrayList {
 		return r + "]";
 	}
 	
+	/**
+	 * Get the storage kind of this list.
+	 * 
+	 * @return
+	 */
+	public int kind() {
+		return kind;
+	}
+	
+	/**
+	 * Get an element of a list whose storage kind is <code>LONGS</code>,
+	 * without boxing it.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public long getLong(int index) {
+		return longs[index];
+	}
+	
+	/**
+	 * Get an element of a list whose storage kind is <code>CHARS</code>,
+	 * without boxing it.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public char getChar(int index) {
+		return chars[index];
+	}
+	
+	/**
+	 * Compute the hash code of a <code>long</code> as though it were boxed as a
+	 * <code>BigInteger</code>. This hashes the magnitude one 32-bit word at a
+	 * time, starting from the most significant non-zero word, and then applies
+	 * the sign.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	static int hashCode(long value) {
+		// NOTE: the magnitude of Long.MIN_VALUE is correctly treated as unsigned
+		long magnitude = value < 0 ? -value : value;
+		int hi = (int) (magnitude >>> 32);
+		int lo = (int) magnitude;
+		int hash = hi == 0 ? lo : 31 * hi + lo;
+		return value < 0 ? -hash : hash;
+	}
+	
+	/**
+	 * Determine the storage kind best suited to a given element.
+	 * 
+	 * @param item
+	 * @return
+	 */
+	private static int kindOf(Object item) {
+		if(item instanceof Byte) {
+			return BYTES;
+		} else if(item instanceof Character) {
+			return CHARS;
+		} else if(item instanceof BigInteger
+				&& ((BigInteger) item).bitLength() < 64) {
+			return LONGS;
+		} else {
+			return OBJECTS;
+		}
+	}
+	
+	/**
+	 * Ensure this list can store a given element, deciding the storage kind if
+	 * this has not yet been done, and widening it if necessary.
+	 * 
+	 * @param item
+	 */
+	private void accommodate(Object item) {
+		if(kind == OBJECTS) {
+			return;
+		}
+		int k = kindOf(item);
+		if(kind == UNDECIDED) {
+			kind = k;
+			allocate(capacity);
+		} else if(k != kind) {
+			widen();
+		}
+	}
+	
+	/**
+	 * Convert the storage of this list into an array of objects.
+	 */
+	private void widen() {
+		Object[] nobjects = new Object[Math.max(capacity, size)];
+		for(int i=0;i!=size;++i) {
+			nobjects[i] = get(i);
+		}
+		bytes = null;
+		chars = null;
+		longs = null;
+		objects = nobjects;
+		kind = OBJECTS;
+	}
+	
+	private void allocate(int n) {
+		capacity = n;
+		switch(kind) {
+			case BYTES:
+				bytes = new byte[n];
+				break;
+			case CHARS:
+				chars = new char[n];
+				break;
+			case LONGS:
+				longs = new long[n];
+				break;
+			case OBJECTS:
+				objects = new Object[n];
+				break;
+		}
+	}
+	
+	private void ensureCapacity(int n) {
+		if(n > capacity) {
+			n = Math.max(n, (capacity * 3) / 2 + 1);
+			capacity = n;
+			switch(kind) {
+				case BYTES:
+					bytes = Arrays.copyOf(bytes, n);
+					break;
+				case CHARS:
+					chars = Arrays.copyOf(chars, n);
+					break;
+				case LONGS:
+					longs = Arrays.copyOf(longs, n);
+					break;
+				case OBJECTS:
+					objects = Arrays.copyOf(objects, n);
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Store an element into the underlying storage. The storage kind must
+	 * already accommodate the element.
+	 * 
+	 * @param index
+	 * @param item
+	 */
+	private void put(int index, Object item) {
+		switch(kind) {
+			case BYTES:
+				bytes[index] = (Byte) item;
+				break;
+			case CHARS:
+				chars[index] = (Character) item;
+				break;
+			case LONGS:
+				longs[index] = ((BigInteger) item).longValue();
+				break;
+			default:
+				objects[index] = item;
+		}
+	}
+	
+	private void shift(int from, int to, int n) {
+		switch(kind) {
+			case BYTES:
+				System.arraycopy(bytes, from, bytes, to, n);
+				break;
+			case CHARS:
+				System.arraycopy(chars, from, chars, to, n);
+				break;
+			case LONGS:
+				System.arraycopy(longs, from, longs, to, n);
+				break;
+			case OBJECTS:
+				System.arraycopy(objects, from, objects, to, n);
+				break;
+		}
+	}
+	
+	/**
+	 * Reverse the elements of this list in place.
+	 */
+	private void reverse() {
+		for(int i=0, j=size-1;i < j;++i,--j) {
+			switch(kind) {
+				case BYTES: {
+					byte t = bytes[i]; bytes[i] = bytes[j]; bytes[j] = t;
+					break;
+				}
+				case CHARS: {
+					char t = chars[i]; chars[i] = chars[j]; chars[j] = t;
+					break;
+				}
+				case LONGS: {
+					long t = longs[i]; longs[i] = longs[j]; longs[j] = t;
+					break;
+				}
+				default: {
+					Object t = objects[i]; objects[i] = objects[j]; objects[j] = t;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Convert a long index into an int index. An index which does not fit into
+	 * an int is always out of bounds, and must not be silently truncated.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	private static int index(long index) {
+		if(index != (int) index) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		return (int) index;
+	}
+	
+	private void rangeCheck(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+	
 	// ================================================================================
 	// List Operations
 	// ================================================================================	 
 		
 	public static Object get(WyList list, BigInteger index) {				
-		Object item = list.get(index.intValue());
+		return get(list, Util.longValue(index));
+	}
+	
+	/**
+	 * Get the item at a given index in a list. This overload avoids boxing the
+	 * index when it is already known to fit into a <code>long</code>.
+	 * 
+	 * @param list
+	 * @param index
+	 * @return
+	 */
+	public static Object get(WyList list, long index) {				
+		Object item = list.get(index(index));
 		return Util.incRefs(item);		
 	}
+	
+	/**
+	 * Get the integer at a given index in a list, without boxing it. This
+	 * returns <code>Long.MIN_VALUE</code> if the item does not fit into a
+	 * <code>long</code> (or happens to equal <code>Long.MIN_VALUE</code>), in
+	 * which case the caller must fall back to <code>get()</code>.
+	 * 
+	 * @param list
+	 * @param index
+	 * @return
+	 */
+	public static long getLong(WyList list, long index) {
+		int i = index(index);
+		list.rangeCheck(i);
+		if(list.kind == LONGS) {
+			return list.longs[i];
+		} else if(list.kind == OBJECTS && list.objects[i] instanceof BigInteger) {
+			return Util.longValue((BigInteger) list.objects[i]);
+		} else {
+			return Long.MIN_VALUE;
+		}
+	}
 			
 	public static WyList set(WyList list, final BigInteger index, final Object value) {
+		return set(list, Util.longValue(index), value, false);
+	}
+	
+	public static WyList set(WyList list, final long index, final Object value) {
+		return set(list, index, value, false);
+	}
+	
+	/**
+	 * Update the item at a given index in a list. When the compiler has
+	 * determined that the caller holds the only reference to the list, it is
+	 * updated in place rather than being cloned.
+	 * 
+	 * @param list
+	 * @param index
+	 * @param value
+	 * @param owned
+	 *            --- true if the list is not referenced from anywhere else.
+	 * @return
+	 */
+	public static WyList set(WyList list, final BigInteger index, final Object value, final boolean owned) {
+		return set(list, Util.longValue(index), value, owned);
+	}
+	
+	public static WyList set(WyList list, final long index, final Object value, final boolean owned) {
 		Util.countRefs(list);
-		if(list.refCount > 0) {			
+		if(!owned && list.refCount > 0) {			
 			Util.countClone(list);			
 			// in this case, we need to clone the list in question						
 			list = new WyList(list);						
 		} else {
 			Util.nlist_inplace_updates++;
 		}
-		Object v = list.set(index.intValue(),value);
+		Object v = list.set(index(index),value);
 		Util.decRefs(v);
 		Util.incRefs(value);
 		return list;
 	}
 	
 	public static WyList sublist(final WyList list, final BigInteger start, final BigInteger end) {
+		return sublist(list, Util.longValue(start), Util.longValue(end));
+	}
+	
+	public static WyList sublist(final WyList list, final long start, final long end) {
 		Util.countRefs(list);
-		int st = start.intValue();
-		int en = end.intValue();	
+		int st = index(start);
+		int en = index(end);	
 		
 		if(list.refCount == 0) {
 			Util.nlist_inplace_updates++;
@@ -120,25 +681,16 @@ public final class WyList extends java.util.ArrayList {
 				}
 				list.removeRange(0,en);
 				list.removeRange(st-en,list.size());
-				Collections.reverse(list);
+				list.reverse();
 				return list;
 			}
 		} else {								
 			WyList r;		
 			if(st <= en) {
-				r = new WyList(en-st);
-				for (int i = st; i != en; ++i) {
-					Object item = list.get(i);
-					Util.incRefs(item);
-					r.add(item);
-				}	
+				r = new WyList(list,st,en);
 			} else {
-				r = new WyList(st-en);
-				for (int i = (st-1); i >= en; --i) {
-					Object item = list.get(i);
-					Util.incRefs(item);
-					r.add(item);					
-				}
+				r = new WyList(list,en,st);
+				r.reverse();
 			}					
 			Util.countClone(r);
 			return r;	
@@ -146,13 +698,28 @@ public final class WyList extends java.util.ArrayList {
 	}
 	
 	public static BigInteger length(WyList list) {						
-		return BigInteger.valueOf(list.size());
+		return Util.valueOf(list.size());
 	}
 	
 	public static WyList append(WyList lhs, WyList rhs) {
+		return append(lhs, rhs, false);
+	}
+	
+	/**
+	 * Append two lists together. When the compiler has determined that the
+	 * caller holds the only reference to the left-hand side, and that it is
+	 * not used again, it is appended to in place rather than being cloned.
+	 * 
+	 * @param lhs
+	 * @param rhs
+	 * @param owned
+	 *            --- true if the left-hand side can be updated in place.
+	 * @return
+	 */
+	public static WyList append(WyList lhs, WyList rhs, final boolean owned) {
 		Util.countRefs(lhs);
 		Util.countRefs(rhs);
-		if(lhs.refCount == 0) {
+		if(owned || lhs.refCount == 0) {
 			Util.nlist_inplace_updates++;						
 		} else {
 			Util.countClone(lhs);			
@@ -161,16 +728,22 @@ public final class WyList extends java.util.ArrayList {
 		
 		lhs.addAll(rhs);
 		
-		for(Object o : rhs) {
-			Util.incRefs(o);
+		if(rhs.kind == OBJECTS) {
+			for(int i=0;i!=rhs.size;++i) {
+				Util.incRefs(rhs.objects[i]);
+			}
 		}
 		
 		return lhs;
 	}
 	
 	public static WyList append(WyList list, final Object item) {
+		return append(list, item, false);
+	}
+	
+	public static WyList append(WyList list, final Object item, final boolean owned) {
 		Util.countRefs(list);
-		if(list.refCount == 0) {
+		if(owned || list.refCount == 0) {
 			Util.nlist_inplace_updates++;						
 		} else { 
 			Util.countClone(list);			 	
@@ -220,7 +793,11 @@ public final class WyList extends java.util.ArrayList {
 	 * @return
 	 */
 	public static Object internal_get(WyList list, BigInteger index) {		
-		Object item = list.get(index.intValue());
+		return internal_get(list, Util.longValue(index));
+	}
+	
+	public static Object internal_get(WyList list, long index) {		
+		Object item = list.get(index(index));
 		if(list.refCount > 0) {
 			Util.incRefs(item);			
 		} 
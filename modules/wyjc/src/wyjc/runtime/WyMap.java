@@ -85,8 +85,24 @@ public final class WyMap extends java.util.HashMap<Object,Object> {
 	}
 	
 	public static WyMap put(WyMap dict, Object key, Object value) {
+		return put(dict, key, value, false);
+	}
+	
+	/**
+	 * Update the value for a given key in a map. When the compiler has
+	 * determined that the caller holds the only reference to the map, it is
+	 * updated in place rather than being cloned.
+	 * 
+	 * @param dict
+	 * @param key
+	 * @param value
+	 * @param owned
+	 *            --- true if the map is not referenced from anywhere else.
+	 * @return
+	 */
+	public static WyMap put(WyMap dict, Object key, Object value, final boolean owned) {
 		Util.countRefs(dict);
-		if(dict.refCount > 0) {
+		if(!owned && dict.refCount > 0) {
 			Util.countClone(dict);			
 			dict = new WyMap(dict);			
 		} else {
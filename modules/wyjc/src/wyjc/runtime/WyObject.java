@@ -23,19 +23,68 @@
 // (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
 // SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
+
 package wyjc.runtime;
 
-import java.util.*;
 import java.lang.reflect.*;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public final class WyObject extends Thread {
+/**
+ * <p>
+ * Represents a Whiley object (i.e. a reference to some mutable state), which
+ * also acts as an actor capable of receiving messages. Messages are placed in
+ * the object's mailbox and subsequently processed, one at a time, by a thread
+ * from a pool shared between all objects. An object which has no messages
+ * pending does not occupy a thread, so programs may create large numbers of
+ * them.
+ * </p>
+ * 
+ * <p>
+ * The scheduler can be configured using the following system properties:
+ * </p>
+ * <ul>
+ * <li><code>wyjc.scheduler.threads</code> --- the number of threads in the
+ * shared pool. By default, threads are created as needed and reused when idle.
+ * Note that a fixed size pool may deadlock if every thread is blocked on a
+ * synchronous send.</li>
+ * <li><code>wyjc.scheduler.mailbox</code> --- the maximum number of messages
+ * pending for any one object. By default, mailboxes are unbounded.</li>
+ * </ul>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public final class WyObject implements Runnable {
+	
+	/**
+	 * Maximum number of messages processed by an object before it yields its
+	 * thread to another object.
+	 */
+	private static final int BATCH = 32;
+	
+	private static final int MAILBOX = Integer.getInteger(
+			"wyjc.scheduler.mailbox", Integer.MAX_VALUE);
+	
+	private static final Executor scheduler = createScheduler(Integer
+			.getInteger("wyjc.scheduler.threads", 0));
+	
 	private Object state;
-	private ArrayBlockingQueue<Message> queue = new ArrayBlockingQueue<Message>(10); 
+	
+	/**
+	 * The mailbox holding messages pending for this object. This is created
+	 * when the first message is sent, since most objects never receive one.
+	 */
+	private volatile BlockingQueue<Message> mailbox;
+	
+	/**
+	 * Indicates whether or not this object is scheduled for execution (i.e.
+	 * whether there is a task in the pool which will process its mailbox).
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
 	
 	public WyObject(Object c) {
 		state = c;			
-		setDaemon(true);
 	}
 
 	public Object state() {
@@ -47,6 +96,13 @@ public final class WyObject extends Thread {
 		return this;
 	}
 	
+	/**
+	 * Objects are scheduled on demand, so no longer need to be started. This
+	 * method is retained for compatibility with previously generated code.
+	 */
+	public void start() {
+	}
+	
 	/**
 	 * Send a message asynchronously to this actor. If the mailbox is full, then
 	 * this will in fact block.
@@ -56,7 +112,7 @@ public final class WyObject extends Thread {
 	 */
 	public void asyncSend(Method method, Object[] arguments) {		
 		arguments[0] = this;		
-		queue.add(new Message(method,arguments,false));
+		send(new Message(method,arguments,false));
 	}
 
 	/**
@@ -71,7 +127,7 @@ public final class WyObject extends Thread {
 	public void vSyncSend(Method method, Object[] arguments) {
 		arguments[0] = this;
 		Message m = new Message(method, arguments, true);
-		queue.add(m);
+		send(m);
 		m.get(); // discard return value
 	}
 	
@@ -87,31 +143,74 @@ public final class WyObject extends Thread {
 	public Object syncSend(Method method, Object[] arguments) {
 		arguments[0] = this;
 		Message m = new Message(method,arguments,true);
-		queue.add(m);
+		send(m);
 		return m.get();
 	}
+	
+	private void send(Message m) {
+		BlockingQueue<Message> queue = mailbox();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(m);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		schedule();
+	}
+	
+	private BlockingQueue<Message> mailbox() {
+		BlockingQueue<Message> queue = mailbox;
+		if (queue == null) {
+			synchronized (this) {
+				queue = mailbox;
+				if (queue == null) {
+					queue = new LinkedBlockingQueue<Message>(MAILBOX);
+					mailbox = queue;
+				}
+			}
+		}
+		return queue;
+	}
+	
+	/**
+	 * Submit this object to the pool, unless it is already scheduled.
+	 */
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			scheduler.execute(this);
+		}
+	}
 		
+	/**
+	 * Process messages pending for this object. This is called by a thread of
+	 * the shared pool, and should not be called directly. The object is
+	 * always descheduled on exit, even if something goes wrong, since
+	 * otherwise it would never be scheduled again.
+	 */
 	public void run() {		
 		// this is where the action happens
-		while(1==1) {
-			try {				
-				Message m = queue.take();
-				Object r = m.method.invoke(null, m.arguments);
-				if(m.synchronous){
-					m.set(r);
-				} 
-			} catch(InterruptedException e) {
-				// do nothing I guess
-			} catch(IllegalAccessException e) {
-				// do nothing I guess
-			} catch(InvocationTargetException ex) {
-				// not sure what to do!
-				Throwable e = ex.getCause();
-				if(e instanceof RuntimeException) {
-					RuntimeException re = (RuntimeException) e;
-					throw re;
+		BlockingQueue<Message> queue = mailbox;
+		try {
+			for (int i = 0; i != BATCH; ++i) {
+				Message m = queue.poll();
+				if (m == null) {
+					break;
 				}
-				// do nothing I guess
+				m.dispatch();
+			}
+		} finally {
+			scheduled.set(false);
+			// a message may have arrived after the last poll, but before
+			// scheduled was cleared, in which case no-one else will schedule
+			// us.
+			if (!queue.isEmpty()) {
+				schedule();
 			}
 		}
 	}
@@ -120,12 +219,28 @@ public final class WyObject extends Thread {
 		return state + "@" + System.identityHashCode(this);
 	}
 	
+	private static Executor createScheduler(int nthreads) {
+		ThreadFactory factory = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "whiley-actor");
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		if (nthreads > 0) {
+			return Executors.newFixedThreadPool(nthreads, factory);
+		} else {
+			return Executors.newCachedThreadPool(factory);
+		}
+	}
+	
 	private final static class Message {
 		public final Method method;
 		public final Object[] arguments;
 		public final boolean synchronous;
 		public volatile boolean ready = false;
 		public volatile Object result;
+		public volatile Throwable error;
 		
 		public Message(Method method, Object[] arguments, boolean synchronous) {
 			this.method = method;
@@ -133,6 +248,45 @@ public final class WyObject extends Thread {
 			this.synchronous = synchronous;			
 		}				
 		
+		/**
+		 * Process this message. Any exception or error raised whilst doing so
+		 * is caught here, including those raised by the reflective call itself
+		 * (e.g. if the arguments don't match), so that a synchronous sender is
+		 * never left waiting.
+		 */
+		public void dispatch() {
+			try {
+				Object r = method.invoke(null, arguments);
+				if (synchronous) {
+					set(r, null);
+				}
+			} catch (InvocationTargetException ex) {
+				fail(ex.getCause());
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}
+		
+		/**
+		 * Report an exception raised whilst processing this message. For a
+		 * synchronous message, this is rethrown in the sender; otherwise, it
+		 * is reported but the receiving object continues processing messages.
+		 * Checked exceptions are wrapped in a <code>RuntimeException</code>.
+		 * 
+		 * @param e
+		 */
+		private void fail(Throwable e) {
+			if (!(e instanceof RuntimeException || e instanceof Error)) {
+				e = new RuntimeException(e);
+			}
+			if (synchronous) {
+				set(null, e);
+			} else {
+				Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			}
+		}
+		
 		public synchronized Object get() {
 			while(!ready) {
 				try {
@@ -140,11 +294,17 @@ public final class WyObject extends Thread {
 				} catch(InterruptedException e) {				
 				}
 			}
+			if (error instanceof Error) {
+				throw (Error) error;
+			} else if (error != null) {
+				throw (RuntimeException) error;
+			}
 			return result;
 		}
 		
-		public synchronized void set(Object result) {
+		public synchronized void set(Object result, Throwable error) {
 			this.result = result; 
+			this.error = error;
 			this.ready = true;
 			notifyAll();
 		}
@@ -29,6 +29,25 @@ import java.math.BigInteger;
 import java.math.BigDecimal;
 import java.util.Random;
 
+/**
+ * <p>
+ * Represents a Whiley rational number. The numerator and denominator are
+ * always kept in their lowest terms, with a positive denominator.
+ * </p>
+ * 
+ * <p>
+ * Most rationals encountered in practice are small, and so they are stored in
+ * a pair of <code>long</code>s rather than <code>BigInteger</code>s whenever
+ * they fit. Arithmetic on such values is performed on <code>long</code>s with
+ * explicit overflow checks (using a binary GCD for normalisation), and falls
+ * back to <code>BigInteger</code> arithmetic only when this overflows.
+ * Since every value which fits is stored as a pair of <code>long</code>s,
+ * the representation of any given rational is unique.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
 public final class WyRat extends Number implements Comparable<WyRat> {	
 	private static final WyRat[] cache = new WyRat[20];
 
@@ -36,39 +55,27 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	public static final WyRat ZERO = WyRat.valueOf(0);
 	public static final WyRat ONE = WyRat.valueOf(1);
 	
+	/**
+	 * Returned by <code>multiply(long,long)</code> to signal overflow. This
+	 * can never be the value of a small numerator or denominator.
+	 */
+	private static final long OVERFLOW = Long.MIN_VALUE;
+	
+	/**
+	 * The numerator and denominator of this rational when it is small.
+	 */
+	private final long num;
+	private final long den;
+	
+	/**
+	 * The numerator and denominator of this rational when it is not small,
+	 * otherwise <code>null</code>.
+	 */
 	private final BigInteger numerator;
 	private final BigInteger denominator;
 
 	public WyRat(String val) {		
-		int idx = val.indexOf('.');
-		if(idx > 0) {
-			String lhs = val.substring(0,idx);
-			String rhs = val.substring(idx+1);
-			BigInteger num = new BigInteger(lhs + rhs);			
-			BigInteger den = BigInteger.valueOf(10).pow(rhs.length());			
-			BigInteger gcd = num.gcd(den);			
-			if(!gcd.equals(BigInteger.ONE)) {
-				num = num.divide(gcd);
-				den = den.divide(gcd);
-			}
-			
-			// normalise sign.
-			BigInteger zero = BigInteger.ZERO;
-			if(zero.compareTo(num) > 0 && zero.compareTo(den) >= 0) {
-				num = num.negate();
-				den = den.negate();
-			} else if(zero.compareTo(den) == 0) {
-				num = BigInteger.ZERO;
-				den = BigInteger.ZERO;
-			}
-			
-			// done, assign final fields.
-			numerator = num;
-			denominator = den;			
-		} else {
-			numerator = new BigInteger(val);
-			denominator = BigInteger.valueOf(1);
-		}		
+		this(parse(val));
 	}
 	
 	public WyRat(BigDecimal dec) {
@@ -76,13 +83,68 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	}
 	
 	public WyRat(BigInteger numerator) {
-		this.numerator = numerator;
-		this.denominator = BigInteger.ONE;
+		this(new BigInteger[] { numerator, BigInteger.ONE });
 	}
 	
 	public WyRat(BigInteger numerator, BigInteger denominator) {			
+		this(normalise(numerator, denominator));
+	}
+
+	public WyRat(int numerator, int denominator) {
+		this(BigInteger.valueOf(numerator),BigInteger.valueOf(denominator));
+	}
+	
+	public WyRat(byte[] numbytes) {
+		this(new BigInteger(numbytes));
+	}
+	
+	public WyRat(byte[] numbytes, byte[] denbytes) {
+		this(new BigInteger(numbytes), new BigInteger(denbytes));
+	}
+	
+	/**
+	 * Construct a rational from a normalised numerator and denominator,
+	 * choosing the small representation if they fit.
+	 * 
+	 * @param nd
+	 */
+	private WyRat(BigInteger[] nd) {
+		if (nd[0].bitLength() < 63 && nd[1].bitLength() < 63) {
+			this.num = nd[0].longValue();
+			this.den = nd[1].longValue();
+			this.numerator = null;
+			this.denominator = null;
+		} else {
+			this.num = 0;
+			this.den = 0;
+			this.numerator = nd[0];
+			this.denominator = nd[1];
+		}
+	}
+	
+	private WyRat(long num, long den) {
+		this.num = num;
+		this.den = den;
+		this.numerator = null;
+		this.denominator = null;
+	}
+	
+	private static BigInteger[] parse(String val) {
+		int idx = val.indexOf('.');
+		if(idx > 0) {
+			String lhs = val.substring(0,idx);
+			String rhs = val.substring(idx+1);
+			BigInteger num = new BigInteger(lhs + rhs);			
+			BigInteger den = BigInteger.valueOf(10).pow(rhs.length());			
+			return normalise(num, den);
+		} else {
+			return new BigInteger[] { new BigInteger(val), BigInteger.ONE };
+		}		
+	}
+	
+	private static BigInteger[] normalise(BigInteger numerator, BigInteger denominator) {
 		BigInteger gcd = numerator.gcd(denominator);		
-		if(!gcd.equals(BigInteger.ONE)) {
+		if(gcd.signum() != 0 && !gcd.equals(BigInteger.ONE)) {
 			numerator = numerator.divide(gcd);
 			denominator = denominator.divide(gcd);
 		}
@@ -96,34 +158,21 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 			numerator = BigInteger.ZERO;
 			denominator = BigInteger.ZERO;
 		}
-		
-		// done, assign final fields.
-		this.numerator = numerator;
-		this.denominator = denominator;
-	}
-
-	public WyRat(int numerator, int denominator) {
-		this(BigInteger.valueOf(numerator),BigInteger.valueOf(denominator));
-	}
-	
-	public WyRat(byte[] numbytes) {
-		this.numerator = new BigInteger(numbytes);
-		this.denominator = BigInteger.ONE;
-	}
-	
-	public WyRat(byte[] numbytes, byte[] denbytes) {
-		this(new BigInteger(numbytes), new BigInteger(denbytes));
+		return new BigInteger[] { numerator, denominator };
 	}
 	
 	public BigInteger numerator() {
-		return numerator;
+		return numerator != null ? numerator : BigInteger.valueOf(num);
 	}
 	
 	public BigInteger denominator() {
-		return denominator;
+		return denominator != null ? denominator : BigInteger.valueOf(den);
 	}
 	
-	public boolean isInteger() {		
+	public boolean isInteger() {
+		if (numerator == null) {
+			return den == 1;
+		}
 		return denominator.equals(BigInteger.ONE);
 	}
 	
@@ -133,8 +182,7 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	 * very imprecise.</b>
 	 */
 	public int intValue() {
-		long l = numerator.longValue();
-		return (int) (l / denominator.longValue());
+		return (int) longValue();
 	}
 	
 	/**
@@ -143,16 +191,21 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	 * very imprecise.</b>
 	 */
 	public long longValue() {
+		if (numerator == null) {
+			return num / den;
+		}
 		long l = numerator.longValue();
 		return l / denominator.longValue();
 	}
 	
 	public float floatValue() {
-		float l = numerator.floatValue();
-		return l / denominator.floatValue();
+		return (float) doubleValue();
 	}
 	
 	public double doubleValue() {
+		if (numerator == null) {
+			return ((double) num) / den;
+		}
 		double l = numerator.doubleValue();
 		return l / denominator.doubleValue();
 	}
@@ -160,6 +213,11 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	public boolean equals(Object o) {
 		if (o instanceof WyRat) {
 			WyRat r = (WyRat) o;
+			if (numerator == null || r.numerator == null) {
+				// representations are unique, so small only equals small
+				return numerator == r.numerator && num == r.num
+						&& den == r.den;
+			}
 			return numerator.equals(r.numerator)
 					&& denominator.equals(r.denominator);
 		}
@@ -167,19 +225,33 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	}
 	
 	public int hashCode() {
+		if (numerator == null) {
+			return (int) (num ^ (num >>> 32)) + (int) (den ^ (den >>> 32));
+		}
 		return numerator.hashCode() + denominator.hashCode();
 	}
 	
 	public int compareTo(WyRat r) {
-		BigInteger lhs = numerator.multiply(r.denominator);
-		BigInteger rhs = r.numerator.multiply(denominator);
+		if (numerator == null && r.numerator == null) {
+			if (den == r.den) {
+				return num < r.num ? -1 : (num == r.num ? 0 : 1);
+			}
+			long lhs = multiply(num, r.den);
+			long rhs = multiply(r.num, den);
+			if (lhs != OVERFLOW && rhs != OVERFLOW) {
+				return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+			}
+		}
+		BigInteger lhs = numerator().multiply(r.denominator());
+		BigInteger rhs = r.numerator().multiply(denominator());
 		return lhs.compareTo(rhs);
 	}
 	
 	public BigDecimal round(int maxplaces) {
 		BigDecimal number = BigDecimal.ZERO;
 		int scale = 0;
-		BigInteger num = numerator;
+		BigInteger num = numerator();
+		BigInteger denominator = denominator();
 						
 		while(maxplaces != scale && !num.equals(BigInteger.ZERO)) {			
 			if(num.compareTo(denominator) < 0) {				
@@ -202,7 +274,7 @@ public final class WyRat extends Number implements Comparable<WyRat> {
      */ 
 	public String toString() {		
 		if(isInteger()) {
-			return numerator.toString() + ".0";
+			return numerator() + ".0";
 		} else {
 			BigDecimal bd = round(10);
 			WyRat br = new WyRat(bd);
@@ -214,7 +286,7 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 				return s;
 			} else {
 
-				return "(" + numerator + "/" + denominator + ")";
+				return "(" + numerator() + "/" + denominator() + ")";
 			}
 		}
 	}
@@ -224,23 +296,52 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	// =========================================================
 	
 	public WyRat add(int r) {
-		BigInteger num = numerator.add(denominator.multiply(BigInteger.valueOf(r)));
-		return new WyRat(num,denominator);
+		return add((long) r);
 	}
 	
 	public WyRat add(long r) {
-		BigInteger num = numerator.add(denominator.multiply(BigInteger.valueOf(r)));
-		return new WyRat(num,denominator);
+		if (numerator == null && fits(r)) {
+			long n = multiply(den, r);
+			if (n != OVERFLOW) {
+				WyRat s = valueOf(num + n, den, true);
+				if (s != null) {
+					return s;
+				}
+			}
+		}
+		BigInteger den = denominator();
+		BigInteger num = numerator().add(den.multiply(BigInteger.valueOf(r)));
+		return new WyRat(num,den);
 	}
 	
 	public WyRat add(final BigInteger r) {
-		BigInteger num = numerator.add(denominator.multiply(r));
-		return new WyRat(num,denominator);
+		if (numerator == null && r.bitLength() < 63) {
+			return add(r.longValue());
+		}
+		BigInteger den = denominator();
+		BigInteger num = numerator().add(den.multiply(r));
+		return new WyRat(num,den);
 	}
 	
 	public WyRat add(final WyRat r) {
-		BigInteger num = numerator.multiply(r.denominator).add(r.numerator.multiply(denominator));
-		BigInteger den = denominator.multiply(r.denominator);
+		if (numerator == null && r.numerator == null) {
+			WyRat s = null;
+			if (den == r.den) {
+				s = valueOf(num + r.num, den, true);
+			} else {
+				long lhs = multiply(num, r.den);
+				long rhs = multiply(r.num, den);
+				long d = multiply(den, r.den);
+				if (lhs != OVERFLOW && rhs != OVERFLOW && d != OVERFLOW) {
+					s = valueOf(lhs + rhs, d, true);
+				}
+			}
+			if (s != null) {
+				return s;
+			}
+		}
+		BigInteger num = numerator().multiply(r.denominator()).add(r.numerator().multiply(denominator()));
+		BigInteger den = denominator().multiply(r.denominator());
 		return new WyRat(num,den);
 	}
 	
@@ -249,24 +350,45 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	// =========================================================
 	
 	public WyRat subtract(int r) {
-		BigInteger num = numerator.subtract(denominator.multiply(BigInteger.valueOf(r)));
-		return new WyRat(num,denominator);
+		return add(-((long) r));
 	}
 	
 	public WyRat subtract(long r) {
-		BigInteger num = numerator.subtract(denominator.multiply(BigInteger.valueOf(r)));
-		return new WyRat(num,denominator);
+		if (fits(r)) {
+			return add(-r);
+		}
+		return subtract(BigInteger.valueOf(r));
 	}
 	
 	public WyRat subtract(final BigInteger r) {
-		BigInteger num = numerator.subtract(denominator.multiply(r));
-		return new WyRat(num,denominator);
+		if (r.bitLength() < 63) {
+			return add(-r.longValue());
+		}
+		BigInteger den = denominator();
+		BigInteger num = numerator().subtract(den.multiply(r));
+		return new WyRat(num,den);
 	}
 	
 	public WyRat subtract(final WyRat r) {
-		BigInteger num = numerator.multiply(r.denominator).subtract(
-				r.numerator.multiply(denominator));
-		BigInteger den = denominator.multiply(r.denominator);
+		if (numerator == null && r.numerator == null) {
+			WyRat s = null;
+			if (den == r.den) {
+				s = valueOf(num - r.num, den, true);
+			} else {
+				long lhs = multiply(num, r.den);
+				long rhs = multiply(r.num, den);
+				long d = multiply(den, r.den);
+				if (lhs != OVERFLOW && rhs != OVERFLOW && d != OVERFLOW) {
+					s = valueOf(lhs - rhs, d, true);
+				}
+			}
+			if (s != null) {
+				return s;
+			}
+		}
+		BigInteger num = numerator().multiply(r.denominator()).subtract(
+				r.numerator().multiply(denominator()));
+		BigInteger den = denominator().multiply(r.denominator());
 		return new WyRat(num, den);
 	}
 	
@@ -275,23 +397,44 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	// =========================================================
 	
 	public WyRat multiply(int r) {
-		BigInteger num = numerator.multiply(BigInteger.valueOf(r));
-		return new WyRat(num,denominator);
+		return multiply((long) r);
 	}
 	
 	public WyRat multiply(long r) {
-		BigInteger num = numerator.multiply(BigInteger.valueOf(r));
-		return new WyRat(num,denominator);
+		if (numerator == null && fits(r)) {
+			long n = multiply(num, r);
+			if (n != OVERFLOW) {
+				WyRat s = valueOf(n, den, true);
+				if (s != null) {
+					return s;
+				}
+			}
+		}
+		BigInteger num = numerator().multiply(BigInteger.valueOf(r));
+		return new WyRat(num,denominator());
 	}
 	
 	public WyRat multiply(final BigInteger r) {
-		BigInteger num = numerator.multiply(r);
-		return new WyRat(num,denominator);
+		if (numerator == null && r.bitLength() < 63) {
+			return multiply(r.longValue());
+		}
+		BigInteger num = numerator().multiply(r);
+		return new WyRat(num,denominator());
 	}
 			
 	public WyRat multiply(final WyRat r) {
-		BigInteger num = numerator.multiply(r.numerator);
-		BigInteger den = denominator.multiply(r.denominator);
+		if (numerator == null && r.numerator == null) {
+			long n = multiply(num, r.num);
+			long d = multiply(den, r.den);
+			if (n != OVERFLOW && d != OVERFLOW) {
+				WyRat s = valueOf(n, d, true);
+				if (s != null) {
+					return s;
+				}
+			}
+		}
+		BigInteger num = numerator().multiply(r.numerator());
+		BigInteger den = denominator().multiply(r.denominator());
 		return new WyRat(num, den);
 	}
 	
@@ -300,33 +443,60 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	// =========================================================
 	
 	public WyRat divide(int r) {
-		BigInteger den = denominator.multiply(BigInteger.valueOf(r));
-		return new WyRat(numerator,den);
+		return divide((long) r);
 	}
 	
 	public WyRat divide(long r) {
-		BigInteger den = denominator.multiply(BigInteger.valueOf(r));
-		return new WyRat(numerator,den);
+		if (numerator == null && fits(r)) {
+			long d = multiply(den, r);
+			if (d != OVERFLOW) {
+				WyRat s = valueOf(num, d, true);
+				if (s != null) {
+					return s;
+				}
+			}
+		}
+		BigInteger den = denominator().multiply(BigInteger.valueOf(r));
+		return new WyRat(numerator(),den);
 	}
 	
 	public WyRat divide(BigInteger r) {
-		BigInteger den = denominator.multiply(r);
-		return new WyRat(numerator,den);
+		if (numerator == null && r.bitLength() < 63) {
+			return divide(r.longValue());
+		}
+		BigInteger den = denominator().multiply(r);
+		return new WyRat(numerator(),den);
 	}
 	
 	public WyRat divide(final WyRat r) {		
-		BigInteger num = numerator.multiply(r.denominator);
-		BigInteger den = denominator.multiply(r.numerator);
+		if (numerator == null && r.numerator == null) {
+			long n = multiply(num, r.den);
+			long d = multiply(den, r.num);
+			if (n != OVERFLOW && d != OVERFLOW) {
+				WyRat s = valueOf(n, d, true);
+				if (s != null) {
+					return s;
+				}
+			}
+		}
+		BigInteger num = numerator().multiply(r.denominator());
+		BigInteger den = denominator().multiply(r.numerator());
 		return new WyRat(num, den);
 	}
 	
 	public WyRat intDivide(final WyRat r) {
-		BigInteger num = numerator.divide(r.numerator);		
+		if (numerator == null && r.numerator == null && r.num != 0) {
+			return valueOf(num / r.num);
+		}
+		BigInteger num = numerator().divide(r.numerator());		
 		return new WyRat(num);
 	}
 	
 	public WyRat intRemainder(final WyRat r) {
-		BigInteger num = numerator.remainder(r.numerator);		
+		if (numerator == null && r.numerator == null && r.num != 0) {
+			return valueOf(num % r.num);
+		}
+		BigInteger num = numerator().remainder(r.numerator());		
 		return new WyRat(num);
 	}
 	
@@ -334,32 +504,55 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	// ========================= OTHER =========================
 	// =========================================================
 	public WyRat negate() {
-		return new WyRat(numerator.negate(),denominator);
+		if (numerator == null && fits(-num)) {
+			return new WyRat(-num, den);
+		}
+		return new WyRat(numerator().negate(),denominator());
 	}
 	
 	public WyRat ceil() {		
-		BigInteger i = numerator;
-		BigInteger d = numerator.compareTo(BigInteger.ZERO) >= 0 ? BigInteger.ONE : BigInteger.valueOf(-1);
-		while (!i.divideAndRemainder(denominator)[1].equals(BigInteger.ZERO)) {
-			i = i.add(d);
-		}		
-		return new WyRat(i, denominator);
+		if (numerator == null && den != 0) {
+			long q = num / den;
+			if (num % den != 0 && num > 0) {
+				q = q + 1;
+			}
+			return valueOf(q);
+		}
+		BigInteger[] qr = numerator().divideAndRemainder(denominator());
+		BigInteger q = qr[0];
+		if (qr[1].signum() > 0) {
+			q = q.add(BigInteger.ONE);
+		}
+		return new WyRat(q);
 	}
 	
 	public WyRat floor() {
-		BigInteger i = numerator;
-		BigInteger d = numerator.compareTo(BigInteger.ZERO) < 0 ? BigInteger.ONE : BigInteger.valueOf(-1);
-		while (!i.divideAndRemainder(denominator)[1].equals(BigInteger.ZERO)) {
-			i = i.add(d);
-		}		
-		return new WyRat(i, denominator);
+		if (numerator == null && den != 0) {
+			long q = num / den;
+			if (num % den != 0 && num < 0) {
+				q = q - 1;
+			}
+			return valueOf(q);
+		}
+		BigInteger[] qr = numerator().divideAndRemainder(denominator());
+		BigInteger q = qr[0];
+		if (qr[1].signum() < 0) {
+			q = q.subtract(BigInteger.ONE);
+		}
+		return new WyRat(q);
 	}
 	
 	public static WyRat valueOf(int num, int den) {		
-		return new WyRat(BigInteger.valueOf(num),BigInteger.valueOf(den));		
+		return valueOf((long) num, (long) den);		
 	}
 	
 	public static WyRat valueOf(long num, long den) {		
+		if (fits(num) && fits(den)) {
+			WyRat r = valueOf(num, den, true);
+			if (r != null) {
+				return r;
+			}
+		}
 		return new WyRat(BigInteger.valueOf(num),BigInteger.valueOf(den));		
 	}
 
@@ -368,17 +561,7 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 	}
 	
 	public static WyRat valueOf(int x) {
-		if(x > -10 && x <= 10) {
-			int idx = x + 9;
-			WyRat r = cache[idx];
-			if(r == null) {
-				r = new WyRat(BigInteger.valueOf(x));
-				cache[idx] = r;
-			}
-			return r;
-		} else {
-			return new WyRat(BigInteger.valueOf(x));
-		}
+		return valueOf((long) x);
 	}
 	
 	public static WyRat valueOf(long x) {
@@ -386,10 +569,12 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 			int idx = (int) x + 9;
 			WyRat r = cache[idx];
 			if(r == null) {
-				r = new WyRat(BigInteger.valueOf(x));
+				r = new WyRat(x, 1);
 				cache[idx] = r;
 			}
 			return r;
+		} else if (fits(x)) {
+			return new WyRat(x, 1);
 		} else {
 			return new WyRat(BigInteger.valueOf(x));
 		}
@@ -410,9 +595,28 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 		final long denominator = 0x10000000000000L;
 		boolean denormalised = exponent == 0;
 		if(denormalised) {
+			if (numerator == 0) {
+				return ZERO;
+			}
 			exponent = -1022;
 		} else {
 			exponent = exponent - 1023; // remove bias
+			
+			// The value is (2^52 + numerator) * 2^(exponent - 52). When this
+			// fits, construct it directly.
+			long mantissa = denominator | numerator;
+			int zeros = Long.numberOfTrailingZeros(mantissa);
+			mantissa = mantissa >> zeros;
+			int bits = 64 - Long.numberOfLeadingZeros(mantissa);
+			int shift = exponent - 52 + zeros;
+			if (sign) {
+				mantissa = -mantissa;
+			}
+			if (shift >= 0 && bits + shift < 62) {
+				return new WyRat(mantissa << shift, 1);
+			} else if (shift < 0 && shift > -62) {
+				return new WyRat(mantissa, 1L << -shift);
+			}
 		}
 		
 		WyRat base = valueOf(numerator, denominator).add(BigInteger.ONE);
@@ -429,4 +633,100 @@ public final class WyRat extends Number implements Comparable<WyRat> {
 			return base.divide(exp);
 		}
 	}
+	
+	// =========================================================
+	// ===================== SMALL VALUES ======================
+	// =========================================================
+	
+	/**
+	 * Construct a small rational from a numerator and denominator, normalising
+	 * them first. If the result does not fit in the small representation, then
+	 * <code>null</code> is returned.
+	 * 
+	 * @param n
+	 * @param d
+	 * @param normalise
+	 *            --- always true; distinguishes this from the public
+	 *            <code>valueOf(long,long)</code>.
+	 * @return
+	 */
+	private static WyRat valueOf(long n, long d, boolean normalise) {
+		if (d == 1) {
+			return fits(n) ? new WyRat(n, 1) : null;
+		} else if (d == 0) {
+			return new WyRat(0, 0);
+		} else if (n == Long.MIN_VALUE || d == Long.MIN_VALUE) {
+			return null;
+		} else if (d < 0) {
+			n = -n;
+			d = -d;
+		}
+		long g = gcd(n < 0 ? -n : n, d);
+		if (g != 1) {
+			n = n / g;
+			d = d / g;
+		}
+		if (fits(n) && fits(d)) {
+			return new WyRat(n, d);
+		}
+		return null;
+	}
+	
+	/**
+	 * Determine whether a value fits in the small representation. This
+	 * matches the check <code>bitLength() < 63</code> on
+	 * <code>BigInteger</code>, which ensures that the sum of two small values
+	 * cannot overflow.
+	 * 
+	 * @param x
+	 * @return
+	 */
+	private static boolean fits(long x) {
+		long top = x >> 62;
+		return top == 0 || top == -1;
+	}
+	
+	/**
+	 * Multiply two small values, returning <code>OVERFLOW</code> if the result
+	 * does not itself fit in the small representation.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static long multiply(long a, long b) {
+		long r = a * b;
+		if (((Math.abs(a) | Math.abs(b)) >>> 31) != 0 && b != 0 && r / b != a) {
+			return OVERFLOW;
+		}
+		return fits(r) ? r : OVERFLOW;
+	}
+	
+	/**
+	 * Compute the greatest common divisor of two non-negative values using
+	 * the binary GCD algorithm, which avoids division.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static long gcd(long a, long b) {
+		if (a == 0) {
+			return b;
+		} else if (b == 0) {
+			return a;
+		}
+		int shift = Long.numberOfTrailingZeros(a | b);
+		a = a >> Long.numberOfTrailingZeros(a);
+		do {
+			b = b >> Long.numberOfTrailingZeros(b);
+			if (a > b) {
+				long t = b;
+				b = a;
+				a = t;
+			}
+			b = b - a;
+		} while (b != 0);
+		return a << shift;
+	}
 }
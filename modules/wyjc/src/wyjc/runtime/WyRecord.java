@@ -27,7 +27,26 @@ package wyjc.runtime;
 
 import java.util.*;
 
-public final class WyRecord extends HashMap<String,Object> {	
+/**
+ * <p>
+ * Represents a Whiley record value. The fields of a record are described by
+ * its <i>shape</i>, which is shared between all records having the same field
+ * names. The values of those fields are held in a slot array, ordered in the
+ * same way as the fields of the shape (i.e. alphabetically).
+ * </p>
+ * 
+ * <p>
+ * Records constructed by compiled code are given their shape up front, and
+ * compiled field accesses are directed straight at the appropriate slot (see
+ * <code>get(WyRecord,int,String)</code>). A record can also be treated as an
+ * ordinary map from field names to values, in which case adding a new field
+ * moves it to an extended shape.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public final class WyRecord extends AbstractMap<String,Object> {	
 	/**
 	 * The reference count is use to indicate how many variables are currently
 	 * referencing this compound structure. This is useful for making imperative
@@ -36,35 +55,217 @@ public final class WyRecord extends HashMap<String,Object> {
 	 */
 	int refCount = 100; // temporary measure
 	
-	public WyRecord() {}
+	/**
+	 * The shape of this record, which determines what fields it has.
+	 */
+	private Shape shape;
+	
+	/**
+	 * The values of this record's fields, in the order determined by its
+	 * shape.
+	 */
+	private Object[] values;
 	
-	WyRecord(HashMap<String,Object> r) {
-		super(r);
-		for(Object item : r.values()) {
+	public WyRecord() {
+		this.shape = Shape.EMPTY;
+		this.values = new Object[0];
+	}
+	
+	/**
+	 * Construct a record of a given shape. The array of values is used
+	 * directly, and so must not be modified afterwards.
+	 * 
+	 * @param shape
+	 * @param values
+	 *            --- the value of each field, in the order determined by the
+	 *            shape.
+	 */
+	public WyRecord(Shape shape, Object[] values) {
+		if (values.length != shape.fields.length) {
+			throw new IllegalArgumentException(
+					"incorrect number of values for record shape");
+		}
+		this.shape = shape;
+		this.values = values;
+	}
+	
+	WyRecord(WyRecord r) {
+		this.shape = r.shape;
+		this.values = r.values.clone();
+		for(Object item : values) {
 			Util.incRefs(item);
 		}
 	}
 	
+	/**
+	 * Get the names of this record's fields, in alphabetical order. The
+	 * returned array must not be modified.
+	 * 
+	 * @return
+	 */
+	String[] fields() {
+		return shape.fields;
+	}
+	
 	// ================================================================================
 	// Generic Operations
 	// ================================================================================	 	
 		
 	public String toString() {
 		String r = "{";
-		boolean firstTime = true;
-
-		ArrayList<String> ss = new ArrayList<String>(keySet());
-		Collections.sort(ss);
-		for (String s : ss) {
-			if (!firstTime) {
+		String[] fields = shape.fields;
+		for (int i = 0; i != fields.length; ++i) {
+			if (i != 0) {
 				r = r + ",";
 			}
-			firstTime = false;
-			r = r + s + ":" + whiley.lang.Any$native.toString(get(s));
+			r = r + fields[i] + ":" + whiley.lang.Any$native.toString(values[i]);
 		}
 		return r + "}";
 	}
+	
+	public boolean equals(Object o) {
+		if (o instanceof WyRecord) {
+			WyRecord r = (WyRecord) o;
+			if (shape == r.shape) {
+				for (int i = 0; i != values.length; ++i) {
+					Object v1 = values[i];
+					Object v2 = r.values[i];
+					if (v1 == null ? v2 != null : !v1.equals(v2)) {
+						return false;
+					}
+				}
+				return true;
+			} else {
+				// distinct shapes always have distinct fields
+				return false;
+			}
+		}
+		return super.equals(o);
+	}
+	
+	public int hashCode() {
+		String[] fields = shape.fields;
+		int hash = 0;
+		for (int i = 0; i != fields.length; ++i) {
+			Object v = values[i];
+			hash += fields[i].hashCode() ^ (v == null ? 0 : v.hashCode());
+		}
+		return hash;
+	}
+	
+	// ================================================================================
+	// Map Operations
+	// ================================================================================	 	
+	
+	public int size() {
+		return values.length;
+	}
+	
+	public boolean containsKey(Object field) {
+		return field instanceof String && shape.indexOf((String) field) >= 0;
+	}
+	
+	public Object get(Object field) {
+		if (field instanceof String) {
+			int slot = shape.indexOf((String) field);
+			if (slot >= 0) {
+				return values[slot];
+			}
+		}
+		return null;
+	}
+	
+	public Object put(String field, Object value) {
+		int slot = shape.indexOf(field);
+		if (slot >= 0) {
+			Object old = values[slot];
+			values[slot] = value;
+			return old;
+		}
+		// new field, so move to extended shape
+		Shape nshape = shape.extend(field);
+		slot = nshape.indexOf(field);
+		Object[] nvalues = new Object[values.length + 1];
+		System.arraycopy(values, 0, nvalues, 0, slot);
+		System.arraycopy(values, slot, nvalues, slot + 1, values.length - slot);
+		nvalues[slot] = value;
+		shape = nshape;
+		values = nvalues;
+		return null;
+	}
+	
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			public int size() {
+				return values.length;
+			}
+
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new Iterator<Map.Entry<String, Object>>() {
+					private int slot = 0;
+
+					public boolean hasNext() {
+						return slot < values.length;
+					}
+
+					public Map.Entry<String, Object> next() {
+						if (slot >= values.length) {
+							throw new NoSuchElementException();
+						}
+						return new Entry(slot++);
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException(
+								"cannot remove record field");
+					}
+				};
+			}
+		};
+	}
+	
+	private final class Entry implements Map.Entry<String, Object> {
+		private final int slot;
+		
+		public Entry(int slot) {
+			this.slot = slot;
+		}
 		
+		public String getKey() {
+			return shape.fields[slot];
+		}
+		
+		public Object getValue() {
+			return values[slot];
+		}
+		
+		public Object setValue(Object value) {
+			Object old = values[slot];
+			values[slot] = value;
+			return old;
+		}
+		
+		public boolean equals(Object o) {
+			if (o instanceof Map.Entry) {
+				Map.Entry e = (Map.Entry) o;
+				Object v = getValue();
+				return getKey().equals(e.getKey())
+						&& (v == null ? e.getValue() == null : v.equals(e
+								.getValue()));
+			}
+			return false;
+		}
+		
+		public int hashCode() {
+			Object v = getValue();
+			return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+		}
+		
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+	
 	// ================================================================================
 	// Record Operations
 	// ================================================================================	 	
@@ -75,20 +276,78 @@ public final class WyRecord extends HashMap<String,Object> {
 		return item;
 	}
 	
+	/**
+	 * Get the value of a field, which is expected to be held in a given slot.
+	 * This is the case whenever the record has the shape of the closed record
+	 * type through which it is accessed. Otherwise, the field is looked up by
+	 * name.
+	 * 
+	 * @param record
+	 * @param slot
+	 *            --- slot expected to hold the field.
+	 * @param field
+	 *            --- name of the field, which must be interned.
+	 * @return
+	 */
+	public static Object get(final WyRecord record, final int slot, final String field) {
+		Object item = record.values[record.slot(slot, field)];
+		Util.incRefs(item);
+		return item;
+	}
+	
 	public static WyRecord put(WyRecord record, final String field, final Object value) {
-		Util.countRefs(record);
-		if(record.refCount > 0) {
-			Util.countClone(record);			
-			record = new WyRecord(record);			
-		} else {
-			Util.nrecord_strong_updates++;
-		}
+		return put(record, field, value, false);
+	}
+	
+	/**
+	 * Update a field of a record. When the compiler has determined that the
+	 * caller holds the only reference to the record, it is updated in place
+	 * rather than being cloned.
+	 * 
+	 * @param record
+	 * @param field
+	 * @param value
+	 * @param owned
+	 *            --- true if the record is not referenced from anywhere else.
+	 * @return
+	 */
+	public static WyRecord put(WyRecord record, final String field, final Object value, final boolean owned) {
+		record = prepare(record, owned);
 		Object val = record.put(field, value);
 		Util.decRefs(val); // decrement overwritten value
 		Util.incRefs(value);
 		return record;
 	}
 	
+	public static WyRecord put(WyRecord record, final int slot, final String field, final Object value) {
+		return put(record, slot, field, value, false);
+	}
+	
+	/**
+	 * Update a field of a record, which is expected to be held in a given slot.
+	 * See <code>get(WyRecord,int,String)</code> for more on this.
+	 * 
+	 * @param record
+	 * @param slot
+	 * @param field
+	 * @param value
+	 * @param owned
+	 *            --- true if the record is not referenced from anywhere else.
+	 * @return
+	 */
+	public static WyRecord put(WyRecord record, final int slot, final String field, final Object value, final boolean owned) {
+		int s = record.slot(slot, field);
+		if (s < 0) {
+			return put(record, field, value, owned);
+		}
+		record = prepare(record, owned);
+		Object val = record.values[s];
+		record.values[s] = value;
+		Util.decRefs(val); // decrement overwritten value
+		Util.incRefs(value);
+		return record;
+	}
+	
 	public static Object internal_get(final WyRecord record, final String field) {
 		Object item = record.get(field);
 		if(record.refCount > 0) {
@@ -96,4 +355,149 @@ public final class WyRecord extends HashMap<String,Object> {
 		}
 		return item;		
 	}
+	
+	public static Object internal_get(final WyRecord record, final int slot, final String field) {
+		Object item = record.values[record.slot(slot, field)];
+		if(record.refCount > 0) {
+			Util.incRefs(item);
+		}
+		return item;		
+	}
+	
+	/**
+	 * Clone a record which is about to be updated, unless it can be updated in
+	 * place.
+	 * 
+	 * @param record
+	 * @param owned
+	 * @return
+	 */
+	private static WyRecord prepare(WyRecord record, final boolean owned) {
+		Util.countRefs(record);
+		if(!owned && record.refCount > 0) {
+			Util.countClone(record);			
+			return new WyRecord(record);			
+		} else {
+			Util.nrecord_strong_updates++;
+			return record;
+		}
+	}
+	
+	/**
+	 * Determine the slot holding a given field, which is expected to be in a
+	 * given slot. Since field names in both shapes and compiled code are
+	 * interned, a reference comparison suffices to check this.
+	 * 
+	 * @param slot
+	 * @param field
+	 * @return
+	 */
+	private int slot(int slot, String field) {
+		String[] fields = shape.fields;
+		if (slot < fields.length && fields[slot] == field) {
+			return slot;
+		} else {
+			return shape.indexOf(field);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Describes the fields of a record. There is exactly one shape for any
+	 * given set of field names, and this is shared by all records with those
+	 * fields. Shapes are created on demand, and never discarded.
+	 * </p>
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	public static final class Shape {
+		private static final HashMap<List<String>, Shape> shapes = new HashMap<List<String>, Shape>();
+		
+		/**
+		 * The shape of a record with no fields.
+		 */
+		static final Shape EMPTY = get();
+		
+		/**
+		 * The field names of this shape in alphabetical order, all of which are
+		 * interned.
+		 */
+		final String[] fields;
+		
+		/**
+		 * Maps each field name to its slot.
+		 */
+		private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+		
+		/**
+		 * Caches the shapes obtained by adding a field to this shape.
+		 */
+		private final HashMap<String, Shape> extensions = new HashMap<String, Shape>();
+		
+		private Shape(String[] fields) {
+			this.fields = fields;
+			for (int i = 0; i != fields.length; ++i) {
+				index.put(fields[i], i);
+			}
+		}
+		
+		/**
+		 * Get the shape with the given field names, which may be in any order.
+		 * 
+		 * @param fields
+		 * @return
+		 */
+		public static Shape get(String... fields) {
+			String[] fs = new String[fields.length];
+			for (int i = 0; i != fields.length; ++i) {
+				fs[i] = fields[i].intern();
+			}
+			Arrays.sort(fs);
+			List<String> key = Arrays.asList(fs);
+			synchronized (shapes) {
+				Shape shape = shapes.get(key);
+				if (shape == null) {
+					shape = new Shape(fs);
+					shapes.put(key, shape);
+				}
+				return shape;
+			}
+		}
+		
+		/**
+		 * Get the slot of a given field, or -1 if there is no such field.
+		 * 
+		 * @param field
+		 * @return
+		 */
+		int indexOf(String field) {
+			for (int i = 0; i != fields.length; ++i) {
+				if (fields[i] == field) {
+					return i;
+				}
+			}
+			Integer slot = index.get(field);
+			return slot == null ? -1 : slot;
+		}
+		
+		/**
+		 * Get the shape obtained by adding a given field to this shape.
+		 * 
+		 * @param field
+		 * @return
+		 */
+		Shape extend(String field) {
+			synchronized (extensions) {
+				Shape shape = extensions.get(field);
+				if (shape == null) {
+					String[] fs = Arrays.copyOf(fields, fields.length + 1);
+					fs[fields.length] = field;
+					shape = get(fs);
+					extensions.put(field, shape);
+				}
+				return shape;
+			}
+		}
+	}
 }
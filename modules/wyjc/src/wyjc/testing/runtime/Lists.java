@@ -0,0 +1,107 @@
+package wyjc.testing.runtime;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import org.junit.*;
+import wyjc.runtime.WyList;
+
+/**
+ * Unit tests for the WyList class, particularly that its primitive storage
+ * behaves the same as a list of boxed elements.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class Lists {
+
+	/**
+	 * Test that the hash code of a list of longs matches that of the same
+	 * elements boxed as BigIntegers.
+	 */
+	@Test public void longsHashCode() {
+		WyList list = new WyList();
+		ArrayList<BigInteger> boxed = new ArrayList<BigInteger>();
+		for(long v : inputs) {
+			list.add(BigInteger.valueOf(v));
+			boxed.add(BigInteger.valueOf(v));
+			assertEquals(WyList.LONGS, list.kind());
+			assertEquals(boxed.hashCode(), list.hashCode());
+			assertEquals(boxed, list);
+		}
+	}
+
+	/**
+	 * Test that the hash code of a list is unchanged when its storage is
+	 * widened, so that equal lists always have equal hash codes.
+	 */
+	@Test public void widenedHashCode() {
+		WyList longs = new WyList();
+		WyList objects = new WyList();
+		objects.add(BigInteger.ONE.shiftLeft(100));
+		objects.remove(0);
+		for(long v : inputs) {
+			longs.add(BigInteger.valueOf(v));
+			objects.add(BigInteger.valueOf(v));
+		}
+		assertEquals(WyList.OBJECTS, objects.kind());
+		assertEquals(longs, objects);
+		assertEquals(longs.hashCode(), objects.hashCode());
+	}
+
+	/**
+	 * Test that the primitive accessor agrees with the boxed one, and signals
+	 * elements which do not fit into a long.
+	 */
+	@Test public void getLong() {
+		WyList list = new WyList();
+		for(long v : inputs) {
+			list.add(BigInteger.valueOf(v));
+		}
+		for(int i=0;i!=inputs.length;++i) {
+			assertEquals(inputs[i], WyList.getLong(list, i));
+		}
+		BigInteger big = BigInteger.ONE.shiftLeft(64);
+		list.add(big);
+		assertEquals(Long.MIN_VALUE, WyList.getLong(list, inputs.length));
+		assertEquals(big, WyList.get(list, inputs.length));
+		assertEquals(inputs[1], WyList.getLong(list, 1));
+		try {
+			WyList.getLong(list, 1L << 32);
+			fail("index out of bounds");
+		} catch(IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that the hash codes of byte and char lists match those of their
+	 * boxed elements.
+	 */
+	@Test public void bytesAndCharsHashCode() {
+		WyList bytes = new WyList();
+		WyList chars = new WyList();
+		ArrayList<Object> boxedBytes = new ArrayList<Object>();
+		ArrayList<Object> boxedChars = new ArrayList<Object>();
+		for(long v : inputs) {
+			bytes.add((byte) v);
+			boxedBytes.add((byte) v);
+			chars.add((char) v);
+			boxedChars.add((char) v);
+		}
+		assertEquals(WyList.BYTES, bytes.kind());
+		assertEquals(WyList.CHARS, chars.kind());
+		assertEquals(boxedBytes.hashCode(), bytes.hashCode());
+		assertEquals(boxedChars.hashCode(), chars.hashCode());
+	}
+
+	private static final long[] inputs = {
+		0, 1, -1, 2, -2, 127, -128, 1024, 65535,
+		Integer.MAX_VALUE, Integer.MIN_VALUE,
+		(long) Integer.MAX_VALUE + 1, (long) Integer.MIN_VALUE - 1,
+		1L << 32, -(1L << 32), 0xFFFFFFFFL, -0xFFFFFFFFL,
+		1234567890123456789L, -1234567890123456789L,
+		Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1
+	};
+}
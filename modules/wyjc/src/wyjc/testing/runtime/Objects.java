@@ -0,0 +1,98 @@
+package wyjc.testing.runtime;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import org.junit.*;
+import wyjc.runtime.WyObject;
+
+/**
+ * Unit tests for the WyObject class, particularly that a failure whilst
+ * processing a message is reported to the sender, and does not stop the
+ * object from processing further messages.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class Objects {
+
+	public static Object increment(WyObject self) {
+		BigInteger v = (BigInteger) self.state();
+		self.setState(v.add(BigInteger.ONE));
+		return self.state();
+	}
+
+	public static Object raise(WyObject self) {
+		throw new IllegalStateException("raised");
+	}
+
+	public static Object error(WyObject self) {
+		throw new AssertionError("error");
+	}
+
+	/**
+	 * Test that synchronous messages are processed in order, and return their
+	 * results.
+	 */
+	@Test(timeout = 10000) public void syncSend() throws Exception {
+		WyObject o = new WyObject(BigInteger.ZERO);
+		for (int i = 1; i != 100; ++i) {
+			assertEquals(BigInteger.valueOf(i),
+					o.syncSend(method("increment"), new Object[1]));
+		}
+	}
+
+	/**
+	 * Test that an exception raised by a message is rethrown in a synchronous
+	 * sender.
+	 */
+	@Test(timeout = 10000) public void exception() throws Exception {
+		WyObject o = new WyObject(BigInteger.ZERO);
+		try {
+			o.syncSend(method("raise"), new Object[1]);
+			fail("exception not propagated");
+		} catch (IllegalStateException e) {
+			assertEquals("raised", e.getMessage());
+		}
+		assertEquals(BigInteger.ONE,
+				o.syncSend(method("increment"), new Object[1]));
+	}
+
+	/**
+	 * Test that an error raised by a message is rethrown, as is, in a
+	 * synchronous sender.
+	 */
+	@Test(timeout = 10000) public void error() throws Exception {
+		WyObject o = new WyObject(BigInteger.ZERO);
+		try {
+			o.vSyncSend(method("error"), new Object[1]);
+			fail("error not propagated");
+		} catch (AssertionError e) {
+			assertEquals("error", e.getMessage());
+		}
+		assertEquals(BigInteger.ONE,
+				o.syncSend(method("increment"), new Object[1]));
+	}
+
+	/**
+	 * Test that a failure in the reflective call itself (here, because the
+	 * arguments don't match) is also rethrown in a synchronous sender, and
+	 * that the object remains scheduled for later messages.
+	 */
+	@Test(timeout = 10000) public void badArguments() throws Exception {
+		WyObject o = new WyObject(BigInteger.ZERO);
+		try {
+			o.syncSend(method("increment"), new Object[2]);
+			fail("exception not propagated");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(BigInteger.ONE,
+				o.syncSend(method("increment"), new Object[1]));
+	}
+
+	private static Method method(String name) throws NoSuchMethodException {
+		return Objects.class.getMethod(name, WyObject.class);
+	}
+}
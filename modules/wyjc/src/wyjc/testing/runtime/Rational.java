@@ -2,6 +2,10 @@ package wyjc.testing.runtime;
 
 import static org.junit.Assert.*;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.Random;
 import org.junit.*;
 import wyjc.runtime.WyRat;
@@ -25,6 +29,176 @@ public class Rational {
 		}
 	}
 
+	/**
+	 * Test that rationals are normalised however they are constructed, so
+	 * that equal values have the same numerator, denominator and hash code.
+	 */
+	@Test public void normalisation() {
+		checkEquals(WyRat.valueOf(-2, 3), WyRat.valueOf(4, -6));
+		checkEquals(WyRat.valueOf(-2, 3), new WyRat(6, -9));
+		checkEquals(WyRat.valueOf(1, 2), new WyRat("0.50"));
+		checkEquals(WyRat.valueOf(3), WyRat.valueOf(12, 4));
+		checkEquals(WyRat.ZERO, WyRat.valueOf(0, -5));
+		assertEquals(BigInteger.ONE, WyRat.valueOf(0, -5).denominator());
+		checkEquals(WyRat.valueOf(Long.MAX_VALUE, Long.MAX_VALUE), WyRat.ONE);
+		checkEquals(WyRat.valueOf(Long.MIN_VALUE, -2),
+				WyRat.valueOf(BigInteger.ONE.shiftLeft(62)));
+		checkEquals(WyRat.valueOf(Long.MIN_VALUE, Long.MIN_VALUE), WyRat.ONE);
+		checkEquals(new WyRat(BigInteger.ONE.shiftLeft(100),
+				BigInteger.ONE.shiftLeft(99)), WyRat.valueOf(2));
+		for (WyRat r : rationals()) {
+			BigInteger n = r.numerator();
+			BigInteger d = r.denominator();
+			assertEquals(1, d.signum());
+			assertEquals(BigInteger.ONE, n.gcd(d));
+			checkEquals(r, new WyRat(n, d));
+		}
+	}
+
+	/**
+	 * Test that arithmetic agrees with that on arbitrary precision integers,
+	 * particularly when the operands or results are on the boundary between
+	 * small and large rationals.
+	 */
+	@Test public void arithmetic() {
+		ArrayList<WyRat> rs = rationals();
+		for (WyRat a : rs) {
+			BigInteger an = a.numerator();
+			BigInteger ad = a.denominator();
+			checkEquals(new WyRat(an.negate(), ad), a.negate());
+			for (WyRat b : rs) {
+				BigInteger bn = b.numerator();
+				BigInteger bd = b.denominator();
+				checkEquals(new WyRat(an.multiply(bd).add(bn.multiply(ad)),
+						ad.multiply(bd)), a.add(b));
+				checkEquals(new WyRat(an.multiply(bd).subtract(bn.multiply(ad)),
+						ad.multiply(bd)), a.subtract(b));
+				checkEquals(new WyRat(an.multiply(bn), ad.multiply(bd)),
+						a.multiply(b));
+				if (bn.signum() != 0) {
+					checkEquals(new WyRat(an.multiply(bd), ad.multiply(bn)),
+							a.divide(b));
+				}
+				assertEquals(an.multiply(bd).compareTo(bn.multiply(ad)),
+						a.compareTo(b));
+			}
+		}
+	}
+
+	/**
+	 * Test that arithmetic with an integer operand agrees with that on an
+	 * equivalent rational.
+	 */
+	@Test public void integerArithmetic() {
+		for (WyRat a : rationals()) {
+			for (long v : longs) {
+				WyRat b = WyRat.valueOf(BigInteger.valueOf(v));
+				BigInteger big = BigInteger.valueOf(v);
+				checkEquals(a.add(b), a.add(v));
+				checkEquals(a.add(b), a.add(big));
+				checkEquals(a.subtract(b), a.subtract(v));
+				checkEquals(a.subtract(b), a.subtract(big));
+				checkEquals(a.multiply(b), a.multiply(v));
+				checkEquals(a.multiply(b), a.multiply(big));
+				if (v != 0) {
+					checkEquals(a.divide(b), a.divide(v));
+					checkEquals(a.divide(b), a.divide(big));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that results which overflow a long are computed exactly.
+	 */
+	@Test public void overflow() {
+		WyRat max = WyRat.valueOf(Long.MAX_VALUE);
+		WyRat min = WyRat.valueOf(Long.MIN_VALUE);
+		BigInteger bmax = BigInteger.valueOf(Long.MAX_VALUE);
+		BigInteger bmin = BigInteger.valueOf(Long.MIN_VALUE);
+		assertEquals(bmax.add(BigInteger.ONE), max.add(1).numerator());
+		assertEquals(bmin.subtract(BigInteger.ONE), min.subtract(1).numerator());
+		assertEquals(bmin.negate(), min.negate().numerator());
+		assertEquals(bmax.multiply(bmax), max.multiply(max).numerator());
+		assertEquals(bmin.multiply(bmin), min.multiply(Long.MIN_VALUE).numerator());
+		WyRat r = WyRat.valueOf(1, Long.MAX_VALUE).divide(Long.MAX_VALUE);
+		assertEquals(BigInteger.ONE, r.numerator());
+		assertEquals(bmax.multiply(bmax), r.denominator());
+		// and back again
+		checkEquals(WyRat.ONE, r.multiply(max).multiply(max));
+		checkEquals(WyRat.valueOf(Long.MAX_VALUE), max.add(1).subtract(1));
+		WyRat half = WyRat.valueOf(1, 2);
+		WyRat big = WyRat.valueOf(1L << 62);
+		assertEquals(BigInteger.ONE.shiftLeft(63), big.add(big).numerator());
+		checkEquals(big, big.add(big).multiply(half));
+	}
+
+	/**
+	 * Test the rounding and integer operations against those on arbitrary
+	 * precision numbers.
+	 */
+	@Test public void rounding() {
+		for (WyRat a : rationals()) {
+			BigDecimal n = new BigDecimal(a.numerator());
+			BigDecimal d = new BigDecimal(a.denominator());
+			assertEquals(n.divide(d, 0, RoundingMode.FLOOR).toBigInteger(),
+					a.floor().numerator());
+			assertEquals(n.divide(d, 0, RoundingMode.CEILING).toBigInteger(),
+					a.ceil().numerator());
+			assertEquals(a.denominator().equals(BigInteger.ONE), a.isInteger());
+		}
+		for (long x : longs) {
+			for (long y : longs) {
+				if (y == 0) {
+					continue;
+				}
+				BigInteger bx = BigInteger.valueOf(x);
+				BigInteger by = BigInteger.valueOf(y);
+				WyRat rx = WyRat.valueOf(bx);
+				WyRat ry = WyRat.valueOf(by);
+				checkEquals(WyRat.valueOf(bx.divide(by)), rx.intDivide(ry));
+				checkEquals(WyRat.valueOf(bx.remainder(by)),
+						rx.intRemainder(ry));
+			}
+		}
+	}
+
+	private static void checkEquals(WyRat expected, WyRat actual) {
+		assertEquals(expected, actual);
+		assertEquals(expected.numerator(), actual.numerator());
+		assertEquals(expected.denominator(), actual.denominator());
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertEquals(0, expected.compareTo(actual));
+	}
+
+	/**
+	 * Construct rationals from every pair of interesting values, along with
+	 * some random ones.
+	 */
+	private static ArrayList<WyRat> rationals() {
+		ArrayList<WyRat> rs = new ArrayList<WyRat>();
+		for (long n : longs) {
+			for (long d : longs) {
+				if (d != 0) {
+					rs.add(WyRat.valueOf(n, d));
+				}
+			}
+		}
+		Random random = new Random(1);
+		for (int i = 0; i != 50; ++i) {
+			long n = random.nextLong() >> random.nextInt(64);
+			long d = random.nextLong() >> random.nextInt(64);
+			rs.add(WyRat.valueOf(n, d == 0 ? 1 : d));
+		}
+		return rs;
+	}
+
+	private static final long[] longs = {
+		0, 1, -1, 2, -3, 10, -12, 1L << 31, -(1L << 31) - 1,
+		(1L << 61) + 1, (1L << 62) - 1, -(1L << 62), 1L << 62,
+		3L << 60, Long.MAX_VALUE, Long.MIN_VALUE
+	};
+
 	private static final double[] inputs = {
 		-49344248.0d,
 		936756104.0d,
@@ -0,0 +1,153 @@
+package wyjc.testing.runtime;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.*;
+import wyjc.runtime.WyRecord;
+
+/**
+ * Unit tests for the WyRecord class, particularly that fields are found in
+ * the right slot whether or not a record has the shape the compiled code
+ * expects.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class Records {
+
+	/**
+	 * Test that there is exactly one shape for any set of field names,
+	 * regardless of the order in which they are given.
+	 */
+	@Test public void shapesShared() {
+		WyRecord.Shape s1 = WyRecord.Shape.get("x", "y", "z");
+		WyRecord.Shape s2 = WyRecord.Shape.get("z", "x", "y");
+		WyRecord.Shape s3 = WyRecord.Shape.get(new String("y"), "z",
+				new String("x"));
+		assertSame(s1, s2);
+		assertSame(s1, s3);
+		assertNotSame(s1, WyRecord.Shape.get("x", "y"));
+	}
+
+	/**
+	 * Test that the slots of a shape follow the alphabetical order of its
+	 * fields, and that a field is found in its expected slot.
+	 */
+	@Test public void expectedSlot() {
+		WyRecord.Shape shape = WyRecord.Shape.get("y", "x", "z");
+		WyRecord r = new WyRecord(shape, new Object[] { one, two, three });
+		assertEquals(one, WyRecord.get(r, 0, "x"));
+		assertEquals(two, WyRecord.get(r, 1, "y"));
+		assertEquals(three, WyRecord.get(r, 2, "z"));
+		ArrayList<String> keys = new ArrayList<String>();
+		for (Map.Entry<String, Object> e : r.entrySet()) {
+			keys.add(e.getKey());
+		}
+		assertEquals(Arrays.asList("x", "y", "z"), keys);
+	}
+
+	/**
+	 * Test that a field is still found when the record does not have the
+	 * shape the compiled code expects, as happens when it is accessed through
+	 * an open record type.
+	 */
+	@Test public void unexpectedSlot() {
+		WyRecord r = new WyRecord(WyRecord.Shape.get("a", "x", "y"),
+				new Object[] { one, two, three });
+		// compiled against {int x, int y, ...}, so expects x in slot 0
+		assertEquals(two, WyRecord.get(r, 0, "x"));
+		assertEquals(three, WyRecord.get(r, 1, "y"));
+		// slots beyond the end of the record
+		WyRecord s = new WyRecord(WyRecord.Shape.get("y"),
+				new Object[] { one });
+		assertEquals(one, WyRecord.get(s, 5, "y"));
+	}
+
+	/**
+	 * Test that field names which are not interned are found when the record
+	 * is used as an ordinary map.
+	 */
+	@Test public void mapLookup() {
+		WyRecord r = new WyRecord(WyRecord.Shape.get("x", "y"),
+				new Object[] { one, two });
+		assertEquals(two, r.get(new String("y")));
+		assertTrue(r.containsKey(new String("x")));
+		assertFalse(r.containsKey("z"));
+		assertFalse(r.containsKey(1));
+		assertNull(r.get("z"));
+	}
+
+	/**
+	 * Test that updating a field in its expected slot, or in an unexpected
+	 * one, leaves the original record unchanged unless it is owned.
+	 */
+	@Test public void slotUpdate() {
+		WyRecord r = new WyRecord(WyRecord.Shape.get("x", "y"),
+				new Object[] { one, two });
+		WyRecord s = WyRecord.put(r, 1, "y", three);
+		assertNotSame(r, s);
+		assertEquals(two, r.get("y"));
+		assertEquals(three, s.get("y"));
+		WyRecord t = WyRecord.put(s, 0, "y", one, true);
+		assertSame(s, t);
+		assertEquals(one, t.get("y"));
+		assertEquals(one, t.get("x"));
+	}
+
+	/**
+	 * Test that updating a field which the record does not have moves it to
+	 * the extended shape, with existing fields shifted to their new slots.
+	 */
+	@Test public void extendShape() {
+		WyRecord r = new WyRecord(WyRecord.Shape.get("a", "z"),
+				new Object[] { one, three });
+		WyRecord s = WyRecord.put(r, 1, "m", two);
+		assertEquals(2, r.size());
+		assertEquals(3, s.size());
+		assertEquals(one, WyRecord.get(s, 0, "a"));
+		assertEquals(two, WyRecord.get(s, 1, "m"));
+		assertEquals(three, WyRecord.get(s, 2, "z"));
+		WyRecord t = new WyRecord(WyRecord.Shape.get("z", "m", "a"),
+				new Object[] { one, two, three });
+		assertEquals(t, s);
+		assertEquals(t.hashCode(), s.hashCode());
+	}
+
+	/**
+	 * Test that records of the same fields are equal however they were built,
+	 * and equal to ordinary maps with the same entries.
+	 */
+	@Test public void equality() {
+		WyRecord r = new WyRecord();
+		r.put("y", two);
+		r.put("x", one);
+		WyRecord s = new WyRecord(WyRecord.Shape.get("x", "y"),
+				new Object[] { one, two });
+		HashMap<String, Object> m = new HashMap<String, Object>();
+		m.put("x", one);
+		m.put("y", two);
+		assertEquals(s, r);
+		assertEquals(m, r);
+		assertEquals(r, m);
+		assertEquals(m.hashCode(), r.hashCode());
+		assertEquals(s.hashCode(), r.hashCode());
+	}
+
+	/**
+	 * Test that a record cannot be constructed with the wrong number of values
+	 * for its shape.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongArity() {
+		new WyRecord(WyRecord.Shape.get("x", "y"), new Object[] { one });
+	}
+
+	private static final BigInteger one = BigInteger.valueOf(1);
+	private static final BigInteger two = BigInteger.valueOf(2);
+	private static final BigInteger three = BigInteger.valueOf(3);
+}
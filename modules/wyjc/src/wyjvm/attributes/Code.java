@@ -458,6 +458,13 @@ public class Code implements BytecodeAttribute {
 				h.end = hend;
 			}											
 		}
+		
+		// Finally, update any attributes which refer to bytecode indices
+		for (BytecodeAttribute a : attributes) {
+			if (a instanceof BytecodeMapAttribute) {
+				((BytecodeMapAttribute) a).apply(rewrites);
+			}
+		}
 	}
 	
 	public void print(PrintWriter output,
@@ -50,8 +50,28 @@ public class LineNumberTable implements Code.BytecodeMapAttribute {
 		this.entries = new ArrayList<Entry>(entries);
 	}
 	
+	/**
+	 * Update the entries to reflect a list of rewrites (see
+	 * <code>Code.apply()</code>). An entry whose bytecode is removed is moved
+	 * to the next bytecode which survives, since that now starts the line.
+	 * 
+	 * @param rewrites
+	 */
 	public void apply(List<Code.Rewrite> rewrites) {
-		// FIXME: this should be implemented		
+		ArrayList<Entry> nentries = new ArrayList<Entry>();
+		for (Entry e : entries) {
+			int start = e.start;
+			for (Code.Rewrite rw : rewrites) {
+				if (e.start >= rw.start + rw.length) {
+					start -= rw.length - rw.bytecodes.length;
+				} else if (e.start >= rw.start) {
+					int offset = e.start - rw.start;
+					start -= offset - Math.min(offset, rw.bytecodes.length);
+				}
+			}
+			nentries.add(new Entry(start, e.line));
+		}
+		entries = nentries;
 	}
 	
 	public List<Entry> entries() {
@@ -25,13 +25,15 @@
 
 package wyjvm.attributes;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import wybs.io.BinaryOutputStream;
-import wyjvm.lang.BytecodeAttribute;
 import wyjvm.lang.Constant;
 import wyjvm.lang.Constant.Info;
 import wyjvm.lang.JvmType;
@@ -40,13 +42,30 @@ import wyjvm.lang.JvmType;
  * Consists of zero or more stack map frames. Each stack map frame specifies
  * (either explicitly or implicitly) a bytecode offset, the verification types
  * for the local variables, and the verification types for the operand stack.
+ * Every frame is written as a <code>full_frame</code>, since the more compact
+ * forms offer little benefit for generated code.
  * 
  * @author David J. Pearce
  * 
  */
-public class StackMapTable implements BytecodeAttribute {
-	private final Frame[] frames;
+public class StackMapTable implements Code.BytecodeMapAttribute {
+	private static final int ITEM_TOP = 0;
+	private static final int ITEM_INTEGER = 1;
+	private static final int ITEM_FLOAT = 2;
+	private static final int ITEM_DOUBLE = 3;
+	private static final int ITEM_LONG = 4;
+	private static final int ITEM_NULL = 5;
+	private static final int ITEM_OBJECT = 7;
+	private static final int FULL_FRAME = 255;
 	
+	private Frame[] frames;
+	
+	/**
+	 * Construct a StackMapTable from an array of frames, one for each bytecode
+	 * index. Bytecodes which do not require a frame have a null entry.
+	 * 
+	 * @param frames
+	 */
 	public StackMapTable(Frame[] frames) {
 		this.frames = frames.clone(); 
 	}
@@ -54,37 +73,160 @@ public class StackMapTable implements BytecodeAttribute {
 
 	@Override
 	public String name() {
-		// FIXME: put back the right name when the attribute is written properly
-		// to disk.
-		return "StackMapTable2";
+		return "StackMapTable";
 	}
 
+	/**
+	 * Update the frames to reflect a list of rewrites (see
+	 * <code>Code.apply()</code>). Frames after a rewrite are shifted with the
+	 * bytecodes, and the frame at the start of a rewrite is kept, since the
+	 * state on entry is unchanged. Frames of bytecodes which are removed
+	 * altogether are dropped, since nothing can branch to them. However, there
+	 * is no way to determine the frame of a bytecode part way through a
+	 * replacement sequence, and so such rewrites are rejected.
+	 * 
+	 * @param rewrites
+	 */
+	public void apply(List<Code.Rewrite> rewrites) {
+		ArrayList<Frame> nframes = new ArrayList<Frame>();
+		int index = 0;
+		for (Code.Rewrite rw : rewrites) {
+			for (; index < rw.start; ++index) {
+				nframes.add(frames[index]);
+			}
+			for (int i = 0; i != rw.bytecodes.length; ++i) {
+				Frame frame = i < rw.length ? frames[index + i] : null;
+				if (i > 0 && frame != null) {
+					throw new IllegalArgumentException(
+							"Attempt to rewrite a bytecode which has a stack map frame!");
+				}
+				nframes.add(frame);
+			}
+			index += rw.length;
+		}
+		for (; index < frames.length; ++index) {
+			nframes.add(frames[index]);
+		}
+		frames = nframes.toArray(new Frame[nframes.size()]);
+	}
+	
 	@Override
 	public void write(BinaryOutputStream writer,
 			Map<Info, Integer> constantPool, ClassLoader loader)
 			throws IOException {
-		// TODO: implement me!		
-		// only empty attribute written
+		// should never be called
+	}
+	
+	public void write(int[] bytecodeOffsets, BinaryOutputStream writer,
+			Map<Info, Integer> constantPool, ClassLoader loader)
+			throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		BinaryOutputStream out = new BinaryOutputStream(bout);
+		int count = 0;
+		int last = -1;
+		for (int i = 0; i != frames.length; ++i) {
+			Frame frame = frames[i];
+			if (frame == null || bytecodeOffsets[i] == last) {
+				continue;
+			}
+			int offset = bytecodeOffsets[i];
+			out.write_u8(FULL_FRAME);
+			out.write_u16(last < 0 ? offset : offset - last - 1);
+			// Wide types occupy two local variable slots, but only one entry
+			// in the frame. Likewise, trailing unused slots can be omitted.
+			int numLocals = frame.numLocals;
+			while (numLocals > 0
+					&& frame.types[numLocals - 1] instanceof JvmType.Void) {
+				numLocals = numLocals - 1;
+			}
+			int entries = 0;
+			for (int j = 0; j < numLocals; j += slotSize(frame.types[j])) {
+				entries++;
+			}
+			out.write_u16(entries);
+			for (int j = 0; j < numLocals; j += slotSize(frame.types[j])) {
+				write(frame.types[j], out, constantPool);
+			}
+			out.write_u16(frame.numStackItems);
+			for (int j = 0; j != frame.numStackItems; ++j) {
+				write(frame.types[frame.numLocals + j], out, constantPool);
+			}
+			last = offset;
+			count++;
+		}
+		out.flush();
+		byte[] bytes = bout.toByteArray();
 		writer.write_u16(constantPool.get(new Constant.Utf8(name())));
-		writer.write_u32(0);
+		writer.write_u32(2 + bytes.length);
+		writer.write_u16(count);
+		writer.write(bytes);
 	}
 
+	private static void write(JvmType type, BinaryOutputStream out,
+			Map<Info, Integer> constantPool) throws IOException {
+		if (type instanceof JvmType.Int || type instanceof JvmType.Bool
+				|| type instanceof JvmType.Char || type instanceof JvmType.Byte
+				|| type instanceof JvmType.Short) {
+			out.write_u8(ITEM_INTEGER);
+		} else if (type instanceof JvmType.Float) {
+			out.write_u8(ITEM_FLOAT);
+		} else if (type instanceof JvmType.Double) {
+			out.write_u8(ITEM_DOUBLE);
+		} else if (type instanceof JvmType.Long) {
+			out.write_u8(ITEM_LONG);
+		} else if (type instanceof JvmType.Null) {
+			out.write_u8(ITEM_NULL);
+		} else if (type instanceof JvmType.Clazz
+				|| type instanceof JvmType.Array) {
+			out.write_u8(ITEM_OBJECT);
+			out.write_u16(constantPool.get(Constant
+					.buildClass((JvmType.Reference) type)));
+		} else {
+			out.write_u8(ITEM_TOP);
+		}
+	}
+	
+	private static int slotSize(JvmType type) {
+		if (type instanceof JvmType.Long || type instanceof JvmType.Double) {
+			return 2;
+		} else {
+			return 1;
+		}
+	}
+	
 	@Override
 	public void addPoolItems(Set<Info> constantPool, ClassLoader loader) {
-		// TODO: implement me!
 		Constant.addPoolItem(new Constant.Utf8(name()), constantPool);
+		for (Frame frame : frames) {
+			if (frame != null) {
+				for (JvmType type : frame.types) {
+					if (type instanceof JvmType.Clazz
+							|| type instanceof JvmType.Array) {
+						Constant.addPoolItem(Constant
+								.buildClass((JvmType.Reference) type),
+								constantPool);
+					}
+				}
+			}
+		}
 	}
 
 	@Override
 	public void print(PrintWriter output, Map<Info, Integer> constantPool,
 			ClassLoader loader) throws IOException {
-		// TODO: implement me!		
+		output.println("  StackMapTable:");
+		for (int i = 0; i != frames.length; ++i) {
+			if (frames[i] != null) {
+				output.println("   " + i + ": " + frames[i]);
+			}
+		}
 	}
 	
 	/**
 	 * Returns the stack frame at the given bytecode index. Observe that this is
 	 * not the bytecode offset; rather, it's the index into the array returned
-	 * by <code>Code.bytecodes</code>.
+	 * by <code>Code.bytecodes</code>. If no frame is required at that index,
+	 * then null is returned.
 	 * 
 	 * @param index
 	 * @return
@@ -107,6 +107,11 @@ public abstract class Bytecode {
 			ByteArrayOutputStream out = new ByteArrayOutputStream();					
 			if(slot >= 0 && slot <= 3) { 
 				write_u1(out,ISTORE_0 + (4*typeOffset(type)) + slot); 
+			} else if(slot > 255) {
+				// slots beyond 255 require the wide prefix
+				write_u1(out,WIDE);
+				write_u1(out,ISTORE + typeOffset(type));
+				write_u2(out,slot);
 			} else {
 				write_u1(out,ISTORE + typeOffset(type));
 				write_u1(out,slot);
@@ -157,6 +162,11 @@ public abstract class Bytecode {
 			ByteArrayOutputStream out = new ByteArrayOutputStream();					
 			if(slot >= 0 && slot <= 3) { 
 				write_u1(out,ILOAD_0 + (4*typeOffset(type)) + slot); 
+			} else if(slot > 255) {
+				// slots beyond 255 require the wide prefix
+				write_u1(out,WIDE);
+				write_u1(out,ILOAD + typeOffset(type));
+				write_u2(out,slot);
 			} else {
 				write_u1(out,ILOAD + typeOffset(type));
 				write_u1(out,slot);
@@ -24,8 +24,9 @@
 // SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package wyjvm.util;
 
-import java.util.List;
+import java.util.*;
 
+import wybs.util.Pair;
 import wyjvm.attributes.Code;
 import wyjvm.attributes.StackMapTable;
 import wyjvm.lang.Bytecode;
@@ -72,9 +73,16 @@ import wyjvm.util.dfa.ForwardFlowAnalysis;
  * </p>
  * 
  * <p>
- * <b>NOTE:</b> this analysis currently has some problems dealing with wide
- * types (i.e. long or double). This is because it does not correctly model the
- * stack (which in their case requires two slots per item).
+ * Any bytecodes found to be unreachable are replaced with <code>nop</code>s
+ * followed by an <code>athrow</code>, and removed from the range of any
+ * exception handler. This is necessary since a <code>StackMapTable</code>
+ * cannot otherwise describe them.
+ * </p>
+ * 
+ * <p>
+ * <b>NOTE:</b> wide types (i.e. long or double) occupy only one item on the
+ * modelled stack, as they do in a <code>StackMapTable</code>. Therefore, the
+ * checks on the maximum stack height are only approximate in their presence.
  * </p>
  * 
  * @author David J. Pearce
@@ -83,6 +91,25 @@ import wyjvm.util.dfa.ForwardFlowAnalysis;
 public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 	private ClassFile.Method method; // currently being analysed
 	
+	/**
+	 * Used to determine the class hierarchy when joining class types.
+	 */
+	private final ClassLoader loader;
+	
+	/**
+	 * Caches classes loaded when joining class types, where null indicates
+	 * the class could not be loaded.
+	 */
+	private final HashMap<String,Class<?>> classes = new HashMap<String,Class<?>>();
+	
+	public TypeAnalysis() {
+		this(TypeAnalysis.class.getClassLoader());
+	}
+	
+	public TypeAnalysis(ClassLoader loader) {
+		this.loader = loader;
+	}
+	
 	/**
 	 * Apply the analysis to every method in a classfile, creating the necessary
 	 * <code>StackMapTable</code> attributes.
@@ -91,8 +118,12 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 	 */
 	public void apply(ClassFile cf) {
 		for (ClassFile.Method method : cf.methods()) {
-			Store[] stores = apply(method);
-			addStackMapTable(method,stores);
+			Code attr = method.attribute(Code.class);
+			if (attr != null) {
+				Store[] stores = apply(method);
+				eliminateDeadCode(attr, stores);
+				addStackMapTable(method, stores);
+			}
 		}
 	}
 	
@@ -117,19 +148,125 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 		if(existing != null) {
 			attr.attributes().remove(existing);
 		}
+		// First, identify those bytecodes which require a frame. These are the
+		// targets of branches and exception handlers, and those following an
+		// unconditional branch. Likewise, a conditional branch may be written
+		// as a jump over a goto_w and, hence, its successor also requires a
+		// frame.
+		List<Bytecode> bytecodes = attr.bytecodes();
+		HashMap<String,Integer> labels = new HashMap<String,Integer>();
+		for (int i = 0; i != bytecodes.size(); ++i) {
+			Bytecode b = bytecodes.get(i);
+			if (b instanceof Bytecode.Label) {
+				labels.put(((Bytecode.Label) b).name, i);
+			}
+		}
+		boolean[] required = new boolean[bytecodes.size() + 1];
+		for (Code.Handler handler : attr.handlers()) {
+			required[labels.get(handler.label)] = true;
+		}
+		for (int i = 0; i != bytecodes.size(); ++i) {
+			Bytecode b = bytecodes.get(i);
+			if (b instanceof Bytecode.Branch) {
+				required[labels.get(((Bytecode.Branch) b).label)] = true;
+				required[i + 1] = true;
+			} else if (b instanceof Bytecode.Switch) {
+				Bytecode.Switch sw = (Bytecode.Switch) b;
+				for (Pair<Integer, String> c : sw.cases) {
+					required[labels.get(c.second())] = true;
+				}
+				required[labels.get(sw.defaultLabel)] = true;
+				required[i + 1] = true;
+			} else if (b instanceof Bytecode.Return
+					|| b instanceof Bytecode.Throw) {
+				required[i + 1] = true;
+			}
+		}
+		// Second, construct the frames. Labels occupy no space and, hence,
+		// each frame is placed on the first bytecode following its label(s).
 		StackMapTable.Frame[] frames = new StackMapTable.Frame[stores.length];
 		for (int i = 0; i != frames.length; ++i) {
-			Store store = stores[i];
+			if (!required[i]) {
+				continue;
+			}
+			int j = i;
+			while (j < bytecodes.size()
+					&& bytecodes.get(j) instanceof Bytecode.Label) {
+				j = j + 1;
+			}
+			if (j == bytecodes.size()) {
+				continue;
+			}
+			Store store = stores[j];
 			if(store != null) {
-				frames[i] = new StackMapTable.Frame(store.maxLocals, store.stack - store.maxLocals,
+				frames[j] = new StackMapTable.Frame(store.maxLocals, store.stack - store.maxLocals,
 						store.types);
 			} else {
-				// dead code
+				// dead code, which has been replaced by nops and an athrow.
+				frames[j] = new StackMapTable.Frame(0, 1,
+						new JvmType[] { JvmTypes.JAVA_LANG_THROWABLE });
 			}
 		}
 		attr.attributes().add(new StackMapTable(frames));
 	}
 	
+	/**
+	 * Replace every unreachable bytecode (i.e. one for which no store was
+	 * determined) with a nop, except the last of each sequence which is
+	 * replaced with an athrow. The bytecodes are replaced, rather than
+	 * removed, so that the indices held by attributes remain valid.
+	 * Unreachable bytecodes are also removed from the ranges covered by
+	 * exception handlers.
+	 * 
+	 * @param attr
+	 * @param stores
+	 */
+	protected void eliminateDeadCode(Code attr, Store[] stores) {
+		List<Bytecode> bytecodes = attr.bytecodes();
+		int last = -1;
+		for (int i = 0; i != bytecodes.size(); ++i) {
+			if (stores[i] != null) {
+				if (last >= 0) {
+					bytecodes.set(last, new Bytecode.Throw());
+					last = -1;
+				}
+			} else if (!(bytecodes.get(i) instanceof Bytecode.Label)) {
+				bytecodes.set(i, new Bytecode.Nop());
+				last = i;
+			}
+		}
+		if (last >= 0) {
+			bytecodes.set(last, new Bytecode.Throw());
+		}
+		
+		// Now, split the ranges of exception handlers around unreachable
+		// bytecodes. Ranges which cover no live bytecodes are dropped.
+		ArrayList<Code.Handler> handlers = new ArrayList<Code.Handler>();
+		for (Code.Handler handler : attr.handlers()) {
+			int start = -1;
+			boolean empty = true;
+			for (int i = handler.start; i <= handler.end; ++i) {
+				boolean live = i < handler.end && stores[i] != null;
+				if (live && start < 0) {
+					start = i;
+					empty = true;
+				}
+				if (live && !(bytecodes.get(i) instanceof Bytecode.Label)) {
+					empty = false;
+				}
+				if (!live && start >= 0) {
+					if (!empty) {
+						handlers.add(new Code.Handler(start, i, handler.label,
+								handler.exception));
+					}
+					start = -1;
+				}
+			}
+		}
+		attr.handlers().clear();
+		attr.handlers().addAll(handlers);
+	}
+	
 	@Override
 	public Store[] initialise(Code attr, Method method) {	
 		// First, create the initial store from the parameter types.
@@ -140,6 +277,7 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 			types[index] = normalise(t);
 			if (t instanceof JvmType.Long || t instanceof JvmType.Double) {
 				// for some reason, longs and doubles occupy two slots.
+				types[index + 1] = JvmTypes.T_VOID;
 				index = index + 2;
 			} else {
 				index = index + 1;
@@ -163,6 +301,18 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 		JvmType type = store.pop();
 		checkIsSubtype(normalise(code.type),type,index,orig);
 		store.set(code.slot,type);
+		// a wide type also occupies the following slot, whilst overwriting
+		// the second slot of a wide type invalidates it.
+		if (type instanceof JvmType.Long || type instanceof JvmType.Double) {
+			store.set(code.slot + 1, JvmTypes.T_VOID);
+		}
+		if (code.slot > 0) {
+			JvmType previous = store.get(code.slot - 1);
+			if (previous instanceof JvmType.Long
+					|| previous instanceof JvmType.Double) {
+				store.set(code.slot - 1, JvmTypes.T_VOID);
+			}
+		}
 		return store; 
 	}
 
@@ -378,7 +528,7 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 		store = store.clone();
 		checkMinStack(1,index,orig);
 		JvmType type = store.pop();
-		if(type instanceof JvmType.Array) {
+		if(!(type instanceof JvmType.Array)) {
 			throw new VerificationException(method, index, orig,
 					"arraylength requires array type, found " + type);
 		}
@@ -521,12 +671,32 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 		checkMinStack(2,index,orig);
 		JvmType lhs = store.pop();
 		JvmType rhs = store.pop();
-		checkIsSubtype(JvmTypes.T_LONG,lhs,index,orig);
-		checkIsSubtype(JvmTypes.T_LONG,rhs,index,orig);
+		checkIsSubtype(code.type,lhs,index,orig);
+		checkIsSubtype(code.type,rhs,index,orig);
 		store.push(JvmTypes.T_INT);
 		return store;
 	}
 
+	@Override
+	public Store transfer(int index, Bytecode.Switch code, Store store) {
+		Store orig = store;
+		store = store.clone();
+		checkMinStack(1,index,orig);
+		JvmType type = store.pop();
+		checkIsSubtype(JvmTypes.T_INT, type, index, orig);
+		return store;
+	}
+	
+	@Override
+	public Store transfer(int index, Code.Handler handler, Store store) {
+		// the handler is entered with the same local variables, and only the
+		// thrown exception on the stack.
+		store = store.clone();
+		store.stack = store.maxLocals;
+		store.push(handler.exception);
+		return store;
+	}
+	
 	@Override
 	public Store transfer(int index, Nop code, Store store) {
 		// does what it says on the tin ;)
@@ -560,6 +730,17 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 	}
 
 
+	@Override
+	protected void merge(int index, Store store, HashSet<Integer> worklist,
+			Store[] stores) {
+		// Stores are updated in place when merged and, hence, must not be
+		// shared between bytecodes.
+		if (stores[index] == null) {
+			store = store.clone();
+		}
+		super.merge(index, store, worklist, stores);
+	}
+	
 	@Override
 	public boolean merge(int index, Store original, Store update) {
 		if (original.stack != update.stack) {
@@ -572,9 +753,11 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 		boolean changed = false;		
 		for(int i=0;i!=original.stack;++i) {
 			JvmType ot = original_types[i];
-			JvmType ut = update_types[i];
-			changed |= !isSubtype(ot,ut);
-			original_types[i] = join(ot,ut);
+			JvmType jt = join(ot,update_types[i]);
+			if(!jt.equals(ot)) {
+				original_types[i] = jt;
+				changed = true;
+			}
 		}
 		
 		return changed;
@@ -583,6 +766,12 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 	protected JvmType join(JvmType t1, JvmType t2) {
 		if (t1.equals(t2)) {
 			return t1;
+		} else if (t1 instanceof JvmType.Null
+				&& t2 instanceof JvmType.Reference) {
+			return t2;
+		} else if (t2 instanceof JvmType.Null
+				&& t1 instanceof JvmType.Reference) {
+			return t1;
 		} else if (t1 instanceof JvmType.Array && t2 instanceof JvmType.Array) {
 			JvmType.Array a1 = (JvmType.Array) t1;
 			JvmType.Array a2 = (JvmType.Array) t2;
@@ -590,15 +779,66 @@ public class TypeAnalysis extends ForwardFlowAnalysis<TypeAnalysis.Store>{
 			if (a1.element().equals(a2.element())) {
 				return a1;
 			}
+			return JvmTypes.JAVA_LANG_OBJECT;
+		} else if (t1 instanceof JvmType.Clazz && t2 instanceof JvmType.Clazz) {
+			return join((JvmType.Clazz) t1, (JvmType.Clazz) t2);
 		} else if (t1 instanceof JvmType.Reference
 				&& t2 instanceof JvmType.Reference) {
-			// FIXME: could do a lot better here.
 			return JvmTypes.JAVA_LANG_OBJECT;
 		}
 
 		return JvmTypes.T_VOID;
 	}
 	
+	/**
+	 * Determine the least common superclass of two class types. Interfaces are
+	 * ignored here, since the verifier treats them as equivalent to
+	 * <code>java.lang.Object</code>. Likewise, if either class cannot be
+	 * loaded, then <code>java.lang.Object</code> is returned.
+	 * 
+	 * @param t1
+	 * @param t2
+	 * @return
+	 */
+	protected JvmType join(JvmType.Clazz t1, JvmType.Clazz t2) {
+		Class<?> c1 = load(t1);
+		Class<?> c2 = load(t2);
+		if (c1 == null || c2 == null || c1.isInterface() || c2.isInterface()) {
+			return JvmTypes.JAVA_LANG_OBJECT;
+		} else if (c1 == c2 || c1.isAssignableFrom(c2)) {
+			return t1;
+		} else if (c2.isAssignableFrom(c1)) {
+			return t2;
+		}
+		Class<?> c = c1.getSuperclass();
+		while (!c.isAssignableFrom(c2)) {
+			c = c.getSuperclass();
+		}
+		String name = c.getName();
+		int dot = name.lastIndexOf('.');
+		String pkg = dot < 0 ? "" : name.substring(0, dot);
+		return new JvmType.Clazz(pkg, name.substring(dot + 1).split("\\$"));
+	}
+	
+	private Class<?> load(JvmType.Clazz type) {
+		String descriptor = ClassFile.descriptor(type, false);
+		String name = descriptor.substring(1, descriptor.length() - 1)
+				.replace('/', '.');
+		if (classes.containsKey(name)) {
+			return classes.get(name);
+		}
+		Class<?> c;
+		try {
+			c = Class.forName(name, false, loader);
+		} catch (ClassNotFoundException e) {
+			c = null;
+		} catch (LinkageError e) {
+			c = null;
+		}
+		classes.put(name, c);
+		return c;
+	}
+	
 
 	/**
 	 * Convert types into their stack based representation.
@@ -25,6 +25,7 @@
 
 package wyjvm.util.dfa;
 
+import wybs.util.Pair;
 import wyjvm.attributes.Code;
 import wyjvm.lang.*;
 
@@ -77,6 +78,15 @@ public abstract class ForwardFlowAnalysis<T> {
 			Bytecode bytecode = bytecodes.get(index);
 			T store = stores[index];
 			
+			// Any exception handler covering this bytecode may be entered with
+			// the incoming store.
+			for (Code.Handler handler : attr.handlers()) {
+				if (handler.start <= index && index < handler.end) {
+					merge(labels.get(handler.label),
+							transfer(index, handler, store), worklist, stores);
+				}
+			}
+			
 			if(bytecode instanceof Bytecode.Label) {
 				// basically, a no-op
 				merge(index+1,store,worklist,stores);
@@ -97,7 +107,12 @@ public abstract class ForwardFlowAnalysis<T> {
 				merge(index+1,falseBranch,worklist,stores);
 				merge(labels.get(i.label),trueBranch,worklist,stores);
 			} else if(bytecode instanceof Bytecode.Switch) {
-				// TODO
+				Bytecode.Switch sw = (Bytecode.Switch) bytecode;
+				store = transfer(index, sw, store);
+				for (Pair<Integer, String> c : sw.cases) {
+					merge(labels.get(c.second()), store, worklist, stores);
+				}
+				merge(labels.get(sw.defaultLabel), store, worklist, stores);
 			} else if(bytecode instanceof Bytecode.Return) {
 				transfer(index,(Bytecode.Return) bytecode,store);
 			} else if(bytecode instanceof Bytecode.Throw) {
@@ -578,6 +593,36 @@ public abstract class ForwardFlowAnalysis<T> {
 	 */
 	public abstract T transfer(int index, Bytecode.MonitorExit code, T store);
 	
+	/**
+	 * Generate an updated a abstract store by apply the abstract effect(s) of
+	 * a switch bytecode to an incoming store. The resulting store holds on
+	 * entry to every case (including the default).
+	 * 
+	 * @param index
+	 *            --- index in bytecode array of bytecode being analysed.
+	 * @param bytecode
+	 *            --- bytecode to be analysed.
+	 * @param store
+	 *            --- incoming abstract store.
+	 * @return
+	 */
+	public abstract T transfer(int index, Bytecode.Switch code, T store);
+	
+	/**
+	 * Generate the abstract store which holds on entry to an exception handler,
+	 * given the store holding immediately before a bytecode covered by that
+	 * handler.
+	 * 
+	 * @param index
+	 *            --- index in bytecode array of bytecode covered by handler.
+	 * @param handler
+	 *            --- handler being entered.
+	 * @param store
+	 *            --- incoming abstract store.
+	 * @return
+	 */
+	public abstract T transfer(int index, Code.Handler handler, T store);
+	
 	/**
 	 * Generate an updated a abstract store by apply the abstract effect(s) of a
 	 * given bytecode to an incoming store. In this case, the bytecode in
@@ -238,7 +238,7 @@ public class Automata {
 		}
 		return false;
 	}
-	
+
 	/**
 	 * Eliminate any states which are unreachable from a root state between the
 	 * given start and end indices.
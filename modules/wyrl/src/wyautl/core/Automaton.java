@@ -186,6 +186,35 @@ public final class Automaton {
 	 */
 	private int[] roots;
 
+	/**
+	 * If not <code>null</code>, records the index of every state added or
+	 * modified in this automaton. This is used by rewriters to determine which
+	 * states must be reconsidered after a rewrite.
+	 */
+	private BitSet modified;
+
+	/**
+	 * Hash index used by <code>add()</code> to locate an existing state
+	 * equivalent to that being added without scanning the whole automaton.
+	 * Each element holds the first (indexed) state whose hash maps to that
+	 * bucket, or <code>K_VOID</code> if there is none. This is
+	 * <code>null</code> when no index has been built; it is built on demand
+	 * and discarded by operations which move states around.
+	 */
+	private int[] buckets;
+
+	/**
+	 * For each indexed state, the next indexed state in the same bucket, or
+	 * <code>K_VOID</code> if it is the last.
+	 */
+	private int[] chains;
+
+	/**
+	 * For each indexed state, its hash at the point it was indexed. This is
+	 * needed to locate a state's bucket after it has been modified in place.
+	 */
+	private int[] hashes;
+
 	public Automaton() {
 		this.states = new Automaton.State[DEFAULT_NUM_STATES];
 		this.roots = new int[DEFAULT_NUM_ROOTS];
@@ -300,6 +329,7 @@ public final class Automaton {
 	 */
 	public void set(int index, State state) {
 		states[index] = state;
+		changed(index);
 	}
 
 	/**
@@ -339,13 +369,22 @@ public final class Automaton {
 		}
 
 		// Second, check to see whether there already exists an equivalent
-		// state.
-		for (int i = 0; i != nStates; ++i) {
-			State ith = states[i];
-			if (ith != null && ith.equals(state)) {
-				return i; // match
+		// state. Should there be more than one (e.g. because the automaton
+		// is not minimised), then the lowest is chosen.
+		if (buckets == null) {
+			buildIndex();
+		}
+		int hash = hash(state);
+		int match = K_VOID;
+		for (int i = buckets[hash & (buckets.length - 1)]; i != K_VOID; i = chains[i]) {
+			if (hashes[i] == hash && (match == K_VOID || i < match)
+					&& states[i].equals(state)) {
+				match = i;
 			}
 		}
+		if (match != K_VOID) {
+			return match;
+		}
 
 		// Finally, allocate a new state!
 		return internalAdd(state);
@@ -380,7 +419,7 @@ public final class Automaton {
 			for (int i = 0; i != automaton_nStates; ++i) {
 				int index = binding[i];
 				if (index != K_VOID) {
-					states[index].remap(binding);
+					remap(index, binding);
 				}
 			}
 			// map root from automaton space to this space.
@@ -407,6 +446,14 @@ public final class Automaton {
 		this.nStates = other_nstates;
 		this.roots = other_roots;
 		this.nRoots = other_nroots;
+		this.buckets = null;
+		other.buckets = null;
+		if (modified != null) {
+			modified.set(0, nStates);
+		}
+		if (other.modified != null) {
+			other.modified.set(0, other.nStates);
+		}
 	}
 	
 	/**
@@ -443,7 +490,9 @@ public final class Automaton {
 			map[from] = to;
 			for (int i = 0; i < nStates; ++i) {
 				State s = states[i];
-				if(s != null) { s.remap(map); }
+				if(s != null && s.remap(map)) {
+					changed(i);
+				}
 			}
 			// map root markers
 			for (int i = 0; i != nRoots; ++i) {
@@ -487,7 +536,7 @@ public final class Automaton {
 			for (int i = 0; i != initialNumStates; ++i) {
 				int index = binding[i];
 				if (index != K_VOID && i != search) {					
-					states[index].remap(binding);
+					remap(index, binding);
 				}			
 			}		
 			source = binding[source];
@@ -548,7 +597,7 @@ public final class Automaton {
 		for (int i = 0; i != initialNumStates; ++i) {
 			int index = binding[i];
 			if (index != K_VOID && mapping[i] == i) {					
-				states[index].remap(binding);
+				remap(index, binding);
 			}
 		}		
 		source = binding[source];	
@@ -646,6 +695,10 @@ public final class Automaton {
 			//
 			// Automaton debug = Automata.bruteForce(this);
 			
+			// Reordering moves every state, so the index is rebuilt on demand
+			// rather than updated state by state.
+			buckets = null;
+
 			ArrayList<Automata.Morphism> candidates = new ArrayList<Automata.Morphism>(); 
 			for (int i = 0; i != nRoots; ++i) {
 				candidates.add(new Automata.Morphism(nStates, roots[i]));
@@ -695,6 +748,31 @@ public final class Automaton {
 	public int getRoot(int index) {
 		return roots[index];
 	}
+
+	/**
+	 * <p>
+	 * Record the index of every state which is subsequently added to, or
+	 * modified in, this automaton in the given set. Passing <code>null</code>
+	 * stops recording. A state is considered modified when it is replaced,
+	 * when its children are remapped, or when it is eliminated. Operations
+	 * which move states (e.g. <code>compact()</code>) mark every state as
+	 * modified.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> a state is not considered modified simply because one of its
+	 * descendents was modified.
+	 * </p>
+	 * 
+	 * @param modified
+	 *            --- set in which to record modified states, or
+	 *            <code>null</code>.
+	 * @return the set previously used for recording, or <code>null</code>.
+	 */
+	public BitSet track(BitSet modified) {
+		BitSet old = this.modified;
+		this.modified = modified;
+		return old;
+	}
 	
 	private void sanityCheck() {
 		for(int i=0;i!=nStates;++i) {
@@ -1156,7 +1234,7 @@ public final class Automaton {
 		public int hashCode() {
 			int hashCode = kind;
 			for (int i = 0; i != length; ++i) {
-				hashCode ^= children[i];
+				hashCode = (hashCode * 31) + children[i];
 			}
 			return hashCode;
 		}
@@ -1474,10 +1552,15 @@ public final class Automaton {
 		}
 		
 		nStates = j;
+		buckets = null;
 		
 		for(int i=0;i!=nStates;++i) {
 			states[i].remap(binding);
 		}
+		if (modified != null) {
+			// compaction moves states around, so everything is modified
+			modified.set(0, nStates);
+		}
 		for (int i = 0; i != nRoots; ++i) {
 			int root = roots[i];
 			if (root >= 0) {
@@ -1525,11 +1608,12 @@ public final class Automaton {
 				// representative for its equivalence class. Therefore, the
 				// state must now be unreachable.
 				states[i] = null;
+				changed(i);
 			} else if(states[i] != null) {
 				// This state is the unique representative for its equivalence
 				// class. Therefore, retain it whilst remapping all of its
 				// references appropriately. 
-				states[i].remap(binding);
+				remap(i, binding);
 			}
 		}
 
@@ -1555,12 +1639,111 @@ public final class Automaton {
 					: new State[nStates * 2];
 			System.arraycopy(states, 0, nstates, 0, nStates);
 			states = nstates;
+			if (buckets != null) {
+				chains = Arrays.copyOf(chains, nstates.length);
+				hashes = Arrays.copyOf(hashes, nstates.length);
+			}
 		}
 
 		states[nStates] = state;
+		if (modified != null) {
+			modified.set(nStates);
+		}
+		if (buckets != null) {
+			if (nStates >= buckets.length >> 1) {
+				// load factor exceeded, so rebuild with more buckets
+				nStates++;
+				buildIndex();
+				return nStates - 1;
+			}
+			index(nStates);
+		}
 		return nStates++;
 	}
 
+	/**
+	 * Remap the children of a given state, recording it as modified if this
+	 * changes it.
+	 */
+	private void remap(int index, int[] binding) {
+		if (states[index].remap(binding)) {
+			changed(index);
+		}
+	}
+
+	/**
+	 * Record that the state at a given index has been replaced or modified in
+	 * place, updating the hash index accordingly.
+	 */
+	private void changed(int index) {
+		if (modified != null) {
+			modified.set(index);
+		}
+		if (buckets != null) {
+			unindex(index);
+			if (states[index] != null) {
+				index(index);
+			}
+		}
+	}
+
+	/**
+	 * Build the hash index from scratch over all states in the automaton.
+	 */
+	private void buildIndex() {
+		int nBuckets = Integer.highestOneBit(Math.max(nStates, DEFAULT_NUM_STATES)) << 2;
+		buckets = new int[nBuckets];
+		Arrays.fill(buckets, K_VOID);
+		chains = new int[states.length];
+		hashes = new int[states.length];
+		for (int i = 0; i != nStates; ++i) {
+			if (states[i] != null) {
+				index(i);
+			}
+		}
+	}
+
+	/**
+	 * Add the state at a given index into the hash index.
+	 */
+	private void index(int index) {
+		int hash = hash(states[index]);
+		int bucket = hash & (buckets.length - 1);
+		hashes[index] = hash;
+		chains[index] = buckets[bucket];
+		buckets[bucket] = index;
+	}
+
+	/**
+	 * Remove the state at a given index from the hash index (if present). The
+	 * state's bucket is determined from its hash when it was indexed, since it
+	 * may since have been modified in place.
+	 */
+	private void unindex(int index) {
+		int bucket = hashes[index] & (buckets.length - 1);
+		int prev = K_VOID;
+		for (int i = buckets[bucket]; i != K_VOID; i = chains[i]) {
+			if (i == index) {
+				if (prev == K_VOID) {
+					buckets[bucket] = chains[i];
+				} else {
+					chains[prev] = chains[i];
+				}
+				return;
+			}
+			prev = i;
+		}
+	}
+
+	/**
+	 * Spread the hash code of a state, since those of terms and collections
+	 * are built from small state indices.
+	 */
+	private static int hash(State state) {
+		int h = state.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
 	private static int[] sortedRemoveAll(int[] lhs, int lhs_len, int[] rhs,
 			int rhs_len) {
 		boolean[] marks = new boolean[lhs_len];
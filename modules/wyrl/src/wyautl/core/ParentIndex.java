@@ -0,0 +1,420 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyautl.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p>
+ * An index from each state in an automaton to those states which refer to it
+ * (i.e. its parents). This is built once, and then kept up to date as the
+ * automaton is rewritten, using the set of states which the automaton reports
+ * as added or modified (see <code>Automaton.track()</code>). Thus, the
+ * ancestors of a state can be determined without traversing the whole
+ * automaton after every rewrite.
+ * </p>
+ * 
+ * <p>
+ * Entries are never removed eagerly when an edge disappears. Instead, every
+ * entry is checked against the automaton when used, and those which no longer
+ * hold are discarded then. Since a state which gains an edge is always
+ * reported as modified, the index never misses an edge.
+ * </p>
+ * 
+ * <p>
+ * The index also records the children of each state when it was last
+ * indexed. Thus, when a state is modified or removed, those states which may
+ * have become unreachable as a result are known. This allows unreachable
+ * states to be removed without traversing the whole automaton (see
+ * <code>collect()</code>).
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public final class ParentIndex {
+	private final Automaton automaton;
+
+	/**
+	 * The (possible) parents of each state. Only the first
+	 * <code>sizes[i]</code> elements of <code>parents[i]</code> are used.
+	 */
+	private int[][] parents;
+
+	private int[] sizes;
+
+	/**
+	 * The children of each state when it was last indexed, or null if it has
+	 * none (e.g. because it has been removed).
+	 */
+	private int[][] children;
+
+	/**
+	 * States which have lost a parent since the last call to
+	 * <code>collect()</code>, and so may now be unreachable.
+	 */
+	private final BitSet released = new BitSet();
+
+	/**
+	 * States known to be reachable, or not, during a call to
+	 * <code>collect()</code>.
+	 */
+	private final BitSet live = new BitSet(), dead = new BitSet();
+
+	/**
+	 * Temporary space used for traversals.
+	 */
+	private int[] stack, work, visited;
+
+	/**
+	 * Build an index of the parents of every state in a given automaton. This
+	 * takes time linear in the size of the automaton.
+	 * 
+	 * @param automaton
+	 */
+	public ParentIndex(Automaton automaton) {
+		this.automaton = automaton;
+		int nStates = automaton.nStates();
+		this.parents = new int[nStates][];
+		this.sizes = new int[nStates];
+		this.children = new int[nStates][];
+		this.stack = new int[nStates];
+		this.work = new int[nStates];
+		this.visited = new int[nStates];
+		for (int i = 0; i != nStates; ++i) {
+			addEdges(i);
+		}
+	}
+
+	/**
+	 * Record the edges of states which have been added, modified or removed
+	 * since the index was last updated.
+	 * 
+	 * @param modified
+	 *            --- set of states added, modified or removed.
+	 */
+	public void update(BitSet modified) {
+		for (int i = modified.nextSetBit(0); i >= 0; i = modified
+				.nextSetBit(i + 1)) {
+			release(i);
+			addEdges(i);
+		}
+	}
+
+	/**
+	 * Extend a given set of states to include every state from which at least
+	 * one of them is reachable (i.e. their ancestors). This takes time
+	 * proportional to the number of ancestors, rather than the size of the
+	 * automaton.
+	 * 
+	 * @param states
+	 *            --- initially, the set of states to start from. On
+	 *            completion, this also contains all of their ancestors.
+	 */
+	public void addAncestors(BitSet states) {
+		int nStates = automaton.nStates();
+		int size = 0;
+		for (int i = states.nextSetBit(0); i >= 0 && i < nStates; i = states
+				.nextSetBit(i + 1)) {
+			stack = push(stack, size++, i);
+		}
+		while (size > 0) {
+			int child = stack[--size];
+			if (child >= sizes.length) {
+				continue;
+			}
+			int[] ps = parents[child];
+			int n = sizes[child];
+			int j = 0;
+			for (int k = 0; k != n; ++k) {
+				int parent = ps[k];
+				if (hasChild(parent, child)) {
+					ps[j++] = parent;
+					if (!states.get(parent)) {
+						states.set(parent);
+						stack = push(stack, size++, parent);
+					}
+				}
+			}
+			sizes[child] = j; // discard stale entries
+		}
+	}
+
+	/**
+	 * Remove any of the given states which are unreachable from a root state,
+	 * along with any states which become unreachable as a result, or which
+	 * lost a parent when the index was last updated. Whether a state is
+	 * reachable is determined by searching backwards through its ancestors,
+	 * which typically takes time proportional to its depth rather than the
+	 * size of the automaton.
+	 * 
+	 * @param states
+	 *            --- set of states which may be unreachable (e.g. because
+	 *            they were rewritten, or have just been added).
+	 * @param start
+	 *            --- only states at or above this index are removed, although
+	 *            those below which are unreachable are not considered to
+	 *            refer to anything.
+	 */
+	public void collect(BitSet states, int start) {
+		int nStates = automaton.nStates();
+		int size = 0;
+		released.or(states);
+		for (int i = released.nextSetBit(start); i >= 0 && i < nStates; i = released
+				.nextSetBit(i + 1)) {
+			stack = push(stack, size++, i);
+		}
+		released.clear();
+		while (size > 0) {
+			int index = stack[--size];
+			if (index >= nStates || automaton.get(index) == null
+					|| live.get(index) || dead.get(index)) {
+				continue;
+			}
+			int n = search(index);
+			if (n == 0) {
+				continue;
+			}
+			// Every state visited by the search is unreachable.
+			for (int k = 0; k != n; ++k) {
+				int s = visited[k];
+				int[] cs = children[s];
+				if (s >= start) {
+					automaton.set(s, null);
+					children[s] = null;
+				}
+				if (cs != null) {
+					for (int child : cs) {
+						if (child >= start) {
+							stack = push(stack, size++, child);
+						}
+					}
+				}
+			}
+		}
+		live.clear();
+		dead.clear();
+	}
+
+	/**
+	 * Search backwards from a given state for a root state, or for a state
+	 * already known to be reachable. If one is found, the given state is
+	 * reachable and zero is returned. Otherwise, every state visited by the
+	 * search is unreachable, since the search has visited all of their
+	 * parents. In this case, they are recorded as such and stored in
+	 * <code>visited</code>, and their number is returned.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	private int search(int index) {
+		int count = 0;
+		int size = 0;
+		// NOTE: visited states are tentatively marked as unreachable.
+		dead.set(index);
+		visited = push(visited, count++, index);
+		work = push(work, size++, index);
+		while (size > 0) {
+			int child = work[--size];
+			if (isRoot(child)) {
+				return reachable(index, count);
+			} else if (child >= sizes.length) {
+				continue;
+			}
+			int[] ps = parents[child];
+			for (int k = 0; k != sizes[child]; ++k) {
+				int parent = ps[k];
+				if (!hasChild(parent, child) || dead.get(parent)) {
+					continue;
+				} else if (live.get(parent)) {
+					return reachable(index, count);
+				}
+				dead.set(parent);
+				visited = push(visited, count++, parent);
+				work = push(work, size++, parent);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Record that a given state is reachable, after a search from it visited a
+	 * given number of states.
+	 * 
+	 * @param index
+	 * @param count
+	 * @return
+	 */
+	private int reachable(int index, int count) {
+		for (int k = 0; k != count; ++k) {
+			dead.clear(visited[k]);
+		}
+		live.set(index);
+		return 0;
+	}
+
+	private boolean isRoot(int index) {
+		for (int i = 0; i != automaton.nRoots(); ++i) {
+			if (automaton.getRoot(i) == index) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mark the children of a given state, as it was last indexed, as possibly
+	 * having lost a parent.
+	 * 
+	 * @param index
+	 */
+	private void release(int index) {
+		if (index < children.length && children[index] != null) {
+			for (int child : children[index]) {
+				released.set(child);
+			}
+			children[index] = null;
+		}
+	}
+
+	/**
+	 * Record the current edges from a given state.
+	 * 
+	 * @param index
+	 */
+	private void addEdges(int index) {
+		if (index >= automaton.nStates()) {
+			return;
+		}
+		Automaton.State state = automaton.get(index);
+		int[] cs = null;
+		if (state instanceof Automaton.Term) {
+			int child = ((Automaton.Term) state).contents;
+			if (child >= 0) {
+				cs = new int[] { child };
+			}
+		} else if (state instanceof Automaton.Collection) {
+			Automaton.Collection compound = (Automaton.Collection) state;
+			int[] items = compound.children;
+			int n = 0;
+			cs = new int[compound.length];
+			for (int i = 0; i != compound.length; ++i) {
+				if (items[i] >= 0) {
+					cs[n++] = items[i];
+				}
+			}
+			cs = n == cs.length ? cs : Arrays.copyOf(cs, n);
+		}
+		if (cs != null) {
+			if (index >= children.length) {
+				children = Arrays.copyOf(children,
+						Math.max(index + 1, children.length * 2));
+			}
+			children[index] = cs;
+			for (int child : cs) {
+				addEdge(index, child);
+			}
+		}
+	}
+
+	private void addEdge(int parent, int child) {
+		if (child < 0) {
+			return; // virtual states have no parents of interest
+		}
+		if (child >= sizes.length) {
+			int length = Math.max(child + 1, sizes.length * 2);
+			parents = Arrays.copyOf(parents, length);
+			sizes = Arrays.copyOf(sizes, length);
+		}
+		int[] ps = parents[child];
+		int n = sizes[child];
+		if (ps == null) {
+			ps = new int[2];
+			parents[child] = ps;
+		} else if (n > 0 && ps[n - 1] == parent) {
+			return; // common case of a repeated modification
+		} else if (n == ps.length) {
+			n = purge(child);
+			if (n == ps.length) {
+				ps = Arrays.copyOf(ps, n * 2);
+				parents[child] = ps;
+			}
+		}
+		ps[n] = parent;
+		sizes[child] = n + 1;
+	}
+
+	/**
+	 * Remove any stale or duplicate entries for the parents of a given state,
+	 * returning the number which remain.
+	 * 
+	 * @param child
+	 * @return
+	 */
+	private int purge(int child) {
+		int[] ps = parents[child];
+		int n = sizes[child];
+		Arrays.sort(ps, 0, n);
+		int j = 0;
+		for (int k = 0; k != n; ++k) {
+			int parent = ps[k];
+			if ((j == 0 || ps[j - 1] != parent) && hasChild(parent, child)) {
+				ps[j++] = parent;
+			}
+		}
+		sizes[child] = j;
+		return j;
+	}
+
+	/**
+	 * Check whether a given state currently refers to another.
+	 * 
+	 * @param parent
+	 * @param child
+	 * @return
+	 */
+	private boolean hasChild(int parent, int child) {
+		if (parent >= automaton.nStates()) {
+			return false;
+		}
+		Automaton.State state = automaton.get(parent);
+		if (state instanceof Automaton.Term) {
+			return ((Automaton.Term) state).contents == child;
+		} else if (state instanceof Automaton.Collection) {
+			return ((Automaton.Collection) state).contains(child);
+		}
+		return false;
+	}
+
+	private static int[] push(int[] stack, int size, int item) {
+		if (size == stack.length) {
+			stack = Arrays.copyOf(stack, Math.max(4, size * 2));
+		}
+		stack[size] = item;
+		return stack;
+	}
+}
@@ -28,6 +28,16 @@ package wyautl.rw;
 import wyautl.core.Automaton;
 
 public interface RewriteRule {
+
+	/**
+	 * Get the kind of state at which any match of this rule must be rooted.
+	 * This allows a rewriter to avoid probing rules which cannot possibly
+	 * match a given state. If the rule may match states of any kind, then
+	 * <code>Automaton.K_VOID</code> is returned.
+	 * 
+	 * @return
+	 */
+	public int kind();
 	
 	/**
 	 * <p>
@@ -0,0 +1,274 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyautl.rw;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import wyautl.core.Automata;
+import wyautl.core.Automaton;
+import wyautl.core.ParentIndex;
+
+/**
+ * <p>
+ * An implementation of <code>RewriteSystem</code> which avoids repeatedly
+ * probing states that cannot have changed. This maintains a worklist of
+ * <i>dirty</i> states, which initially contains every state. After a
+ * successful reduction, only those states which were modified, along with
+ * their ancestors, are added back onto the worklist. This is sufficient since
+ * a rule matching at a given state depends only on the states reachable from
+ * it. The lowest dirty state is always considered first, meaning reductions
+ * are applied in the same order as for <code>SimpleRewriter</code>.
+ * </p>
+ * 
+ * <p>
+ * The ancestors of modified states are found using a <code>ParentIndex</code>,
+ * which is built once and then kept up to date from the modified states.
+ * Likewise, states which become unreachable after a reduction are found using
+ * the index, rather than by traversing the whole automaton. As a safeguard,
+ * unreachable states are also eliminated by traversal once per round (i.e.
+ * whenever the worklist wraps around to a lower state). Thus, the bookkeeping
+ * for each reduction is proportional to the part of the automaton it
+ * affects.
+ * </p>
+ * 
+ * <p>
+ * Once no further reductions are possible, inference rules are considered.
+ * Each inference is applied to a copy of the automaton, which is then reduced
+ * starting from the states added by the inference. If the result differs from
+ * the original automaton, then it replaces it and the whole automaton is
+ * reduced again (using the worklist). Otherwise, the inference is discarded.
+ * Since every inference may renumber the states of the automaton, the search
+ * for inferences restarts from the first state after each successful one.
+ * </p>
+ * 
+ * <p>
+ * In addition, rules are indexed by the kind of state at which they are
+ * rooted. Thus, only those rules which could possibly match a given state are
+ * probed.
+ * </p>
+ * 
+ * <p><b>NOTE:</b> this is not designed to be used in a concurrent setting.</p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class WorklistRewriter implements RewriteSystem {
+
+	/**
+	 * Inference rules indexed by the kind of state they are rooted at, offset
+	 * by <code>Automaton.K_SET</code> (which is the lowest kind of any state).
+	 * The last entry holds those rules which may be rooted at any kind of
+	 * state, which are also included in every other entry.
+	 */
+	private final InferenceRule[][] inferences;
+
+	/**
+	 * Reduction rules indexed by the kind of state they are rooted at, in the
+	 * same manner as for inference rules.
+	 */
+	private final ReductionRule[][] reductions;
+
+	/**
+	 * Temporary space used for the various automata operations.
+	 */
+	private int[] tmp = null;
+
+	public WorklistRewriter(InferenceRule[] inferences,
+			ReductionRule[] reductions) {
+		this.inferences = index(inferences);
+		this.reductions = index(reductions);
+	}
+
+	public boolean apply(Automaton automaton) {
+		boolean result = reduce(automaton, 0);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			outer: for (int i = 0; i < automaton.nStates(); ++i) {
+				Automaton.State state = automaton.get(i);
+				if (state == null) {
+					continue;
+				}
+				for (InferenceRule ir : rulesFor(inferences, state.kind)) {
+					Activation[] activations = ir.probe(automaton, i);
+					if (activations == null) {
+						continue;
+					}
+					for (Activation a : activations) {
+						if (infer(automaton, a)) {
+							changed = true;
+							break outer;
+						}
+					}
+				}
+			}
+			result |= changed;
+		}
+		return result;
+	}
+
+	/**
+	 * Apply a given inference to a copy of the automaton and, if this produces
+	 * an automaton which (after reduction) differs from the original, replace
+	 * the original with it.
+	 * 
+	 * @param automaton
+	 *            --- automaton to which the inference applies.
+	 * @param activation
+	 *            --- the inference to apply.
+	 * @return
+	 */
+	private boolean infer(Automaton automaton, Activation activation) {
+		Automaton copy = new Automaton(automaton);
+		int start = copy.nStates();
+		if (activation.apply(copy)) {
+			reduce(copy, start);
+			if (!copy.equals(automaton)) {
+				automaton.swap(copy);
+				reduce(automaton, 0);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean reduce(Automaton automaton, int start) {
+		boolean result = false;
+		if (tmp == null || tmp.length < automaton.nStates() * 2) {
+			tmp = new int[automaton.nStates() * 2];
+		}
+		BitSet dirty = new BitSet(automaton.nStates());
+		BitSet modified = new BitSet(automaton.nStates());
+		BitSet tracked = automaton.track(modified);
+		// NOTE: states may have become unreachable before reduction began
+		// (e.g. when an inference was applied), which the parent index
+		// cannot know about.
+		tmp = Automata.eliminateUnreachableStates(automaton, start,
+				automaton.nStates(), tmp);
+		ParentIndex parents = new ParentIndex(automaton);
+		dirty.set(start, automaton.nStates());
+
+		int last = start;
+		for (int i = dirty.nextSetBit(start); i >= 0; i = dirty
+				.nextSetBit(start)) {
+			if (i < last) {
+				// Starting a new round, so eliminate states which became
+				// unreachable during the last one.
+				tmp = Automata.eliminateUnreachableStates(automaton, start,
+						automaton.nStates(), tmp);
+				modified.clear();
+			}
+			last = i;
+			dirty.clear(i);
+			Automaton.State state = automaton.get(i);
+			if (state == null) {
+				continue;
+			}
+			ReductionRule[] rules = rulesFor(reductions, state.kind);
+			boolean changed = false;
+			for (int j = 0; j != rules.length && !changed; ++j) {
+				Activation a = rules[j].probe(automaton, i);
+				if (a != null) {
+					changed = a.apply(automaton);
+				}
+			}
+			// NOTE: states may be added during probing, even when nothing is
+			// rewritten, and their edges must be indexed. Any which are
+			// unreachable (including the rewritten state) are then removed,
+			// since otherwise add() could reuse them without them ever being
+			// reduced.
+			parents.update(modified);
+			if (changed) {
+				// The rewritten state must be reconsidered, since it may have
+				// been chosen as the representative for an equivalent state
+				// during minimisation.
+				modified.set(i);
+			}
+			parents.collect(modified, start);
+			if (changed) {
+				parents.addAncestors(modified);
+				dirty.or(modified);
+				result = true;
+			}
+			modified.clear();
+		}
+
+		automaton.track(tracked);
+		automaton.minimise();
+		// NOTE: compacting removes unreachable states, which would otherwise
+		// be probed for inferences (and, hence, inferred over forever).
+		automaton.compact();
+		return result;
+	}
+
+	/**
+	 * Index a list of rules by the kind of state at which they are rooted, as
+	 * determined by <code>RewriteRule.kind()</code>. The declaration order of
+	 * rules is preserved within each entry.
+	 * 
+	 * @param rules
+	 * @return
+	 */
+	private static <T extends RewriteRule> T[][] index(T[] rules) {
+		int max = Automaton.K_SET;
+		for (T rule : rules) {
+			max = Math.max(max, rule.kind());
+		}
+		T[][] index = (T[][]) Array.newInstance(rules.getClass(), max
+				- Automaton.K_SET + 2);
+		for (int i = 0; i != index.length; ++i) {
+			int kind = i == index.length - 1 ? Automaton.K_VOID : i
+					+ Automaton.K_SET;
+			ArrayList<T> matches = new ArrayList<T>();
+			for (T rule : rules) {
+				if (rule.kind() == kind || rule.kind() == Automaton.K_VOID) {
+					matches.add(rule);
+				}
+			}
+			index[i] = matches.toArray(Arrays.copyOf(rules, 0));
+		}
+		return index;
+	}
+
+	/**
+	 * Determine the rules which could match a state of the given kind.
+	 * 
+	 * @param index
+	 * @param kind
+	 * @return
+	 */
+	private static <T> T[] rulesFor(T[][] index, int kind) {
+		int i = kind - Automaton.K_SET;
+		if (i >= 0 && i < index.length - 1) {
+			return index[i];
+		} else {
+			return index[index.length - 1];
+		}
+	}
+}
@@ -44,6 +44,7 @@ public class Main {
 		int optIndex = 0;
 		boolean verbose = false;
 		boolean newWriter = false;
+		boolean instrument = false;
 		OutputStream fout = System.out;
 		
 		while(optIndex < args.length && args[optIndex].startsWith("-")) {
@@ -54,6 +55,9 @@ public class Main {
 			} else if(arg.equals("-new")) {
 				newWriter = true;
 				optIndex++;
+			} else if(arg.equals("-instrument")) {
+				instrument = true;
+				optIndex++;
 			}
 		}
 		
@@ -71,7 +75,9 @@ public class Main {
 					if(newWriter) {
 						new NewJavaFileWriter(bout).write(sf);
 					} else {
-						new JavaFileWriter(bout).write(sf);
+						JavaFileWriter writer = new JavaFileWriter(bout);
+						writer.setInstrument(instrument);
+						writer.write(sf);
 					}
 				} catch (SyntaxError e) {
 					outputSourceError(e.filename(), e.start(), e.end(),
@@ -51,6 +51,14 @@ public class JavaFileWriter {
 	private PrintWriter out;
 	private HashSet<Integer> typeTests = new HashSet<Integer>();
 	
+	/**
+	 * Determines whether or not the generated rewrite system records the work
+	 * done by each rule in the <code>RewriteProfile</code> of its context.
+	 * This adds a small overhead to every probe of a rule and, hence, is
+	 * disabled by default.
+	 */
+	private boolean instrument = false;
+	
 	public JavaFileWriter(Writer os) {
 		this.out = new PrintWriter(os);
 	}
@@ -59,6 +67,10 @@ public class JavaFileWriter {
 		this.out = new PrintWriter(os);
 	}
 
+	public void setInstrument(boolean flag) {
+		this.instrument = flag;
+	}
+
 	public void write(SpecFile spec) throws IOException {			
 		reset();
 		translate(spec,spec);		
@@ -113,6 +125,10 @@ public class JavaFileWriter {
 	 */
 	protected void reset() {
 		termCounter = 0;
+		termKinds.clear();
+		termNames.clear();
+		ruleIds.clear();
+		ruleNames.clear();
 		typeTests.clear();
 		typeRegister.clear();
 		registeredTypes.clear();
@@ -128,38 +144,74 @@ public class JavaFileWriter {
 		myOut("import wyrl.io.*;");
 		myOut("import wyrl.core.*;");
 		myOut("import wyrl.util.Runtime;");
+		myOut("import wyrl.util.RewriteContext;");
+		myOut("import wyrl.util.RewriteProfile;");
 		myOut("import static wyrl.util.Runtime.*;");
 		myOut();
 	}
 	
 	public void writeReduceDispatch(SpecFile sf) {
 		myOut(1, "public static boolean reduce(Automaton automaton, int start) {");
+		myOut(2, "return reduce(automaton,start,new RewriteContext(MAX_STEPS));");
+		myOut(1, "}");
+		myOut();
+		// NOTE: rather than rescanning every state after each successful
+		// rewrite, we maintain a worklist of "dirty" states. Initially, every
+		// state is dirty. After a rewrite, only those states which were
+		// modified and their ancestors (whose matches may depend upon them)
+		// become dirty again. As before, the lowest dirty state is always
+		// considered first. The ancestors, and any states which become
+		// unreachable, are found using a parent index which is updated from
+		// the modified states rather than rebuilt. As a safeguard, unreachable
+		// states are also eliminated by traversal once per round (i.e.
+		// whenever the worklist wraps around to a lower state).
+		myOut(1, "public static boolean reduce(Automaton automaton, int start, RewriteContext context) {");
 		myOut(2, "boolean result = false;");
-		myOut(2, "boolean changed = true;");
 		myOut(2, "int[] tmp = new int[automaton.nStates()*2];");
-		myOut(2, "while(changed) {");		
-		myOut(3, "changed = false;");		
-		myOut(3, "for(int i=start;i<automaton.nStates();++i) {");
-		myOut(4, "if(numSteps++ > MAX_STEPS) { return result; } // bail out");
-		myOut(4, "if(automaton.get(i) == null) { continue; }");
-		int i=0;
-		for(ReduceDecl rw : extractDecls(ReduceDecl.class,sf)) {
-			Type type = rw.pattern.attribute(Attribute.Type.class).type;
-			String mangle = toTypeMangle(type);
-			myOut(4,"");
-			myOut(4, "if(typeof_" + mangle + "(i,automaton)) {");
-			myOut(5, "changed |= reduce_" + mangle + "(i,automaton);");			
-			typeTests.add(register(type));
-			myOut(5, "if(changed) { break; } // reset");
-			myOut(4, "}");
-		}
-		myOut(3,"}");
-		
+		myOut(2, "BitSet dirty = new BitSet(automaton.nStates());");
+		myOut(2, "BitSet modified = new BitSet(automaton.nStates());");
+		myOut(2, "BitSet tracked = automaton.track(modified);");
+		myOut(2, "long[] present = new long[" + kindWords() + "];");
+		// NOTE: states may have become unreachable before reduction began
+		// (e.g. when an inference was applied), which the parent index
+		// cannot know about.
+		myOut(2, "tmp = Automata.eliminateUnreachableStates(automaton,start,automaton.nStates(),tmp);");
+		myOut(2, "ParentIndex parents = new ParentIndex(automaton);");
+		myOut(2, "dirty.set(start,automaton.nStates());");
+		myOut(2, "int last = start;");
+		myOut(2, "for(int i=dirty.nextSetBit(start);i>=0;i=dirty.nextSetBit(start)) {");
+		myOut(3, "if(context.numSteps++ > context.maxSteps || context.expired()) { automaton.track(tracked); return result; } // bail out");
+		myOut(3, "if(i < last) { tmp = Automata.eliminateUnreachableStates(automaton,start,automaton.nStates(),tmp); modified.clear(); } // new round");
+		myOut(3, "last = i;");
+		myOut(3, "dirty.clear(i);");
+		myOut(3, "Automaton.State state = automaton.get(i);");
+		myOut(3, "if(state == null) { continue; }");
+		myOut(3, "boolean changed = false;");
+		myOut(3, "switch(state.kind) {");
+		for (Map.Entry<String, ArrayList<ReduceDecl>> e : groupByKind(
+				extractDecls(ReduceDecl.class, sf)).entrySet()) {
+			writeDispatch(3, e.getKey(), e.getValue());
+		}
+		myOut(3, "}");
+		// NOTE: states may be added during probing, even when nothing is
+		// rewritten, and their edges must be indexed. Any which are
+		// unreachable (including the rewritten state) are then removed,
+		// since otherwise add() could reuse them without them ever being
+		// reduced.
+		myOut(3, "parents.update(modified);");
+		// NOTE: the rewritten state is always reconsidered, since it may
+		// have been chosen as the representative for an equivalent state
+		// during minimisation.
+		myOut(3, "if(changed) { modified.set(i); }");
+		myOut(3, "parents.collect(modified,start);");
 		myOut(3, "if(changed) {");
-		myOut(4, "tmp = Automata.eliminateUnreachableStates(automaton,start,automaton.nStates(),tmp);");
+		myOut(4, "parents.addAncestors(modified);");
+		myOut(4, "dirty.or(modified);");
 		myOut(4, "result = true;");
 		myOut(3, "}");
-		myOut(2,"}");
+		myOut(3, "modified.clear();");
+		myOut(2, "}");
+		myOut(2, "automaton.track(tracked);");
 		myOut(2, "automaton.compact(); // restore invariant");
 		myOut(2, "return result;");
 		myOut(1, "}");
@@ -167,38 +219,468 @@ public class JavaFileWriter {
 
 	public void writeInferenceDispatch(SpecFile sf) {
 		myOut(1, "public static boolean infer(Automaton automaton) {");
-		myOut(2, "reset();");
+		myOut(2, "return infer(automaton,new RewriteContext(MAX_STEPS));");
+		myOut(1, "}");
+		myOut();
+		myOut(1, "public static boolean infer(Automaton automaton, RewriteContext context) {");
 		myOut(2, "boolean result = false;");
 		myOut(2, "boolean changed = true;");
+		myOut(2, "long[] present = new long[" + kindWords() + "];");
 		myOut(2, "automaton.minimise(); // base case for invariant");
 		myOut(2, "automaton.compact();");
-		myOut(2, "reduce(automaton,0);");
+		myOut(2, "reduce(automaton,0,context);");
 		myOut(2, "while(changed) {");
 		myOut(3, "changed = false;");
-		myOut(3, "for(int i=0;i<automaton.nStates();++i) {");
-		myOut(4, "if(numSteps > MAX_STEPS) { return result; } // bail out");
-		myOut(4, "if(automaton.get(i) == null) { continue; }");
-		int i = 0;
-		for(InferDecl rw : extractDecls(InferDecl.class,sf)) {
-			Type type = rw.pattern.attribute(Attribute.Type.class).type;
-			String mangle = toTypeMangle(type);
-			myOut(4,"");
-			myOut(4, "if(typeof_" + mangle + "(i,automaton) &&");
-			myOut(5, "infer_" + mangle + "(i,automaton)) {");
-			typeTests.add(register(type));
-			myOut(5, "changed = true; break; // reset");			
-			myOut(4, "}");
-		}
-		myOut(3,"}");
+		myOut(3, "outer: for(int i=0;i<automaton.nStates();++i) {");
+		myOut(4, "if(context.exhausted()) { return result; } // bail out");
+		myOut(4, "Automaton.State state = automaton.get(i);");
+		myOut(4, "if(state == null) { continue; }");
+		myOut(4, "switch(state.kind) {");
+		for (Map.Entry<String, ArrayList<InferDecl>> e : groupByKind(
+				extractDecls(InferDecl.class, sf)).entrySet()) {
+			writeDispatch(4, e.getKey(), e.getValue());
+		}
+		myOut(4, "}");
+		myOut(3, "}");
 		myOut(3, "result |= changed;");
-		myOut(2,"}");
+		myOut(2, "}");
 		myOut(2, "return result;");
 		myOut(1, "}");		
 	}
+
+	/**
+	 * Group rewrite declarations according to the kind of term at the root of
+	 * their pattern. This allows the generated dispatch to consider only those
+	 * rules which could possibly match a given state. The declaration order is
+	 * preserved within each group.
+	 * 
+	 * @param decls
+	 * @return
+	 */
+	private static <T extends RewriteDecl> LinkedHashMap<String, ArrayList<T>> groupByKind(
+			List<T> decls) {
+		LinkedHashMap<String, ArrayList<T>> groups = new LinkedHashMap<String, ArrayList<T>>();
+		for (T decl : decls) {
+			ArrayList<T> group = groups.get(decl.pattern.name);
+			if (group == null) {
+				group = new ArrayList<T>();
+				groups.put(decl.pattern.name, group);
+			}
+			group.add(decl);
+		}
+		return groups;
+	}
 	
+	/**
+	 * <p>
+	 * Write the dispatch for a group of rewrite declarations whose patterns
+	 * share the same kind of term at their root. Rather than testing every
+	 * rule in the group in turn, this generates a simple decision tree which
+	 * first discriminates on the kind of the term's contents. Then, where the
+	 * contents is a collection, the kinds of its children are computed once
+	 * and used to skip rules which cannot possibly match (e.g. because they
+	 * require a child of some kind which is not present). Only rules which
+	 * survive these tests are checked against their full type test, and they
+	 * are always considered in declaration order.
+	 * </p>
+	 * 
+	 * <p>
+	 * The tests generated here are only necessary conditions for a rule to
+	 * match, and are computed conservatively from the type of its pattern.
+	 * Thus, when nothing useful can be determined about a pattern (e.g. its
+	 * contents has type <code>any</code>), the rule is simply considered in
+	 * every branch.
+	 * </p>
+	 * 
+	 * @param indent
+	 *            --- indentation level of the enclosing switch statement.
+	 * @param name
+	 *            --- name of the term at the root of every pattern.
+	 * @param decls
+	 *            --- rewrite declarations in the group, in declaration order.
+	 */
+	private void writeDispatch(int indent, String name,
+			List<? extends RewriteDecl> decls) {
+		ArrayList<Rule> rules = new ArrayList<Rule>();
+		TreeSet<Integer> kinds = new TreeSet<Integer>();
+		for (RewriteDecl decl : decls) {
+			Rule rule = new Rule(decl);
+			rules.add(rule);
+			if (rule.contents != null) {
+				kinds.addAll(rule.contents);
+			}
+		}
+		myOut(indent, "case K_" + name + ": {");
+		if (kinds.isEmpty()) {
+			writeRules(indent + 1, rules, false);
+		} else {
+			// Group the kinds of contents according to which rules could
+			// match them, so that kinds with identical rules share a branch.
+			LinkedHashMap<ArrayList<Rule>, ArrayList<Integer>> branches = new LinkedHashMap<ArrayList<Rule>, ArrayList<Integer>>();
+			for (Integer kind : kinds) {
+				ArrayList<Rule> candidates = new ArrayList<Rule>();
+				for (Rule rule : rules) {
+					if (rule.contents == null || rule.contents.contains(kind)) {
+						candidates.add(rule);
+					}
+				}
+				ArrayList<Integer> labels = branches.get(candidates);
+				if (labels == null) {
+					labels = new ArrayList<Integer>();
+					branches.put(candidates, labels);
+				}
+				labels.add(kind);
+			}
+			ArrayList<Rule> defaults = new ArrayList<Rule>();
+			for (Rule rule : rules) {
+				if (rule.contents == null) {
+					defaults.add(rule);
+				}
+			}
+			myOut(indent + 1, "Automaton.State child = automaton.get(((Automaton.Term) state).contents);");
+			myOut(indent + 1, "switch(child.kind) {");
+			for (Map.Entry<ArrayList<Rule>, ArrayList<Integer>> e : branches
+					.entrySet()) {
+				ArrayList<Integer> labels = e.getValue();
+				boolean collection = true;
+				for (int i = 0; i != labels.size(); ++i) {
+					int kind = labels.get(i);
+					String brace = i == labels.size() - 1 ? " {" : "";
+					myOut(indent + 1, "case " + kindName(kind) + ":" + brace);
+					collection &= kind == Automaton.K_SET
+							|| kind == Automaton.K_BAG
+							|| kind == Automaton.K_LIST;
+				}
+				writeRules(indent + 2, e.getKey(), collection);
+				myOut(indent + 2, "break;");
+				myOut(indent + 1, "}");
+			}
+			if (!defaults.isEmpty()) {
+				myOut(indent + 1, "default:");
+				writeRules(indent + 2, defaults, false);
+			}
+			myOut(indent + 1, "}");
+		}
+		myOut(indent + 1, "break;");
+		myOut(indent, "}");
+	}
+
+	/**
+	 * Write the tests for a sequence of rules which remain candidates in some
+	 * branch of the dispatch. If the contents of the term is known to be a
+	 * collection, then the size of that collection and the kinds of its
+	 * children are used to guard the type test of each rule.
+	 * 
+	 * @param indent
+	 * @param rules
+	 * @param collection
+	 *            --- indicates whether the contents of the term is known to be
+	 *            a collection.
+	 */
+	private void writeRules(int indent, List<Rule> rules, boolean collection) {
+		boolean guarded = false;
+		boolean present = false;
+		if (collection) {
+			for (Rule rule : rules) {
+				guarded |= rule.size > 0 || (rule.size == 0 && !rule.unbounded);
+				present |= !rule.elements.isEmpty();
+			}
+		}
+		if (guarded) {
+			myOut(indent, "Automaton.Collection children = (Automaton.Collection) child;");
+		}
+		if (present) {
+			myOut(indent, "Runtime.kinds(automaton,children,present);");
+		}
+		for (Rule rule : rules) {
+			String guard = "";
+			if (collection && rule.size >= 0) {
+				if (!rule.unbounded || rule.size > 0) {
+					guard = "children.size() "
+							+ (rule.unbounded ? ">= " : "== ") + rule.size
+							+ " && ";
+				}
+				// identical tests arise from elements of the same type
+				LinkedHashSet<String> tests = new LinkedHashSet<String>();
+				for (Set<Integer> kinds : rule.elements) {
+					tests.add(kindTest(kinds));
+				}
+				for (String test : tests) {
+					guard += test + " && ";
+				}
+			}
+			String mangle = toTypeMangle(rule.type);
+			typeTests.add(register(rule.type));
+			if (instrument) {
+				writeInstrumentedRule(indent, rule, guard, mangle);
+			} else if (rule.decl instanceof ReduceDecl) {
+				myOut(indent, "if(" + guard + "typeof_" + mangle + "(i,automaton)) {");
+				myOut(indent + 1, "changed = reduce_" + mangle + "(i,automaton,context);");
+				myOut(indent + 1, "if(changed) { break; } // reset");
+				myOut(indent, "}");
+			} else {
+				myOut(indent, "if(" + guard + "typeof_" + mangle + "(i,automaton) &&");
+				myOut(indent + 2, "infer_" + mangle + "(i,automaton,context)) {");
+				myOut(indent + 1, "changed = true; break outer; // reset");
+				myOut(indent, "}");
+			}
+		}
+	}
+
+	/**
+	 * Write the test for a single rule which records the outcome of each probe
+	 * in the profile of the rewrite context. The time recorded includes that
+	 * of the type test, but not that of the guards which precede it.
+	 * 
+	 * @param indent
+	 * @param rule
+	 * @param guard
+	 *            --- conjunction of guards for the type test (each followed by
+	 *            <code>&&</code>), or the empty string if there are none.
+	 * @param mangle
+	 *            --- name mangle of the rule's type.
+	 */
+	private void writeInstrumentedRule(int indent, Rule rule, String guard,
+			String mangle) {
+		int id = ruleIds.get(rule.decl);
+		if (guard.equals("")) {
+			myOut(indent, "{");
+		} else {
+			myOut(indent, "if(" + guard.substring(0, guard.length() - 4) + ") {");
+		}
+		myOut(indent + 1, "long time = System.nanoTime();");
+		if (rule.decl instanceof ReduceDecl) {
+			myOut(indent + 1, "boolean matched = typeof_" + mangle + "(i,automaton);");
+			myOut(indent + 1, "if(matched) { changed = reduce_" + mangle + "(i,automaton,context); }");
+			myOut(indent + 1, "context.record(" + id + ",matched,changed,0,System.nanoTime() - time);");
+			myOut(indent + 1, "if(changed) { break; } // reset");
+		} else {
+			myOut(indent + 1, "long misinferences = context.numMisinferences;");
+			myOut(indent + 1, "boolean matched = typeof_" + mangle + "(i,automaton);");
+			myOut(indent + 1, "boolean inferred = matched && infer_" + mangle + "(i,automaton,context);");
+			myOut(indent + 1, "context.record(" + id + ",matched,inferred,context.numMisinferences - misinferences,System.nanoTime() - time);");
+			myOut(indent + 1, "if(inferred) { changed = true; break outer; } // reset");
+		}
+		myOut(indent, "}");
+	}
+
+	/**
+	 * Generate a test which holds if a child of any of the given kinds is
+	 * present in a collection. This assumes the kinds of the collection's
+	 * children have already been loaded into the <code>present</code> array,
+	 * as done by <code>Runtime.kinds()</code>.
+	 * 
+	 * @param kinds
+	 * @return
+	 */
+	private String kindTest(Set<Integer> kinds) {
+		long[] masks = new long[kindWords()];
+		for (Integer kind : kinds) {
+			int bit = kind - Automaton.K_FREE;
+			masks[bit >> 6] |= 1L << (bit & 63);
+		}
+		String test = "";
+		int count = 0;
+		for (int i = 0; i != masks.length; ++i) {
+			if (masks[i] != 0) {
+				if (count++ > 0) {
+					test += " || ";
+				}
+				test += "(present[" + i + "] & 0x" + Long.toHexString(masks[i])
+						+ "L) != 0";
+			}
+		}
+		return count == 1 ? test : "(" + test + ")";
+	}
+
+	/**
+	 * Determine the number of words needed to record the set of kinds present
+	 * in a collection, which includes every term declared so far as well as
+	 * the builtin kinds.
+	 * 
+	 * @return
+	 */
+	private int kindWords() {
+		return (termCounter - Automaton.K_FREE + 63) / 64;
+	}
+
+	/**
+	 * Get the name of the constant for a given kind in the generated file.
+	 * 
+	 * @param kind
+	 * @return
+	 */
+	private String kindName(int kind) {
+		switch (kind) {
+		case Automaton.K_BOOL:
+			return "Automaton.K_BOOL";
+		case Automaton.K_INT:
+			return "Automaton.K_INT";
+		case Automaton.K_REAL:
+			return "Automaton.K_REAL";
+		case Automaton.K_STRING:
+			return "Automaton.K_STRING";
+		case Automaton.K_LIST:
+			return "Automaton.K_LIST";
+		case Automaton.K_BAG:
+			return "Automaton.K_BAG";
+		case Automaton.K_SET:
+			return "Automaton.K_SET";
+		default:
+			return "K_" + termNames.get(kind);
+		}
+	}
+
+	/**
+	 * Determine the kinds of state which may be accepted by a given type. This
+	 * is conservative, in that <code>null</code> is returned when this cannot
+	 * be determined (e.g. for <code>any</code> or negated types).
+	 * 
+	 * @param type
+	 * @return
+	 */
+	private Set<Integer> kinds(Type type) {
+		HashSet<Integer> kinds = new HashSet<Integer>();
+		if (kinds(type, new HashSet<String>(), kinds)) {
+			return kinds;
+		} else {
+			return null;
+		}
+	}
+
+	private boolean kinds(Type type, HashSet<String> visited,
+			HashSet<Integer> kinds) {
+		if (type instanceof Type.Ref) {
+			return kinds(((Type.Ref) type).element(), visited, kinds);
+		} else if (type instanceof Type.Nominal) {
+			Type.Nominal nominal = (Type.Nominal) type;
+			// a nominal type already being explored contributes nothing more
+			return !visited.add(nominal.name())
+					|| kinds(nominal.element(), visited, kinds);
+		} else if (type instanceof Type.Or) {
+			for (Type element : ((Type.Or) type).elements()) {
+				if (!kinds(element, visited, kinds)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (type instanceof Type.Term) {
+			Integer kind = termKinds.get(((Type.Term) type).name());
+			if (kind == null) {
+				return false;
+			}
+			kinds.add(kind);
+			return true;
+		} else if (type instanceof Type.Void) {
+			return true;
+		} else if (type instanceof Type.Bool) {
+			kinds.add(Automaton.K_BOOL);
+			return true;
+		} else if (type instanceof Type.Int) {
+			kinds.add(Automaton.K_INT);
+			return true;
+		} else if (type instanceof Type.Real) {
+			kinds.add(Automaton.K_REAL);
+			return true;
+		} else if (type instanceof Type.Strung) {
+			kinds.add(Automaton.K_STRING);
+			return true;
+		} else if (type instanceof Type.Collection) {
+			// NOTE: the type test for a collection does not distinguish
+			// between the different kinds of collection.
+			kinds.add(Automaton.K_SET);
+			kinds.add(Automaton.K_BAG);
+			kinds.add(Automaton.K_LIST);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Strip away any references and nominal types enclosing a given type.
+	 * 
+	 * @param type
+	 * @return
+	 */
+	private static Type underlying(Type type) {
+		for (int i = 0; i != 16; ++i) {
+			if (type instanceof Type.Ref) {
+				type = ((Type.Ref) type).element();
+			} else if (type instanceof Type.Nominal) {
+				type = ((Type.Nominal) type).element();
+			} else {
+				break;
+			}
+		}
+		return type;
+	}
+
+	/**
+	 * Records what is known about a rewrite rule for the purposes of
+	 * dispatch. This is determined from the type of its pattern.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private final class Rule {
+		public final RewriteDecl decl;
+		public final Type type;
+
+		/**
+		 * The kinds of contents the rule's term may have, or <code>null</code>
+		 * if unknown.
+		 */
+		public Set<Integer> contents;
+
+		/**
+		 * The number of fixed children required when the contents is a
+		 * collection, or -1 if unknown.
+		 */
+		public int size = -1;
+
+		/**
+		 * Whether or not the collection may contain additional children.
+		 */
+		public boolean unbounded;
+
+		/**
+		 * The kinds of each fixed child of the collection (where these are
+		 * known).
+		 */
+		public final ArrayList<Set<Integer>> elements = new ArrayList<Set<Integer>>();
+
+		public Rule(RewriteDecl decl) {
+			this.decl = decl;
+			this.type = decl.pattern.attribute(Attribute.Type.class).type;
+			Type root = underlying(type);
+			if (!(root instanceof Type.Term)
+					|| ((Type.Term) root).element() == null) {
+				return;
+			}
+			Type data = ((Type.Term) root).element();
+			contents = kinds(data);
+			data = underlying(data);
+			if (data instanceof Type.Collection) {
+				Type.Collection c = (Type.Collection) data;
+				Type[] children = c.elements();
+				unbounded = c.unbounded();
+				size = unbounded ? children.length - 1 : children.length;
+				for (int i = 0; i != size; ++i) {
+					Set<Integer> kinds = kinds(children[i]);
+					if (kinds != null) {
+						elements.add(kinds);
+					}
+				}
+			}
+		}
+	}
+
 	public void translate(TermDecl decl) {
 		myOut(1, "// term " + decl.type);
 		String name = decl.type.name();
+		termKinds.put(name, termCounter);
+		termNames.put(termCounter, name);
 		myOut(1, "public final static int K_" + name + " = "
 				+ termCounter++ + ";");
 		if (decl.type.element() == null) {
@@ -277,12 +759,20 @@ public class JavaFileWriter {
 	}
 
 	private int termCounter = 0;
+	private HashMap<String, Integer> termKinds = new HashMap<String, Integer>();
+	private HashMap<Integer, String> termNames = new HashMap<Integer, String>();
+
+	// rules are numbered in declaration order, for use in profiles
+	private HashMap<RewriteDecl, Integer> ruleIds = new HashMap<RewriteDecl, Integer>();
+	private ArrayList<String> ruleNames = new ArrayList<String>();
 
 	public void translate(RewriteDecl decl, SpecFile file) {
 		boolean isReduction = decl instanceof ReduceDecl;
 		Pattern.Term pattern = decl.pattern;
 		Type param = pattern.attribute(Attribute.Type.class).type; 
 		myOut(1, "// " + decl.pattern);
+		ruleIds.put(decl, ruleNames.size());
+		ruleNames.add((isReduction ? "reduce " : "infer ") + decl.pattern);
 		
 		
 		if(decl instanceof ReduceDecl) {
@@ -296,10 +786,10 @@ public class JavaFileWriter {
 			// simply "slicing" off any temporary states which were added. This
 			// might equally apply to the inference rules as well.
 			
-			String sig = toTypeMangle(param) + "(" + type2JavaType(param) + " r0, Automaton automaton) {";
+			String sig = toTypeMangle(param) + "(" + type2JavaType(param) + " r0, Automaton automaton, RewriteContext context) {";
 			myOut(1, "public static boolean reduce_" + sig);					
 		} else {
-			String sig = toTypeMangle(param) + "(" + type2JavaType(param) + " r0, Automaton original) {";
+			String sig = toTypeMangle(param) + "(" + type2JavaType(param) + " r0, Automaton original, RewriteContext context) {";
 			myOut(1, "public static boolean infer_" + sig);					
 			myOut(2, "int start = original.nStates();");
 			myOut(2, "Automaton automaton = new Automaton(original);");
@@ -479,17 +969,17 @@ public class JavaFileWriter {
 		// (and any junk states were added).
 		
 		if(isReduce) {						
-			myOut(level+1, "numReductions++;");			
+			myOut(level+1, "context.numReductions++;");			
 			//myOut(level+2, "original.swap(automaton);");			
 			myOut(level+1, "return true;");
 		} else {			
-			myOut(level+1, "reduce(automaton,start);");
+			myOut(level+1, "reduce(automaton,start,context);");
 			myOut(level+1, "if(!automaton.equals(original)) {");			
 			myOut(level+2, "original.swap(automaton);");
-			myOut(level+2, "reduce(original,0);");
-			myOut(level+2, "numInferences++;");			
+			myOut(level+2, "reduce(original,0,context);");
+			myOut(level+2, "context.numInferences++;");			
 			myOut(level+2, "return true;");
-			myOut(level+1, "} else { numMisinferences++; }");
+			myOut(level+1, "} else { context.numMisinferences++; }");
 		}
 		myOut(level,"}");
 		if(decl.condition != null) {
@@ -1138,7 +1628,11 @@ public class JavaFileWriter {
 				"// =========================================================================");
 		myOut();
 		
-		myOut(1, "private final static BitSet visited = new BitSet();");
+		// NOTE: the visited set is thread local since the type tests may be
+		// invoked concurrently on different automata.
+		myOut(1, "private final static ThreadLocal<BitSet> visited = new ThreadLocal<BitSet>() {");
+		myOut(2, "protected BitSet initialValue() { return new BitSet(); }");
+		myOut(1, "};");
 		myOut();
 		
 		HashSet<Integer> worklist = new HashSet<Integer>(typeTests);
@@ -1241,12 +1735,13 @@ public class JavaFileWriter {
 		myOut(3, " return typeof_" + elementMangle + "(automaton.get(index),automaton);");
 		myOut(2, "} else {");
 		myOut(3, "int tmp = index + (automaton.nStates() * " + registeredTypes.get(type) + ");");
-		myOut(3, "if(visited.get(tmp)) {");
+		myOut(3, "BitSet set = visited.get();");
+		myOut(3, "if(set.get(tmp)) {");
 		myOut(4, "return true;");
 		myOut(3, "} else {");
-		myOut(4, "visited.set(tmp);");
+		myOut(4, "set.set(tmp);");
 		myOut(4, "boolean r = typeof_" + elementMangle + "(automaton.get(index),automaton);");
-		myOut(4, "visited.clear(tmp);");
+		myOut(4, "set.clear(tmp);");
 		myOut(4, "return r;");
 		myOut(3, "}");
 		myOut(2, "}");
@@ -1442,18 +1937,23 @@ public class JavaFileWriter {
 	}
 
 	protected void writeStatsInfo() {
-		myOut(1,"public static long MAX_STEPS = 50000;");
-		myOut(1,"public static long numSteps = 0;");
-		myOut(1,"public static long numReductions = 0;");
-		myOut(1,"public static long numInferences = 0;");
-		myOut(1,"public static long numMisinferences = 0;");		
-		
-		myOut(1,"public static void reset() {");
-		myOut(2,"numSteps = 0;");
-		myOut(2,"numReductions = 0;");
-		myOut(2,"numInferences = 0;");
-		myOut(2,"numMisinferences = 0;");				
-		myOut(1,"}");
+		myOut(1,"// default step budget used when no context is supplied");
+		myOut(1,"public static final long MAX_STEPS = 50000;");
+		myOut();
+		myOut(1,"// rules in declaration order, as numbered in profiles");
+		myOut(1,"public static final String[] RULES = {");
+		for(int i=0;i!=ruleNames.size();++i) {
+			String comma = i == ruleNames.size() - 1 ? "" : ",";
+			myOut(2, "\"" + escape(ruleNames.get(i)) + "\"" + comma);
+		}
+		myOut(1,"};");
+		myOut();
+		myOut(1,"// indicates whether rules record their work in a profile");
+		myOut(1,"public static final boolean INSTRUMENTED = " + instrument + ";");
+	}
+
+	private static String escape(String str) {
+		return str.replace("\\", "\\\\").replace("\"", "\\\"");
 	}
 	
 	protected void writeMainMethod() {
@@ -1472,10 +1972,17 @@ public class JavaFileWriter {
 		myOut(3, "Automaton automaton = reader.read();");
 		myOut(3, "System.out.print(\"PARSED: \");");
 		myOut(3, "print(automaton);");
-		myOut(3, "infer(automaton);");
+		myOut(3, "RewriteContext context = new RewriteContext(MAX_STEPS);");
+		if(instrument) {
+			myOut(3, "context.profile = new RewriteProfile(RULES);");
+		}
+		myOut(3, "infer(automaton,context);");
 		myOut(3, "System.out.print(\"REWROTE: \");");
 		myOut(3, "print(automaton);");						
-		myOut(3, "System.out.println(\"(Reductions=\" + numReductions + \", Inferences=\" + numInferences + \", Misinferences=\" + numMisinferences + \", steps = \" + numSteps + \")\");");
+		myOut(3, "System.out.println(context);");
+		if(instrument) {
+			myOut(3, "context.profile.print(System.out);");
+		}
 		myOut(2, "} catch(PrettyAutomataReader.SyntaxError ex) {");
 		myOut(3, "System.err.println(ex.getMessage());");
 		myOut(2, "}");
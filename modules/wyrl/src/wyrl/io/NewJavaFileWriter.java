@@ -1326,7 +1326,7 @@ public class NewJavaFileWriter {
 		myOut(3, "Automaton automaton = reader.read();");
 		myOut(3, "System.out.print(\"PARSED: \");");
 		myOut(3, "print(automaton);");
-		myOut(3, "new SimpleRewriter(inferences,reductions).apply(automaton);");
+		myOut(3, "new WorklistRewriter(inferences,reductions).apply(automaton);");
 		myOut(3, "System.out.print(\"REWROTE: \");");
 		myOut(3, "print(automaton);");						
 		//myOut(3, "System.out.println(\"(Reductions=\" + numReductions + \", Inferences=\" + numInferences + \", Misinferences=\" + numMisinferences + \", steps = \" + numSteps + \")\");");
@@ -46,6 +46,11 @@ public abstract class AbstractRewriteRule implements RewriteRule {
 	 */
 	private final Schema schema;
 
+	/**
+	 * The kind of state at which any match of this rule must be rooted.
+	 */
+	private final int kind;
+
 	/**
 	 * Temporary state used during acceptance
 	 */
@@ -60,6 +65,11 @@ public abstract class AbstractRewriteRule implements RewriteRule {
 		this.schema = schema;
 		this.pattern = pattern;
 		this.state = new Object[pattern.declarations().size()+1];
+		this.kind = kindOf(pattern, schema);
+	}
+
+	public final int kind() {
+		return kind;
 	}
 
 	public final Activation probe(Automaton automaton, int root) {
@@ -257,4 +267,30 @@ public abstract class AbstractRewriteRule implements RewriteRule {
 		
 		return true;
 	}
+
+	/**
+	 * Determine the kind of state at which a given pattern must be rooted, or
+	 * <code>Automaton.K_VOID</code> if it may be rooted at any kind of state.
+	 * 
+	 * @param pattern
+	 * @param schema
+	 * @return
+	 */
+	private static int kindOf(Pattern pattern, Schema schema) {
+		if (pattern instanceof Pattern.Term) {
+			String name = ((Pattern.Term) pattern).name;
+			for (int i = 0; i != schema.size(); ++i) {
+				if (schema.get(i).name.equals(name)) {
+					return i;
+				}
+			}
+		} else if (pattern instanceof Pattern.Set) {
+			return Automaton.K_SET;
+		} else if (pattern instanceof Pattern.Bag) {
+			return Automaton.K_BAG;
+		} else if (pattern instanceof Pattern.List) {
+			return Automaton.K_LIST;
+		}
+		return Automaton.K_VOID;
+	}
 }
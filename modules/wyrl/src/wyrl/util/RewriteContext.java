@@ -0,0 +1,156 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyrl.util;
+
+/**
+ * Holds the state of a single invocation of a generated rewrite system. This
+ * consists of the budget of steps which the rewriter may take before bailing
+ * out, along with counters recording the work actually done. Since every
+ * invocation has its own context, several automata can be rewritten
+ * concurrently using the same generated rewrite system.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public final class RewriteContext {
+
+	/**
+	 * The maximum number of steps which may be taken before the rewriter
+	 * bails out.
+	 */
+	public final long maxSteps;
+
+	/**
+	 * The time (as given by <code>System.currentTimeMillis()</code>) after
+	 * which the rewriter bails out, or zero if there is no such limit.
+	 */
+	public final long deadline;
+
+	/**
+	 * Indicates whether or not the deadline has passed. Once this happens, the
+	 * rewriter bails out at the next opportunity.
+	 */
+	private boolean expired;
+
+	/**
+	 * The number of steps taken so far.
+	 */
+	public long numSteps;
+
+	/**
+	 * The number of reduction rules successfully applied so far.
+	 */
+	public long numReductions;
+
+	/**
+	 * The number of inference rules successfully applied so far.
+	 */
+	public long numInferences;
+
+	/**
+	 * The number of inference rules which matched, but whose application did
+	 * not change the automaton.
+	 */
+	public long numMisinferences;
+
+	/**
+	 * The profile in which the work done by each rule is recorded, or
+	 * <code>null</code> if no profile is being recorded. This is only used by
+	 * rewrite systems generated with instrumentation enabled.
+	 */
+	public RewriteProfile profile;
+
+	public RewriteContext(long maxSteps) {
+		this(maxSteps, 0);
+	}
+
+	/**
+	 * Construct a context with both a step and a time budget.
+	 * 
+	 * @param maxSteps
+	 *            --- maximum number of steps which may be taken.
+	 * @param timeout
+	 *            --- maximum time (in milliseconds) which may be taken, or
+	 *            zero if there is no limit.
+	 */
+	public RewriteContext(long maxSteps, long timeout) {
+		this.maxSteps = maxSteps;
+		this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+	}
+
+	/**
+	 * Check whether or not the time budget for this invocation has been used
+	 * up. Since reading the clock is relatively expensive compared with a
+	 * single step, it is only read once every 1024 steps. Hence, the rewriter
+	 * may run slightly past its deadline.
+	 * 
+	 * @return
+	 */
+	public boolean expired() {
+		if (!expired && deadline != 0 && (numSteps & 1023) == 0) {
+			expired = System.currentTimeMillis() > deadline;
+		}
+		return expired;
+	}
+
+	/**
+	 * Check whether or not either the step or time budget for this invocation
+	 * has been used up.
+	 * 
+	 * @return
+	 */
+	public boolean exhausted() {
+		return numSteps > maxSteps || expired;
+	}
+
+	/**
+	 * Record a single probe of a given rule in the profile (if there is one).
+	 * This is called by instrumented rewrite systems only.
+	 * 
+	 * @param rule
+	 *            --- number of the rule being probed.
+	 * @param activated
+	 *            --- whether or not the rule's type test succeeded.
+	 * @param succeeded
+	 *            --- whether or not the rule rewrote the automaton.
+	 * @param misinferences
+	 *            --- number of misinferences which resulted.
+	 * @param time
+	 *            --- time (in nanoseconds) spent in the rule.
+	 */
+	public void record(int rule, boolean activated, boolean succeeded,
+			long misinferences, long time) {
+		if (profile != null) {
+			profile.record(rule, activated, succeeded, misinferences, time);
+		}
+	}
+
+	public String toString() {
+		return "(Reductions=" + numReductions + ", Inferences="
+				+ numInferences + ", Misinferences=" + numMisinferences
+				+ ", steps = " + numSteps + ")";
+	}
+}
@@ -0,0 +1,173 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyrl.util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * Records how often each rule of a generated rewrite system is considered, and
+ * how much time is spent in it. This is used to tune rewrite specifications,
+ * by identifying those rules which are expensive or rarely successful. For
+ * each rule, the following are recorded:
+ * </p>
+ * <ul>
+ * <li><b>Probes.</b> The number of times the rule was considered for a state
+ * (i.e. its type test was run).</li>
+ * <li><b>Activations.</b> The number of times the type test of the rule
+ * succeeded.</li>
+ * <li><b>Successes.</b> The number of times the rule actually rewrote the
+ * automaton. Activations which are not successes indicate wasted work (e.g.
+ * where a rule's condition did not hold).</li>
+ * <li><b>Misinferences.</b> For inference rules only, the number of times the
+ * rule was applied but did not change the automaton.</li>
+ * <li><b>Time.</b> The total time spent in the rule, including its type test.
+ * For inference rules, this includes time spent in any reductions it
+ * triggers.</li>
+ * </ul>
+ * <p>
+ * A profile is only populated by rewrite systems generated with
+ * instrumentation enabled (see <code>JavaFileWriter</code>).
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public final class RewriteProfile {
+	private final String[] rules;
+	private final long[] probes;
+	private final long[] activations;
+	private final long[] successes;
+	private final long[] misinferences;
+	private final long[] nanos;
+
+	/**
+	 * Construct an empty profile for a given rewrite system.
+	 * 
+	 * @param rules
+	 *            --- descriptions of the rules in the rewrite system, indexed
+	 *            by their rule number.
+	 */
+	public RewriteProfile(String[] rules) {
+		this.rules = rules;
+		this.probes = new long[rules.length];
+		this.activations = new long[rules.length];
+		this.successes = new long[rules.length];
+		this.misinferences = new long[rules.length];
+		this.nanos = new long[rules.length];
+	}
+
+	/**
+	 * Record a single probe of a given rule.
+	 * 
+	 * @param rule
+	 *            --- number of the rule being probed.
+	 * @param activated
+	 *            --- whether or not the rule's type test succeeded.
+	 * @param succeeded
+	 *            --- whether or not the rule rewrote the automaton.
+	 * @param misinferences
+	 *            --- number of misinferences which resulted.
+	 * @param time
+	 *            --- time (in nanoseconds) spent in the rule.
+	 */
+	public void record(int rule, boolean activated, boolean succeeded,
+			long misinferences, long time) {
+		probes[rule]++;
+		if (activated) {
+			activations[rule]++;
+		}
+		if (succeeded) {
+			successes[rule]++;
+		}
+		this.misinferences[rule] += misinferences;
+		nanos[rule] += time;
+	}
+
+	/**
+	 * Add the counts recorded in another profile (for the same rewrite system)
+	 * to this one. This may be safely called by several threads at once.
+	 * 
+	 * @param profile
+	 */
+	public synchronized void add(RewriteProfile profile) {
+		for (int i = 0; i != rules.length; ++i) {
+			probes[i] += profile.probes[i];
+			activations[i] += profile.activations[i];
+			successes[i] += profile.successes[i];
+			misinferences[i] += profile.misinferences[i];
+			nanos[i] += profile.nanos[i];
+		}
+	}
+
+	/**
+	 * Check whether or not any rule has been probed.
+	 * 
+	 * @return
+	 */
+	public synchronized boolean isEmpty() {
+		for (long p : probes) {
+			if (p != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Print this profile as a table, with one row for each rule which was
+	 * probed. Rows are ordered by the time spent in each rule, with the most
+	 * expensive first.
+	 * 
+	 * @param out
+	 */
+	public synchronized void print(PrintStream out) {
+		ArrayList<Integer> rows = new ArrayList<Integer>();
+		for (int i = 0; i != rules.length; ++i) {
+			if (probes[i] != 0) {
+				rows.add(i);
+			}
+		}
+		Collections.sort(rows, new Comparator<Integer>() {
+			public int compare(Integer r1, Integer r2) {
+				long n1 = nanos[r1];
+				long n2 = nanos[r2];
+				return n1 < n2 ? 1 : (n1 == n2 ? 0 : -1);
+			}
+		});
+		out.println(String.format("%10s %12s %10s %14s %10s  %s", "Probes",
+				"Activations", "Successes", "Misinferences", "Time ms",
+				"Rule"));
+		for (int i : rows) {
+			out.println(String.format("%10d %12d %10d %14d %10.2f  %s",
+					probes[i], activations[i], successes[i],
+					misinferences[i], nanos[i] / 1000000.0, rules[i]));
+		}
+	}
+}
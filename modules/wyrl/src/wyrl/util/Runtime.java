@@ -26,6 +26,7 @@
 package wyrl.util;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 
@@ -65,6 +66,30 @@ public class Runtime {
 		return new Automaton.List(children);
 	}
 
+	/**
+	 * Determine the kinds of the children of a given collection. These are
+	 * recorded as a bitset in the given array, where the bit for each kind is
+	 * offset by <code>Automaton.K_FREE</code> (so that builtin kinds are
+	 * included). This is used during dispatch to quickly eliminate rules whose
+	 * patterns require children of a kind which is not present.
+	 *
+	 * @param automaton
+	 *            --- automaton containing the collection.
+	 * @param collection
+	 *            --- collection whose children are examined.
+	 * @param present
+	 *            --- array into which the kinds are written. This must be
+	 *            large enough to hold every kind which may occur.
+	 */
+	public static void kinds(Automaton automaton,
+			Automaton.Collection collection, long[] present) {
+		Arrays.fill(present, 0);
+		for (int i = 0; i != collection.size(); ++i) {
+			int kind = automaton.get(collection.get(i)).kind - Automaton.K_FREE;
+			present[kind >> 6] |= 1L << (kind & 63);
+		}
+	}
+
 	/**
 	 * Construct a type from a string encoding of it. The string must be a
 	 * binary encoding of the underlying automaton which is itself encoded as a
@@ -51,6 +51,7 @@ public class WyrlAntTask extends MatchingTask {
 	private String outputFile;
 	private boolean debug;
 	private boolean newIO;
+	private boolean instrument;
 	
 	public WyrlAntTask() {
 	}
@@ -75,6 +76,10 @@ public class WyrlAntTask extends MatchingTask {
 		this.newIO = flag;
 	}
 	
+	public void setInstrument(boolean flag) {
+		this.instrument = flag;
+	}
+	
 	public void execute() throws BuildException {
 		try {
 			long start = System.currentTimeMillis();
@@ -129,7 +134,9 @@ public class WyrlAntTask extends MatchingTask {
 				if(newIO) {
 					new NewJavaFileWriter(bw).write(sf);
 				} else {
-					new JavaFileWriter(bw).write(sf);
+					JavaFileWriter writer = new JavaFileWriter(bw);
+					writer.setInstrument(instrument);
+					writer.write(sf);
 				}
 				if(debug) {
 					long end = System.currentTimeMillis();